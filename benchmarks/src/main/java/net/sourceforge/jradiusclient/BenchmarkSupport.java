@@ -0,0 +1,94 @@
+package net.sourceforge.jradiusclient;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.packets.PapAccessRequest;
+import net.sourceforge.jradiusclient.packets.StartAccountingRequest;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+
+/**
+ * Released under the LGPL<BR>
+ * Fixtures shared by the benchmarks: typical requests, a signed Access-Accept and a
+ * <code>LoopbackRadiusServer</code> that accepts every request. The benchmarks live in the library's
+ * package so they can reach the package private encode and validation steps directly.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+final class BenchmarkSupport {
+    static final String SHARED_SECRET = "benchmark-secret";
+    /** Session-Timeout 3600, Framed-IP-Address 10.0.0.7, Class "abc", Reply-Message "Welcome" */
+    static final byte[] ACCEPT_ATTRIBUTES = new byte[]{
+        27, 6, 0, 0, 0x0e, 0x10,
+        8, 6, 10, 0, 0, 7,
+        25, 5, 'a', 'b', 'c',
+        18, 9, 'W', 'e', 'l', 'c', 'o', 'm', 'e'
+    };
+    private BenchmarkSupport(){
+    }
+    /**
+     * @return an ACCESS_REQUEST with a user name, a 16 byte password and a few common attributes
+     */
+    static RadiusPacket newAccessRequest() throws InvalidParameterException{
+        RadiusPacket request = new PapAccessRequest("benchmark-user", "benchmark-passwd");
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.NAS_IDENTIFIER, "nas-1".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.NAS_PORT, new byte[]{0, 0, 0, 7}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.CALLING_STATION_ID, "00-11-22-33-44-55".getBytes()));
+        return request;
+    }
+    /**
+     * @return an ACCOUNTING_REQUEST starting a session
+     */
+    static RadiusPacket newAccountingRequest() throws InvalidParameterException{
+        return new StartAccountingRequest("benchmark-user", "session-0001");
+    }
+    /**
+     * builds a response signed with SHARED_SECRET
+     * @param code the response code
+     * @param identifier the identifier of the request
+     * @param request the array holding the request, its authenticator is read from offset + 4
+     * @param offset where the request starts
+     * @param attributes the encoded attributes of the response
+     * @return the response packet
+     */
+    static byte[] signedResponse(final byte code, final byte identifier, final byte[] request,
+            final int offset, final byte[] attributes){
+        byte[] response = new byte[RadiusPacket.RADIUS_HEADER_LENGTH + attributes.length];
+        response[0] = code;
+        response[1] = identifier;
+        response[2] = (byte)(response.length >> 8);
+        response[3] = (byte)(response.length & 0xff);
+        System.arraycopy(attributes, 0, response, RadiusPacket.RADIUS_HEADER_LENGTH, attributes.length);
+        MessageDigest md5 = md5();
+        md5.update(response, 0, 4);
+        md5.update(request, offset + 4, 16);
+        md5.update(attributes);
+        md5.update(SHARED_SECRET.getBytes());
+        System.arraycopy(md5.digest(), 0, response, 4, 16);
+        return response;
+    }
+    private static MessageDigest md5(){
+        try{
+            return MessageDigest.getInstance("MD5");
+        }catch(NoSuchAlgorithmException nsaex){
+            throw new RuntimeException("Could not access MD5 algorithm, fatal error");
+        }
+    }
+    /**
+     * @return a LoopbackRadiusServer that accepts everyone with the attributes of ACCEPT_ATTRIBUTES
+     */
+    static LoopbackRadiusServer newServer() throws RadiusException, InvalidParameterException{
+        LoopbackRadiusServer server = new LoopbackRadiusServer(SHARED_SECRET);
+        List replyAttributes = new ArrayList();
+        for(int pos = 0; pos < ACCEPT_ATTRIBUTES.length; pos += ACCEPT_ATTRIBUTES[pos + 1]){
+            byte[] value = new byte[ACCEPT_ATTRIBUTES[pos + 1] - 2];
+            System.arraycopy(ACCEPT_ATTRIBUTES, pos + 2, value, 0, value.length);
+            replyAttributes.add(new RadiusAttribute(ACCEPT_ATTRIBUTES[pos], value));
+        }
+        server.setReplyAttributes(replyAttributes);
+        return server;
+    }
+}
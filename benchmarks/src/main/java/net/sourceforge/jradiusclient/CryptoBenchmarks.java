@@ -0,0 +1,64 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import net.sourceforge.jradiusclient.util.ChapUtil;
+
+/**
+ * Released under the LGPL<BR>
+ * The MD5 based password hiding: PAP (one MD5 per 16 byte block of the password) and CHAP.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmarks {
+    @Param({"8", "16", "48", "128"})
+    public int passwordLength;
+
+    private RadiusClient client;
+    private byte[] password;
+    private byte[] requestAuthenticator;
+    private byte[] chapChallenge;
+
+    @Setup
+    public void setUp() throws Exception{
+        this.client = new RadiusClient("127.0.0.1", BenchmarkSupport.SHARED_SECRET);
+        this.password = new byte[this.passwordLength];
+        for(int i = 0; i < this.passwordLength; i++){
+            this.password[i] = (byte)('a' + (i % 26));
+        }
+        this.requestAuthenticator = new byte[16];
+        this.chapChallenge = new ChapUtil().getNextChapChallenge(ChapUtil.DEFAULT_CHALLENGE_SIZE);
+    }
+
+    @TearDown
+    public void tearDown(){
+        this.client.close();
+    }
+
+    @Benchmark
+    public byte[] encodePapPassword(){
+        return this.client.encodePapPassword(this.password, this.requestAuthenticator);
+    }
+
+    @Benchmark
+    public byte[] chapEncrypt(){
+        return ChapUtil.chapEncrypt((byte)1, this.password, this.chapChallenge);
+    }
+}
@@ -0,0 +1,102 @@
+package net.sourceforge.jradiusclient;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Encoding and decoding of packets, without any I/O. <code>encode</code> and
+ * <code>encodeRequest</code> cover what used to be composeRadiusPacket, <code>checkResponse</code>
+ * covers checkRadiusPacket (response authenticator and structure) and <code>decodeResponse</code>
+ * adds decoding every attribute of the validated response.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PacketBenchmarks {
+    private RadiusClient client;
+    private RadiusPacket accessRequest;
+    private RadiusPacket accountingRequest;
+    private byte[] requestAuthenticator;
+    private ByteBuffer buffer;
+    private PendingRequest encodedRequest;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception{
+        this.client = new RadiusClient("127.0.0.1", BenchmarkSupport.SHARED_SECRET);
+        this.accessRequest = BenchmarkSupport.newAccessRequest();
+        this.accountingRequest = BenchmarkSupport.newAccountingRequest();
+        this.requestAuthenticator = new byte[16];
+        for(int i = 0; i < 16; i++){
+            this.requestAuthenticator[i] = (byte)(i * 7);
+        }
+        this.buffer = ByteBuffer.allocate(RadiusPacket.MAX_PACKET_LENGTH);
+        this.encodedRequest = new PendingRequest(this.accessRequest, this.client.getAuthPort(),
+                this.requestAuthenticator, 3);
+        this.encodedRequest.setIdentifier((byte)1);
+        this.client.encodeRequest(this.encodedRequest);
+        this.response = BenchmarkSupport.signedResponse((byte)RadiusPacket.ACCESS_ACCEPT, (byte)1,
+                this.encodedRequest.getPacket(), 0, BenchmarkSupport.ACCEPT_ATTRIBUTES);
+    }
+
+    @TearDown
+    public void tearDown(){
+        this.client.close();
+    }
+
+    @Benchmark
+    public byte[] getAttributeBytes() throws RadiusException{
+        return this.accessRequest.getAttributeBytes();
+    }
+
+    @Benchmark
+    public int encode() throws RadiusException{
+        this.buffer.clear();
+        return RadiusPacketEncoder.encode(this.buffer, this.accessRequest, (byte)1, this.requestAuthenticator);
+    }
+
+    @Benchmark
+    public byte[] encodeAccessRequest() throws RadiusException{
+        PendingRequest request = new PendingRequest(this.accessRequest, this.client.getAuthPort(),
+                this.requestAuthenticator, 3);
+        request.setIdentifier((byte)1);
+        this.client.encodeRequest(request);
+        return request.getPacket();
+    }
+
+    @Benchmark
+    public byte[] encodeAccountingRequest() throws RadiusException{
+        PendingRequest request = new PendingRequest(this.accountingRequest, this.client.getAcctPort(), null, 3);
+        request.setIdentifier((byte)1);
+        this.client.encodeRequest(request);//includes the RFC 2866 request authenticator
+        return request.getPacket();
+    }
+
+    @Benchmark
+    public RadiusPacket checkResponse() throws RadiusException{
+        return this.client.checkResponse(this.response, 0, this.response.length, this.encodedRequest);
+    }
+
+    @Benchmark
+    public Object decodeResponse() throws RadiusException{
+        return this.client.checkResponse(this.response, 0, this.response.length, this.encodedRequest).getAttributes();
+    }
+}
@@ -0,0 +1,76 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.packets.PapAccessRequest;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+
+/**
+ * Released under the LGPL<BR>
+ * End to end authentication against a <code>LoopbackRadiusServer</code>, blocking and
+ * with a window of asynchronous requests in flight. Run with <code>-t</code> to add threads,
+ * they share one RadiusClient.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+    private static final int WINDOW = 64;
+    private LoopbackRadiusServer server;
+    private RadiusClient client;
+
+    @Setup
+    public void setUp() throws Exception{
+        this.server = BenchmarkSupport.newServer();
+        this.client = new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(),
+                BenchmarkSupport.SHARED_SECRET, 2000);
+    }
+
+    @TearDown
+    public void tearDown(){
+        this.client.close();
+        this.server.close();
+    }
+
+    @Benchmark
+    public RadiusPacket authenticate() throws Exception{
+        return this.client.authenticate(new PapAccessRequest("benchmark-user", "benchmark-passwd"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WINDOW)
+    public int authenticateAsync() throws Exception{
+        RadiusFuture[] futures = new RadiusFuture[WINDOW];
+        for(int i = 0; i < WINDOW; i++){
+            futures[i] = this.client.authenticateAsync(new PapAccessRequest("benchmark-user", "benchmark-passwd"));
+        }
+        int accepted = 0;
+        for(int i = 0; i < WINDOW; i++){
+            try{
+                if(futures[i].getResponse().getPacketType() == RadiusPacket.ACCESS_ACCEPT){
+                    accepted++;
+                }
+            }catch(RadiusException rex){
+                //counted as a failure by the lower score
+            }
+        }
+        return accepted;
+    }
+}
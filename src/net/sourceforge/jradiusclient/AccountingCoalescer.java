@@ -0,0 +1,199 @@
+package net.sourceforge.jradiusclient;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Sends accounting records one session at a time and merges the Interim-Updates that pile up
+ * behind a slow server. Records are keyed by their ACCT_SESSION_ID: while a record of a session
+ * is waiting on its response the next records of that session are queued, and an Interim-Update
+ * replaces an Interim-Update still queued for the same session, since its counters supersede the
+ * older ones. A Stop also replaces a queued Interim-Update, its counters are the final ones.
+ * Start and Stop records are never dropped, and the records of a session go out in the order
+ * they were submitted. Records of different sessions are sent independently.
+ * <P>
+ * The future returned for a record that was replaced completes with the response to the record
+ * that replaced it.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class AccountingCoalescer {
+    private static final int STATUS_STOP = 2;
+    private static final int STATUS_INTERIM_UPDATE = 3;
+    private final AccountingSender sender;
+    private final Map sessions = new HashMap();
+    private long submitted = 0;
+    private long coalesced = 0;
+    /**
+     * @param client the RadiusClient records are sent with
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if client is null
+     */
+    public AccountingCoalescer(final RadiusClient client) throws InvalidParameterException{
+        this((null == client) ? null : new AccountingSender(){
+            public RadiusFuture send(RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+                return client.accountAsync(accountingRequest);
+            }
+        });
+    }
+    /**
+     * @param pool the RadiusServerPool records are sent with
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if pool is null
+     */
+    public AccountingCoalescer(final RadiusServerPool pool) throws InvalidParameterException{
+        this((null == pool) ? null : new AccountingSender(){
+            public RadiusFuture send(RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+                return pool.accountAsync(accountingRequest);
+            }
+        });
+    }
+    private AccountingCoalescer(final AccountingSender sender) throws InvalidParameterException{
+        if(null == sender){
+            throw new InvalidParameterException("client parameter cannot be null");
+        }
+        this.sender = sender;
+    }
+    /**
+     * Sends the record, or queues it behind the record of the same session in flight
+     * @param accountingRequest the ACCOUNTING_REQUEST, see <code>RadiusClient.account(RadiusPacket)</code>
+     * @return RadiusFuture that completes with the ACCOUNTING_RESPONSE
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the record could not be sent
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the record is invalid
+     */
+    public RadiusFuture submit(final RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+        if(null == accountingRequest){
+            throw new InvalidParameterException("accountingRequest parameter cannot be null");
+        }
+        RadiusClient.checkAccountingRequest(accountingRequest);
+        Object key = ByteBuffer.wrap(accountingRequest.getAttribute(RadiusAttributeValues.ACCT_SESSION_ID).getValue());
+        int statusType = AccountingCoalescer.statusType(accountingRequest);
+        RadiusFuture future = new RadiusFuture(accountingRequest);
+        Entry toSend;
+        synchronized(this){
+            this.submitted++;
+            LinkedList queue = (LinkedList)this.sessions.get(key);
+            if(null != queue){
+                //the first entry is in flight, only a queued entry can be replaced
+                Entry last = (Entry)queue.getLast();
+                if((queue.size() > 1) && (last.statusType == STATUS_INTERIM_UPDATE) &&
+                        ((statusType == STATUS_INTERIM_UPDATE) || (statusType == STATUS_STOP))){
+                    last.request = accountingRequest;
+                    last.statusType = statusType;
+                    last.futures.add(future);
+                    this.coalesced++;
+                }else{
+                    queue.add(new Entry(key, accountingRequest, statusType, future));
+                }
+                return future;
+            }
+            toSend = new Entry(key, accountingRequest, statusType, future);
+            queue = new LinkedList();
+            queue.add(toSend);
+            this.sessions.put(key, queue);
+        }
+        this.send(toSend);
+        return future;
+    }
+    /**
+     * @return the number of records submitted so far
+     */
+    public synchronized long getSubmittedCount(){
+        return this.submitted;
+    }
+    /**
+     * @return the number of records that were replaced by a later record of their session
+     *         instead of being sent
+     */
+    public synchronized long getCoalescedCount(){
+        return this.coalesced;
+    }
+    /**
+     * @return the number of sessions with a record in flight
+     */
+    public synchronized int getActiveSessionCount(){
+        return this.sessions.size();
+    }
+    private void send(Entry entry){
+        while(null != entry){
+            final Entry sending = entry;
+            try{
+                this.sender.send(sending.request).addListener(new RadiusResponseListener(){
+                    public void requestCompleted(RadiusFuture future){
+                        RadiusPacket response = null;
+                        RadiusException failure = null;
+                        try{
+                            response = future.getResponse();
+                        }catch(RadiusException rex){
+                            failure = rex;
+                        }
+                        send(completed(sending, response, failure));
+                    }
+                });
+                return;
+            }catch(RadiusException rex){
+                entry = this.completed(sending, null, rex);
+            }catch(InvalidParameterException ipex){
+                entry = this.completed(sending, null, new RadiusException(ipex.getMessage()));
+            }
+        }
+    }
+    /**
+     * completes the futures of the entry and takes it off its session's queue
+     * @return the next entry of the session to send, or null if there is none
+     */
+    private Entry completed(final Entry entry, final RadiusPacket response, final RadiusException failure){
+        Entry next = null;
+        synchronized(this){
+            LinkedList queue = (LinkedList)this.sessions.get(entry.key);
+            queue.removeFirst();
+            if(queue.isEmpty()){
+                this.sessions.remove(entry.key);
+            }else{
+                next = (Entry)queue.getFirst();
+            }
+        }
+        //no more futures are added to an entry once it is in flight
+        for(Iterator i = entry.futures.iterator(); i.hasNext();){
+            RadiusFuture future = (RadiusFuture)i.next();
+            if(null == failure){
+                future.complete(response);
+            }else{
+                future.fail(failure);
+            }
+        }
+        return next;
+    }
+    /**
+     * @return the ACCT_STATUS_TYPE of the record
+     */
+    private static int statusType(final RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+        byte[] value = accountingRequest.getAttribute(RadiusAttributeValues.ACCT_STATUS_TYPE).getValue();
+        int statusType = 0;
+        for(int i = 0; i < value.length; i++){
+            statusType = (statusType << 8) | (value[i] & 0xff);
+        }
+        return statusType;
+    }
+    /**
+     * a record waiting to be sent or in flight, with the futures of the records it replaced
+     */
+    private static class Entry {
+        private final Object key;
+        private RadiusPacket request;
+        private int statusType;
+        private final List futures = new ArrayList(1);
+        private Entry(final Object key, final RadiusPacket request, final int statusType, final RadiusFuture future){
+            this.key = key;
+            this.request = request;
+            this.statusType = statusType;
+            this.futures.add(future);
+        }
+    }
+}
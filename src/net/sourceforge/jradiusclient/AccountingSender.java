@@ -0,0 +1,21 @@
+package net.sourceforge.jradiusclient;
+
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Where the accounting stages (<code>AccountingSpool</code>, <code>AccountingCoalescer</code>)
+ * send their records, a RadiusClient or a RadiusServerPool.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+interface AccountingSender {
+    /**
+     * @param accountingRequest the ACCOUNTING_REQUEST to send
+     * @return RadiusFuture that completes with the ACCOUNTING_RESPONSE
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusFuture send(RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException;
+}
@@ -0,0 +1,465 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Keeps accounting records on disk until the accounting server has acknowledged them, so
+ * records are not lost while the server is down or the NAS restarts. <code>submit</code> appends
+ * the record to a memory mapped segment file in the spool directory and sends it
+ * asynchronously; the record is marked delivered when its ACCOUNTING_RESPONSE arrives, and
+ * records that got no response are sent again every <code>getRetryInterval()</code>
+ * milliseconds. A spool opened on a directory that holds segments from an earlier run sends
+ * their undelivered records again. Every time a record is sent its ACCT_DELAY_TIME is set to the
+ * seconds it has spent in the spool (plus any delay it was submitted with), as RFC 2866 asks.
+ * <P>
+ * Segments are append only, a record is written before it is made visible by its length, and
+ * segments whose records have all been delivered are deleted. The records are in the operating
+ * system's page cache as soon as <code>submit</code> returns, so they survive the JVM dying;
+ * <code>setForceOnWrite(true)</code> also makes them survive a power failure, at the cost of a
+ * disk write per record. Records can be sent more than once if the spool is stopped between a
+ * response and its record being marked, accounting servers are expected to drop duplicates.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public class AccountingSpool {
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    //4 bytes length of the packet, 1 byte state, 8 bytes time the record was spooled
+    private static final int RECORD_HEADER_LENGTH = 13;
+    private static final byte PENDING = 1;
+    private static final byte DELIVERED = 2;
+    private static final String SEGMENT_PREFIX = "acct-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_RETRY_INTERVAL = 30000;
+    private final AccountingSender sender;
+    private final File directory;
+    private final List segments = new ArrayList();
+    private final LinkedList ready = new LinkedList();
+    private final List failed = new ArrayList();
+    private Segment currentSegment = null;
+    private long nextSegmentNumber = 0;
+    private int pending = 0;
+    private int inFlight = 0;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private boolean forceOnWrite = false;
+    private int retryInterval = DEFAULT_RETRY_INTERVAL;
+    private ScheduledFuture retryTask = null;
+    private boolean closed = false;
+    /**
+     * Opens the spool, sending any undelivered records found in the directory through the client
+     * @param client the RadiusClient records are sent with
+     * @param directory the spool directory, created if it doesn't exist
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if the spool could not be opened
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if a parameter is null
+     */
+    public AccountingSpool(final RadiusClient client, final File directory)
+            throws RadiusException, InvalidParameterException{
+        this(directory, (null == client) ? null : new AccountingSender(){
+            public RadiusFuture send(RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+                return client.accountAsync(accountingRequest);
+            }
+        });
+    }
+    /**
+     * Opens the spool, sending any undelivered records found in the directory through the pool
+     * @param pool the RadiusServerPool records are sent with
+     * @param directory the spool directory, created if it doesn't exist
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if the spool could not be opened
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if a parameter is null
+     */
+    public AccountingSpool(final RadiusServerPool pool, final File directory)
+            throws RadiusException, InvalidParameterException{
+        this(directory, (null == pool) ? null : new AccountingSender(){
+            public RadiusFuture send(RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+                return pool.accountAsync(accountingRequest);
+            }
+        });
+    }
+    private AccountingSpool(final File directory, final AccountingSender sender)
+            throws RadiusException, InvalidParameterException{
+        if(null == sender){
+            throw new InvalidParameterException("client parameter cannot be null");
+        }
+        if(null == directory){
+            throw new InvalidParameterException("directory parameter cannot be null");
+        }
+        this.sender = sender;
+        this.directory = directory;
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new RadiusException("Could not create spool directory " + directory);
+        }
+        this.recover();
+        this.scheduleRetries();
+        this.pump();
+    }
+    /**
+     * Writes the record to the spool and sends it. Once this method returns the record will be
+     * delivered eventually, even if the accounting server is down right now.
+     * @param accountingRequest the ACCOUNTING_REQUEST, see <code>RadiusClient.account(RadiusPacket)</code>
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if the record could not be
+     *              written or the spool is closed
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the record is invalid
+     */
+    public void submit(final RadiusPacket accountingRequest) throws RadiusException, InvalidParameterException{
+        if(null == accountingRequest){
+            throw new InvalidParameterException("accountingRequest parameter cannot be null");
+        }
+        RadiusClient.checkAccountingRequest(accountingRequest);
+        synchronized(this){
+            if(this.closed){
+                throw new RadiusException("AccountingSpool has been closed.");
+            }
+            this.ready.add(this.append(accountingRequest));
+        }
+        this.pump();
+    }
+    /**
+     * @return the number of records not delivered yet
+     */
+    public synchronized int getPendingCount(){
+        return this.pending;
+    }
+    /**
+     * @return the most records waiting on their response at any time
+     */
+    public synchronized int getMaxInFlight(){
+        return this.maxInFlight;
+    }
+    /**
+     * @param maxInFlight the most records waiting on their response at any time, must be greater
+     *                    than zero
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if maxInFlight is not positive
+     */
+    public void setMaxInFlight(final int maxInFlight) throws InvalidParameterException{
+        if(maxInFlight <= 0){
+            throw new InvalidParameterException("maxInFlight must be greater than zero!");
+        }
+        synchronized(this){
+            this.maxInFlight = maxInFlight;
+        }
+        this.pump();
+    }
+    /**
+     * @return the milliseconds between attempts to send records that got no response
+     */
+    public synchronized int getRetryInterval(){
+        return this.retryInterval;
+    }
+    /**
+     * @param retryInterval the milliseconds between attempts to send records that got no
+     *                      response, must be greater than zero
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the interval is not positive
+     */
+    public synchronized void setRetryInterval(final int retryInterval) throws InvalidParameterException{
+        if(retryInterval <= 0){
+            throw new InvalidParameterException("retryInterval must be greater than zero!");
+        }
+        this.retryInterval = retryInterval;
+        if(!this.closed){
+            this.scheduleRetries();
+        }
+    }
+    /**
+     * @return true if every record is forced to disk before <code>submit</code> returns
+     */
+    public synchronized boolean isForceOnWrite(){
+        return this.forceOnWrite;
+    }
+    /**
+     * @param forceOnWrite true to force every record to disk before <code>submit</code> returns
+     */
+    public synchronized void setForceOnWrite(final boolean forceOnWrite){
+        this.forceOnWrite = forceOnWrite;
+    }
+    /**
+     * Forces all records written so far to disk
+     */
+    public synchronized void sync(){
+        for(Iterator i = this.segments.iterator(); i.hasNext();){
+            ((Segment)i.next()).buffer.force();
+        }
+    }
+    /**
+     * Stops sending, forces the spool to disk and closes its files. Records that have not been
+     * delivered stay in the spool for the next time it is opened, a segment whose records have
+     * all been delivered is deleted. The client or pool is not closed.
+     */
+    public void close(){
+        synchronized(this){
+            if(this.closed){
+                return;
+            }
+            this.closed = true;
+            this.retryTask.cancel(false);
+            this.sync();
+            for(Iterator i = this.segments.iterator(); i.hasNext();){
+                Segment segment = (Segment)i.next();
+                if(segment.pending == 0){//only ever the current segment
+                    segment.delete();
+                }else{
+                    segment.close();
+                }
+            }
+        }
+    }
+    /**
+     * opens the segments left in the directory, queueing their undelivered records and deleting
+     * the segments that have none
+     */
+    private void recover() throws RadiusException{
+        String[] names = this.directory.list(new FilenameFilter(){
+            public boolean accept(File dir, String name){
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        long[] numbers = new long[names.length];
+        for(int i = 0; i < names.length; i++){
+            try{
+                numbers[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(),
+                        names[i].length() - SEGMENT_SUFFIX.length()));
+            }catch(NumberFormatException nfex){
+                numbers[i] = -1;
+            }
+        }
+        Arrays.sort(numbers);
+        for(int i = 0; i < numbers.length; i++){
+            if(numbers[i] < 0){
+                continue;
+            }
+            Segment segment = new Segment(this.segmentFile(numbers[i]), false);
+            this.nextSegmentNumber = numbers[i] + 1;
+            int position = 0;
+            while(position + RECORD_HEADER_LENGTH <= segment.buffer.capacity()){
+                int length = segment.buffer.getInt(position);
+                if((length < RadiusPacket.MIN_PACKET_LENGTH) || (length > RadiusPacket.MAX_PACKET_LENGTH)
+                        || (position + RECORD_HEADER_LENGTH + length > segment.buffer.capacity())){
+                    break;//the end of the records, or a record that was never completed
+                }
+                if(segment.buffer.get(position + 4) == PENDING){
+                    this.ready.add(new Record(segment, position));
+                    segment.pending++;
+                    this.pending++;
+                }
+                position += RECORD_HEADER_LENGTH + length;
+            }
+            if(segment.pending == 0){
+                segment.delete();
+            }else{
+                this.segments.add(segment);
+            }
+        }
+    }
+    /**
+     * writes a record at the end of the current segment, starting a new segment if it doesn't fit
+     * @return the pending record
+     */
+    private Record append(final RadiusPacket accountingRequest) throws RadiusException{
+        int length = RadiusPacket.RADIUS_HEADER_LENGTH + accountingRequest.getAttributeLength();
+        if(length > RadiusPacket.MAX_PACKET_LENGTH){
+            throw new RadiusException("Packet too big!");
+        }
+        if((null == this.currentSegment) ||
+                (this.currentSegment.writePosition + RECORD_HEADER_LENGTH + length > SEGMENT_SIZE)){
+            if((null != this.currentSegment) && (this.currentSegment.pending == 0)){
+                //every record was delivered while it was still being written, sent() left it alone
+                this.segments.remove(this.currentSegment);
+                this.currentSegment.delete();
+            }
+            this.currentSegment = new Segment(this.segmentFile(this.nextSegmentNumber), true);
+            this.nextSegmentNumber++;
+            this.segments.add(this.currentSegment);
+        }
+        Segment segment = this.currentSegment;
+        int position = segment.writePosition;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(position + 4, PENDING);
+        buffer.putLong(position + 5, System.currentTimeMillis());
+        //the packet goes straight into the mapping, identifier and authenticator are set when it is sent
+        buffer.position(position + RECORD_HEADER_LENGTH);
+        RadiusPacketEncoder.encode(buffer, accountingRequest, (byte)0, null);
+        //the length makes the record visible, so it is written last
+        buffer.putInt(position, length);
+        if(this.forceOnWrite){
+            buffer.force();
+        }
+        segment.writePosition = position + RECORD_HEADER_LENGTH + length;
+        segment.pending++;
+        this.pending++;
+        return new Record(segment, position);
+    }
+    /**
+     * sends queued records until maxInFlight are in flight
+     */
+    private void pump(){
+        while(true){
+            final Record record;
+            byte[] packet;
+            long spooled;
+            synchronized(this){
+                if(this.closed || (this.inFlight >= this.maxInFlight) || this.ready.isEmpty()){
+                    return;
+                }
+                record = (Record)this.ready.removeFirst();
+                this.inFlight++;
+                ByteBuffer buffer = record.segment.buffer;
+                packet = new byte[buffer.getInt(record.position)];
+                spooled = buffer.getLong(record.position + 5);
+                ByteBuffer source = buffer.duplicate();
+                source.position(record.position + RECORD_HEADER_LENGTH);
+                source.get(packet);
+            }
+            try{
+                this.sender.send(this.delayed(packet, spooled)).addListener(new RadiusResponseListener(){
+                    public void requestCompleted(RadiusFuture future){
+                        boolean delivered;
+                        try{
+                            future.getResponse();
+                            delivered = true;
+                        }catch(RadiusException rex){
+                            delivered = false;
+                        }
+                        sent(record, delivered);
+                    }
+                });
+            }catch(RadiusException rex){
+                //the client is closed or the record is damaged, try again later
+                this.sent(record, false);
+            }catch(InvalidParameterException ipex){
+                //it was checked when it was submitted, so it can't be sent at all
+                this.sent(record, true);
+            }
+        }
+    }
+    /**
+     * builds the request from a spooled record, with its ACCT_DELAY_TIME brought up to date
+     */
+    private RadiusPacket delayed(final byte[] packet, final long spooled) throws RadiusException, InvalidParameterException{
+        RadiusPacketView view = new RadiusPacketView(packet, 0, packet.length);
+        long delay = Math.max(0, (System.currentTimeMillis() - spooled) / 1000);
+        if(view.hasAttribute(RadiusAttributeValues.ACCT_DELAY_TIME)){
+            delay += view.getIntAttribute(RadiusAttributeValues.ACCT_DELAY_TIME) & 0xffffffffL;
+        }
+        RadiusPacket accountingRequest = new RadiusPacket(view);
+        if(delay > 0){
+            int seconds = (int)Math.min(delay, 0xffffffffL);
+            accountingRequest.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_DELAY_TIME,
+                    new byte[]{(byte)(seconds >>> 24), (byte)(seconds >>> 16), (byte)(seconds >>> 8), (byte)seconds}));
+        }
+        return accountingRequest;
+    }
+    /**
+     * a send of the record has ended
+     * @param delivered true if the server acknowledged the record
+     */
+    private void sent(final Record record, final boolean delivered){
+        synchronized(this){
+            this.inFlight--;
+            if(!delivered){
+                this.failed.add(record);
+                return;
+            }
+            Segment segment = record.segment;
+            segment.buffer.put(record.position + 4, DELIVERED);
+            segment.pending--;
+            this.pending--;
+            if((segment.pending == 0) && (segment != this.currentSegment) && !this.closed){
+                this.segments.remove(segment);
+                segment.close();
+                segment.delete();
+            }
+        }
+        this.pump();
+    }
+    /**
+     * queues the records that got no response again
+     */
+    private void retry(){
+        synchronized(this){
+            this.ready.addAll(this.failed);
+            this.failed.clear();
+        }
+        this.pump();
+    }
+    private synchronized void scheduleRetries(){
+        if(null != this.retryTask){
+            this.retryTask.cancel(false);
+        }
+        this.retryTask = RadiusDispatcher.TIMER.scheduleWithFixedDelay(new Runnable(){
+            public void run(){
+                retry();
+            }
+        }, this.retryInterval, this.retryInterval, TimeUnit.MILLISECONDS);
+    }
+    private File segmentFile(final long number){
+        StringBuffer name = new StringBuffer(SEGMENT_PREFIX);
+        String digits = Long.toString(number);
+        for(int i = digits.length(); i < 12; i++){
+            name.append('0');
+        }
+        return new File(this.directory, name.append(digits).append(SEGMENT_SUFFIX).toString());
+    }
+    /**
+     * a record in a segment
+     */
+    private static class Record {
+        private final Segment segment;
+        private final int position;
+        private Record(final Segment segment, final int position){
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+    /**
+     * one segment file and its mapping
+     */
+    private static class Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private int writePosition = 0;
+        private int pending = 0;
+        /**
+         * @param create true to create a new, empty segment
+         */
+        private Segment(final File file, final boolean create) throws RadiusException{
+            this.file = file;
+            try{
+                this.raf = new RandomAccessFile(file, "rw");
+                if(create){
+                    this.raf.setLength(SEGMENT_SIZE);
+                }
+                this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.raf.length());
+            }catch(IOException ioex){
+                throw new RadiusException("Could not open spool segment " + file + ": " + ioex.getMessage());
+            }
+        }
+        private void close(){
+            try{
+                //the mapping stays valid until it is garbage collected
+                this.raf.close();
+            }catch(IOException ioex){
+                //nothing more to lose
+            }
+        }
+        private void delete(){
+            this.close();
+            this.file.delete();
+        }
+    }
+}
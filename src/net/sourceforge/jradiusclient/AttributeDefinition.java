@@ -0,0 +1,222 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Released under the LGPL<BR>
+ * Describes one attribute as a dictionary knows it: its name, its type code and the type of
+ * data its value holds. Vendor-Specific sub-attributes also carry the id of their vendor, the
+ * standard attributes of RFC 2865 and 2866 have a vendor id of 0. Integer attributes can have
+ * named values (the VALUE lines of a dictionary file), values up to 255 are looked up by index.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public final class AttributeDefinition {
+    /** UTF-8 text */
+    public static final int STRING      = 1;
+    /** raw bytes */
+    public static final int OCTETS      = 2;
+    /** 32 bit unsigned integer */
+    public static final int INTEGER     = 3;
+    /** IPv4 address, 4 bytes */
+    public static final int IPADDR      = 4;
+    /** seconds since January 1, 1970 00:00 UTC, 4 bytes */
+    public static final int DATE        = 5;
+    /** IPv6 address, 16 bytes */
+    public static final int IPV6ADDR    = 6;
+    /** IPv6 prefix, a reserved byte, the prefix length and up to 16 bytes of prefix */
+    public static final int IPV6PREFIX  = 7;
+    /** IPv6 interface id, 8 bytes */
+    public static final int IFID        = 8;
+    /** 8 bit unsigned integer */
+    public static final int BYTE        = 9;
+    /** 16 bit unsigned integer */
+    public static final int SHORT       = 10;
+    /** 64 bit unsigned integer */
+    public static final int INTEGER64   = 11;
+    private final String name;
+    private final int vendorId;
+    private final int type;
+    private final int dataType;
+    private String[] valueNames = null;
+    private Map wideValueNames = null;
+    private Map valuesByName = null;
+    /**
+     * @param name the name of the attribute, e.g. "Cisco-AVPair"
+     * @param vendorId the vendor of a Vendor-Specific sub-attribute, 0 for a standard attribute
+     * @param type the type code of the attribute within its vendor
+     * @param dataType one of the data type constants of this class
+     */
+    public AttributeDefinition(final String name, final int vendorId, final int type, final int dataType){
+        this.name = name;
+        this.vendorId = vendorId;
+        this.type = type;
+        this.dataType = dataType;
+    }
+    /**
+     * @return the name of the attribute
+     */
+    public String getName(){
+        return this.name;
+    }
+    /**
+     * @return the vendor id of a Vendor-Specific sub-attribute, 0 for a standard attribute
+     */
+    public int getVendorId(){
+        return this.vendorId;
+    }
+    /**
+     * @return the type code of the attribute
+     */
+    public int getType(){
+        return this.type;
+    }
+    /**
+     * @return the data type of the value, one of the constants of this class
+     */
+    public int getDataType(){
+        return this.dataType;
+    }
+    /**
+     * names a value of this attribute
+     * @param valueName the name of the value, e.g. "Framed-User"
+     * @param value the value
+     */
+    public void addValue(final String valueName, final int value){
+        if((value >= 0) && (value < 256)){
+            if(null == this.valueNames){
+                this.valueNames = new String[256];
+            }
+            this.valueNames[value] = valueName;
+        }else{
+            if(null == this.wideValueNames){
+                this.wideValueNames = new HashMap();
+            }
+            this.wideValueNames.put(Integer.valueOf(value), valueName);
+        }
+        if(null == this.valuesByName){
+            this.valuesByName = new HashMap();
+        }
+        this.valuesByName.put(valueName, Integer.valueOf(value));
+    }
+    /**
+     * @param value a value of this attribute
+     * @return the name of the value, or null if it has none
+     */
+    public String getValueName(final int value){
+        if((value >= 0) && (value < 256)){
+            return (null == this.valueNames) ? null : this.valueNames[value];
+        }
+        return (null == this.wideValueNames) ? null : (String)this.wideValueNames.get(Integer.valueOf(value));
+    }
+    /**
+     * @param valueName the name of a value of this attribute
+     * @return the value, or null if this attribute has no value of that name
+     */
+    public Integer getValue(final String valueName){
+        return (null == this.valuesByName) ? null : (Integer)this.valuesByName.get(valueName);
+    }
+    /**
+     * formats a value of this attribute according to its data type, for logging. Integers are
+     * shown by the name of their value when they have one, values that do not fit the data type
+     * are shown as hex.
+     * @param data the array holding the value
+     * @param offset where the value starts
+     * @param length the length of the value
+     * @return the value as text
+     */
+    public String format(final byte[] data, final int offset, final int length){
+        switch(this.dataType){
+            case STRING:
+                try{
+                    return new String(data, offset, length, "UTF-8");
+                }catch(UnsupportedEncodingException ueex){//every JVM supports UTF-8
+                    throw new RuntimeException(ueex.getMessage());
+                }
+            case INTEGER:
+            case DATE:
+            case BYTE:
+            case SHORT:
+            case INTEGER64:
+                if(length != AttributeDefinition.integerLength(this.dataType)){
+                    break;
+                }
+                long value = 0;
+                for(int i = 0; i < length; i++){
+                    value = (value << 8) | (data[offset + i] & 0xff);
+                }
+                if(this.dataType == DATE){
+                    return new Date(value * 1000).toString();
+                }
+                String valueName = (value > Integer.MAX_VALUE) ? null : this.getValueName((int)value);
+                if(null != valueName){
+                    return valueName;
+                }
+                if(value < 0){//an integer64 over 2^63 - 1
+                    return BigInteger.valueOf(value).add(BigInteger.ONE.shiftLeft(64)).toString();
+                }
+                return Long.toString(value);
+            case IPADDR:
+            case IPV6ADDR:
+            case IPV6PREFIX:
+                return AttributeDefinition.formatAddress(this.dataType, data, offset, length);
+            default:
+                break;
+        }
+        return AttributeDefinition.hex(data, offset, length);
+    }
+    public String toString(){
+        return this.name;
+    }
+    private static int integerLength(final int dataType){
+        switch(dataType){
+            case BYTE:
+                return 1;
+            case SHORT:
+                return 2;
+            case INTEGER64:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+    private static String formatAddress(final int dataType, final byte[] data, final int offset, final int length){
+        int addressLength = (dataType == IPADDR) ? 4 : 16;
+        int prefixLength = -1;
+        int start = offset;
+        byte[] address = new byte[addressLength];
+        if(dataType == IPV6PREFIX){
+            if((length < 2) || (length > 18)){
+                return AttributeDefinition.hex(data, offset, length);
+            }
+            prefixLength = data[offset + 1] & 0xff;
+            start += 2;
+            System.arraycopy(data, start, address, 0, length - 2);
+        }else if(length != addressLength){
+            return AttributeDefinition.hex(data, offset, length);
+        }else{
+            System.arraycopy(data, start, address, 0, length);
+        }
+        try{
+            String text = InetAddress.getByAddress(address).getHostAddress();
+            return (prefixLength < 0) ? text : text + "/" + prefixLength;
+        }catch(UnknownHostException uhex){//only thrown for a wrong length
+            return AttributeDefinition.hex(data, offset, length);
+        }
+    }
+    private static String hex(final byte[] data, final int offset, final int length){
+        StringBuffer text = new StringBuffer(2 + 2 * length);
+        text.append("0x");
+        for(int i = 0; i < length; i++){
+            int b = data[offset + i] & 0xff;
+            text.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,290 @@
+package net.sourceforge.jradiusclient;
+
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+
+/**
+ * Released under the LGPL<BR>
+ * The dictionary built into the library, see <code>RadiusDictionary.getDefault()</code>. The
+ * definitions follow the FreeRADIUS dictionary files for RFC 2865, 2866, 2867, 2868, 2869, 3162,
+ * 4072 and 5176 and for the Cisco, Microsoft (RFC 2548), Juniper and WISPr vendors, written out
+ * as code so no file has to be found and parsed at startup.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+final class DefaultDictionary {
+    private DefaultDictionary(){
+    }
+    /**
+     * @return a new dictionary holding the built in definitions
+     * @throws InvalidParameterException never, the definitions are valid
+     */
+    static RadiusDictionary build() throws InvalidParameterException{
+        RadiusDictionary dictionary = new RadiusDictionary();
+        AttributeDefinition attribute;
+        dictionary.addAttribute("User-Name", 1, AttributeDefinition.STRING);
+        dictionary.addAttribute("User-Password", 2, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("CHAP-Password", 3, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("NAS-IP-Address", 4, AttributeDefinition.IPADDR);
+        dictionary.addAttribute("NAS-Port", 5, AttributeDefinition.INTEGER);
+        attribute = dictionary.addAttribute("Service-Type", 6, AttributeDefinition.INTEGER);
+        attribute.addValue("Login-User", 1);
+        attribute.addValue("Framed-User", 2);
+        attribute.addValue("Callback-Login-User", 3);
+        attribute.addValue("Callback-Framed-User", 4);
+        attribute.addValue("Outbound-User", 5);
+        attribute.addValue("Administrative-User", 6);
+        attribute.addValue("NAS-Prompt-User", 7);
+        attribute.addValue("Authenticate-Only", 8);
+        attribute.addValue("Callback-NAS-Prompt", 9);
+        attribute.addValue("Call-Check", 10);
+        attribute.addValue("Callback-Administrative", 11);
+        attribute.addValue("Authorize-Only", 17);
+        attribute = dictionary.addAttribute("Framed-Protocol", 7, AttributeDefinition.INTEGER);
+        attribute.addValue("PPP", 1);
+        attribute.addValue("SLIP", 2);
+        attribute.addValue("ARAP", 3);
+        attribute.addValue("Gandalf-SLML", 4);
+        attribute.addValue("Xylogics-IPX-SLIP", 5);
+        attribute.addValue("X.75-Synchronous", 6);
+        dictionary.addAttribute("Framed-IP-Address", 8, AttributeDefinition.IPADDR);
+        dictionary.addAttribute("Framed-IP-Netmask", 9, AttributeDefinition.IPADDR);
+        attribute = dictionary.addAttribute("Framed-Routing", 10, AttributeDefinition.INTEGER);
+        attribute.addValue("None", 0);
+        attribute.addValue("Broadcast", 1);
+        attribute.addValue("Listen", 2);
+        attribute.addValue("Broadcast-Listen", 3);
+        dictionary.addAttribute("Filter-Id", 11, AttributeDefinition.STRING);
+        dictionary.addAttribute("Framed-MTU", 12, AttributeDefinition.INTEGER);
+        attribute = dictionary.addAttribute("Framed-Compression", 13, AttributeDefinition.INTEGER);
+        attribute.addValue("None", 0);
+        attribute.addValue("Van-Jacobson-TCP-IP", 1);
+        attribute.addValue("IPX-Header-Compression", 2);
+        attribute.addValue("Stac-LZS", 3);
+        dictionary.addAttribute("Login-IP-Host", 14, AttributeDefinition.IPADDR);
+        attribute = dictionary.addAttribute("Login-Service", 15, AttributeDefinition.INTEGER);
+        attribute.addValue("Telnet", 0);
+        attribute.addValue("Rlogin", 1);
+        attribute.addValue("TCP-Clear", 2);
+        attribute.addValue("PortMaster", 3);
+        attribute.addValue("LAT", 4);
+        attribute.addValue("X25-PAD", 5);
+        attribute.addValue("X25-T3POS", 6);
+        attribute.addValue("TCP-Clear-Quiet", 8);
+        dictionary.addAttribute("Login-TCP-Port", 16, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Reply-Message", 18, AttributeDefinition.STRING);
+        dictionary.addAttribute("Callback-Number", 19, AttributeDefinition.STRING);
+        dictionary.addAttribute("Callback-Id", 20, AttributeDefinition.STRING);
+        dictionary.addAttribute("Framed-Route", 22, AttributeDefinition.STRING);
+        dictionary.addAttribute("Framed-IPX-Network", 23, AttributeDefinition.IPADDR);
+        dictionary.addAttribute("State", 24, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Class", 25, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Vendor-Specific", 26, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Session-Timeout", 27, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Idle-Timeout", 28, AttributeDefinition.INTEGER);
+        attribute = dictionary.addAttribute("Termination-Action", 29, AttributeDefinition.INTEGER);
+        attribute.addValue("Default", 0);
+        attribute.addValue("RADIUS-Request", 1);
+        dictionary.addAttribute("Called-Station-Id", 30, AttributeDefinition.STRING);
+        dictionary.addAttribute("Calling-Station-Id", 31, AttributeDefinition.STRING);
+        dictionary.addAttribute("NAS-Identifier", 32, AttributeDefinition.STRING);
+        dictionary.addAttribute("Proxy-State", 33, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Login-LAT-Service", 34, AttributeDefinition.STRING);
+        dictionary.addAttribute("Login-LAT-Node", 35, AttributeDefinition.STRING);
+        dictionary.addAttribute("Login-LAT-Group", 36, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Framed-AppleTalk-Link", 37, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Framed-AppleTalk-Network", 38, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Framed-AppleTalk-Zone", 39, AttributeDefinition.STRING);
+        attribute = dictionary.addAttribute("Acct-Status-Type", 40, AttributeDefinition.INTEGER);
+        attribute.addValue("Start", 1);
+        attribute.addValue("Stop", 2);
+        attribute.addValue("Interim-Update", 3);
+        attribute.addValue("Accounting-On", 7);
+        attribute.addValue("Accounting-Off", 8);
+        dictionary.addAttribute("Acct-Delay-Time", 41, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Input-Octets", 42, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Output-Octets", 43, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Session-Id", 44, AttributeDefinition.STRING);
+        attribute = dictionary.addAttribute("Acct-Authentic", 45, AttributeDefinition.INTEGER);
+        attribute.addValue("RADIUS", 1);
+        attribute.addValue("Local", 2);
+        attribute.addValue("Remote", 3);
+        dictionary.addAttribute("Acct-Session-Time", 46, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Input-Packets", 47, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Output-Packets", 48, AttributeDefinition.INTEGER);
+        attribute = dictionary.addAttribute("Acct-Terminate-Cause", 49, AttributeDefinition.INTEGER);
+        attribute.addValue("User-Request", 1);
+        attribute.addValue("Lost-Carrier", 2);
+        attribute.addValue("Lost-Service", 3);
+        attribute.addValue("Idle-Timeout", 4);
+        attribute.addValue("Session-Timeout", 5);
+        attribute.addValue("Admin-Reset", 6);
+        attribute.addValue("Admin-Reboot", 7);
+        attribute.addValue("Port-Error", 8);
+        attribute.addValue("NAS-Error", 9);
+        attribute.addValue("NAS-Request", 10);
+        attribute.addValue("NAS-Reboot", 11);
+        attribute.addValue("Port-Unneeded", 12);
+        attribute.addValue("Port-Preempted", 13);
+        attribute.addValue("Port-Suspended", 14);
+        attribute.addValue("Service-Unavailable", 15);
+        attribute.addValue("Callback", 16);
+        attribute.addValue("User-Error", 17);
+        attribute.addValue("Host-Request", 18);
+        dictionary.addAttribute("Acct-Multi-Session-Id", 50, AttributeDefinition.STRING);
+        dictionary.addAttribute("Acct-Link-Count", 51, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Input-Gigawords", 52, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Output-Gigawords", 53, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Event-Timestamp", 55, AttributeDefinition.DATE);
+        dictionary.addAttribute("CHAP-Challenge", 60, AttributeDefinition.OCTETS);
+        attribute = dictionary.addAttribute("NAS-Port-Type", 61, AttributeDefinition.INTEGER);
+        attribute.addValue("Async", 0);
+        attribute.addValue("Sync", 1);
+        attribute.addValue("ISDN", 2);
+        attribute.addValue("ISDN-V120", 3);
+        attribute.addValue("ISDN-V110", 4);
+        attribute.addValue("Virtual", 5);
+        attribute.addValue("PIAFS", 6);
+        attribute.addValue("HDLC-Clear-Channel", 7);
+        attribute.addValue("X.25", 8);
+        attribute.addValue("X.75", 9);
+        attribute.addValue("G.3-Fax", 10);
+        attribute.addValue("SDSL", 11);
+        attribute.addValue("ADSL-CAP", 12);
+        attribute.addValue("ADSL-DMT", 13);
+        attribute.addValue("IDSL", 14);
+        attribute.addValue("Ethernet", 15);
+        attribute.addValue("xDSL", 16);
+        attribute.addValue("Cable", 17);
+        attribute.addValue("Wireless-Other", 18);
+        attribute.addValue("Wireless-802.11", 19);
+        dictionary.addAttribute("Port-Limit", 62, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Login-LAT-Port", 63, AttributeDefinition.STRING);
+        attribute = dictionary.addAttribute("Tunnel-Type", 64, AttributeDefinition.INTEGER);
+        attribute.addValue("PPTP", 1);
+        attribute.addValue("L2F", 2);
+        attribute.addValue("L2TP", 3);
+        attribute.addValue("ATMP", 4);
+        attribute.addValue("VTP", 5);
+        attribute.addValue("AH", 6);
+        attribute.addValue("IP", 7);
+        attribute.addValue("MIN-IP", 8);
+        attribute.addValue("ESP", 9);
+        attribute.addValue("GRE", 10);
+        attribute.addValue("DVS", 11);
+        attribute.addValue("IP-in-IP", 12);
+        attribute.addValue("VLAN", 13);
+        attribute = dictionary.addAttribute("Tunnel-Medium-Type", 65, AttributeDefinition.INTEGER);
+        attribute.addValue("IPv4", 1);
+        attribute.addValue("IPv6", 2);
+        attribute.addValue("NSAP", 3);
+        attribute.addValue("HDLC", 4);
+        attribute.addValue("BBN-1822", 5);
+        attribute.addValue("IEEE-802", 6);
+        attribute.addValue("E.163", 7);
+        attribute.addValue("E.164", 8);
+        attribute.addValue("F.69", 9);
+        attribute.addValue("X.121", 10);
+        attribute.addValue("IPX", 11);
+        attribute.addValue("Appletalk", 12);
+        attribute.addValue("DecNet-IV", 13);
+        attribute.addValue("Banyan-Vines", 14);
+        attribute.addValue("E.164-NSAP", 15);
+        dictionary.addAttribute("Tunnel-Client-Endpoint", 66, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Server-Endpoint", 67, AttributeDefinition.STRING);
+        dictionary.addAttribute("Acct-Tunnel-Connection", 68, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Password", 69, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("ARAP-Password", 70, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("ARAP-Features", 71, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("ARAP-Zone-Access", 72, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("ARAP-Security", 73, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("ARAP-Security-Data", 74, AttributeDefinition.STRING);
+        dictionary.addAttribute("Password-Retry", 75, AttributeDefinition.INTEGER);
+        attribute = dictionary.addAttribute("Prompt", 76, AttributeDefinition.INTEGER);
+        attribute.addValue("No-Echo", 0);
+        attribute.addValue("Echo", 1);
+        dictionary.addAttribute("Connect-Info", 77, AttributeDefinition.STRING);
+        dictionary.addAttribute("Configuration-Token", 78, AttributeDefinition.STRING);
+        dictionary.addAttribute("EAP-Message", 79, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Message-Authenticator", 80, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Tunnel-Private-Group-Id", 81, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Assignment-Id", 82, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Preference", 83, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("ARAP-Challenge-Response", 84, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("Acct-Interim-Interval", 85, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("Acct-Tunnel-Packets-Lost", 86, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("NAS-Port-Id", 87, AttributeDefinition.STRING);
+        dictionary.addAttribute("Framed-Pool", 88, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Client-Auth-Id", 90, AttributeDefinition.STRING);
+        dictionary.addAttribute("Tunnel-Server-Auth-Id", 91, AttributeDefinition.STRING);
+        dictionary.addAttribute("NAS-IPv6-Address", 95, AttributeDefinition.IPV6ADDR);
+        dictionary.addAttribute("Framed-Interface-Id", 96, AttributeDefinition.IFID);
+        dictionary.addAttribute("Framed-IPv6-Prefix", 97, AttributeDefinition.IPV6PREFIX);
+        dictionary.addAttribute("Login-IPv6-Host", 98, AttributeDefinition.IPV6ADDR);
+        dictionary.addAttribute("Framed-IPv6-Route", 99, AttributeDefinition.STRING);
+        dictionary.addAttribute("Framed-IPv6-Pool", 100, AttributeDefinition.STRING);
+        attribute = dictionary.addAttribute("Error-Cause", 101, AttributeDefinition.INTEGER);
+        attribute.addValue("Residual-Context-Removed", 201);
+        attribute.addValue("Invalid-EAP-Packet", 202);
+        attribute.addValue("Unsupported-Attribute", 401);
+        attribute.addValue("Missing-Attribute", 402);
+        attribute.addValue("NAS-Identification-Mismatch", 403);
+        attribute.addValue("Invalid-Request", 404);
+        attribute.addValue("Unsupported-Service", 405);
+        attribute.addValue("Unsupported-Extension", 406);
+        attribute.addValue("Invalid-Attribute-Value", 407);
+        attribute.addValue("Administratively-Prohibited", 501);
+        attribute.addValue("Request-Not-Routable", 502);
+        attribute.addValue("Session-Context-Not-Found", 503);
+        attribute.addValue("Session-Context-Not-Removable", 504);
+        attribute.addValue("Other-Proxy-Processing-Error", 505);
+        attribute.addValue("Resources-Unavailable", 506);
+        attribute.addValue("Request-Initiated", 507);
+        attribute.addValue("Multiple-Session-Selection-Unsupported", 508);
+        dictionary.addAttribute("EAP-Key-Name", 102, AttributeDefinition.OCTETS);
+
+        dictionary.addVendor(9, "Cisco");
+        dictionary.addAttribute("Cisco-AVPair", 9, 1, AttributeDefinition.STRING);
+        dictionary.addAttribute("Cisco-NAS-Port", 9, 2, AttributeDefinition.STRING);
+        dictionary.addAttribute("Cisco-Account-Info", 9, 250, AttributeDefinition.STRING);
+        dictionary.addAttribute("Cisco-Command-Code", 9, 252, AttributeDefinition.STRING);
+
+        dictionary.addVendor(311, "Microsoft");
+        dictionary.addAttribute("MS-CHAP-Response", 311, 1, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP-Error", 311, 2, AttributeDefinition.STRING);
+        dictionary.addAttribute("MS-CHAP-CPW-1", 311, 3, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP-CPW-2", 311, 4, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP-LM-Enc-PW", 311, 5, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP-NT-Enc-PW", 311, 6, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-MPPE-Encryption-Policy", 311, 7, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("MS-MPPE-Encryption-Types", 311, 8, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("MS-CHAP-Domain", 311, 10, AttributeDefinition.STRING);
+        dictionary.addAttribute("MS-CHAP-Challenge", 311, 11, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP-MPPE-Keys", 311, 12, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-MPPE-Send-Key", 311, 16, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-MPPE-Recv-Key", 311, 17, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP2-Response", 311, 25, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP2-Success", 311, 26, AttributeDefinition.OCTETS);
+        dictionary.addAttribute("MS-CHAP2-CPW", 311, 27, AttributeDefinition.OCTETS);
+
+        dictionary.addVendor(2636, "Juniper");
+        dictionary.addAttribute("Juniper-Local-User-Name", 2636, 1, AttributeDefinition.STRING);
+        dictionary.addAttribute("Juniper-Allow-Commands", 2636, 2, AttributeDefinition.STRING);
+        dictionary.addAttribute("Juniper-Deny-Commands", 2636, 3, AttributeDefinition.STRING);
+        dictionary.addAttribute("Juniper-Allow-Configuration", 2636, 4, AttributeDefinition.STRING);
+        dictionary.addAttribute("Juniper-Deny-Configuration", 2636, 5, AttributeDefinition.STRING);
+
+        dictionary.addVendor(14122, "WISPr");
+        dictionary.addAttribute("WISPr-Location-ID", 14122, 1, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Location-Name", 14122, 2, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Logoff-URL", 14122, 3, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Redirection-URL", 14122, 4, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Bandwidth-Min-Up", 14122, 5, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("WISPr-Bandwidth-Min-Down", 14122, 6, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("WISPr-Bandwidth-Max-Up", 14122, 7, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("WISPr-Bandwidth-Max-Down", 14122, 8, AttributeDefinition.INTEGER);
+        dictionary.addAttribute("WISPr-Session-Terminate-Time", 14122, 9, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Session-Terminate-End-Of-Day", 14122, 10, AttributeDefinition.STRING);
+        dictionary.addAttribute("WISPr-Billing-Class-Of-Service", 14122, 11, AttributeDefinition.STRING);
+        return dictionary;
+    }
+}
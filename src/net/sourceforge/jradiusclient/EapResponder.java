@@ -0,0 +1,23 @@
+package net.sourceforge.jradiusclient;
+
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * The EAP method side of an <code>EapSession</code>: answers each EAP-Request the server sends
+ * in an Access-Challenge with the next EAP-Response.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public interface EapResponder {
+    /**
+     * Called once per Access-Challenge, on the client's receiver thread, so implementations must
+     * return quickly. Calls for one session never overlap.
+     * @param session the conversation the request belongs to
+     * @param eapRequest the EAP packet the server sent, reassembled from its EAP-Message attributes
+     * @return the EAP packet to answer with, or null to abandon the conversation
+     * @throws RadiusException to abandon the conversation, the session fails with it; a
+     *                         RuntimeException fails the session the same way
+     */
+    public byte[] respond(EapSession session, byte[] eapRequest) throws RadiusException;
+}
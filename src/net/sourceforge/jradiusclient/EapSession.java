@@ -0,0 +1,256 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs one EAP conversation (RFC 3579) over Access-Request / Access-Challenge round trips. Each
+ * round sends the attributes of the template packet (User-Name, NAS attributes, ...), the EAP
+ * packet split over as many EAP-Message attributes as it needs and the State of the previous
+ * Access-Challenge; the client adds the Message-Authenticator. When an Access-Challenge comes
+ * back its EAP-Message attributes are put back together and handed to the
+ * <code>EapResponder</code>, whose answer is sent in the next round. The conversation ends with
+ * the first response that is not an Access-Challenge, which completes the session's future:
+ * <pre>
+ * EapSession session = new EapSession(client, template, responder);
+ * session.start(eapIdentityResponse).addListener(...);
+ * </pre>
+ * Rounds are sent with <code>authenticateAsync</code> and driven from the client's receiver
+ * thread, so no thread waits while the server works and one thread can start any number of
+ * sessions. Every round goes to the same client, the State of an Access-Challenge is only
+ * meaningful to the server that sent it.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public class EapSession {
+    /** the number of rounds after which a conversation is given up */
+    public static final int DEFAULT_MAX_ROUNDS = 50;
+    private static final int MAX_FRAGMENT_LENGTH = 253;
+    private static final int ATTRIBUTE_HEADER_LENGTH = 2;
+    private final RadiusClient client;
+    private final List templateAttributes;
+    private final EapResponder responder;
+    private final RadiusFuture future;
+    private volatile int maxRounds = DEFAULT_MAX_ROUNDS;
+    private volatile int retries = 0;
+    private volatile int rounds = 0;
+    private volatile boolean started = false;
+    private volatile byte[] state = null;
+    /**
+     * @param client the RadiusClient to send every round with
+     * @param template an ACCESS_REQUEST holding the attributes to send in every round, its
+     *                 EAP-Message, State and Message-Authenticator attributes are ignored
+     * @param responder the EAP method answering the server
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if a parameter is null
+     *                 or the template is not an ACCESS_REQUEST
+     */
+    public EapSession(final RadiusClient client, final RadiusPacket template, final EapResponder responder)
+            throws InvalidParameterException{
+        if(null == client){
+            throw new InvalidParameterException("client parameter cannot be null");
+        }else if(null == template){
+            throw new InvalidParameterException("template parameter cannot be null");
+        }else if(null == responder){
+            throw new InvalidParameterException("responder parameter cannot be null");
+        }else if(template.getPacketType() != RadiusPacket.ACCESS_REQUEST){
+            throw new InvalidParameterException("template must be an ACCESS_REQUEST");
+        }
+        this.client = client;
+        this.templateAttributes = new ArrayList(template.getAttributes());
+        for(Iterator i = this.templateAttributes.iterator(); i.hasNext();){
+            int type = ((RadiusAttribute)i.next()).getType();
+            if((type == RadiusAttributeValues.EAP_MESSAGE) || (type == RadiusAttributeValues.STATE)
+                    || (type == RadiusAttributeValues.MESSAGE_AUTHENTICATOR)){
+                i.remove();
+            }
+        }
+        this.responder = responder;
+        this.future = new RadiusFuture(template);
+    }
+    /**
+     * sends the first round
+     * @param eapResponse the first EAP packet, usually the EAP-Response/Identity
+     * @return RadiusFuture that completes with the Access-Accept or Access-Reject ending the
+     *         conversation, or fails if a round fails. Cancelling it stops the conversation
+     *         after the round in flight.
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if the session was already started
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if eapResponse is null or empty
+     */
+    public RadiusFuture start(final byte[] eapResponse) throws RadiusException, InvalidParameterException{
+        if((null == eapResponse) || (eapResponse.length == 0)){
+            throw new InvalidParameterException("eapResponse parameter cannot be null or empty");
+        }
+        synchronized(this){
+            if(this.started){
+                throw new RadiusException("EapSession already started");
+            }
+            this.started = true;
+        }
+        this.send(eapResponse);
+        return this.future;
+    }
+    /**
+     * @return RadiusFuture of the conversation, see <code>start</code>
+     */
+    public RadiusFuture getFuture(){
+        return this.future;
+    }
+    /**
+     * @return the number of rounds sent so far
+     */
+    public int getRounds(){
+        return this.rounds;
+    }
+    /**
+     * @return the number of rounds after which the conversation is given up
+     */
+    public int getMaxRounds(){
+        return this.maxRounds;
+    }
+    /**
+     * @param maxRounds the number of rounds after which the conversation is given up
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if maxRounds is less than 1
+     */
+    public void setMaxRounds(final int maxRounds) throws InvalidParameterException{
+        if(maxRounds < 1){
+            throw new InvalidParameterException("maxRounds must be at least 1");
+        }
+        this.maxRounds = maxRounds;
+    }
+    /**
+     * @param retries the time each round gets in multiples of the client's timeout, 0 for the
+     *                client's default
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if retries is negative
+     */
+    public void setRetries(final int retries) throws InvalidParameterException{
+        if(retries < 0){
+            throw new InvalidParameterException("retries must be zero or greater!");
+        }
+        this.retries = retries;
+    }
+    /**
+     * splits an EAP packet over EAP-Message attributes of at most 253 bytes and adds them at the
+     * end of the packet, RFC 3579 section 3.1
+     * @param packet the RadiusPacket to add the attributes to
+     * @param eapMessage the EAP packet
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the packet is frozen
+     */
+    public static void addEapMessage(final RadiusPacket packet, final byte[] eapMessage) throws InvalidParameterException{
+        for(int offset = 0; offset < eapMessage.length; offset += MAX_FRAGMENT_LENGTH){
+            byte[] fragment = new byte[Math.min(MAX_FRAGMENT_LENGTH, eapMessage.length - offset)];
+            System.arraycopy(eapMessage, offset, fragment, 0, fragment.length);
+            packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.EAP_MESSAGE, fragment));
+        }
+    }
+    /**
+     * puts the EAP packet carried by a RadiusPacket back together from its EAP-Message attributes
+     * @param packet the RadiusPacket
+     * @return the EAP packet, or null if the RadiusPacket has no EAP-Message
+     */
+    public static byte[] getEapMessage(final RadiusPacket packet){
+        byte[] data = packet.getAttributeArray();
+        int start = packet.getAttributeOffset();
+        int end = start + packet.getAttributeLength();
+        int length = 0;
+        boolean found = false;
+        for(int pos = start; pos < end; pos += data[pos + 1] & 0xff){
+            if((data[pos] & 0xff) == RadiusAttributeValues.EAP_MESSAGE){
+                length += (data[pos + 1] & 0xff) - ATTRIBUTE_HEADER_LENGTH;
+                found = true;
+            }
+        }
+        if(!found){
+            return null;
+        }
+        byte[] eapMessage = new byte[length];
+        int offset = 0;
+        for(int pos = start; pos < end; pos += data[pos + 1] & 0xff){
+            if((data[pos] & 0xff) == RadiusAttributeValues.EAP_MESSAGE){
+                int valueLength = (data[pos + 1] & 0xff) - ATTRIBUTE_HEADER_LENGTH;
+                System.arraycopy(data, pos + ATTRIBUTE_HEADER_LENGTH, eapMessage, offset, valueLength);
+                offset += valueLength;
+            }
+        }
+        return eapMessage;
+    }
+    /**
+     * sends the next round
+     */
+    private void send(final byte[] eapResponse){
+        RadiusFuture roundFuture;
+        try{
+            RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+            for(Iterator i = this.templateAttributes.iterator(); i.hasNext();){
+                request.addAttribute((RadiusAttribute)i.next());
+            }
+            EapSession.addEapMessage(request, eapResponse);
+            if(null != this.state){
+                request.addAttribute(new RadiusAttribute(RadiusAttributeValues.STATE, this.state));
+            }
+            this.rounds++;
+            roundFuture = this.client.authenticateAsync(request, this.retries);
+        }catch(RadiusException rex){
+            this.future.fail(rex);
+            return;
+        }catch(InvalidParameterException ipex){
+            this.future.fail(new RadiusException(ipex.getMessage()));
+            return;
+        }
+        roundFuture.addListener(new RadiusResponseListener(){
+            public void requestCompleted(RadiusFuture completed){
+                roundCompleted(completed);
+            }
+        });
+    }
+    /**
+     * ends the conversation or answers the Access-Challenge
+     */
+    private void roundCompleted(final RadiusFuture roundFuture){
+        RadiusPacket response;
+        try{
+            response = roundFuture.getResponse();
+        }catch(RadiusException rex){
+            this.future.fail(rex);
+            return;
+        }
+        if(this.future.isDone()){
+            return;//cancelled
+        }
+        if(response.getPacketType() != RadiusPacket.ACCESS_CHALLENGE){
+            this.future.complete(response);
+            return;
+        }
+        byte[] next;
+        try{
+            if(this.rounds >= this.maxRounds){
+                throw new RadiusException("EAP conversation did not finish after " + this.rounds + " rounds");
+            }
+            byte[] eapRequest = EapSession.getEapMessage(response);
+            if(null == eapRequest){
+                throw new RadiusException("Access-Challenge without an EAP-Message");
+            }
+            //RFC 2865 section 5.24, the State of the challenge goes back unmodified
+            this.state = response.hasAttribute(RadiusAttributeValues.STATE)
+                    ? response.getAttribute(RadiusAttributeValues.STATE).getValue() : null;
+            next = this.responder.respond(this, eapRequest);
+            if((null == next) || (next.length == 0)){
+                throw new RadiusException("EAP conversation abandoned");
+            }
+        }catch(RadiusException rex){
+            this.future.fail(rex);
+            return;
+        }catch(InvalidParameterException ipex){
+            this.future.fail(new RadiusException(ipex.getMessage()));
+            return;
+        }catch(RuntimeException rex){
+            //a broken responder ends its own conversation, not the thread that completed the round
+            this.future.fail(new RadiusException("EAP responder failed: " + rex));
+            return;
+        }
+        this.send(next);
+    }
+}
@@ -0,0 +1,214 @@
+package net.sourceforge.jradiusclient;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Computes and checks the Message-Authenticator attribute of RFC 3579 section 3.2, an
+ * HMAC-MD5 keyed with the shared secret over the whole packet, with the value of the
+ * Message-Authenticator itself taken as 16 zero octets. Requests are signed over the request
+ * authenticator in their header (16 zero octets for accounting requests, whose authenticator is
+ * computed afterwards), responses over the authenticator of the request they answer.
+ * <P>
+ * The HMAC is keyed once: every thread clones its own Mac from the keyed one the first time it
+ * signs or verifies, and reuses it for every packet after that, so a packet costs the HMAC
+ * itself and no key schedule, provider lookup or allocation.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public final class MessageAuthenticator {
+    private static final int AUTHENTICATOR_OFFSET = 4;
+    private static final int AUTHENTICATOR_LENGTH = 16;
+    private static final byte[] ZEROS = new byte[AUTHENTICATOR_LENGTH];
+    private static final int ATTRIBUTE_HEADER_LENGTH = 2;
+    private final SecretKeySpec key;
+    private final Mac keyed;
+    /*
+     * Mac instances are not thread safe, so every thread gets its own clone of the keyed Mac
+     * along with an array to compute into
+     */
+    private final ThreadLocal states = new ThreadLocal(){
+        protected Object initialValue(){
+            return new State(MessageAuthenticator.this.newMac());
+        }
+    };
+    /**
+     * @param sharedSecret the shared secret with the server
+     */
+    public MessageAuthenticator(final byte[] sharedSecret){
+        this.key = new SecretKeySpec(sharedSecret, "HmacMD5");
+        Mac hmac;
+        try{
+            hmac = Mac.getInstance("HmacMD5");
+            hmac.init(this.key);
+        }catch(GeneralSecurityException gsex){
+            //reported on first use, see newMac
+            hmac = null;
+        }
+        this.keyed = hmac;
+    }
+    /**
+     * finds the value of the Message-Authenticator attribute of an encoded packet
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @return the index of the 16 byte value in the array, or -1 if the packet has none
+     * @throws RadiusException if the attributes are malformed
+     */
+    public static int find(final byte[] packet, final int offset, final int length) throws RadiusException{
+        int end = offset + length;
+        for(int pos = offset + RadiusPacket.RADIUS_HEADER_LENGTH; pos < end; ){
+            if(pos + ATTRIBUTE_HEADER_LENGTH > end){
+                throw new RadiusException("Invalid attributes in packet.");
+            }
+            int attributeLength = packet[pos + 1] & 0xff;
+            if((attributeLength < ATTRIBUTE_HEADER_LENGTH) || (pos + attributeLength > end)){
+                throw new RadiusException("Invalid attributes in packet.");
+            }
+            if((packet[pos] & 0xff) == RadiusAttributeValues.MESSAGE_AUTHENTICATOR){
+                if(attributeLength != ATTRIBUTE_HEADER_LENGTH + AUTHENTICATOR_LENGTH){
+                    throw new RadiusException("Invalid Message-Authenticator length");
+                }
+                return pos + ATTRIBUTE_HEADER_LENGTH;
+            }
+            pos += attributeLength;
+        }
+        return -1;
+    }
+    /**
+     * computes the Message-Authenticator of a packet
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @param valueOffset the index of the Message-Authenticator value, see <code>find</code>
+     * @param authenticator the 16 bytes to use in place of the authenticator in the header, or
+     *                      null to use the header as it is
+     * @return the 16 byte HMAC-MD5
+     * @throws RadiusException if HMAC-MD5 is not available
+     */
+    public byte[] compute(final byte[] packet, final int offset, final int length, final int valueOffset,
+            final byte[] authenticator) throws RadiusException{
+        byte[] mac = new byte[AUTHENTICATOR_LENGTH];
+        this.compute(packet, offset, length, valueOffset, authenticator, mac, 0);
+        return mac;
+    }
+    /**
+     * computes the Message-Authenticator of a packet into an array, which may be the packet itself
+     */
+    private void compute(final byte[] packet, final int offset, final int length, final int valueOffset,
+            final byte[] authenticator, final byte[] out, final int outOffset) throws RadiusException{
+        State state = (State)this.states.get();
+        if(null == state.hmac){
+            throw new RadiusException("Could not access HmacMD5 algorithm");
+        }
+        Mac hmac = state.hmac;
+        if(null == authenticator){
+            hmac.update(packet, offset, AUTHENTICATOR_OFFSET + AUTHENTICATOR_LENGTH);
+        }else{
+            hmac.update(packet, offset, AUTHENTICATOR_OFFSET);
+            hmac.update(authenticator, 0, AUTHENTICATOR_LENGTH);
+        }
+        int attributes = offset + RadiusPacket.RADIUS_HEADER_LENGTH;
+        hmac.update(packet, attributes, valueOffset - attributes);
+        hmac.update(ZEROS);
+        int rest = valueOffset + AUTHENTICATOR_LENGTH;
+        hmac.update(packet, rest, offset + length - rest);
+        try{
+            //leaves the Mac keyed and ready for the next packet
+            hmac.doFinal(out, outOffset);
+        }catch(GeneralSecurityException gsex){//the output always fits
+            throw new RadiusException(gsex.getMessage());
+        }
+    }
+    /**
+     * writes the Message-Authenticator into a packet that has one, over the authenticator in its
+     * header
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @return true if the packet has a Message-Authenticator
+     * @throws RadiusException if the attributes are malformed
+     */
+    public boolean sign(final byte[] packet, final int offset, final int length) throws RadiusException{
+        return this.sign(packet, offset, length, null);
+    }
+    /**
+     * writes the Message-Authenticator into a packet that has one
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @param authenticator the request authenticator a response is signed over, null to use the
+     *                      header as it is
+     * @return true if the packet has a Message-Authenticator
+     * @throws RadiusException if the attributes are malformed
+     */
+    public boolean sign(final byte[] packet, final int offset, final int length, final byte[] authenticator)
+            throws RadiusException{
+        int valueOffset = MessageAuthenticator.find(packet, offset, length);
+        if(valueOffset < 0){
+            return false;
+        }
+        //the value is read as zeros whatever it holds, so the HMAC can be written over it
+        this.compute(packet, offset, length, valueOffset, authenticator, packet, valueOffset);
+        return true;
+    }
+    /**
+     * checks the Message-Authenticator of a packet
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @param authenticator the request authenticator a response is signed over, null to use the
+     *                      header as it is
+     * @return false if the packet has a Message-Authenticator that doesn't match, true if it
+     *         matches or the packet has none
+     * @throws RadiusException if the attributes are malformed
+     */
+    public boolean verify(final byte[] packet, final int offset, final int length, final byte[] authenticator)
+            throws RadiusException{
+        int valueOffset = MessageAuthenticator.find(packet, offset, length);
+        if(valueOffset < 0){
+            return true;
+        }
+        byte[] mac = ((State)this.states.get()).scratch;
+        this.compute(packet, offset, length, valueOffset, authenticator, mac, 0);
+        int diff = 0;
+        for(int i = 0; i < AUTHENTICATOR_LENGTH; i++){
+            diff |= mac[i] ^ packet[valueOffset + i];
+        }
+        return diff == 0;
+    }
+    /**
+     * @return a Mac keyed with the shared secret, or null if HmacMD5 is not available
+     */
+    private Mac newMac(){
+        if(null != this.keyed){
+            try{
+                synchronized(this.keyed){
+                    return (Mac)this.keyed.clone();
+                }
+            }catch(CloneNotSupportedException cnsex){
+                //fall through and key a new one
+            }
+        }
+        try{
+            Mac hmac = Mac.getInstance("HmacMD5");
+            hmac.init(this.key);
+            return hmac;
+        }catch(GeneralSecurityException gsex){
+            return null;
+        }
+    }
+    /**
+     * a thread's keyed Mac and the array it verifies into
+     */
+    private static final class State {
+        private final Mac hmac;
+        private final byte[] scratch = new byte[AUTHENTICATOR_LENGTH];
+        private State(final Mac hmac){
+            this.hmac = hmac;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Released under the LGPL<BR>
+ * A request waiting on its response. It keeps everything needed to encode the request once
+ * its identifier is known, to retransmit it (when it was first sent, the current retransmission
+ * timeout and the deadline) and to validate the response (the identifier and request authenticator).
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.6 $
+ */
+class PendingRequest {
+    private final RadiusPacket request;
+    private final int port;
+    private final int retries;
+    private final RadiusFuture future;
+    private byte identifier = (byte)0;
+    private byte[] requestAuthenticator;
+    private volatile byte[] packet = null;
+    private int attempts = 0;
+    private ScheduledFuture timeoutTask = null;
+    private long firstSent = 0;
+    private long deadline = 0;
+    private int retransmissionTimeout = 0;
+    /**
+     * @param request the RadiusPacket as submitted by the user
+     * @param port the server port the request goes to
+     * @param requestAuthenticator the request authenticator, null if it depends on the encoded packet
+     * @param retries the deadline of the request in multiples of the client's timeout, unless
+     *                the client has a request deadline
+     */
+    PendingRequest(final RadiusPacket request, final int port, final byte[] requestAuthenticator,
+            final int retries){
+        this.request = request;
+        this.port = port;
+        this.requestAuthenticator = requestAuthenticator;
+        this.retries = retries;
+        this.future = new RadiusFuture(request);
+    }
+    RadiusPacket getRequest(){
+        return this.request;
+    }
+    int getPort(){
+        return this.port;
+    }
+    byte getIdentifier(){
+        return this.identifier;
+    }
+    void setIdentifier(final byte identifier){
+        this.identifier = identifier;
+    }
+    byte[] getRequestAuthenticator(){
+        return this.requestAuthenticator;
+    }
+    /**
+     * @return the encoded request, exactly as long as the packet, or null if not encoded yet
+     */
+    byte[] getPacket(){
+        return this.packet;
+    }
+    /**
+     * stores the encoded form of this request, the packet is set last so a request whose
+     * packet is visible is completely encoded
+     * @param requestAuthenticator the request authenticator the request was encoded with
+     * @param packet the encoded request
+     */
+    void setEncoded(final byte[] requestAuthenticator, final byte[] packet){
+        this.requestAuthenticator = requestAuthenticator;
+        this.packet = packet;
+    }
+    int getRetries(){
+        return this.retries;
+    }
+    RadiusFuture getFuture(){
+        return this.future;
+    }
+    /**
+     * records another transmission of this request
+     * @return the number of times this request has now been sent
+     */
+    int incrementAttempts(){
+        this.future.setTransmissions(++this.attempts);
+        return this.attempts;
+    }
+    int getAttempts(){
+        return this.attempts;
+    }
+    /**
+     * @return the System.nanoTime() of the first transmission
+     */
+    long getFirstSent(){
+        return this.firstSent;
+    }
+    void setFirstSent(final long firstSent){
+        this.firstSent = firstSent;
+    }
+    /**
+     * @return the System.nanoTime() after which the request is not sent again
+     */
+    long getDeadline(){
+        return this.deadline;
+    }
+    void setDeadline(final long deadline){
+        this.deadline = deadline;
+    }
+    /**
+     * @return the time in milliseconds the last transmission waits for a response
+     */
+    int getRetransmissionTimeout(){
+        return this.retransmissionTimeout;
+    }
+    void setRetransmissionTimeout(final int retransmissionTimeout){
+        this.retransmissionTimeout = retransmissionTimeout;
+    }
+    ScheduledFuture getTimeoutTask(){
+        return this.timeoutTask;
+    }
+    void setTimeoutTask(final ScheduledFuture timeoutTask){
+        this.timeoutTask = timeoutTask;
+    }
+}
@@ -1,14 +1,12 @@
 package net.sourceforge.jradiusclient;
 
 import net.sourceforge.jradiusclient.exception.InvalidParameterException;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 /**
  * Released under the LGPL<BR>
  * The most basic representation of an attribute to be used in the request attributes
  * section of the outgoing RadiusPackets. (see known direct known subclasses)
  * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
- * @version $Revision: 1.8 $
+ * @version $Revision: 1.10 $
  */
 public class RadiusAttribute {
     private static final int HEADER_LENGTH = 2;
@@ -29,25 +27,27 @@ public class RadiusAttribute {
         //  This implementation is oriented towards slow construction but fast retrieval
         //  of the bytes at send time.
         int length = HEADER_LENGTH + value.length;// 2 byte header
-        ByteArrayOutputStream temp = new ByteArrayOutputStream(length);
-        try{
-            temp.write(type);
-            temp.write(length);
-            temp.write(value);
-            temp.flush();
-        }catch(IOException ioex){//this should never happen
-            throw new InvalidParameterException("Error constructing RadiusAttribute");
-        }
-        this.packetBytes = temp.toByteArray();
-        //we don't want to abort the constructor if we fail to close temp
-        try{temp.close();}catch(IOException ignore){}
+        this.packetBytes = new byte[length];
+        this.packetBytes[0] = (byte)type;
+        this.packetBytes[1] = (byte)length;
+        System.arraycopy(value, 0, this.packetBytes, HEADER_LENGTH, value.length);
+    }
+    /**
+     * Construct a RadiusAttribute from its raw bytes as found in a packet, header included
+     * @param data the array holding the attribute
+     * @param offset where the attribute header starts
+     * @param length the length of the attribute including its header
+     */
+    RadiusAttribute(final byte[] data, final int offset, final int length){
+        this.packetBytes = new byte[length];
+        System.arraycopy(data, offset, this.packetBytes, 0, length);
     }
     /**
      * get the Radius Type for this Attribute( see rfc 2865 and 2866)
-     * @return the Radius Type for this Attribute
+     * @return the Radius Type for this Attribute, 0 to 255
      */
     public int getType(){
-        return this.packetBytes[0];
+        return this.packetBytes[0] & 0xff;
     }
     /**
      * get the data stored for this RadiusAttribute
@@ -1,20 +1,29 @@
 package net.sourceforge.jradiusclient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import net.sourceforge.jradiusclient.exception.InvalidParameterException;
 import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+import net.sourceforge.jradiusclient.transport.DatagramSocketTransport;
+import net.sourceforge.jradiusclient.transport.RadiusTransport;
+import net.sourceforge.jradiusclient.transport.StreamTransport;
 
 
 /**
@@ -22,12 +31,12 @@ import net.sourceforge.jradiusclient.exception.RadiusException;
  *
  * This class provides basic functionality required to implement a NAS as
  * defined by the RADIUS protocol as specified in RFC 2865 and RFC 2866.
- * This implementation is stateless and not thread safe, i.e. since the
- * user name could be changed by the current thread or any other thread,
- * it is difficult to ensure that the responseAttributes correlate to the
- * request we think we are dealing with. It is up to the user of this class
- * to ensure these things at this point. A future release may change this class
- * to a stateful, threadsafe object, but it works for now. Users of this class
+ * A RadiusClient is safe for concurrent use by any number of threads, each call works on its own
+ * request: the MD5 state is kept per thread and every blocking <code>authenticate</code> or
+ * <code>account</code> call checks a socket out of a small per-client pool for the duration of the
+ * call, so concurrent calls neither share a digest nor read each other's responses. A
+ * <code>RadiusPacket</code> must not be submitted by two threads at once though, the client
+ * sets attributes on it while preparing the request. Users of this class
  * must also manage building their own request attributes and submitting them with
  * their call to authenticate. For example a programmer using this library, wanting
  * to do chap authentication needs to generate the random challenge, send it to
@@ -38,6 +47,36 @@ import net.sourceforge.jradiusclient.exception.RadiusException;
  * software returns the CHAP Identifier and the MD5 result and the programmer using RadiusClient
  * sets that as the CHAP Password. The programmer also sets the CHAP-Challenge attribute and
  * sends that to the Radius Server for authentication.
+ * <P>
+ * <code>authenticateAsync</code> and <code>accountAsync</code> submit requests without waiting
+ * for the response, so many requests can be outstanding on one client. They send through the
+ * client's <code>RadiusTransport</code> (by default a <code>DatagramSocketTransport</code>, one
+ * receiver thread per socket, or a shared <code>NioDatagramTransport</code>); connections are
+ * opened on first use, 256 requests can be in flight per connection and further connections
+ * are opened as needed. <code>accountAll</code> pipelines a batch of accounting records the same
+ * way. Call <code>close()</code> when done with such a client.
+ * <P>
+ * With a <code>StreamTransport</code> (RADIUS over TCP, RFC 6613, or TLS, RFC 6614) every request, including those
+ * of the blocking methods, goes over long lived connections opened through the transport, each
+ * carrying up to 256 requests at a time. Requests are not retransmitted on a stream, they wait
+ * for their deadline and are only sent again when their connection breaks.
+ * <P>
+ * Requests are not retransmitted on a fixed timer: the client measures the round trip time of
+ * its server and retransmits after the smoothed RTT plus four times its variance, doubling the
+ * wait (with some random jitter) on every retransmission as RFC 5080 recommends. Until the first
+ * measurement the first wait is 2 seconds and no wait is shorter than 1 second.
+ * <code>getTimeout()</code> caps each wait. Retransmissions are bounded by the deadline of the
+ * request (the maximum retransmission duration of RFC 5080), not by a count: a request is sent
+ * again until its deadline (<code>setRequestDeadline</code>, by default the timeout times the
+ * number of retries) has passed, so the retries give a request the same time as the fixed timer
+ * did however fast the server usually answers.
+ * <P>
+ * Every Access-Request and Status-Server request goes out with a Message-Authenticator (RFC
+ * 3579) as its first attribute, added while encoding if the packet has none, and the
+ * Message-Authenticator of every response that carries one is checked.
+ * <code>setRequireMessageAuthenticator(true)</code> also rejects Access-Accept, Access-Reject and
+ * Access-Challenge responses without one, as the mitigations for the BlastRADIUS attack
+ * recommend for servers known to send it.
  *
  * <BR>Special Thanks to the original creator of the "RadiusClient"
  * <a href="http://augiesoft.com/java/radius/">August Mueller </a>
@@ -46,7 +85,7 @@ import net.sourceforge.jradiusclient.exception.RadiusException;
  * for laying the groundwork for the development of this class.
  *
  * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
- * @version $Revision: 1.35 $
+ * @version $Revision: 1.49 $
  */
 public class RadiusClient
 {
@@ -54,16 +93,39 @@ public class RadiusClient
     private static byte [] NAS_IP;
     private static final int AUTH_LOOP_COUNT = 3;
     private static final int ACCT_LOOP_COUNT = 3;
+    private static final int DEFAULT_BATCH_WINDOW = 256;
     private static final int DEFAULT_AUTH_PORT = 1812;
     private static final int DEFAULT_ACCT_PORT = 1813;
     private static final int DEFAULT_SOCKET_TIMEOUT = 6000;
+    private static final int MAX_IDLE_RECEIVE_BUFFERS = 32;
     private String sharedSecret = "";
+    private byte[] sharedSecretBytes = null;
+    private MessageDigest sharedSecretDigest = null;
+    private MessageAuthenticator messageAuthenticator = null;
     private InetAddress hostname = null;
     private int authenticationPort = DEFAULT_AUTH_PORT;
     private int accountingPort = DEFAULT_ACCT_PORT;
-    private DatagramSocket socket = null;
+    private final LinkedList idleSockets = new LinkedList();
+    private final LinkedList idleReceiveBuffers = new LinkedList();
+    private boolean closed = false;
     private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
-    private MessageDigest md5MessageDigest;
+    private RadiusDispatcher dispatcher = null;
+    private RadiusTransport transport;
+    private final RetransmissionTimer retransmissionTimer = new RetransmissionTimer();
+    private volatile int requestDeadline = 0;
+    private volatile boolean requireMessageAuthenticator = false;
+    /*
+     * MessageDigest instances are not thread safe, so every thread gets its own
+     */
+    private static final ThreadLocal MD5_DIGESTS = new ThreadLocal(){
+        protected Object initialValue(){
+            try{
+                return MessageDigest.getInstance("MD5");
+            }catch(NoSuchAlgorithmException nsaex){
+                throw new RuntimeException("Could not access MD5 algorithm, fatal error");
+            }
+        }
+    };
     /*
      * Static Initializer
      */
@@ -131,21 +193,47 @@ public class RadiusClient
      */
     public RadiusClient(String hostname, int authPort, int acctPort, String sharedSecret, int sockTimeout)
     throws RadiusException, InvalidParameterException{
+        this(hostname, authPort, acctPort, sharedSecret, sockTimeout, new DatagramSocketTransport());
+    }
+    /**
+     * Constructor allows the user to specify the transport used by the asynchronous methods,
+     * i.e. a <code>NioDatagramTransport</code> shared by many clients
+     * @param hostname java.lang.String
+     * @param authPort int the port to use for authentication requests
+     * @param acctPort int the port to use for accounting requests
+     * @param sharedSecret java.lang.String
+     * @param timeout int the timeout to use when waiting for return packets can't be neg and shouldn't be zero
+     * @param transport RadiusTransport the transport for <code>authenticateAsync</code> and <code>accountAsync</code>
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If we could not create the necessary socket,
+     * If we could not get an instance of the MD5 algorithm, or the hostname did not pass validation
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If an invalid hostname
+     *                              (null or empty string), an invalid
+     *                              port ( port < 0 or port > 65536),
+     *                              an invalid shared secret (null, shared
+     *                              secret can be empty string) or a null transport is passed in.
+     */
+    public RadiusClient(String hostname, int authPort, int acctPort, String sharedSecret, int sockTimeout,
+            RadiusTransport transport)
+    throws RadiusException, InvalidParameterException{
+        if(null == transport){
+            throw new InvalidParameterException("Transport can not be null!");
+        }
+        this.transport = transport;
+        //make sure the md5 engine is available, the instances themselves are per thread
+        try{
+            MessageDigest.getInstance("MD5");
+        }catch(NoSuchAlgorithmException nsaex){
+            throw new RadiusException(nsaex.getMessage());
+        }
         this.setHostname(hostname);
         this.setSharedSecret(sharedSecret);
-        //set up the socket for this client
+        this.setTimeout(sockTimeout);
+        //set up the first socket for this client
         try{
-            this.socket = new DatagramSocket();
+            this.idleSockets.add(new DatagramSocket());
         }catch(SocketException sex){
             throw new RadiusException(sex.getMessage());
         }
-        this.setTimeout(sockTimeout);
-        //set up the md5 engine
-        try{
-            this.md5MessageDigest = MessageDigest.getInstance("MD5");
-        }catch(NoSuchAlgorithmException nsaex){
-            throw new RadiusException(nsaex.getMessage());
-        }
         this.setAuthPort(authPort);
         this.setAcctPort(acctPort);
     }
@@ -183,6 +271,56 @@ public class RadiusClient
      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException
      */
     public RadiusPacket authenticate(RadiusPacket accessRequest, int retries)
+    throws RadiusException, InvalidParameterException {
+        PendingRequest request = this.prepareAccessRequest(accessRequest, retries);
+        // now send the request and receive the response
+        return this.sendReceive(request);
+    }
+    /**
+     * This method submits the given <code>RadiusPacket</code> for authentication without waiting
+     * for the response. Any number of requests may be outstanding at once, they are multiplexed
+     * over the client's sockets and matched to their responses by identifier and request
+     * authenticator. The identifier on the wire is allocated by the client from the identifiers
+     * not currently in flight, so it may differ from <code>getPacketIdentifier()</code>.
+     * Over UDP the request is retransmitted after the adaptive timeout described for the class,
+     * the measured RTT doubled with jitter on every retransmission and never less than 1 second,
+     * until <code>getRequestDeadline()</code> has passed (by default the timeout times the default
+     * number of retries). <code>getTimeout()</code> only caps each wait.
+     *
+     * @param accessRequest the ACCESS_REQUEST, see <code>authenticate(RadiusPacket)</code>
+     * @return RadiusFuture that completes with the response for this request
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusFuture authenticateAsync(RadiusPacket accessRequest)
+    throws RadiusException, InvalidParameterException {
+        return this.authenticateAsync(accessRequest, RadiusClient.AUTH_LOOP_COUNT);
+    }
+    /**
+     * This method submits the given <code>RadiusPacket</code> for authentication without waiting
+     * for the response.
+     *
+     * @param accessRequest the ACCESS_REQUEST, see <code>authenticate(RadiusPacket)</code>
+     * @param retries must be zero or greater, if it is zero default value of 3 will be used
+     * @return RadiusFuture that completes with the response for this request
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusFuture authenticateAsync(RadiusPacket accessRequest, int retries)
+    throws RadiusException, InvalidParameterException {
+        PendingRequest request = this.prepareAccessRequest(accessRequest, retries);
+        this.getDispatcher().send(request);
+        return request.getFuture();
+    }
+    /**
+     * Validates and encodes an ACCESS_REQUEST
+     * @param accessRequest the RadiusPacket to encode
+     * @param retries zero for the default
+     * @return the encoded request ready to be sent
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException
+     */
+    private PendingRequest prepareAccessRequest(RadiusPacket accessRequest, int retries)
     throws RadiusException, InvalidParameterException {
         if(null == accessRequest){
             throw new InvalidParameterException("accessRequest parameter cannot be null");
@@ -196,8 +334,6 @@ public class RadiusClient
         if(code != RadiusPacket.ACCESS_REQUEST){  //1 byte: code
             throw new InvalidParameterException("Invalid packet type submitted to authenticate");
         }
-        byte identifier = accessRequest.getPacketIdentifier();  //1 byte: Identifier can be anything, so should not be constant
-
         //16 bytes: Request Authenticator
         byte [] requestAuthenticator = this.makeRFC2865RequestAuthenticator();
 
@@ -226,24 +362,7 @@ public class RadiusClient
                     new RadiusAttribute( RadiusAttributeValues.NAS_IDENTIFIER, 
                             RadiusClient.NAS_ID ) );
         }
-        // Length of Packet is computed as follows, 20 bytes (corresponding to
-        // length of code + Identifier + Length + Request Authenticator) +
-        // each attribute has a length computed as follows: 1 byte for the type +
-        // 1 byte for the length of the attribute + length of attribute bytes
-        byte[] requestAttributes = accessRequest.getAttributeBytes();
-        short length = 
-            (short)( RadiusPacket.RADIUS_HEADER_LENGTH + requestAttributes.length );
-
-        DatagramPacket packet =
-            this.composeRadiusPacket(this.getAuthPort(), code, identifier, length, requestAuthenticator, requestAttributes);
-        // now send the request and receive the response
-        RadiusPacket responsePacket = null;
-        if ((packet = this.sendReceivePacket(packet, retries)) != null){
-            responsePacket = this.checkRadiusPacket(packet,identifier, requestAuthenticator);
-        }else{
-            throw new RadiusException("null returned from sendReceivePacket");
-        }
-        return responsePacket;//won't ever return null
+        return new PendingRequest(accessRequest, this.getAuthPort(), requestAuthenticator, retries);
     }
     /**
       * This method performs the job of sending accounting information for the
@@ -255,10 +374,149 @@ public class RadiusClient
       */
     public RadiusPacket account(RadiusPacket requestPacket)
             throws InvalidParameterException, RadiusException{
-
+        return this.account(requestPacket, RadiusClient.ACCT_LOOP_COUNT);
+    }
+    /**
+      * This method performs the job of sending accounting information for the
+      * current user to the radius accounting server.
+      * @param requestPacket Any  request attributes to add to the accounting packet.
+      * @param retries must be zero or greater, if it is zero default value of 3 will be used
+      * @return RadiusPacket a packet containing the response from the Radius server
+      * @exception net.sourceforge.jradiusclient.exception.RadiusException
+      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException
+      */
+    public RadiusPacket account(RadiusPacket requestPacket, int retries)
+            throws InvalidParameterException, RadiusException{
+        PendingRequest request = this.prepareAccountingRequest(requestPacket, retries);
+        //send the request / recieve the response
+        RadiusPacket responsePacket = this.sendReceive(request);
+        this.checkResponseType(requestPacket, responsePacket);
+        return responsePacket;
+    }
+    /**
+      * This method submits accounting information to the radius accounting server without
+      * waiting for the response, see <code>authenticateAsync(RadiusPacket)</code>.
+      * @param requestPacket Any  request attributes to add to the accounting packet.
+      * @return RadiusFuture that completes with the ACCOUNTING_RESPONSE for this request
+      * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+      */
+    public RadiusFuture accountAsync(RadiusPacket requestPacket)
+            throws InvalidParameterException, RadiusException{
+        return this.accountAsync(requestPacket, RadiusClient.ACCT_LOOP_COUNT);
+    }
+    /**
+      * This method submits accounting information to the radius accounting server without
+      * waiting for the response.
+      * @param requestPacket Any  request attributes to add to the accounting packet.
+      * @param retries must be zero or greater, if it is zero default value of 3 will be used
+      * @return RadiusFuture that completes with the ACCOUNTING_RESPONSE for this request
+      * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+      */
+    public RadiusFuture accountAsync(RadiusPacket requestPacket, int retries)
+            throws InvalidParameterException, RadiusException{
+        PendingRequest request = this.prepareAccountingRequest(requestPacket, retries);
+        this.getDispatcher().send(request);
+        return request.getFuture();
+    }
+    /**
+      * Sends a batch of accounting records (i.e. the Stop records of every session at shutdown)
+      * and waits until each has been answered or has failed. The records are pipelined through
+      * <code>accountAsync</code> with up to 256 of them in flight at a time.
+      * @param requestPackets the ACCOUNTING_REQUEST RadiusPackets
+      * @return List of the completed RadiusFutures, one per record in the order of the collection.
+      *         A record that was invalid or could not be sent has a failed future, it does not
+      *         stop the rest of the batch.
+      * @exception net.sourceforge.jradiusclient.exception.RadiusException If the thread was interrupted
+      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If requestPackets is null
+      */
+    public List accountAll(Collection requestPackets)
+            throws InvalidParameterException, RadiusException{
+        return this.accountAll(requestPackets, RadiusClient.DEFAULT_BATCH_WINDOW);
+    }
+    /**
+      * Sends a batch of accounting records, see <code>accountAll(Collection)</code>.
+      * @param requestPackets the ACCOUNTING_REQUEST RadiusPackets
+      * @param maxInFlight the most records waiting on their response at any time, must be greater
+      *                    than zero
+      * @return List of the completed RadiusFutures, one per record in the order of the collection
+      * @exception net.sourceforge.jradiusclient.exception.RadiusException If the thread was interrupted
+      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If requestPackets
+      *              is null or maxInFlight is not positive
+      */
+    public List accountAll(Collection requestPackets, int maxInFlight)
+            throws InvalidParameterException, RadiusException{
+        if(null == requestPackets){
+            throw new InvalidParameterException("requestPackets parameter cannot be null");
+        }
+        if(maxInFlight <= 0){
+            throw new InvalidParameterException("maxInFlight must be greater than zero!");
+        }
+        final Semaphore window = new Semaphore(maxInFlight);
+        RadiusResponseListener release = new RadiusResponseListener(){
+            public void requestCompleted(RadiusFuture future){
+                window.release();
+            }
+        };
+        List futures = new ArrayList(requestPackets.size());
+        try{
+            for(Iterator i = requestPackets.iterator(); i.hasNext();){
+                RadiusPacket requestPacket = (RadiusPacket)i.next();
+                window.acquire();
+                RadiusFuture future;
+                try{
+                    future = this.accountAsync(requestPacket);
+                    future.addListener(release);
+                }catch(RadiusException rex){
+                    window.release();
+                    future = new RadiusFuture(requestPacket);
+                    future.fail(rex);
+                }catch(InvalidParameterException ipex){
+                    window.release();
+                    future = new RadiusFuture(requestPacket);
+                    future.fail(new RadiusException(ipex.getMessage()));
+                }
+                futures.add(future);
+            }
+            //every permit is back once the last record is done
+            window.acquire(maxInFlight);
+        }catch(InterruptedException iex){
+            Thread.currentThread().interrupt();
+            throw new RadiusException("Interrupted while waiting for responses.");
+        }
+        return futures;
+    }
+    /**
+     * Validates and encodes an ACCOUNTING_REQUEST
+     * @param requestPacket the RadiusPacket to encode
+     * @param retries the number of transmissions, 0 for the default
+     * @return the encoded request ready to be sent
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException
+     */
+    private PendingRequest prepareAccountingRequest(RadiusPacket requestPacket, int retries)
+            throws InvalidParameterException, RadiusException{
         if(null == requestPacket){
             throw new InvalidParameterException("requestPacket parameter cannot be null");
         }
+        if(retries < 0){
+            throw new InvalidParameterException("retries must be zero or greater!");
+        }else if (retries == 0){
+            retries = RadiusClient.ACCT_LOOP_COUNT;
+        }
+        RadiusClient.checkAccountingRequest(requestPacket);
+        requestPacket.setAttribute(new RadiusAttribute(RadiusAttributeValues.NAS_IDENTIFIER, RadiusClient.NAS_ID));
+        //the request authenticator is a hash of the whole packet, so it is computed in encodeRequest
+        return new PendingRequest(requestPacket, this.getAcctPort(), null, retries);
+    }
+    /**
+     * Makes sure the packet is an ACCOUNTING_REQUEST with the attributes every accounting
+     * record needs
+     * @param requestPacket the RadiusPacket to check
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If it is not
+     */
+    static void checkAccountingRequest(RadiusPacket requestPacket) throws InvalidParameterException{
         byte code = requestPacket.getPacketType();
         if(code != RadiusPacket.ACCOUNTING_REQUEST){
             throw new InvalidParameterException("Invalid type passed in for RadiusPacket");
@@ -272,42 +530,154 @@ public class RadiusClient
         }catch(RadiusException rex){
             throw new InvalidParameterException("Missing RadiusAttribute in Accounting RequestPacket: "+ rex.getMessage());
         }
-        byte identifier = requestPacket.getPacketIdentifier();//RadiusClient.getNextIdentifier();
-        requestPacket.setAttribute(new RadiusAttribute(RadiusAttributeValues.NAS_IDENTIFIER, RadiusClient.NAS_ID));
-
-        // Length of Packet is computed as follows, 20 bytes (corresponding to
-        // length of code + Identifier + Length + Request Authenticator) +
-        // each attribute has a length computed as follows: 1 byte for the type +
-        // 1 byte for the length of the attribute + length of attribute bytes
-        byte[] requestAttributesBytes = requestPacket.getAttributeBytes();
-        short length = (short) (RadiusPacket.RADIUS_HEADER_LENGTH + requestAttributesBytes.length);
-        byte[] requestAuthenticator =
-            this.makeRFC2866RequestAuthenticator(code, identifier, length, requestAttributesBytes);
-
-        DatagramPacket packet =
-            this.composeRadiusPacket(this.getAcctPort(), code, identifier, length, requestAuthenticator, requestAttributesBytes);
-        //send the request / recieve the response
-        RadiusPacket responsePacket = null;
-        if ((packet = this.sendReceivePacket(packet, RadiusClient.ACCT_LOOP_COUNT)) != null) {
-            responsePacket = this.checkRadiusPacket(packet, identifier, requestAuthenticator);
-            if (RadiusPacket.ACCOUNTING_RESPONSE != responsePacket.getPacketType()) {
-                //how did we get here!! the Radius Server sent us a non-accounting response!
-                throw new RadiusException("The radius Server responded with an incorrect response type.");
-            }
-        }else{
-            //else we didn't get back a response which indicates failure to
-            //communicate successfully with the RADIUS Accounting
-            throw new RadiusException("null returned from sendReceivePacket");
-        }
+    }
+    /**
+     * Asks the authentication server whether it is alive with a STATUS_SERVER request (RFC 5997),
+     * which the server answers without looking up any user or writing any accounting record.
+     * @return RadiusPacket the ACCESS_ACCEPT of the server
+     * @exception net.sourceforge.jradiusclient.exception.RadiusTimeoutException If the server did not answer
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     */
+    public RadiusPacket statusServer() throws RadiusException{
+        return this.statusServer(false);
+    }
+    /**
+     * Asks the authentication or accounting server whether it is alive with a STATUS_SERVER
+     * request (RFC 5997).
+     * @param toAccountingPort true to ask the accounting server, which answers with an
+     *                         ACCOUNTING_RESPONSE
+     * @return RadiusPacket the response of the server
+     * @exception net.sourceforge.jradiusclient.exception.RadiusTimeoutException If the server did not answer
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     */
+    public RadiusPacket statusServer(boolean toAccountingPort) throws RadiusException{
+        PendingRequest request = this.prepareStatusServer(toAccountingPort, RadiusClient.AUTH_LOOP_COUNT);
+        RadiusPacket responsePacket = this.sendReceive(request);
+        this.checkResponseType(request.getRequest(), responsePacket);
         return responsePacket;
     }
+    /**
+     * Sends a STATUS_SERVER request (RFC 5997) to the authentication server without waiting for
+     * the response, see <code>statusServer()</code>.
+     * @return RadiusFuture that completes with the ACCESS_ACCEPT of the server
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+     */
+    public RadiusFuture statusServerAsync() throws RadiusException{
+        return this.statusServerAsync(false, RadiusClient.AUTH_LOOP_COUNT);
+    }
+    /**
+     * Sends a STATUS_SERVER request (RFC 5997) without waiting for the response.
+     * @param toAccountingPort true to ask the accounting server
+     * @param retries must be zero or greater, if it is zero default value of 3 will be used
+     * @return RadiusFuture that completes with the response of the server
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the request could not be sent
+     */
+    public RadiusFuture statusServerAsync(boolean toAccountingPort, int retries) throws RadiusException{
+        PendingRequest request = this.prepareStatusServer(toAccountingPort, retries);
+        this.getDispatcher().send(request);
+        return request.getFuture();
+    }
+    /**
+     * Builds a STATUS_SERVER request, it carries a Message-Authenticator as RFC 5997 requires
+     * @param toAccountingPort true to send it to the accounting port
+     * @param retries the number of transmissions, 0 for the default
+     * @return the request ready to be encoded
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     */
+    private PendingRequest prepareStatusServer(boolean toAccountingPort, int retries)
+            throws RadiusException{
+        if(retries < 0){
+            throw new RadiusException("retries must be zero or greater!");
+        }else if (retries == 0){
+            retries = RadiusClient.AUTH_LOOP_COUNT;
+        }
+        RadiusPacket statusServer;
+        try{
+            statusServer = new RadiusPacket(RadiusPacket.STATUS_SERVER);
+            //the Message-Authenticator is added and signed in encodeRequest
+            statusServer.setAttribute(new RadiusAttribute(RadiusAttributeValues.NAS_IDENTIFIER, RadiusClient.NAS_ID));
+        }catch(InvalidParameterException ipex){
+            throw new RadiusException(ipex.getMessage());
+        }
+        int port = toAccountingPort ? this.getAcctPort() : this.getAuthPort();
+        return new PendingRequest(statusServer, port, this.makeRFC2865RequestAuthenticator(), retries);
+    }
+    /**
+     * Encodes a prepared request once its identifier has been set
+     * @param request the request built by prepareAccessRequest, prepareAccountingRequest or
+     *                prepareStatusServer
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     */
+    void encodeRequest(PendingRequest request)
+    throws RadiusException{
+        RadiusPacket requestPacket = request.getRequest();
+        boolean addMessageAuthenticator = ((requestPacket.getPacketType() == RadiusPacket.ACCESS_REQUEST)
+                || (requestPacket.getPacketType() == RadiusPacket.STATUS_SERVER))
+                && !requestPacket.hasAttribute(RadiusAttributeValues.MESSAGE_AUTHENTICATOR);
+        // the packet is written in one pass straight into the array it is sent from
+        byte[] data = new byte[RadiusPacket.RADIUS_HEADER_LENGTH + requestPacket.getAttributeLength()
+                + (addMessageAuthenticator ? RadiusPacketEncoder.MESSAGE_AUTHENTICATOR_LENGTH : 0)];
+        int length = RadiusPacketEncoder.encode(ByteBuffer.wrap(data), requestPacket,
+                request.getIdentifier(), request.getRequestAuthenticator(), addMessageAuthenticator);
+        byte[] requestAuthenticator = request.getRequestAuthenticator();
+        //the Message-Authenticator covers the header as it is, i.e. still zeroed for accounting
+        this.messageAuthenticator.sign(data, 0, length);
+        if(requestPacket.getPacketType() == RadiusPacket.ACCOUNTING_REQUEST){
+            requestAuthenticator = this.makeRFC2866RequestAuthenticator(data, length);
+            System.arraycopy(requestAuthenticator, 0, data, 4, 16);
+        }
+        request.setEncoded(requestAuthenticator, data);
+    }
+    /**
+     * Validates a response received for the given request
+     * @param data the array holding the response as received from the server
+     * @param offset where the response starts in the array
+     * @param length the number of bytes received
+     * @param request the request it should answer
+     * @return RadiusPacket the validated response
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the identifier or
+     *                              response authenticator do not match the request
+     */
+    RadiusPacket checkResponse(byte[] data, int offset, int length, PendingRequest request)
+    throws RadiusException{
+        return this.checkRadiusPacket(data, offset, length, request.getIdentifier(), request.getRequestAuthenticator());
+    }
+    /**
+     * Makes sure the server answered with a response type that fits the request
+     * @param requestPacket the request that was sent
+     * @param responsePacket the validated response
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the response type is wrong
+     */
+    void checkResponseType(RadiusPacket requestPacket, RadiusPacket responsePacket)
+    throws RadiusException{
+        if ((RadiusPacket.ACCOUNTING_REQUEST == requestPacket.getPacketType()) &&
+                (RadiusPacket.ACCOUNTING_RESPONSE != responsePacket.getPacketType())) {
+            //how did we get here!! the Radius Server sent us a non-accounting response!
+            throw new RadiusException("The radius Server responded with an incorrect response type.");
+        }
+        if ((RadiusPacket.STATUS_SERVER == requestPacket.getPacketType()) &&
+                (RadiusPacket.ACCESS_ACCEPT != responsePacket.getPacketType()) &&
+                (RadiusPacket.ACCOUNTING_RESPONSE != responsePacket.getPacketType())) {
+            throw new RadiusException("The radius Server responded with an incorrect response type.");
+        }
+    }
+    /**
+     * Gets the dispatcher used by the asynchronous methods, creating it on first use
+     * @return the RadiusDispatcher for this client
+     */
+    private synchronized RadiusDispatcher getDispatcher(){
+        if(null == this.dispatcher){
+            this.dispatcher = new RadiusDispatcher(this);
+        }
+        return this.dispatcher;
+    }
     /**
      * This method encodes the plaintext user password according to RFC 2865
      * @param userPass java.lang.String the password to encrypt
      * @param requestAuthenticator byte[] the requestAuthenicator to use in the encryption
      * @return byte[] the byte array containing the encrypted password
      */
-    private byte [] encodePapPassword(final byte[] userPass, final byte [] requestAuthenticator) {
+    byte [] encodePapPassword(final byte[] userPass, final byte [] requestAuthenticator) {
         // encrypt the password.
         byte[] userPassBytes = null;
         //the password must be a multiple of 16 bytes and less than or equal
@@ -343,13 +713,12 @@ public class RadiusClient
             encryptedPass[i] = 0;  //fill it out with zeroes
         }
 
-        this.md5MessageDigest.reset();
-        // add the shared secret
-        this.md5MessageDigest.update(this.sharedSecret.getBytes());
+        // start from the shared secret
+        MessageDigest md5MessageDigest = this.getSharedSecretDigest();
         // add the  Request Authenticator.
-        this.md5MessageDigest.update(requestAuthenticator);
+        md5MessageDigest.update(requestAuthenticator);
         // get the md5 hash( b1 = MD5(S + RA) ).
-        byte bn[] = this.md5MessageDigest.digest();
+        byte bn[] = md5MessageDigest.digest();
 
         for (int i = 0; i < 16; i++){
             // perform the XOR as specified by RFC 2865.
@@ -358,13 +727,12 @@ public class RadiusClient
 
         if (encryptedPass.length > 16){
             for (int i = 16; i < encryptedPass.length; i+=16){
-                this.md5MessageDigest.reset();
-                // add the shared secret
-                this.md5MessageDigest.update(this.sharedSecret.getBytes());
+                // start from the shared secret
+                md5MessageDigest = this.getSharedSecretDigest();
                 //add the previous(encrypted) 16 bytes of the user password
-                this.md5MessageDigest.update(encryptedPass, i - 16, 16);
+                md5MessageDigest.update(encryptedPass, i - 16, 16);
                 // get the md5 hash( bn = MD5(S + c(i-1)) ).
-                bn = this.md5MessageDigest.digest();
+                bn = md5MessageDigest.digest();
                 for (int j = 0; j < 16; j++) {
                     // perform the XOR as specified by RFC 2865.
                     encryptedPass[i+j] = (byte)(bn[j] ^ encryptedPass[i+j]);
@@ -388,70 +756,78 @@ public class RadiusClient
         {
             requestAuthenticator[i] = (byte) r.nextInt();
         }
-        this.md5MessageDigest.reset();
-        this.md5MessageDigest.update(this.sharedSecret.getBytes());
-        this.md5MessageDigest.update(requestAuthenticator);
+        MessageDigest md5MessageDigest = this.getSharedSecretDigest();
+        md5MessageDigest.update(requestAuthenticator);
 
-        return this.md5MessageDigest.digest();
+        return md5MessageDigest.digest();
     }
     /**
      * This method builds a Response Authenticator for use in validating
      * responses from the RADIUS Authentication process as specified in RFC 2865.
      * The byte array returned should match exactly the response authenticator
      * recieved in the response packet.
-     * @param code byte
-     * @param identifier byte
-     * @param length short
+     * @param response byte[] the array holding the response packet
+     * @param offset int where the response starts in the array
+     * @param length int the length of the response
      * @param requestAuthenticator byte[]
-     * @param responseAttributeBytes byte[]
      * @return byte[]
      */
-    private byte[] makeRFC2865ResponseAuthenticator(byte code,
-                                                byte identifier,
-                                                short length,
-                                                byte [] requestAuthenticator,
-                                                byte[] responseAttributeBytes) {
-        this.md5MessageDigest.reset();
+    private byte[] makeRFC2865ResponseAuthenticator(byte[] response,
+                                                int offset,
+                                                int length,
+                                                byte [] requestAuthenticator) {
+        MessageDigest md5MessageDigest = RadiusClient.getMd5Digest();
+        //code + identifier + length
+        md5MessageDigest.update(response, offset, 4);
+        md5MessageDigest.update(requestAuthenticator, 0, requestAuthenticator.length);
+        //attributes
+        md5MessageDigest.update(response, offset + RadiusPacket.RADIUS_HEADER_LENGTH,
+                length - RadiusPacket.RADIUS_HEADER_LENGTH);
+        md5MessageDigest.update(this.sharedSecretBytes);
 
-        this.md5MessageDigest.update((byte)code);
-        this.md5MessageDigest.update((byte)identifier);
-        this.md5MessageDigest.update((byte)(length >> 8));
-        this.md5MessageDigest.update((byte)(length & 0xff));
-        this.md5MessageDigest.update(requestAuthenticator, 0, requestAuthenticator.length);
-        this.md5MessageDigest.update(responseAttributeBytes, 0, responseAttributeBytes.length);
-        this.md5MessageDigest.update(this.sharedSecret.getBytes());
-
-        return this.md5MessageDigest.digest();
+        return md5MessageDigest.digest();
     }
     /**
      * This method builds a Request Authenticator for use in RADIUS Accounting
      * packets as specified in RFC 2866.
-     * @param code byte
-     * @param identifier byte
-     * @param length short
-     * @param requestAttributes byte[]
+     * @param packet byte[] the encoded packet with its authenticator still zeroed
+     * @param length int the length of the packet
      * @return byte[]
      */
-    private byte[] makeRFC2866RequestAuthenticator(byte code,
-                                                    byte identifier,
-                                                    short length,
-                                                    byte[] requestAttributes) {
-        byte [] requestAuthenticator = new byte [16];
+    private byte[] makeRFC2866RequestAuthenticator(byte[] packet, int length) {
+        MessageDigest md5MessageDigest = RadiusClient.getMd5Digest();
+        //code + identifier + length + 16 zero octets + attributes
+        md5MessageDigest.update(packet, 0, length);
+        md5MessageDigest.update(this.sharedSecretBytes);
 
-        for (int i = 0; i < 16; i++) {
-                requestAuthenticator[i] = 0;
+        return md5MessageDigest.digest();
+    }
+    /**
+     * @return the calling thread's MD5 MessageDigest, reset and ready for use
+     */
+    private static MessageDigest getMd5Digest(){
+        MessageDigest md5MessageDigest = (MessageDigest)MD5_DIGESTS.get();
+        md5MessageDigest.reset();
+        return md5MessageDigest;
+    }
+    /**
+     * Gets a MessageDigest that has already hashed the shared secret, for the hashes where the
+     * secret comes first (request authenticator, PAP blocks). It is a clone of a digest seeded
+     * once when the secret was set, so only the rest of the input has to be hashed.
+     * @return an MD5 MessageDigest with the shared secret as its prefix
+     */
+    private MessageDigest getSharedSecretDigest(){
+        if(null != this.sharedSecretDigest){
+            try{
+                return (MessageDigest)this.sharedSecretDigest.clone();
+            }catch(CloneNotSupportedException cnsex){
+                //checked when the secret was set, can't happen
+            }
         }
-        this.md5MessageDigest.reset();
-
-        this.md5MessageDigest.update((byte)code);
-        this.md5MessageDigest.update((byte)identifier);
-        this.md5MessageDigest.update((byte)(length >> 8));
-        this.md5MessageDigest.update((byte)(length & 0xff));
-        this.md5MessageDigest.update(requestAuthenticator, 0, requestAuthenticator.length);
-        this.md5MessageDigest.update(requestAttributes, 0, requestAttributes.length);
-        this.md5MessageDigest.update(this.sharedSecret.getBytes());
-
-        return this.md5MessageDigest.digest();
+        //the MD5 provider can't clone its state, hash the secret every time
+        MessageDigest md5MessageDigest = RadiusClient.getMd5Digest();
+        md5MessageDigest.update(this.sharedSecretBytes);
+        return md5MessageDigest;
     }
     /**
      * This method returns the current Host Name to be used for RADIUS
@@ -485,6 +861,18 @@ public class RadiusClient
             }
         }
     }
+    /**
+     * @return RadiusTransport the transport used by the asynchronous methods
+     */
+    public RadiusTransport getTransport(){
+        return this.transport;
+    }
+    /**
+     * @return InetAddress the address of the RADIUS server
+     */
+    InetAddress getServerAddress(){
+        return this.hostname;
+    }
     /**
      * This method returns the current port to be used for authentication
      * @return int
@@ -551,19 +939,29 @@ public class RadiusClient
             throw new InvalidParameterException("Shared secret can not be an empty string!");
         }else{//everything is a-ok
             this.sharedSecret = sharedSecret;
+            this.sharedSecretBytes = sharedSecret.getBytes();
+            //seed a digest with the secret once, it is cloned for every packet
+            MessageDigest md5MessageDigest = RadiusClient.getMd5Digest();
+            md5MessageDigest.update(this.sharedSecretBytes);
+            try{
+                this.sharedSecretDigest = (MessageDigest)md5MessageDigest.clone();
+            }catch(CloneNotSupportedException cnsex){
+                this.sharedSecretDigest = null;
+            }
+            this.messageAuthenticator = new MessageAuthenticator(this.sharedSecretBytes);
         }
     }
     /**
-     * This method returns the current timeout period on a recieve of a response
-     * from the RADIUS Server.
+     * This method returns the longest time to wait for a response to one transmission
+     * of a request before retransmitting it, usually the client retransmits sooner based on the
+     * round trip time it measured.
      * @return int
      */
     public int getTimeout() {
         return this.socketTimeout;
     }
     /**
-     * This method sets the timeout period on a recieve of a response from the
-     * RADIUS Server.
+     * This method sets the longest time to wait for a response to one transmission of a request.
      * @param socket_timeout int a positive timeout value
      * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the timeout value is
      *                          less than 0. a 0 value for timeout means that the
@@ -577,175 +975,278 @@ public class RadiusClient
             throw new InvalidParameterException("A negative timeout value is not allowed!");
         }else{//everything is a-ok
             this.socketTimeout = socket_timeout;
-        try{
-        if(null == this.socket) {//prevent NPE
-            this.socket = new DatagramSocket();
         }
-        this.socket.setSoTimeout(this.socketTimeout);
-        }catch(SocketException sex){}
+    }
+    /**
+     * @return int the time in milliseconds after the first transmission of a request past
+     *             which it is not sent again, 0 if it is the timeout times the number of retries
+     */
+    public int getRequestDeadline(){
+        return this.requestDeadline;
+    }
+    /**
+     * Bounds the total time spent on one request independently of the timeout and the
+     * number of retries, i.e. to keep a login from hanging on a dead server.
+     * @param deadline int the time in milliseconds after the first transmission of a request past which
+     *                 it is not sent again, 0 for the timeout times the number of retries
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the deadline is negative
+     */
+    public void setRequestDeadline(int deadline) throws InvalidParameterException{
+        if(deadline < 0){
+            throw new InvalidParameterException("A negative deadline is not allowed!");
+        }
+        this.requestDeadline = deadline;
+    }
+    /**
+     * @return boolean true if Access-Accept, Access-Reject and Access-Challenge responses without a
+     *                 Message-Authenticator are rejected
+     */
+    public boolean isRequireMessageAuthenticator(){
+        return this.requireMessageAuthenticator;
+    }
+    /**
+     * Rejects Access-Accept, Access-Reject and Access-Challenge responses that do not carry a
+     * Message-Authenticator, which protects against forged responses (BlastRADIUS) once the
+     * server is known to send one. The default is false, responses that carry one are always
+     * checked.
+     * @param require boolean true to reject responses without a Message-Authenticator
+     */
+    public void setRequireMessageAuthenticator(boolean require){
+        this.requireMessageAuthenticator = require;
+    }
+    private static boolean isAccessResponse(byte code){
+        return (code == RadiusPacket.ACCESS_ACCEPT) || (code == RadiusPacket.ACCESS_REJECT)
+                || (code == RadiusPacket.ACCESS_CHALLENGE);
+    }
+    /**
+     * Records a transmission of the request and works out how long to wait for the response
+     * before retransmitting it
+     * @param request the request about to be sent
+     * @param reliable true if it is sent over a stream, which is not retransmitted on a timer so
+     *                 its one wait lasts until the deadline
+     * @return int the time to wait in milliseconds, 0 to wait forever
+     */
+    int transmitted(PendingRequest request, boolean reliable){
+        int attempt = request.incrementAttempts();
+        long now = System.nanoTime();
+        int maxTimeout = this.getTimeout();
+        if(attempt == 1){
+            request.setFirstSent(now);
+            long deadline = (this.requestDeadline > 0) ? this.requestDeadline : (long)maxTimeout * request.getRetries();
+            request.setDeadline(now + ((deadline > 0) ? TimeUnit.MILLISECONDS.toNanos(deadline) : Long.MAX_VALUE / 2));
+        }
+        if((maxTimeout == 0) && (this.requestDeadline == 0)){
+            return 0;
         }
+        long remaining = TimeUnit.NANOSECONDS.toMillis(request.getDeadline() - now);
+        if(reliable){
+            return (int)Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
+        }
+        if(maxTimeout == 0){
+            return 0;
+        }
+        int timeout = (attempt == 1) ? this.retransmissionTimer.initialTimeout(maxTimeout)
+                : this.retransmissionTimer.backoff(request.getRetransmissionTimeout(), maxTimeout);
+        //don't wait past the deadline
+        timeout = (int)Math.max(1, Math.min(timeout, remaining));
+        request.setRetransmissionTimeout(timeout);
+        return timeout;
+    }
+    /**
+     * @param request a request whose last transmission timed out
+     * @return boolean true if its deadline has not passed
+     */
+    boolean mayRetransmit(PendingRequest request){
+        return System.nanoTime() - request.getDeadline() < 0;
     }
     /**
-     * @param packet java.net.DatagramPacket
+     * Records the round trip time of a request that was answered, unless it was retransmitted in
+     * which case there is no telling which transmission was answered
+     * @param request the answered request
+     */
+    void responseReceived(PendingRequest request){
+        if(request.getAttempts() == 1){
+            this.retransmissionTimer.sample(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - request.getFirstSent()));
+        }
+    }
+    /**
+     * Validates the response in place in the receive buffer and builds a RadiusPacket over a
+     * copy of it, the attributes are only decoded if they are asked for.
+     * @param data byte[] the array holding the response
+     * @param offset int where the response starts in the array
+     * @param packetLength int the number of bytes received
      * @param requestIdentifier byte
      * @param requestAuthenticator byte[]
-     * @return int the code value from the radius response packet
+     * @return RadiusPacket the validated response
      * @exception net.sourceforge.jradiusclient.exception.RadiusException
-     * @exception java.io.IOException
      */
-    private RadiusPacket checkRadiusPacket(DatagramPacket packet,
+    private RadiusPacket checkRadiusPacket(byte[] data,
+                                        int offset,
+                                        int packetLength,
                                         byte requestIdentifier,
                                         byte[] requestAuthenticator)
     throws RadiusException{
-        ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-        DataInputStream input = new DataInputStream(bais);
-        try{
-            int returnCode = -1;
-            int packetLength = packet.getLength();
-            byte code = input.readByte();
-            returnCode = code & 0xff;
-            //now check the identifiers to see if they match
-            byte identifierByte = input.readByte();
-            //int identifier = identifierByte & 0xff;//don't need this
-            if (identifierByte != requestIdentifier){
-                //wrong packet asshole!
-                throw new RadiusException("The RADIUS Server returned the wrong Identifier.");
-            }
-            //read the length
-            short length = (short)((int)input.readShort() & 0xffff);
-            //now check the response authenticator to validate the packet
-            byte [] responseAuthenticator = new byte[16];
-            input.readFully(responseAuthenticator);
-            //get the attributes as a byte[]
-            byte[] responseAttributeBytes = new byte[length - RadiusPacket.RADIUS_HEADER_LENGTH];
-            input.readFully(responseAttributeBytes);
-            byte [] myResponseAuthenticator =
-                this.makeRFC2865ResponseAuthenticator(code, identifierByte, length,
-                                                    requestAuthenticator, responseAttributeBytes);
-            //now compare them
-            if((responseAuthenticator.length != 16) ||
-                (myResponseAuthenticator.length != 16)){
-                //wrong authenticator length asshole!
-                throw new RadiusException("Authenticator length is incorrect.");
-            }else{
-                for (int i = 0; i<responseAuthenticator.length;i++){
-                    if (responseAuthenticator[i] != myResponseAuthenticator[i]){
-                        //fuck! throw an exception
-                        throw new RadiusException("Authenticators do not match, response packet not validated!");
-                    }
-                }
-            }
-
-            RadiusPacket responsePacket = new RadiusPacket(returnCode,identifierByte);
-            //now parse out the responseAttributeBytes into the responseAttributes hashtable
-            int attributesLength = responseAttributeBytes.length;
-            if (attributesLength > 0){
-                int attributeType;
-                int attributeLength;
-                byte[] attributeValue;
-                DataInputStream attributeInput = new DataInputStream(new ByteArrayInputStream(responseAttributeBytes));
-
-                for (int left=0; left < attributesLength; ){
-                    attributeType = (attributeInput.readByte() & 0xff);
-                    attributeLength = attributeInput.readByte() & 0xff;
-                    attributeValue = new byte[attributeLength - 2];
-                    attributeInput.read(attributeValue, 0, attributeLength - 2);
-                    responsePacket.setAttribute(new RadiusAttribute(attributeType, attributeValue));
-                    left += attributeLength;
-                }
-                attributeInput.close();
+        if (packetLength < RadiusPacket.MIN_PACKET_LENGTH){
+            throw new RadiusException("Packet too short !");
+        }
+        //now check the identifiers to see if they match
+        if (data[offset + 1] != requestIdentifier){
+            //wrong packet asshole!
+            throw new RadiusException("The RADIUS Server returned the wrong Identifier.");
+        }
+        //read the length, anything in the datagram past it is padding
+        int length = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+        if ((length < RadiusPacket.MIN_PACKET_LENGTH) || (length > packetLength)){
+            throw new RadiusException("Invalid Length field in packet.");
+        }
+        //now check the response authenticator to validate the packet
+        byte [] myResponseAuthenticator =
+            this.makeRFC2865ResponseAuthenticator(data, offset, length, requestAuthenticator);
+        for (int i = 0; i < 16; i++){
+            if (data[offset + 4 + i] != myResponseAuthenticator[i]){
+                //fuck! throw an exception
+                throw new RadiusException("Authenticators do not match, response packet not validated!");
             }
-            return responsePacket;
-        }catch(IOException ioex){
-            throw new RadiusException(ioex.getMessage());
+        }
+        if(this.requireMessageAuthenticator && RadiusClient.isAccessResponse(data[offset])
+                && (MessageAuthenticator.find(data, offset, length) < 0)){
+            throw new RadiusException("Response has no Message-Authenticator, response packet not validated!");
+        }
+        if(!this.messageAuthenticator.verify(data, offset, length, requestAuthenticator)){
+            throw new RadiusException("Message-Authenticator does not match, response packet not validated!");
+        }
+        //the receive buffer gets reused, so the response keeps its own copy
+        byte[] response = new byte[length];
+        System.arraycopy(data, offset, response, 0, length);
+        try{
+            return new RadiusPacket(new RadiusPacketView(response, 0, length));
         }catch(InvalidParameterException ipex){
             throw new RadiusException("Invalid response attributes sent back from server.");
-        }finally{
-            try{
-                input.close();
-                bais.close();
-            }catch(IOException ignore){}
-        }
-    }
-    /**
-     * This method builds a Radius packet for transmission to the Radius Server
-     * @param byte code
-     * @param byte identifier
-     * @param short length
-     * @param byte[] requestAuthenticator
-     * @param byte[] requestAttributes
-     * @exception java.net.UnknownHostException
-     * @exception java.io.IOException
-     */
-    private DatagramPacket composeRadiusPacket(int port, byte code,
-                                                byte identifier,
-                                                short length,
-                                                byte[] requestAuthenticator,
-                                                byte[] requestAttributes)
-    throws RadiusException{
-        ByteArrayOutputStream baos 	= new ByteArrayOutputStream();
-        DataOutputStream output 	= new DataOutputStream(baos);
-        DatagramPacket packet_out 	= null;
-
-        try{
-            //1 byte: Code
-            output.writeByte(code);
-            //1 byte: identifier
-            output.writeByte(identifier);
-            //2 byte: Length
-            output.writeShort(length);
-            //16 bytes: Request Authenticator
-            //only write 16 of them if there are more, which there better not be
-            output.write(requestAuthenticator, 0, 16);
-
-            output.write(requestAttributes, 0, requestAttributes.length);
-
-            packet_out = new DatagramPacket(new byte[length], length);
-            packet_out.setPort(port);
-            packet_out.setAddress(this.hostname);
-            packet_out.setLength(length);
-
-            packet_out.setData(baos.toByteArray());
-            output.close();
-            baos.close();
-        }catch(IOException ioex){
-            throw new RadiusException(ioex.getMessage());
         }
-        //won't get here in the case of an exception so we won't return return null or a malformed packet
-        return packet_out;
     }
     /**
-     * This method sends the outgoing packet and recieves the incoming response
-     * @param packet_out java.net.DatagramPacket
-     * @param retryCount int Number of retries we will allow
-     * @return java.net.DatagramPacket
-     * @exception java.io.IOException if there is a problem sending or recieving the packet, i.e recieve timeout
+     * This method encodes the request with the identifier of its packet, sends it and recieves
+     * the response on a socket checked out of the pool for this call. Each transmission waits for
+     * the response as long as <code>transmitted</code> says, anything else arriving on the socket
+     * in the meantime (i.e. a late answer to an earlier request sent from the same socket) is
+     * silently discarded as RFC 2865 requires. With a stream transport the request goes over the
+     * dispatcher's connections instead and the caller waits for its future.
+     * @param request the prepared request
+     * @return RadiusPacket the validated response
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if there is a problem
+     *                  sending or recieving the packet, i.e recieve timeout on the last attempt
      */
-    private DatagramPacket sendReceivePacket(DatagramPacket packet_out, int retry)
+    private RadiusPacket sendReceive(PendingRequest request)
     throws RadiusException{
-        if (packet_out.getLength() > RadiusPacket.MAX_PACKET_LENGTH){
-            throw new RadiusException("Packet too big!");
-        }else if (packet_out.getLength() < RadiusPacket.MIN_PACKET_LENGTH){
-            throw new RadiusException("Packet too short !");
-        }else{
-            DatagramPacket packet_in =
-                    new DatagramPacket(new byte[RadiusPacket.MAX_PACKET_LENGTH],
-                                                    RadiusPacket.MAX_PACKET_LENGTH);
-            for (int i = 1; i <= retry; i++){
+        if(this.transport instanceof StreamTransport){
+            this.getDispatcher().send(request);
+            return request.getFuture().getResponse();
+        }
+        request.setIdentifier(request.getRequest().getPacketIdentifier());
+        this.encodeRequest(request);
+        //encoded once, every retransmission sends the same packet
+        byte[] data = request.getPacket();
+        DatagramPacket packet_out = new DatagramPacket(data, data.length, this.hostname, request.getPort());
+        DatagramSocket socket = this.checkOutSocket();
+        DatagramPacket packet_in = this.checkOutReceiveBuffer();
+        try{
+            while(true){
+                int timeout = this.transmitted(request, false);
+                long waitUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
                 try{
-                    this.socket.send(packet_out);
-                    this.socket.receive(packet_in);
-                    return packet_in;
+                    socket.send(packet_out);
+                    while(true){
+                        int remaining = 0;//a zero timeout blocks until something arrives
+                        if(timeout > 0){
+                            remaining = (int)TimeUnit.NANOSECONDS.toMillis(waitUntil - System.nanoTime());
+                            if(remaining <= 0){
+                                throw new SocketTimeoutException("Receive timed out");
+                            }
+                        }
+                        socket.setSoTimeout(remaining);
+                        packet_in.setLength(RadiusPacket.MAX_PACKET_LENGTH);
+                        socket.receive(packet_in);
+                        try{
+                            RadiusPacket response = this.checkResponse(packet_in.getData(), packet_in.getOffset(),
+                                    packet_in.getLength(), request);
+                            this.responseReceived(request);
+                            return response;
+                        }catch(RadiusException rex){
+                            //not the response to this request, keep waiting for it
+                        }
+                    }
                 }catch (IOException ioex){
-                    //if we reach the max number of retries throw it back up the stack
-                    if (i == retry){
-                        throw new RadiusException(ioex.getMessage());
+                    //if we are out of retries or time throw it back up the stack
+                    if (!this.mayRetransmit(request)){
+                        throw new RadiusTimeoutException(ioex.getMessage());
                     }
                 }
             }
+        }finally{
+            //the response has been copied out of the buffer by now
+            this.checkInReceiveBuffer(packet_in);
+            this.checkInSocket(socket);
+        }
+    }
+    /**
+     * Takes an idle socket from the pool, opening a new one if every socket is in use
+     * @return DatagramSocket for the exclusive use of the caller until it is checked back in
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException if the client has been
+     *                  closed or a socket could not be opened
+     */
+    private DatagramSocket checkOutSocket()
+    throws RadiusException{
+        synchronized(this.idleSockets){
+            if(this.closed){
+                throw new RadiusException("RadiusClient has been closed.");
+            }
+            if(!this.idleSockets.isEmpty()){
+                return (DatagramSocket)this.idleSockets.removeFirst();
+            }
+        }
+        try{
+            return new DatagramSocket();
+        }catch(SocketException sex){
+            throw new RadiusException(sex.getMessage());
+        }
+    }
+    /**
+     * Returns a socket to the pool, or closes it if the client has been closed meanwhile
+     * @param socket the socket taken with checkOutSocket
+     */
+    private void checkInSocket(DatagramSocket socket){
+        synchronized(this.idleSockets){
+            if(!this.closed){
+                this.idleSockets.addFirst(socket);
+                return;
+            }
+        }
+        socket.close();
+    }
+    /**
+     * Takes an idle receive buffer from the pool, allocating a new one if every buffer is in use
+     * @return DatagramPacket over a buffer of <code>RadiusPacket.MAX_PACKET_LENGTH</code> bytes
+     *         for the exclusive use of the caller until it is checked back in
+     */
+    private DatagramPacket checkOutReceiveBuffer(){
+        synchronized(this.idleReceiveBuffers){
+            if(!this.idleReceiveBuffers.isEmpty()){
+                return (DatagramPacket)this.idleReceiveBuffers.removeFirst();
+            }
+        }
+        return new DatagramPacket(new byte[RadiusPacket.MAX_PACKET_LENGTH], RadiusPacket.MAX_PACKET_LENGTH);
+    }
+    /**
+     * Returns a receive buffer to the pool, the pool keeps at most MAX_IDLE_RECEIVE_BUFFERS so a
+     * burst of blocking calls does not pin its buffers for the life of the client
+     * @param buffer the buffer taken with checkOutReceiveBuffer
+     */
+    private void checkInReceiveBuffer(DatagramPacket buffer){
+        synchronized(this.idleReceiveBuffers){
+            if(this.idleReceiveBuffers.size() < MAX_IDLE_RECEIVE_BUFFERS){
+                this.idleReceiveBuffers.addFirst(buffer);
+            }
         }
-        //won't get here in the case of an exception so we won't return return null or a malformed packet
-        return null;
     }
 
     /**
@@ -802,11 +1303,35 @@ public class RadiusClient
         return sb.toString().hashCode();
     }
     /**
-     * closes the socket
+     * closes the idle sockets, sockets in use by a blocking call are closed when it returns
      *
      */
     protected void closeSocket(){
-        this.socket.close();
+        synchronized(this.idleSockets){
+            this.closed = true;
+            Iterator iter = this.idleSockets.iterator();
+            while(iter.hasNext()){
+                ((DatagramSocket)iter.next()).close();
+            }
+            this.idleSockets.clear();
+        }
+        synchronized(this.idleReceiveBuffers){
+            this.idleReceiveBuffers.clear();
+        }
+        synchronized(this){
+            if(null != this.dispatcher){
+                this.dispatcher.close();
+            }
+        }
+    }
+    /**
+     * Releases the sockets and the receiver thread held by this client, any asynchronous
+     * requests still in flight fail with a <code>RadiusException</code>. Clients that have used
+     * the asynchronous methods must be closed explicitly since the receiver thread keeps them
+     * from being finalized.
+     */
+    public void close(){
+        this.closeSocket();
     }
     /**
      * overrides finalize to close socket and then normal finalize on super class
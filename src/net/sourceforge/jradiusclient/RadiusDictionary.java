@@ -0,0 +1,407 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * The names, data types and named values of RADIUS attributes, standard and vendor specific.
+ * Standard attributes are kept in a 256 slot table indexed by their type code and vendors in a
+ * VendorDictionary, so decoding a packet with a dictionary costs an array index per attribute.
+ * <P>
+ * A dictionary can be filled from dictionary files in the FreeRADIUS format, which understands
+ * <pre>
+ * ATTRIBUTE    name code type [flags|vendor]
+ * VALUE        attribute name number
+ * VENDOR       name id [format=t,l]
+ * BEGIN-VENDOR name
+ * END-VENDOR   name
+ * $INCLUDE     file
+ * </pre>
+ * Flags such as encrypt=2 or has_tag are accepted but not used. TLV members, extended
+ * attributes (dotted codes such as 241.1), attributes internal to the server (codes above 255
+ * outside a vendor, such as Auth-Type 1000) and protocol definitions are skipped along with
+ * their VALUE lines. <code>getDefault()</code> returns a dictionary built into the library with the
+ * attributes of RFC 2865, 2866, 2867, 2868, 2869, 3162, 4072 and 5176 and a few common vendors.
+ * <P>
+ * A dictionary is meant to be filled once at startup, it can then be read by any number of
+ * threads without locking but it must not be changed while it is in use.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public final class RadiusDictionary {
+    private static final int MAX_INCLUDE_DEPTH = 16;
+    private static RadiusDictionary defaultDictionary = null;
+    private final AttributeDefinition[] attributes = new AttributeDefinition[256];
+    private final VendorDictionary vendors = new VendorDictionary();
+    private final Map attributesByName = new HashMap();
+    private final Map vendorsByName = new HashMap();
+    private final Set skippedAttributes = new HashSet();
+    /**
+     * @return the dictionary built into the library, shared by all its users so it must not be changed
+     */
+    public static synchronized RadiusDictionary getDefault(){
+        if(null == defaultDictionary){
+            try{
+                defaultDictionary = DefaultDictionary.build();
+            }catch(InvalidParameterException ipex){//the built in definitions are valid
+                throw new RuntimeException(ipex.getMessage());
+            }
+        }
+        return defaultDictionary;
+    }
+    /**
+     * adds or replaces a standard attribute
+     * @param name the name of the attribute
+     * @param type its type code, 1 to 255
+     * @param dataType one of the data types of AttributeDefinition
+     * @return the definition that was added
+     * @throws InvalidParameterException if the type code does not fit a byte
+     */
+    public AttributeDefinition addAttribute(final String name, final int type, final int dataType)
+            throws InvalidParameterException{
+        if((type < 0) || (type > 255)){
+            throw new InvalidParameterException("Attribute type " + type + " does not fit in a byte");
+        }
+        AttributeDefinition definition = new AttributeDefinition(name, 0, type, dataType);
+        this.attributes[type] = definition;
+        this.attributesByName.put(name, definition);
+        return definition;
+    }
+    /**
+     * adds or replaces a sub-attribute of a vendor
+     * @param name the name of the sub-attribute
+     * @param vendorId the vendor, which must already be in this dictionary
+     * @param vendorType the type of the sub-attribute
+     * @param dataType one of the data types of AttributeDefinition
+     * @return the definition that was added
+     * @throws InvalidParameterException if the vendor is not defined or the type does not fit its type field
+     */
+    public AttributeDefinition addAttribute(final String name, final int vendorId, final int vendorType,
+            final int dataType) throws InvalidParameterException{
+        VendorDictionary.Vendor vendor = this.vendors.getVendor(vendorId);
+        if(null == vendor){
+            throw new InvalidParameterException("Vendor " + vendorId + " is not defined");
+        }
+        AttributeDefinition definition = vendor.addAttribute(name, vendorType, dataType);
+        this.attributesByName.put(name, definition);
+        return definition;
+    }
+    /**
+     * adds a vendor using the sub-attribute layout of RFC 2865
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param name the name of the vendor
+     * @return the vendor
+     * @throws InvalidParameterException if the vendor id is already defined
+     */
+    public VendorDictionary.Vendor addVendor(final int vendorId, final String name) throws InvalidParameterException{
+        return this.addVendor(vendorId, name, 1, 1);
+    }
+    /**
+     * adds a vendor, see <code>VendorDictionary.addVendor</code>
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param name the name of the vendor
+     * @param typeSize the size of the type field of its sub-attributes, 1, 2 or 4
+     * @param lengthSize the size of the length field of its sub-attributes, 0, 1 or 2
+     * @return the vendor
+     * @throws InvalidParameterException if the vendor id is already defined or a size is not supported
+     */
+    public VendorDictionary.Vendor addVendor(final int vendorId, final String name, final int typeSize,
+            final int lengthSize) throws InvalidParameterException{
+        VendorDictionary.Vendor vendor = this.vendors.addVendor(vendorId, name, typeSize, lengthSize);
+        this.vendorsByName.put(name, vendor);
+        return vendor;
+    }
+    /**
+     * @param type the type code of a standard attribute
+     * @return its definition, or null if this dictionary does not know it
+     */
+    public AttributeDefinition getAttribute(final int type){
+        return ((type < 0) || (type > 255)) ? null : this.attributes[type];
+    }
+    /**
+     * @param vendorId the vendor id
+     * @param vendorType the type of the sub-attribute
+     * @return its definition, or null if this dictionary does not know it
+     */
+    public AttributeDefinition getAttribute(final int vendorId, final int vendorType){
+        return this.vendors.getAttribute(vendorId, vendorType);
+    }
+    /**
+     * @param name the name of a standard or vendor attribute
+     * @return its definition, or null if this dictionary does not know it
+     */
+    public AttributeDefinition getAttribute(final String name){
+        return (AttributeDefinition)this.attributesByName.get(name);
+    }
+    /**
+     * @param type the type code of a standard attribute
+     * @return its name, or "Attr-" followed by the code if this dictionary does not know it
+     */
+    public String getAttributeName(final int type){
+        AttributeDefinition definition = this.getAttribute(type);
+        return (null == definition) ? "Attr-" + type : definition.getName();
+    }
+    /**
+     * @param name the name of a vendor
+     * @return the vendor, or null if this dictionary does not know it
+     */
+    public VendorDictionary.Vendor getVendor(final String name){
+        return (VendorDictionary.Vendor)this.vendorsByName.get(name);
+    }
+    /**
+     * @return the vendors of this dictionary, to read Vendor-Specific attributes with a VendorAttributeCursor
+     */
+    public VendorDictionary getVendors(){
+        return this.vendors;
+    }
+    /**
+     * formats every attribute of a packet with its name and value, one per line, for logging
+     * @param view the packet
+     * @return the attributes as text
+     * @throws RadiusException if a Vendor-Specific attribute is malformed
+     */
+    public String describe(final RadiusPacketView view) throws RadiusException{
+        StringBuffer text = new StringBuffer();
+        byte[] data = view.getData();
+        VendorAttributeCursor cursor = null;
+        for(int pos = view.firstAttribute(); pos >= 0; pos = view.nextAttribute(pos)){
+            int type = view.getAttributeType(pos);
+            if(type == RadiusAttributeValues.VENDOR_SPECIFIC){
+                if(null == cursor){
+                    cursor = new VendorAttributeCursor(this.vendors);
+                    cursor.reset(view);
+                    while(cursor.next()){
+                        AttributeDefinition definition = cursor.getDefinition();
+                        if(null == definition){
+                            definition = new AttributeDefinition("Vendor-" + cursor.getVendorId() + "-Attr-"
+                                    + cursor.getVendorType(), cursor.getVendorId(), cursor.getVendorType(),
+                                    AttributeDefinition.OCTETS);
+                        }
+                        RadiusDictionary.describe(text, definition, cursor.getData(), cursor.getValueOffset(),
+                                cursor.getValueLength());
+                    }
+                }
+                continue;
+            }
+            AttributeDefinition definition = this.getAttribute(type);
+            if(null == definition){
+                definition = new AttributeDefinition("Attr-" + type, 0, type, AttributeDefinition.OCTETS);
+            }
+            RadiusDictionary.describe(text, definition, data, view.getValueOffset(pos), view.getValueLength(pos));
+        }
+        return text.toString();
+    }
+    private static void describe(final StringBuffer text, final AttributeDefinition definition, final byte[] data,
+            final int offset, final int length){
+        text.append(definition.getName()).append(" = ");
+        if(definition.getDataType() == AttributeDefinition.STRING){
+            text.append('"').append(definition.format(data, offset, length)).append('"');
+        }else{
+            text.append(definition.format(data, offset, length));
+        }
+        text.append('\n');
+    }
+    /**
+     * reads a dictionary file into this dictionary, $INCLUDE files are looked up relative to its directory
+     * @param file the dictionary file
+     * @throws IOException if a file could not be read
+     * @throws RadiusException if a file is malformed
+     */
+    public void load(final File file) throws IOException, RadiusException{
+        this.load(file, 0);
+    }
+    /**
+     * reads dictionary definitions into this dictionary, $INCLUDE files are looked up relative to
+     * the working directory
+     * @param reader the definitions
+     * @param sourceName the name to report errors under
+     * @throws IOException if the definitions could not be read
+     * @throws RadiusException if the definitions are malformed
+     */
+    public void load(final Reader reader, final String sourceName) throws IOException, RadiusException{
+        this.load(reader, sourceName, null, 0);
+    }
+    private void load(final File file, final int depth) throws IOException, RadiusException{
+        if(depth > MAX_INCLUDE_DEPTH){
+            throw new RadiusException("Dictionary files included too deeply at " + file);
+        }
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try{
+            this.load(reader, file.getPath(), file.getAbsoluteFile().getParentFile(), depth);
+        }finally{
+            reader.close();
+        }
+    }
+    private void load(final Reader reader, final String sourceName, final File directory, final int depth)
+            throws IOException, RadiusException{
+        BufferedReader lines = new BufferedReader(reader);
+        VendorDictionary.Vendor vendor = null;
+        int tlvDepth = 0;
+        int lineNumber = 0;
+        for(String line = lines.readLine(); null != line; line = lines.readLine()){
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if(comment >= 0){
+                line = line.substring(0, comment);
+            }
+            StringTokenizer tokens = new StringTokenizer(line);
+            int count = tokens.countTokens();
+            if(count == 0){
+                continue;
+            }
+            String[] fields = new String[count];
+            for(int i = 0; i < count; i++){
+                fields[i] = tokens.nextToken();
+            }
+            String where = " at " + sourceName + ":" + lineNumber;
+            try{
+                String keyword = fields[0];
+                if("ATTRIBUTE".equals(keyword)){
+                    this.loadAttribute(fields, vendor, tlvDepth > 0, where);
+                }else if("VALUE".equals(keyword)){
+                    this.loadValue(fields, where);
+                }else if("VENDOR".equals(keyword)){
+                    this.loadVendor(fields, where);
+                }else if("BEGIN-VENDOR".equals(keyword)){
+                    RadiusDictionary.checkFields(fields, 2, where);
+                    vendor = this.getVendor(fields[1]);
+                    if(null == vendor){
+                        throw new RadiusException("Unknown vendor " + fields[1] + where);
+                    }
+                }else if("END-VENDOR".equals(keyword)){
+                    vendor = null;
+                }else if("BEGIN-TLV".equals(keyword)){
+                    tlvDepth++;
+                }else if("END-TLV".equals(keyword)){
+                    tlvDepth = Math.max(0, tlvDepth - 1);
+                }else if("$INCLUDE".equals(keyword) || "$INCLUDE-".equals(keyword)){
+                    RadiusDictionary.checkFields(fields, 2, where);
+                    File included = new File(fields[1]);
+                    if(!included.isAbsolute() && (null != directory)){
+                        included = new File(directory, fields[1]);
+                    }
+                    //$INCLUDE- includes a file only if it exists
+                    if(included.exists() || "$INCLUDE".equals(keyword)){
+                        this.load(included, depth + 1);
+                    }
+                }else if(!"PROTOCOL".equals(keyword) && !"BEGIN-PROTOCOL".equals(keyword)
+                        && !"END-PROTOCOL".equals(keyword) && !"FLAGS".equals(keyword)){
+                    throw new RadiusException("Unknown keyword " + keyword + where);
+                }
+            }catch(InvalidParameterException ipex){
+                throw new RadiusException(ipex.getMessage() + where);
+            }
+        }
+    }
+    private void loadAttribute(final String[] fields, final VendorDictionary.Vendor blockVendor,
+            final boolean inTlv, final String where) throws RadiusException, InvalidParameterException{
+        RadiusDictionary.checkFields(fields, 4, where);
+        if(inTlv || (fields[2].indexOf('.') >= 0)){
+            //a TLV member or an extended attribute, which are not supported, its VALUEs are skipped too
+            this.skippedAttributes.add(fields[1]);
+            return;
+        }
+        int code = RadiusDictionary.parseNumber(fields[2], where);
+        int dataType = RadiusDictionary.parseDataType(fields[3]);
+        VendorDictionary.Vendor vendor = blockVendor;
+        if((fields.length > 4) && (fields[4].indexOf('=') < 0)){
+            //the old format names the vendor after the data type, flags always have an =
+            VendorDictionary.Vendor named = this.getVendor(fields[4]);
+            if(null != named){
+                vendor = named;
+            }else if(!"has_tag".equals(fields[4]) && !"concat".equals(fields[4])){
+                throw new RadiusException("Unknown vendor " + fields[4] + where);
+            }
+        }
+        if(null == vendor){
+            if(code > 255){
+                //a server internal attribute such as Auth-Type, never sent in a packet
+                this.skippedAttributes.add(fields[1]);
+                return;
+            }
+            this.addAttribute(fields[1], code, dataType);
+        }else{
+            this.addAttribute(fields[1], vendor.getId(), code, dataType);
+        }
+    }
+    private void loadValue(final String[] fields, final String where) throws RadiusException{
+        RadiusDictionary.checkFields(fields, 4, where);
+        AttributeDefinition definition = this.getAttribute(fields[1]);
+        if(null == definition){
+            if(this.skippedAttributes.contains(fields[1])){
+                return;
+            }
+            throw new RadiusException("VALUE for unknown attribute " + fields[1] + where);
+        }
+        definition.addValue(fields[2], RadiusDictionary.parseNumber(fields[3], where));
+    }
+    private void loadVendor(final String[] fields, final String where) throws RadiusException, InvalidParameterException{
+        RadiusDictionary.checkFields(fields, 3, where);
+        int typeSize = 1;
+        int lengthSize = 1;
+        if((fields.length > 3) && fields[3].startsWith("format=")){
+            StringTokenizer format = new StringTokenizer(fields[3].substring("format=".length()), ",");
+            if(format.countTokens() < 2){
+                throw new RadiusException("Invalid vendor format " + fields[3] + where);
+            }
+            typeSize = RadiusDictionary.parseNumber(format.nextToken(), where);
+            lengthSize = RadiusDictionary.parseNumber(format.nextToken(), where);
+        }
+        this.addVendor(RadiusDictionary.parseNumber(fields[2], where), fields[1], typeSize, lengthSize);
+    }
+    private static void checkFields(final String[] fields, final int count, final String where) throws RadiusException{
+        if(fields.length < count){
+            throw new RadiusException("Missing fields in " + fields[0] + where);
+        }
+    }
+    private static int parseNumber(final String number, final String where) throws RadiusException{
+        try{
+            if(number.startsWith("0x") || number.startsWith("0X")){
+                return (int)Long.parseLong(number.substring(2), 16);
+            }
+            return (int)Long.parseLong(number);
+        }catch(NumberFormatException nfex){
+            throw new RadiusException("Invalid number " + number + where);
+        }
+    }
+    /**
+     * @return the data type of a dictionary type name, types that are not decoded (ether, abinary, tlv...) are octets
+     */
+    private static int parseDataType(final String name){
+        String type = name.toLowerCase();
+        if("string".equals(type) || "text".equals(type)){
+            return AttributeDefinition.STRING;
+        }else if("integer".equals(type) || "uint32".equals(type) || "signed".equals(type) || "int32".equals(type)){
+            return AttributeDefinition.INTEGER;
+        }else if("ipaddr".equals(type) || "ipv4addr".equals(type)){
+            return AttributeDefinition.IPADDR;
+        }else if("date".equals(type)){
+            return AttributeDefinition.DATE;
+        }else if("ipv6addr".equals(type)){
+            return AttributeDefinition.IPV6ADDR;
+        }else if("ipv6prefix".equals(type)){
+            return AttributeDefinition.IPV6PREFIX;
+        }else if("ifid".equals(type)){
+            return AttributeDefinition.IFID;
+        }else if("byte".equals(type) || "uint8".equals(type)){
+            return AttributeDefinition.BYTE;
+        }else if("short".equals(type) || "uint16".equals(type)){
+            return AttributeDefinition.SHORT;
+        }else if("integer64".equals(type) || "uint64".equals(type)){
+            return AttributeDefinition.INTEGER64;
+        }
+        return AttributeDefinition.OCTETS;
+    }
+}
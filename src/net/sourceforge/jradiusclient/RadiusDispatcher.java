@@ -0,0 +1,111 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Multiplexes the outstanding requests of one <code>RadiusClient</code> over a pool of
+ * <code>RadiusEndpoint</code>s, each a connection opened through the client's transport. The identifier of each request is allocated here from the
+ * identifiers not in flight on an endpoint for the server port the request goes to; when all
+ * 256 identifiers of every endpoint for that port are in use another endpoint (i.e. another
+ * local port) is opened. Retransmissions are driven by a timer shared by all dispatchers, and
+ * connections are opened on connector threads shared by all dispatchers, never while the
+ * dispatcher is locked or on the timer thread.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.4 $
+ */
+class RadiusDispatcher {
+    static final ScheduledExecutorService TIMER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable runnable){
+                Thread thread = new Thread(runnable, "RadiusDispatcher-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    /** opens connections, a TCP connect or TLS handshake can take as long as the connect timeout */
+    static final ExecutorService CONNECTOR =
+        Executors.newCachedThreadPool(new ThreadFactory(){
+            public Thread newThread(Runnable runnable){
+                Thread thread = new Thread(runnable, "RadiusDispatcher-connector");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    private final RadiusClient client;
+    private final Map endpoints = new HashMap();
+    private boolean closed = false;
+    /**
+     * @param client the RadiusClient requests are encoded and validated with
+     */
+    RadiusDispatcher(final RadiusClient client){
+        this.client = client;
+    }
+    /**
+     * Allocates an identifier for the request, encodes it with that identifier and sends it
+     * @param request the prepared request
+     * @throws RadiusException if the request could not be encoded or the dispatcher is closed
+     */
+    void send(final PendingRequest request) throws RadiusException{
+        RadiusEndpoint endpoint = null;
+        int identifier = -1;
+        synchronized(this){
+            if(this.closed){
+                throw new RadiusException("RadiusClient has been closed.");
+            }
+            Integer port = Integer.valueOf(request.getPort());
+            List portEndpoints = (List)this.endpoints.get(port);
+            if(null == portEndpoints){
+                portEndpoints = new ArrayList();
+                this.endpoints.put(port, portEndpoints);
+            }
+            Iterator iter = portEndpoints.iterator();
+            while((identifier < 0) && iter.hasNext()){
+                endpoint = (RadiusEndpoint)iter.next();
+                identifier = endpoint.allocate(request);
+            }
+            if(identifier < 0){
+                //every identifier on every local port is in flight, add another endpoint, its
+                //connection is opened by the connector when the request is transmitted
+                endpoint = new RadiusEndpoint(this.client, this.client.getTransport(),
+                        this.client.getServerAddress(), request.getPort());
+                portEndpoints.add(endpoint);
+                identifier = endpoint.allocate(request);
+            }
+        }
+        try{
+            this.client.encodeRequest(request);
+        }catch(RadiusException rex){
+            endpoint.release(request);
+            throw rex;
+        }
+        endpoint.transmit(request);
+    }
+    /**
+     * closes every endpoint, failing everything still in flight
+     */
+    void close(){
+        List toClose = new ArrayList();
+        synchronized(this){
+            this.closed = true;
+            Iterator iter = this.endpoints.values().iterator();
+            while(iter.hasNext()){
+                toClose.addAll((List)iter.next());
+            }
+            this.endpoints.clear();
+        }
+        Iterator iter = toClose.iterator();
+        while(iter.hasNext()){
+            ((RadiusEndpoint)iter.next()).close();
+        }
+    }
+}
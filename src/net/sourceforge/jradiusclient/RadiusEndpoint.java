@@ -0,0 +1,362 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+import net.sourceforge.jradiusclient.transport.RadiusConnection;
+import net.sourceforge.jradiusclient.transport.RadiusConnectionHandler;
+import net.sourceforge.jradiusclient.transport.RadiusTransport;
+import net.sourceforge.jradiusclient.transport.StreamTransport;
+
+/**
+ * Released under the LGPL<BR>
+ * One connection to one server port, opened through the client's <code>RadiusTransport</code>,
+ * together with the window of 256 identifiers that can be in flight on it. Requests are kept in
+ * a table indexed by their 8 bit identifier, every packet the transport receives is matched to
+ * its request by identifier and checked against the request authenticator. Responses that do
+ * not match anything in flight are silently discarded as required by RFC 2865. An identifier is
+ * reclaimed as soon as its request is answered, has timed out for the last time or is cancelled.
+ * <P>
+ * The connection is opened on the dispatcher's connector thread when the first request is
+ * transmitted, requests transmitted while it is being opened wait for it and are sent by that
+ * thread, so neither the senders nor the timer thread block on a slow connect or TLS handshake.
+ * <P>
+ * Over a <code>StreamTransport</code> the connection is reliable: a request is sent once and
+ * waits until its deadline. When the transport reports that the connection broke, everything
+ * in flight waits for a new connection and is sent again on it.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.7 $
+ */
+class RadiusEndpoint {
+    static final int MAX_IDENTIFIERS = 256;
+    private final RadiusClient client;
+    private final RadiusTransport transport;
+    private final InetAddress server;
+    private final int port;
+    private final boolean reliable;
+    private final PendingRequest[] pending = new PendingRequest[MAX_IDENTIFIERS];
+    private final List waiting = new ArrayList();//requests to send once connected, guarded by pending
+    private RadiusConnection connection = null;//null until connected, guarded by pending
+    private boolean connecting = false;
+    private int generation = 0;//counts the connections opened, a lost one is only handled once
+    private int inFlight = 0;
+    private int nextIdentifier = 0;
+    private volatile boolean closed = false;
+    /** reclaims the identifier of a cancelled request, registered on the future of every request */
+    private final RadiusResponseListener cancelListener = new RadiusResponseListener(){
+        public void requestCompleted(RadiusFuture future){
+            if(future.isCancelled()){
+                cancelled(future);
+            }
+        }
+    };
+    /**
+     * @param client the RadiusClient responses are validated with
+     * @param transport the RadiusTransport to open the connection with
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     */
+    RadiusEndpoint(final RadiusClient client, final RadiusTransport transport,
+            final InetAddress server, final int port){
+        this.client = client;
+        this.transport = transport;
+        this.server = server;
+        this.port = port;
+        this.reliable = transport instanceof StreamTransport;
+    }
+    /**
+     * Reserves an identifier for the request. Identifiers are handed out round robin so a
+     * reclaimed identifier is not reused straight away.
+     * @param request the request to reserve an identifier for
+     * @return the identifier, or -1 if all 256 identifiers are in flight or the endpoint is closed
+     */
+    int allocate(final PendingRequest request){
+        int identifier;
+        synchronized(this.pending){
+            if(this.closed || this.inFlight == MAX_IDENTIFIERS){
+                return -1;
+            }
+            while(null != this.pending[this.nextIdentifier]){
+                this.nextIdentifier = (this.nextIdentifier + 1) % MAX_IDENTIFIERS;
+            }
+            identifier = this.nextIdentifier;
+            this.pending[identifier] = request;
+            request.setIdentifier((byte)identifier);
+            this.inFlight++;
+            this.nextIdentifier = (identifier + 1) % MAX_IDENTIFIERS;
+        }
+        request.getFuture().addListener(this.cancelListener);
+        return identifier;
+    }
+    /**
+     * removes the request from the pending table if it is still there, reclaiming its identifier
+     * @param request the request to remove
+     * @return true if it was removed by this call
+     */
+    boolean release(final PendingRequest request){
+        int slot = request.getIdentifier() & 0xff;
+        synchronized(this.pending){
+            if(this.pending[slot] == request){
+                this.pending[slot] = null;
+                this.inFlight--;
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * (re)sends an encoded request and arms its retransmission timer, or leaves it for the
+     * connector thread to send if the connection is not open
+     * @param request the request to send
+     */
+    void transmit(final PendingRequest request){
+        int timeout = this.client.transmitted(request, this.reliable);
+        RadiusConnection current;
+        int currentGeneration;
+        boolean connect = false;
+        synchronized(this.pending){
+            current = this.connection;
+            currentGeneration = this.generation;
+            if(null == current){
+                if(!this.waiting.contains(request)){
+                    this.waiting.add(request);
+                }
+                connect = !this.connecting;
+            }
+        }
+        if(connect){
+            this.connect();
+        }else if(null != current){
+            this.send(current, currentGeneration, request);
+        }
+        if(timeout > 0){//a zero timeout means wait forever, as with the blocking socket
+            request.setTimeoutTask(RadiusDispatcher.TIMER.schedule(new Runnable(){
+                public void run(){
+                    timedOut(request);
+                }
+            }, timeout, TimeUnit.MILLISECONDS));
+        }
+    }
+    private void send(final RadiusConnection current, final int currentGeneration, final PendingRequest request){
+        try{
+            current.send(request.getPacket(), 0, request.getPacket().length);
+        }catch(IOException ioex){
+            if(this.reliable){
+                this.lost(currentGeneration, ioex);
+            }
+            //otherwise treat it like a lost packet, the timer will retry it or fail it
+        }
+    }
+    /**
+     * opens the connection on the connector thread
+     */
+    private void connect(){
+        final int opening;
+        synchronized(this.pending){
+            if(this.closed || this.connecting || (null != this.connection)){
+                return;
+            }
+            this.connecting = true;
+            opening = ++this.generation;
+        }
+        RadiusDispatcher.CONNECTOR.execute(new Runnable(){
+            public void run(){
+                open(opening);
+            }
+        });
+    }
+    /**
+     * runs on the connector thread, opens the connection and sends the requests waiting for it,
+     * or fails them if it could not be opened
+     */
+    private void open(final int opening){
+        RadiusConnection opened = null;
+        IOException failure = null;
+        try{
+            opened = this.transport.connect(this.server, this.port, new ConnectionHandler(opening));
+        }catch(IOException ioex){
+            failure = ioex;
+        }
+        List toSend;
+        synchronized(this.pending){
+            this.connecting = false;
+            if((null != opened) && !this.closed){
+                this.connection = opened;
+            }
+            toSend = new ArrayList(this.waiting);
+            this.waiting.clear();
+        }
+        if(null == failure && this.closed){
+            opened.close();//close() has failed everything
+            return;
+        }
+        for(Iterator i = toSend.iterator(); i.hasNext();){
+            PendingRequest request = (PendingRequest)i.next();
+            if(request.getFuture().isDone()){
+                continue;
+            }
+            if(null != failure){
+                if(this.release(request)){
+                    if(null != request.getTimeoutTask()){
+                        request.getTimeoutTask().cancel(false);
+                    }
+                    request.getFuture().fail(new RadiusException(failure.getMessage()));
+                }
+            }else{
+                this.send(opened, opening, request);
+            }
+        }
+    }
+    /**
+     * a stream connection broke, everything in flight waits for the next connection
+     * @param lostGeneration the connection that broke
+     * @param cause why it broke
+     */
+    private void lost(final int lostGeneration, final IOException cause){
+        RadiusConnection broken;
+        boolean reconnect;
+        synchronized(this.pending){
+            if((lostGeneration != this.generation) || (null == this.connection)){
+                return;//already handled
+            }
+            broken = this.connection;
+            this.connection = null;
+            for(int i = 0; i < MAX_IDENTIFIERS; i++){
+                PendingRequest request = this.pending[i];
+                //requests still being encoded wait for the connection when they are transmitted
+                if((null != request) && (null != request.getPacket()) && !this.waiting.contains(request)){
+                    request.incrementAttempts();
+                    this.waiting.add(request);
+                }
+            }
+            reconnect = !this.waiting.isEmpty();
+        }
+        broken.close();
+        if(reconnect){
+            //their timers still run, a request that is not answered by its deadline fails
+            this.connect();
+        }
+    }
+    /**
+     * reclaims the identifier of a cancelled request and stops its timer, otherwise a request
+     * that waits forever would hold it for good
+     * @param future the future of the request that was cancelled
+     */
+    private void cancelled(final RadiusFuture future){
+        PendingRequest request = null;
+        synchronized(this.pending){
+            for(int i = 0; i < MAX_IDENTIFIERS; i++){
+                if((null != this.pending[i]) && (this.pending[i].getFuture() == future)){
+                    request = this.pending[i];
+                    break;
+                }
+            }
+            if(null == request){
+                return;//already answered, timed out or failed
+            }
+            this.waiting.remove(request);
+        }
+        if(this.release(request) && (null != request.getTimeoutTask())){
+            request.getTimeoutTask().cancel(false);
+        }
+    }
+    /**
+     * called by the timer when no response arrived in time
+     * @param request the request that timed out
+     */
+    private void timedOut(final PendingRequest request){
+        boolean retry = !this.reliable && !request.getFuture().isDone() && this.client.mayRetransmit(request);
+        if(retry && !this.closed){
+            this.transmit(request);
+        }else if(this.release(request)){
+            request.getFuture().fail(new RadiusTimeoutException("Timed out waiting for a response from the RADIUS Server."));
+        }
+    }
+    /**
+     * Matches a packet received by the transport to the request it answers
+     * @param data the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the number of bytes received
+     */
+    private void packetReceived(final byte[] data, final int offset, final int length){
+        if(length < RadiusPacket.MIN_PACKET_LENGTH){
+            return;
+        }
+        PendingRequest request;
+        synchronized(this.pending){
+            request = this.pending[data[offset + 1] & 0xff];
+        }
+        if((null == request) || (null == request.getPacket())){
+            return;//late or duplicate response, or the request is still being encoded
+        }
+        RadiusPacket responsePacket;
+        try{
+            responsePacket = this.client.checkResponse(data, offset, length, request);
+        }catch(RadiusException rex){
+            return;//not the response to this request, keep waiting for it
+        }
+        if(this.release(request)){
+            if(null != request.getTimeoutTask()){
+                request.getTimeoutTask().cancel(false);
+            }
+            this.client.responseReceived(request);
+            try{
+                this.client.checkResponseType(request.getRequest(), responsePacket);
+                request.getFuture().complete(responsePacket);
+            }catch(RadiusException rex){
+                request.getFuture().fail(rex);
+            }
+        }
+    }
+    /**
+     * closes the connection and fails everything still in flight
+     */
+    void close(){
+        PendingRequest[] toFail = new PendingRequest[MAX_IDENTIFIERS];
+        RadiusConnection toClose;
+        synchronized(this.pending){
+            if(this.closed){
+                return;
+            }
+            this.closed = true;
+            System.arraycopy(this.pending, 0, toFail, 0, MAX_IDENTIFIERS);
+            Arrays.fill(this.pending, null);
+            this.inFlight = 0;
+            this.waiting.clear();
+            toClose = this.connection;
+            this.connection = null;
+        }
+        if(null != toClose){
+            toClose.close();
+        }
+        for(int i = 0; i < MAX_IDENTIFIERS; i++){
+            if(null != toFail[i]){
+                if(null != toFail[i].getTimeoutTask()){
+                    toFail[i].getTimeoutTask().cancel(false);
+                }
+                toFail[i].getFuture().fail(new RadiusException("RadiusClient has been closed."));
+            }
+        }
+    }
+    /**
+     * Passes on what one connection receives, the endpoint outlives its connections
+     */
+    private class ConnectionHandler implements RadiusConnectionHandler {
+        private final int connectionGeneration;
+        ConnectionHandler(final int connectionGeneration){
+            this.connectionGeneration = connectionGeneration;
+        }
+        public void packetReceived(final byte[] data, final int offset, final int length){
+            RadiusEndpoint.this.packetReceived(data, offset, length);
+        }
+        public void connectionLost(final IOException cause){
+            lost(this.connectionGeneration, cause);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * The pending result of an asynchronous request submitted through
+ * <code>RadiusClient.authenticateAsync</code> or <code>RadiusClient.accountAsync</code>.
+ * The future completes with the validated response <code>RadiusPacket</code>, or fails with
+ * the <code>RadiusException</code> that ended the request (i.e. all retries timed out).
+ * <code>RadiusResponseListener</code>s registered on the future are called exactly once, on the
+ * thread that completes it, so they must not block. A RuntimeException thrown by a listener is
+ * passed to the uncaught exception handler of that thread and does not stop the other listeners
+ * or the thread, which usually is the I/O thread of the transport.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.4 $
+ */
+public class RadiusFuture implements Future {
+    private final RadiusPacket request;
+    private RadiusPacket response = null;
+    private RadiusException failure = null;
+    private boolean done = false;
+    private boolean cancelled = false;
+    private List listeners = new ArrayList();
+    private volatile int transmissions = 0;
+    /**
+     * Constructs a RadiusFuture for the given request
+     * @param request the RadiusPacket that was submitted
+     */
+    RadiusFuture(final RadiusPacket request){
+        this.request = request;
+    }
+    /**
+     * get the request this future is waiting on a response for
+     * @return the RadiusPacket that was submitted
+     */
+    public RadiusPacket getRequest(){
+        return this.request;
+    }
+    /**
+     * get the number of times the request has been sent so far, anything above 1 was a
+     * retransmission
+     * @return the number of transmissions
+     */
+    public int getTransmissions(){
+        return this.transmissions;
+    }
+    /**
+     * records the number of transmissions, the request is only ever sent by one thread at a time
+     * @param transmissions the number of times the request has been sent
+     */
+    void setTransmissions(final int transmissions){
+        this.transmissions = transmissions;
+    }
+    /**
+     * Cancels this request, any response arriving later is discarded. The identifier used by
+     * the request is reclaimed and its retransmission timer stopped right away.
+     * @param mayInterruptIfRunning ignored, there is no thread to interrupt
+     * @return false if the request had already completed
+     */
+    public boolean cancel(boolean mayInterruptIfRunning){
+        synchronized(this){
+            if(this.done){
+                return false;
+            }
+            this.cancelled = true;
+            this.failure = new RadiusException("Request was cancelled.");
+            this.done = true;
+            this.notifyAll();
+        }
+        this.fireCompleted();
+        return true;
+    }
+    /**
+     * @return true if this request was cancelled before it completed
+     */
+    public synchronized boolean isCancelled(){
+        return this.cancelled;
+    }
+    /**
+     * @return true if this request has completed, failed or been cancelled
+     */
+    public synchronized boolean isDone(){
+        return this.done;
+    }
+    /**
+     * Waits for the response to this request
+     * @return the response RadiusPacket
+     * @throws InterruptedException if the waiting thread was interrupted
+     * @throws ExecutionException wrapping the RadiusException if the request failed
+     * @throws CancellationException if the request was cancelled
+     */
+    public Object get() throws InterruptedException, ExecutionException{
+        synchronized(this){
+            while(!this.done){
+                this.wait();
+            }
+        }
+        return this.result();
+    }
+    /**
+     * Waits at most the given time for the response to this request
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout argument
+     * @return the response RadiusPacket
+     * @throws InterruptedException if the waiting thread was interrupted
+     * @throws ExecutionException wrapping the RadiusException if the request failed
+     * @throws CancellationException if the request was cancelled
+     * @throws TimeoutException if no result was available in time
+     */
+    public Object get(long timeout, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException{
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized(this){
+            while(!this.done){
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0){
+                    throw new TimeoutException("No response received in time.");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return this.result();
+    }
+    /**
+     * Waits for the response to this request, this is the equivalent of the blocking
+     * <code>RadiusClient</code> methods.
+     * @return the response RadiusPacket
+     * @throws RadiusException if the request failed or was cancelled, or the waiting thread was
+     *                         interrupted
+     */
+    public RadiusPacket getResponse() throws RadiusException{
+        try{
+            synchronized(this){
+                while(!this.done){
+                    this.wait();
+                }
+            }
+        }catch(InterruptedException iex){
+            Thread.currentThread().interrupt();
+            throw new RadiusException("Interrupted while waiting for response.");
+        }
+        synchronized(this){
+            if(null != this.failure){
+                throw this.failure;
+            }
+            return this.response;
+        }
+    }
+    /**
+     * Registers a listener to be called when this request completes. If the request has
+     * already completed the listener is called immediately on the current thread.
+     * @param listener the RadiusResponseListener to notify
+     */
+    public void addListener(final RadiusResponseListener listener){
+        synchronized(this){
+            if(!this.done){
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        this.notifyListener(listener);
+    }
+    /**
+     * completes this future with a response
+     * @param responsePacket the validated response
+     * @return false if this future was already done
+     */
+    boolean complete(final RadiusPacket responsePacket){
+        synchronized(this){
+            if(this.done){
+                return false;
+            }
+            this.response = responsePacket;
+            this.done = true;
+            this.notifyAll();
+        }
+        this.fireCompleted();
+        return true;
+    }
+    /**
+     * fails this future
+     * @param rex the reason the request failed
+     * @return false if this future was already done
+     */
+    boolean fail(final RadiusException rex){
+        synchronized(this){
+            if(this.done){
+                return false;
+            }
+            this.failure = rex;
+            this.done = true;
+            this.notifyAll();
+        }
+        this.fireCompleted();
+        return true;
+    }
+    private synchronized Object result() throws ExecutionException{
+        if(this.cancelled){
+            throw new CancellationException(this.failure.getMessage());
+        }
+        if(null != this.failure){
+            throw new ExecutionException(this.failure.getMessage(), this.failure);
+        }
+        return this.response;
+    }
+    private void fireCompleted(){
+        List toNotify;
+        synchronized(this){
+            toNotify = this.listeners;
+            this.listeners = new ArrayList();
+        }
+        Iterator iter = toNotify.iterator();
+        while(iter.hasNext()){
+            this.notifyListener((RadiusResponseListener)iter.next());
+        }
+    }
+    private void notifyListener(final RadiusResponseListener listener){
+        try{
+            listener.requestCompleted(this);
+        }catch(RuntimeException rex){
+            //a broken listener must not take the thread completing the request down with it
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, rex);
+        }
+    }
+}
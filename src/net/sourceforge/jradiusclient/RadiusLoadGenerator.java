@@ -0,0 +1,474 @@
+package net.sourceforge.jradiusclient;
+
+import gnu.getopt.Getopt;
+import gnu.getopt.LongOpt;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicLong;
+import net.sourceforge.jradiusclient.exception.*;
+import net.sourceforge.jradiusclient.packets.*;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import net.sourceforge.jradiusclient.transport.DatagramSocketTransport;
+import net.sourceforge.jradiusclient.transport.NioDatagramTransport;
+import net.sourceforge.jradiusclient.transport.RadiusTransport;
+/**
+ * Released under the LGPL<BR>
+ * A non-interactive load generator driving a RADIUS server through <code>RadiusClient</code>.
+ * In closed loop mode (<code>-c</code>) a fixed number of requests is kept in flight, each
+ * completed request is immediately followed by the next one. In open loop mode (<code>-r</code>)
+ * requests are submitted at a fixed rate whether or not the server keeps up, and latency is
+ * measured from the time a request was due to be sent so a stalled server shows up in the
+ * percentiles. The request mix is given as weights, i.e. <code>-m pap=70,chap=20,acct=10</code>.
+ * With <code>--loopback</code> the requests go to an embedded <code>LoopbackRadiusServer</code>.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public class RadiusLoadGenerator{
+    private static final int PAP = 0;
+    private static final int CHAP = 1;
+    private static final int ACCT = 2;
+    private final RadiusClient client;
+    private final int[] mixWeights;
+    private final int mixTotal;
+    private final String userPrefix;
+    private final String password;
+    private final int retries;
+    private final long maxRequests;
+    private final Random random = new Random();
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong challenged = new AtomicLong();
+    private final AtomicLong accounted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong retransmits = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private volatile long stopAt = 0;
+
+    public static String getUsage(){
+        return "usage: RadiusLoadGenerator (-s RadiusServer -S sharedSecret | --loopback) [--authPort=1812] [--acctPort=1813]\n"
+            + "    [-c concurrency | -r requestsPerSecond] [-d seconds] [-n requests] [-m pap=70,chap=20,acct=10]\n"
+            + "    [-u userPrefix] [-p password] [-t timeoutMillis] [--retries=3] [--nio]\n"
+            + "    [--drop=fraction] [--latency=millis] (loopback server only)";
+    }
+
+    public static void main(String [] args)
+    {
+        int authport = 1812 ;
+        int acctport = 1813;
+        String host = "localhost",sharedSecret = null;
+        int concurrency = 16, rate = 0, seconds = 10, timeout = 2000, retries = 3, latency = 0;
+        long requests = 0;
+        double drop = 0.0;
+        boolean loopback = false, nio = false;
+        String mix = "pap=100", userPrefix = "user", password = "password";
+        LongOpt[] longOpts = {new LongOpt("authPort",LongOpt.REQUIRED_ARGUMENT,null,1),
+            new LongOpt("acctPort",LongOpt.REQUIRED_ARGUMENT,null,2),
+            new LongOpt("retries",LongOpt.REQUIRED_ARGUMENT,null,3),
+            new LongOpt("loopback",LongOpt.NO_ARGUMENT,null,4),
+            new LongOpt("drop",LongOpt.REQUIRED_ARGUMENT,null,5),
+            new LongOpt("latency",LongOpt.REQUIRED_ARGUMENT,null,6),
+            new LongOpt("nio",LongOpt.NO_ARGUMENT,null,7)};
+        Getopt gOpt = new Getopt("RadiusLoadGenerator",args,"s:S:c:r:d:n:m:u:p:t:",longOpts,false);
+        gOpt.setOpterr(true);
+        int c;
+        try{
+            while((c = gOpt.getopt()) != -1){
+                switch(c){
+                    case 's':
+                        host = gOpt.getOptarg();
+                        break;
+                    case 'S':
+                        sharedSecret = gOpt.getOptarg();
+                        break;
+                    case 'c':
+                        concurrency = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 'r':
+                        rate = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 'd':
+                        seconds = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 'n':
+                        requests = Long.parseLong(gOpt.getOptarg());
+                        break;
+                    case 'm':
+                        mix = gOpt.getOptarg();
+                        break;
+                    case 'u':
+                        userPrefix = gOpt.getOptarg();
+                        break;
+                    case 'p':
+                        password = gOpt.getOptarg();
+                        break;
+                    case 't':
+                        timeout = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 1:
+                        authport = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 2:
+                        acctport = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 3:
+                        retries = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 4:
+                        loopback = true;
+                        break;
+                    case 5:
+                        drop = Double.parseDouble(gOpt.getOptarg());
+                        break;
+                    case 6:
+                        latency = Integer.parseInt(gOpt.getOptarg());
+                        break;
+                    case 7:
+                        nio = true;
+                        break;
+                    case '?':
+                        break;//getopt already printed an error
+                    default:
+                        System.err.println(getUsage());
+                }
+            }
+        }catch(NumberFormatException nfex){
+            RadiusLoadGenerator.log("Invalid number " + nfex.getMessage());
+            RadiusLoadGenerator.log(getUsage());
+            System.exit(2);
+        }
+        int[] weights = null;
+        try{
+            weights = RadiusLoadGenerator.parseMix(mix);
+        }catch(InvalidParameterException ivpex){
+            RadiusLoadGenerator.log(ivpex.getMessage());
+            RadiusLoadGenerator.log(getUsage());
+            System.exit(2);
+        }
+        LoopbackRadiusServer server = null;
+        RadiusClient rc = null;
+        RadiusTransport transport = null;
+        try{
+            if(loopback){
+                if(null == sharedSecret){
+                    sharedSecret = "loopback";
+                }
+                server = new LoopbackRadiusServer(sharedSecret);
+                server.setDropRate(drop);
+                server.setLatency(latency);
+                host = "127.0.0.1";
+                authport = acctport = server.getPort();
+            }
+            transport = nio ? (RadiusTransport)new NioDatagramTransport() : new DatagramSocketTransport();
+            rc = new RadiusClient(host, authport, acctport, sharedSecret, timeout, transport);
+        }catch(IOException ioex){
+            RadiusLoadGenerator.log(ioex.getMessage());
+            System.exit(4);
+        }catch(RadiusException rex){
+            RadiusLoadGenerator.log(rex.getMessage());
+            RadiusLoadGenerator.log(getUsage());
+            System.exit(4);
+        }catch(InvalidParameterException ivpex){
+            RadiusLoadGenerator.log("Unable to create Radius Client due to invalid parameter!");
+            RadiusLoadGenerator.log(ivpex.getMessage());
+            RadiusLoadGenerator.log(getUsage());
+            System.exit(5);
+        }
+        RadiusLoadGenerator generator = new RadiusLoadGenerator(rc, weights, userPrefix, password, retries, requests);
+        long elapsed;
+        if(rate > 0){
+            RadiusLoadGenerator.log("open loop, " + rate + " requests/s for " + seconds + "s against " + host);
+            elapsed = generator.runOpenLoop(rate, seconds * 1000L, (long)timeout * retries + 1000L);
+        }else{
+            RadiusLoadGenerator.log("closed loop, " + concurrency + " in flight for " + seconds + "s against " + host);
+            elapsed = generator.runClosedLoop(concurrency, seconds * 1000L);
+        }
+        generator.report(elapsed);
+        rc.close();
+        if(transport instanceof NioDatagramTransport){
+            ((NioDatagramTransport)transport).close();
+        }
+        if(null != server){
+            RadiusLoadGenerator.log("loopback server: received " + server.getRequestsReceived()
+                    + ", dropped " + server.getRequestsDropped() + ", discarded " + server.getRequestsDiscarded()
+                    + ", responses " + server.getResponsesSent());
+            server.close();
+        }
+    }
+    /**
+     * @param client the RadiusClient to drive
+     * @param mixWeights the weight of PAP, CHAP and accounting requests
+     * @param userPrefix user names are this prefix followed by a sequence number
+     * @param password the password of every user
+     * @param retries the number of times each request may be sent
+     * @param maxRequests stop after this many requests, 0 for no limit
+     */
+    RadiusLoadGenerator(final RadiusClient client, final int[] mixWeights, final String userPrefix,
+            final String password, final int retries, final long maxRequests){
+        this.client = client;
+        this.mixWeights = mixWeights;
+        this.mixTotal = mixWeights[PAP] + mixWeights[CHAP] + mixWeights[ACCT];
+        this.userPrefix = userPrefix;
+        this.password = password;
+        this.retries = retries;
+        this.maxRequests = maxRequests;
+    }
+    /**
+     * Keeps <code>concurrency</code> requests in flight, one thread each
+     * @return the time taken in milliseconds
+     */
+    long runClosedLoop(final int concurrency, final long duration){
+        long start = System.currentTimeMillis();
+        this.stopAt = start + duration;
+        Thread[] workers = new Thread[concurrency];
+        for(int i = 0; i < concurrency; i++){
+            workers[i] = new Thread(new Runnable(){
+                public void run(){
+                    while(System.currentTimeMillis() < stopAt){
+                        long sequence = issued.getAndIncrement();
+                        if((maxRequests > 0) && (sequence >= maxRequests)){
+                            return;
+                        }
+                        long sent = System.nanoTime();
+                        RadiusFuture future = submit(sequence);
+                        if(null != future){
+                            try{
+                                future.getResponse();
+                            }catch(RadiusException rex){
+                                //counted by record
+                            }
+                            record(future, sent);
+                        }
+                    }
+                }
+            }, "RadiusLoadGenerator-" + i);
+            workers[i].start();
+        }
+        for(int i = 0; i < concurrency; i++){
+            try{
+                workers[i].join();
+            }catch(InterruptedException iex){
+                Thread.currentThread().interrupt();
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+    /**
+     * Submits <code>rate</code> requests per second without waiting for the responses
+     * @return the time taken in milliseconds, including waiting for the last responses
+     */
+    long runOpenLoop(final int rate, final long duration, final long drainTime){
+        long start = System.currentTimeMillis();
+        this.stopAt = start + duration;
+        long interval = 1000000000L / rate;
+        long due = System.nanoTime();
+        while(System.currentTimeMillis() < this.stopAt){
+            long sequence = this.issued.getAndIncrement();
+            if((this.maxRequests > 0) && (sequence >= this.maxRequests)){
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if(wait > 0){
+                try{
+                    Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+                }catch(InterruptedException iex){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            final long sent = due;//latency counts from when the request was due, not when it went out
+            RadiusFuture future = this.submit(sequence);
+            if(null != future){
+                future.addListener(new RadiusResponseListener(){
+                    public void requestCompleted(RadiusFuture completedFuture){
+                        record(completedFuture, sent);
+                    }
+                });
+            }
+            due += interval;
+        }
+        long issuedCount = Math.min(this.issued.get(), (this.maxRequests > 0) ? this.maxRequests : Long.MAX_VALUE);
+        long drainUntil = System.currentTimeMillis() + drainTime;
+        while((this.completed.get() + this.timeouts.get() + this.errors.get() < issuedCount) && (System.currentTimeMillis() < drainUntil)){
+            try{
+                Thread.sleep(10);
+            }catch(InterruptedException iex){
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return System.currentTimeMillis() - start;
+    }
+    /**
+     * builds the next request of the mix and submits it
+     * @return the future of the request, null if it could not be submitted
+     */
+    private RadiusFuture submit(final long sequence){
+        String userName = this.userPrefix + sequence;
+        try{
+            int pick;
+            synchronized(this.random){
+                pick = this.random.nextInt(this.mixTotal);
+            }
+            if(pick < this.mixWeights[PAP]){
+                return this.client.authenticateAsync(new PapAccessRequest(userName, this.password), this.retries);
+            }else if(pick < this.mixWeights[PAP] + this.mixWeights[CHAP]){
+                return this.client.authenticateAsync(new ChapAccessRequest(userName, this.password), this.retries);
+            }else{
+                return this.client.accountAsync(new StartAccountingRequest(userName, Long.toString(sequence)));
+            }
+        }catch(InvalidParameterException ivpex){
+            this.errors.incrementAndGet();
+        }catch(RadiusException rex){
+            this.errors.incrementAndGet();
+        }
+        return null;
+    }
+    private void record(final RadiusFuture future, final long sent){
+        long micros = (System.nanoTime() - sent) / 1000L;
+        this.retransmits.addAndGet(Math.max(0, future.getTransmissions() - 1));
+        try{
+            RadiusPacket response = future.getResponse();//already done, does not block
+            this.completed.incrementAndGet();
+            this.latencies.record(micros);
+            switch(response.getPacketType()){
+                case RadiusPacket.ACCESS_ACCEPT:
+                    this.accepted.incrementAndGet();
+                    break;
+                case RadiusPacket.ACCESS_REJECT:
+                    this.rejected.incrementAndGet();
+                    break;
+                case RadiusPacket.ACCESS_CHALLENGE:
+                    this.challenged.incrementAndGet();
+                    break;
+                default:
+                    this.accounted.incrementAndGet();
+                    break;
+            }
+        }catch(RadiusException rex){
+            if(rex instanceof RadiusTimeoutException){
+                this.timeouts.incrementAndGet();
+            }else{
+                this.errors.incrementAndGet();
+            }
+        }
+    }
+    void report(final long elapsed){
+        long done = this.completed.get();
+        System.out.println("requests:   " + (done + this.timeouts.get() + this.errors.get()) + " in " + elapsed + "ms");
+        System.out.println("completed:  " + done + " (accept " + this.accepted.get() + ", reject " + this.rejected.get()
+                + ", challenge " + this.challenged.get() + ", accounting " + this.accounted.get() + ")");
+        System.out.println("timeouts:   " + this.timeouts.get() + "  errors: " + this.errors.get()
+                + "  retransmits: " + this.retransmits.get());
+        System.out.println("throughput: " + ((elapsed > 0) ? (done * 1000L / elapsed) : 0) + " responses/s");
+        System.out.println("latency ms: p50 " + this.latencies.format(50.0) + "  p90 " + this.latencies.format(90.0)
+                + "  p99 " + this.latencies.format(99.0) + "  p99.9 " + this.latencies.format(99.9)
+                + "  max " + this.latencies.format(100.0));
+    }
+    /**
+     * parses pap=70,chap=20,acct=10
+     * @return the weights of PAP, CHAP and accounting requests
+     */
+    static int[] parseMix(final String mix) throws InvalidParameterException{
+        int[] weights = new int[3];
+        StringTokenizer tokens = new StringTokenizer(mix, ",");
+        while(tokens.hasMoreTokens()){
+            String token = tokens.nextToken().trim();
+            int eq = token.indexOf('=');
+            if(eq < 0){
+                throw new InvalidParameterException("Invalid request mix entry: " + token);
+            }
+            String type = token.substring(0, eq).trim();
+            int weight;
+            try{
+                weight = Integer.parseInt(token.substring(eq + 1).trim());
+            }catch(NumberFormatException nfex){
+                throw new InvalidParameterException("Invalid request mix weight: " + token);
+            }
+            if(weight < 0){
+                throw new InvalidParameterException("Invalid request mix weight: " + token);
+            }
+            if(type.equalsIgnoreCase("pap")){
+                weights[PAP] = weight;
+            }else if(type.equalsIgnoreCase("chap")){
+                weights[CHAP] = weight;
+            }else if(type.equalsIgnoreCase("acct")){
+                weights[ACCT] = weight;
+            }else{
+                throw new InvalidParameterException("Unknown request type in mix: " + type);
+            }
+        }
+        if(weights[PAP] + weights[CHAP] + weights[ACCT] == 0){
+            throw new InvalidParameterException("The request mix is empty");
+        }
+        return weights;
+    }
+    private static void log(final String message){
+        System.out.print  ("RadiusLoadGenerator: ");
+        System.out.println(message);
+    }
+    /**
+     * A log-linear histogram of latencies in microseconds in the manner of HdrHistogram: values
+     * below 128 are counted exactly, above that each power of two is split in 64 buckets, so
+     * every recorded value is within about 1.5% of the value reported for its bucket.
+     */
+    static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 64;
+        private final long[] counts = new long[SUB_BUCKETS * 48];
+        private long total = 0;
+        private long max = 0;
+        synchronized void record(final long micros){
+            long value = Math.max(0, micros);
+            this.counts[Math.min(index(value), this.counts.length - 1)]++;
+            this.total++;
+            this.max = Math.max(this.max, value);
+        }
+        /**
+         * @param percentile 0 to 100
+         * @return the latency in microseconds at or below which the given percentage of the
+         *         recorded values lie
+         */
+        synchronized long getValueAtPercentile(final double percentile){
+            if(this.total == 0){
+                return 0;
+            }
+            if(percentile >= 100.0){
+                return this.max;
+            }
+            long rank = (long)Math.ceil(this.total * percentile / 100.0);
+            long seen = 0;
+            for(int i = 0; i < this.counts.length; i++){
+                seen += this.counts[i];
+                if(seen >= Math.max(1, rank)){
+                    return Math.min(this.max, highestValue(i));
+                }
+            }
+            return this.max;
+        }
+        String format(final double percentile){
+            long micros = this.getValueAtPercentile(percentile);
+            String fraction = Long.toString(1000L + micros % 1000L);
+            return (micros / 1000L) + "." + fraction.substring(1);
+        }
+        private static int index(final long value){
+            if(value < 2 * SUB_BUCKETS){
+                return (int)value;
+            }
+            //shift the value into [64, 128)
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+            return SUB_BUCKETS * shift + (int)(value >> shift);
+        }
+        private static long highestValue(final int index){
+            if(index < 2 * SUB_BUCKETS){
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long subBucket = SUB_BUCKETS + index % SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+}
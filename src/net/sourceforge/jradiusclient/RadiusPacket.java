@@ -3,17 +3,25 @@ package net.sourceforge.jradiusclient;
 import net.sourceforge.jradiusclient.exception.InvalidParameterException;
 import net.sourceforge.jradiusclient.exception.RadiusException;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.Map;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 /**
  * Released under the LGPL<BR>
+ * A RADIUS packet: its type, identifier and attributes. The attributes are kept packed in wire
+ * format and in the order they were added, so an attribute type may occur any number of times
+ * (<code>addAttribute</code>, <code>getAttributes(int)</code>) and the packet is encoded with a
+ * single copy. <code>setAttribute</code> replaces the attributes of its type. Lookups by type go
+ * through an index of the first attribute of each type.
+ * <P>
+ * A RadiusPacket is meant to be built and read by one thread at a time and takes no locks. To
+ * share one between threads, for example a response handed to several listeners,
+ * <code>freeze()</code> it first.
  * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
- * @version $Revision: 1.12 $
+ * @version $Revision: 1.16 $
  */
 public class RadiusPacket {
     public static final int MIN_PACKET_LENGTH       = 20;
@@ -45,9 +53,21 @@ public class RadiusPacket {
     private static Object nextPacketIdLock = new Object();
     private static byte nextPacketId = (byte)0;
 
+    private static final int ATTRIBUTE_HEADER_LENGTH = 2;
+    private static final int MAX_ATTRIBUTE_LENGTH = 255;
+    private static final int INITIAL_CAPACITY = 64;
     private int packetType = 0;
     private byte packetIdentifier = (byte)0;
-    private Map attributes;
+    //the attributes packed in wire format and wire order, data[start..end)
+    private byte[] data;
+    private int start = 0;
+    private int end = 0;
+    //true while data is the array of the view, it is copied before the first change
+    private boolean shared = false;
+    //the position + 1 of the first attribute of each type, built on the first lookup
+    private int[] index = null;
+    private volatile boolean frozen = false;
+    private RadiusPacketView view = null;
     /**
      * builds a type RadiusPacket with no Attributes set
      *
@@ -93,25 +113,95 @@ public class RadiusPacket {
         }
         this.packetType = type;
         this.packetIdentifier = identifier;
-        this.attributes = new HashMap();
+        this.data = new byte[INITIAL_CAPACITY];
         this.setAttributes(attributeList);
     }
     /**
-     * Adds a RadiusAttribute to this RadiusPacket
+     * Builds a RadiusPacket over a received packet. The attributes stay in the received array
+     * until the packet is first changed, see <code>getView()</code>.
+     * @param view the validated packet
+     * @throws InvalidParameterException if the packet type is 0
+     */
+    RadiusPacket(final RadiusPacketView view) throws InvalidParameterException{
+        this(view.getPacketType(), view.getPacketIdentifier(), new ArrayList());
+        this.view = view;
+        this.data = view.getData();
+        this.start = view.getOffset() + RADIUS_HEADER_LENGTH;
+        this.end = view.getOffset() + view.getLength();
+        this.shared = true;
+    }
+    /**
+     * get the raw view of a received RadiusPacket. Reading attributes through the view does not
+     * allocate a RadiusAttribute or copy the value, which is cheaper when only a few attributes
+     * are of interest. The view reflects the packet as it was received.
+     * @return the RadiusPacketView for packets received from a server, null for packets built locally
+     */
+    public RadiusPacketView getView(){
+        return this.view;
+    }
+    /**
+     * Makes this RadiusPacket immutable, every method that would change its attributes throws an
+     * InvalidParameterException from now on. A frozen packet can be read by any number of threads
+     * at once.
+     */
+    public void freeze(){
+        if(!this.frozen){
+            //built now so readers never write to the packet
+            this.index = this.buildIndex();
+            this.frozen = true;
+        }
+    }
+    /**
+     * @return true if this RadiusPacket has been frozen
+     */
+    public boolean isFrozen(){
+        return this.frozen;
+    }
+    /**
+     * Sets a RadiusAttribute on this RadiusPacket, replacing any attributes of the same type. The
+     * attribute takes the place of the first attribute it replaces, or goes at the end.
      * @param radiusAttribute A RadiusAttribute to set on this RadiusPacket
-     * @throws InvalidParameterException if the parameter radiusAttribute was null
+     * @throws InvalidParameterException if the parameter radiusAttribute was null or is too long
      */
     public void setAttribute(RadiusAttribute radiusAttribute) throws InvalidParameterException{
         if (null == radiusAttribute){
             throw new InvalidParameterException("radiusAttribute was null");
         }
         validateAttribute(radiusAttribute);
-        synchronized(this.attributes){
-            this.attributes.put(new Integer(radiusAttribute.getType()),radiusAttribute);
+        byte[] bytes = RadiusPacket.checkLength(radiusAttribute);
+        this.own();
+        int type = bytes[0] & 0xff;
+        int first = this.first(type);
+        if(first < 0){
+            this.append(bytes);
+            return;
+        }
+        this.replace(first, this.data[first + 1] & 0xff, bytes);
+        //drop the rest of this type
+        for(int pos = this.find(type, first + bytes.length); pos >= 0; pos = this.find(type, pos)){
+            this.replace(pos, this.data[pos + 1] & 0xff, null);
+        }
+    }
+    /**
+     * Adds a RadiusAttribute at the end of this RadiusPacket, after any attributes of the same
+     * type, for attributes that may occur more than once (i.e. REPLY_MESSAGE, CLASS,
+     * PROXY_STATE, VENDOR_SPECIFIC or EAP_MESSAGE).
+     * @param radiusAttribute A RadiusAttribute to add to this RadiusPacket
+     * @throws InvalidParameterException if the parameter radiusAttribute was null or is too long
+     */
+    public void addAttribute(RadiusAttribute radiusAttribute) throws InvalidParameterException{
+        if (null == radiusAttribute){
+            throw new InvalidParameterException("radiusAttribute was null");
         }
+        validateAttribute(radiusAttribute);
+        byte[] bytes = RadiusPacket.checkLength(radiusAttribute);
+        this.own();
+        this.append(bytes);
     }
     /**
-     * Add a set of RadiusAttributes to this RadiusPacket
+     * Add a set of RadiusAttributes to this RadiusPacket. Attributes of the types in the list that
+     * this packet already has are removed first, then the attributes of the list are added in
+     * order, so the list may hold several attributes of one type.
      * @param attributeList a list of RadiusAttribute objects to add to this RadiusPacket
      * @throws InvalidParameterException if the attributeList is null or contains non-RadiusAttribute type entries
      */
@@ -119,19 +209,35 @@ public class RadiusPacket {
         if(null == attributeList){
             throw new InvalidParameterException("Attribute List was null");
         }
-        RadiusAttribute tempRa;
+        byte[][] attributes = new byte[attributeList.size()][];
+        boolean[] types = new boolean[256];
         Iterator iter = attributeList.iterator();
-        while(iter.hasNext()){
+        for(int i = 0; iter.hasNext(); i++){
+            RadiusAttribute tempRa;
             try{
                 tempRa = (RadiusAttribute)iter.next();
-                validateAttribute(tempRa);
             }catch(ClassCastException ccex){
                 throw new InvalidParameterException("Attribute List contained an entry that was not a net.sourceforge.jradiusclient.RadiusAttribute");
             }
-            synchronized(this.attributes){
-                this.attributes.put(new Integer(tempRa.getType()),tempRa);
+            if(null == tempRa){
+                throw new InvalidParameterException("Attribute List contained a null entry");
+            }
+            validateAttribute(tempRa);
+            attributes[i] = RadiusPacket.checkLength(tempRa);
+            types[attributes[i][0] & 0xff] = true;
+        }
+        this.own();
+        for(int pos = this.start; pos < this.end; ){
+            int length = this.data[pos + 1] & 0xff;
+            if(types[this.data[pos] & 0xff]){
+                this.replace(pos, length, null);
+            }else{
+                pos += length;
             }
         }
+        for(int i = 0; i < attributes.length; i++){
+            this.append(attributes[i]);
+        }
     }
     //do nothing method, sub-classes should implement to get attributes validation during
     // the setAttribute and setAttributes methods
@@ -143,7 +249,7 @@ public class RadiusPacket {
      * retrieve a RadiusAttribute from this RadiusPacket
      * @param attributeType an integer between 0 and 256 (i.e. a byte) from the list of Radius constants in
      * net.sourceforge.jradiusclient.RadiusValues
-     * @return a single RadiusAttribute from the RadiusPacket
+     * @return the first RadiusAttribute of that type in the RadiusPacket
      * @throws RadiusException if no attribute of type attributeType is stored in this RadiusPacket
      * @throws InvalidParameterException if the attributeType is not between 0 and 256 (i.e. a byte)
      */
@@ -151,14 +257,27 @@ public class RadiusPacket {
         if ((attributeType < 0) || (attributeType > 256)){
             throw new InvalidParameterException("attributeType is out of bounds");
         }
-        RadiusAttribute tempRa = null;
-        synchronized(this.attributes){
-            tempRa = (RadiusAttribute)this.attributes.get(new Integer(attributeType));
-        }
-        if (null == tempRa){
+        int pos = this.first(attributeType);
+        if(pos < 0){
             throw new RadiusException("No attribute found for type " +  attributeType);
         }
-        return tempRa;
+        return new RadiusAttribute(this.data, pos, this.data[pos + 1] & 0xff);
+    }
+    /**
+     * retrieve all RadiusAttributes of one type from this RadiusPacket
+     * @param attributeType an integer between 0 and 256 (i.e. a byte)
+     * @return a java.util.List of the RadiusAttributes of that type in packet order, empty if there are none
+     * @throws InvalidParameterException if the attributeType is not between 0 and 256 (i.e. a byte)
+     */
+    public List getAttributes(int attributeType) throws InvalidParameterException{
+        if ((attributeType < 0) || (attributeType > 256)){
+            throw new InvalidParameterException("attributeType is out of bounds");
+        }
+        List attributes = new ArrayList();
+        for(int pos = this.first(attributeType); pos >= 0; pos = this.find(attributeType, pos + (this.data[pos + 1] & 0xff))){
+            attributes.add(new RadiusAttribute(this.data, pos, this.data[pos + 1] & 0xff));
+        }
+        return attributes;
     }
     /**
      * determine if this RadiusPacket contains at least one of this attribute
@@ -169,21 +288,19 @@ public class RadiusPacket {
      */
     public boolean hasAttribute(int attributeType)
     {
-        boolean hasAttribute = false;
-
-        synchronized(this.attributes){
-            hasAttribute = this.attributes.containsKey(new Integer(attributeType));
-        }
-        return hasAttribute;
+        return this.first(attributeType) >= 0;
     }
     /**
      * get all of the RadiusAttributes in this RadiusPacket
-     * @return a java.util.Collection of RadiusAttributes
+     * @return a java.util.Collection of RadiusAttributes in packet order, a copy that can be
+     *         changed freely
      */
     public Collection getAttributes(){
-        //I am concerned about handing out a Collection that is backed by the attributes map,
-        //i.e. changes to our own internal provate data can happen this way!!!!
-        return this.attributes.values();
+        List attributes = new ArrayList();
+        for(int pos = this.start; pos < this.end; pos += this.data[pos + 1] & 0xff){
+            attributes.add(new RadiusAttribute(this.data, pos, this.data[pos + 1] & 0xff));
+        }
+        return attributes;
     }
     /**
      * get the packet type for this RadiusPacket
@@ -206,19 +323,139 @@ public class RadiusPacket {
      * @throws RadiusException If there is any error assembling the bytes into a byte array
      */
     protected final byte[] getAttributeBytes() throws RadiusException{
-        //check for an empty packet
-        ByteArrayOutputStream bytes = new  ByteArrayOutputStream();
-        synchronized (this.attributes){
-            Iterator attributeList = this.attributes.values().iterator();
-            while(attributeList.hasNext()){
-                try{
-                    bytes.write(((RadiusAttribute)attributeList.next()).getBytes());
-                }catch(java.io.IOException ioex){
-                    throw new RadiusException ("Error writing bytes to ByteArrayOutputStream!!!");
-                }
+        byte[] bytes = new byte[this.end - this.start];
+        System.arraycopy(this.data, this.start, bytes, 0, bytes.length);
+        return bytes;
+    }
+    /**
+     * get the number of bytes the RadiusAttributes of this RadiusPacket take up on the wire
+     * @return the length of all attributes including their 2 byte headers
+     */
+    protected final int getAttributeLength(){
+        return this.end - this.start;
+    }
+    /**
+     * @return the array the attributes are packed in, it must not be modified
+     */
+    final byte[] getAttributeArray(){
+        return this.data;
+    }
+    /**
+     * @return where the attributes start in the array returned by getAttributeArray
+     */
+    final int getAttributeOffset(){
+        return this.start;
+    }
+    /**
+     * writes the raw bytes for all of the RadiusAttributes assigned to this RadiusPacket into the
+     * buffer at its current position
+     * @param buffer the ByteBuffer to write to
+     * @throws RadiusException If the attributes do not fit in the remaining space of the buffer
+     */
+    protected final void writeAttributes(final ByteBuffer buffer) throws RadiusException{
+        try{
+            buffer.put(this.data, this.start, this.end - this.start);
+        }catch(BufferOverflowException boex){
+            throw new RadiusException("Packet too big!");
+        }
+    }
+    /**
+     * @param type the attribute type to look for
+     * @return the position of the first attribute of that type, -1 if there is none
+     */
+    private int first(final int type){
+        if((type < 0) || (type > 255)){
+            return -1;
+        }
+        if(null == this.index){
+            this.index = this.buildIndex();
+        }
+        return this.index[type] - 1;
+    }
+    /**
+     * @return the position + 1 of the first attribute of each type, 0 for the types the packet has none of
+     */
+    private int[] buildIndex(){
+        int[] positions = new int[256];
+        for(int pos = this.start; pos < this.end; pos += this.data[pos + 1] & 0xff){
+            int type = this.data[pos] & 0xff;
+            if(0 == positions[type]){
+                positions[type] = pos + 1;
+            }
+        }
+        return positions;
+    }
+    /**
+     * @param type the attribute type to look for
+     * @param from the position to start looking at
+     * @return the position of the first attribute of that type at or after from, -1 if there is none
+     */
+    private int find(final int type, final int from){
+        for(int pos = from; pos < this.end; pos += this.data[pos + 1] & 0xff){
+            if((this.data[pos] & 0xff) == type){
+                return pos;
             }
-            return bytes.toByteArray();
         }
+        return -1;
+    }
+    /**
+     * copies the attributes of a received packet into an array of our own before they are
+     * changed, so the view keeps the packet as received. Attributes of an owned array start at 0.
+     */
+    private void own() throws InvalidParameterException{
+        if(this.frozen){
+            throw new InvalidParameterException("RadiusPacket is frozen, it can not be changed");
+        }
+        if(this.shared){
+            byte[] copy = new byte[Math.max(INITIAL_CAPACITY, 2 * (this.end - this.start))];
+            System.arraycopy(this.data, this.start, copy, 0, this.end - this.start);
+            this.data = copy;
+            this.end -= this.start;
+            this.start = 0;
+            this.shared = false;
+            this.index = null;
+        }
+    }
+    private void append(final byte[] bytes){
+        int type = bytes[0] & 0xff;
+        if((null != this.index) && (0 == this.index[type])){
+            this.index[type] = this.end + 1;
+        }
+        this.replace(this.end, 0, bytes);
+    }
+    /**
+     * replaces the length bytes at position with the attribute, or removes them if it is null
+     */
+    private void replace(final int position, final int length, final byte[] bytes){
+        int newLength = (null == bytes) ? 0 : bytes.length;
+        if(length > 0){
+            //the attributes after it move, the index is built again when it is next needed
+            this.index = null;
+        }
+        int newEnd = this.end - length + newLength;
+        if(newEnd > this.data.length){
+            byte[] grown = new byte[Math.max(newEnd, 2 * this.data.length)];
+            System.arraycopy(this.data, 0, grown, 0, this.end);
+            this.data = grown;
+        }
+        if(newLength != length){
+            System.arraycopy(this.data, position + length, this.data, position + newLength, this.end - position - length);
+        }
+        if(newLength > 0){
+            System.arraycopy(bytes, 0, this.data, position, newLength);
+        }
+        this.end = newEnd;
+    }
+    /**
+     * @return the bytes of the attribute, which must fit the one byte length field
+     */
+    private static byte[] checkLength(final RadiusAttribute radiusAttribute) throws InvalidParameterException{
+        byte[] bytes = radiusAttribute.getBytes();
+        if(bytes.length > MAX_ATTRIBUTE_LENGTH){
+            throw new InvalidParameterException("Attribute value is too long, at most " +
+                    (MAX_ATTRIBUTE_LENGTH - ATTRIBUTE_HEADER_LENGTH) + " bytes fit in one attribute");
+        }
+        return bytes;
     }
     /**
      * retrieves the next PacketIdentifier to use and increments the static storage
@@ -0,0 +1,104 @@
+package net.sourceforge.jradiusclient;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Serializes a <code>RadiusPacket</code> in one pass straight into a <code>ByteBuffer</code>,
+ * header and attributes, without any intermediate arrays. The length field is filled in once the
+ * attributes have been written. The caller supplies the buffer, usually one wrapping an array
+ * of exactly the packet's size: the request keeps that array for its retransmissions and every
+ * transport sends straight from it. A zeroed Message-Authenticator can be written ahead of the
+ * other attributes, as the mitigations for the BlastRADIUS attack ask for.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public final class RadiusPacketEncoder {
+    private static final int AUTHENTICATOR_OFFSET = 4;
+    private static final int AUTHENTICATOR_LENGTH = 16;
+    /** the length of a Message-Authenticator attribute including its header */
+    static final int MESSAGE_AUTHENTICATOR_LENGTH = 18;
+    private RadiusPacketEncoder(){
+    }
+    /**
+     * writes the packet into the buffer starting at its current position, on return the position
+     * is just past the end of the packet
+     * @param buffer the ByteBuffer to write to
+     * @param packet the RadiusPacket to encode
+     * @param identifier the identifier to send the packet with
+     * @param authenticator the 16 byte authenticator, or null to leave it zeroed so it can be
+     *                      computed over the encoded packet and written with <code>putAuthenticator</code>
+     * @return the length of the encoded packet
+     * @throws RadiusException If the packet does not fit in the buffer or is longer than MAX_PACKET_LENGTH
+     */
+    public static int encode(final ByteBuffer buffer, final RadiusPacket packet,
+            final byte identifier, final byte[] authenticator) throws RadiusException{
+        return RadiusPacketEncoder.encode(buffer, packet, identifier, authenticator, false);
+    }
+    /**
+     * writes the packet into the buffer starting at its current position, on return the position
+     * is just past the end of the packet
+     * @param buffer the ByteBuffer to write to
+     * @param packet the RadiusPacket to encode
+     * @param identifier the identifier to send the packet with
+     * @param authenticator the 16 byte authenticator, or null to leave it zeroed so it can be
+     *                      computed over the encoded packet and written with <code>putAuthenticator</code>
+     * @param addMessageAuthenticator true to write a zeroed Message-Authenticator as the first
+     *                                attribute when the packet has none, to be signed with
+     *                                <code>MessageAuthenticator.sign</code>
+     * @return the length of the encoded packet
+     * @throws RadiusException If the packet does not fit in the buffer or is longer than MAX_PACKET_LENGTH
+     */
+    public static int encode(final ByteBuffer buffer, final RadiusPacket packet, final byte identifier,
+            final byte[] authenticator, final boolean addMessageAuthenticator) throws RadiusException{
+        int start = buffer.position();
+        try{
+            //1 byte: Code
+            buffer.put(packet.getPacketType());
+            //1 byte: identifier
+            buffer.put(identifier);
+            //2 byte: Length, filled in below
+            buffer.put((byte)0);
+            buffer.put((byte)0);
+            //16 bytes: Request Authenticator
+            if(null == authenticator){
+                for(int i = 0; i < AUTHENTICATOR_LENGTH; i++){
+                    buffer.put((byte)0);
+                }
+            }else{
+                buffer.put(authenticator, 0, AUTHENTICATOR_LENGTH);
+            }
+            if(addMessageAuthenticator && !packet.hasAttribute(RadiusAttributeValues.MESSAGE_AUTHENTICATOR)){
+                buffer.put((byte)RadiusAttributeValues.MESSAGE_AUTHENTICATOR);
+                buffer.put((byte)MESSAGE_AUTHENTICATOR_LENGTH);
+                for(int i = 0; i < AUTHENTICATOR_LENGTH; i++){
+                    buffer.put((byte)0);
+                }
+            }
+        }catch(BufferOverflowException boex){
+            throw new RadiusException("Packet too big!");
+        }
+        packet.writeAttributes(buffer);
+        int length = buffer.position() - start;
+        if(length > RadiusPacket.MAX_PACKET_LENGTH){
+            throw new RadiusException("Packet too big!");
+        }
+        //absolute puts, so the byte order of the buffer does not matter
+        buffer.put(start + 2, (byte)(length >> 8));
+        buffer.put(start + 3, (byte)(length & 0xff));
+        return length;
+    }
+    /**
+     * writes the authenticator of a packet already encoded into the buffer
+     * @param buffer the ByteBuffer holding the encoded packet
+     * @param start the offset of the packet in the buffer
+     * @param authenticator the 16 byte authenticator
+     */
+    public static void putAuthenticator(final ByteBuffer buffer, final int start, final byte[] authenticator){
+        for(int i = 0; i < AUTHENTICATOR_LENGTH; i++){
+            buffer.put(start + AUTHENTICATOR_OFFSET + i, authenticator[i]);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * A read-only view over the raw bytes of a received RADIUS packet. Attributes are walked by
+ * their position (the offset of the attribute header in the underlying array), so reading a
+ * value does not allocate anything unless the caller asks for a copy, a String or an
+ * InetAddress. A typical loop looks like
+ * <pre>
+ * for(int pos = view.firstAttribute(); pos >= 0; pos = view.nextAttribute(pos)){
+ *     if(view.getAttributeType(pos) == RadiusAttributeValues.CLASS){ ... }
+ * }
+ * </pre>
+ * The structure of the packet (header length and attribute lengths) is validated once when the
+ * view is built, the accessors do not check it again.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public final class RadiusPacketView {
+    private static final int ATTRIBUTE_HEADER_LENGTH = 2;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+    /**
+     * Builds a view over a packet, the array is not copied so it must not be modified while the
+     * view is in use.
+     * @param data the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the number of bytes available, octets beyond the packet's Length field are ignored
+     * @throws RadiusException if the packet or one of its attributes is malformed
+     */
+    public RadiusPacketView(final byte[] data, final int offset, final int length) throws RadiusException{
+        if(length < RadiusPacket.MIN_PACKET_LENGTH){
+            throw new RadiusException("Packet too short !");
+        }
+        int packetLength = ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+        if((packetLength < RadiusPacket.MIN_PACKET_LENGTH) || (packetLength > length)){
+            throw new RadiusException("Invalid Length field in packet.");
+        }
+        this.data = data;
+        this.offset = offset;
+        this.length = packetLength;
+        int end = offset + packetLength;
+        for(int pos = offset + RadiusPacket.RADIUS_HEADER_LENGTH; pos < end; ){
+            if(pos + ATTRIBUTE_HEADER_LENGTH > end){
+                throw new RadiusException("Invalid response attributes sent back from server.");
+            }
+            int attributeLength = data[pos + 1] & 0xff;
+            if((attributeLength < ATTRIBUTE_HEADER_LENGTH) || (pos + attributeLength > end)){
+                throw new RadiusException("Invalid response attributes sent back from server.");
+            }
+            pos += attributeLength;
+        }
+    }
+    /**
+     * @return the packet type code, 0 to 255
+     */
+    public int getPacketType(){
+        return this.data[this.offset] & 0xff;
+    }
+    /**
+     * @return the packet identifier
+     */
+    public byte getPacketIdentifier(){
+        return this.data[this.offset + 1];
+    }
+    /**
+     * @return where the packet starts in the underlying array
+     */
+    int getOffset(){
+        return this.offset;
+    }
+    /**
+     * @return the length of the packet as given in its Length field
+     */
+    public int getLength(){
+        return this.length;
+    }
+    /**
+     * @return the position of the first attribute, or -1 if the packet has no attributes
+     */
+    public int firstAttribute(){
+        int pos = this.offset + RadiusPacket.RADIUS_HEADER_LENGTH;
+        return (pos < this.offset + this.length) ? pos : -1;
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the position of the attribute following it, or -1 if it was the last one
+     */
+    public int nextAttribute(final int position){
+        int pos = position + (this.data[position + 1] & 0xff);
+        return (pos < this.offset + this.length) ? pos : -1;
+    }
+    /**
+     * @param type the attribute type to look for
+     * @return the position of the first attribute of that type, or -1 if there is none
+     */
+    public int findAttribute(final int type){
+        return this.findAttribute(type, -1);
+    }
+    /**
+     * @param type the attribute type to look for
+     * @param after the position to search after, -1 to search from the start
+     * @return the position of the next attribute of that type, or -1 if there is none
+     */
+    public int findAttribute(final int type, final int after){
+        int pos = (after < 0) ? this.firstAttribute() : this.nextAttribute(after);
+        while(pos >= 0){
+            if((this.data[pos] & 0xff) == type){
+                return pos;
+            }
+            pos = this.nextAttribute(pos);
+        }
+        return -1;
+    }
+    /**
+     * @param type the attribute type to look for
+     * @return true if the packet contains at least one attribute of that type
+     */
+    public boolean hasAttribute(final int type){
+        return this.findAttribute(type, -1) >= 0;
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the type of the attribute, 0 to 255
+     */
+    public int getAttributeType(final int position){
+        return this.data[position] & 0xff;
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the length of the value of the attribute, not counting the 2 byte header
+     */
+    public int getValueLength(final int position){
+        return (this.data[position + 1] & 0xff) - ATTRIBUTE_HEADER_LENGTH;
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the offset of the value of the attribute in the underlying array
+     */
+    public int getValueOffset(final int position){
+        return position + ATTRIBUTE_HEADER_LENGTH;
+    }
+    /**
+     * @return the underlying array, for use with getValueOffset and getValueLength. It must not be modified.
+     */
+    public byte[] getData(){
+        return this.data;
+    }
+    /**
+     * reads a 32 bit integer value, RADIUS integers are unsigned so use
+     * <code>getIntValue(pos) &amp; 0xffffffffL</code> for values over 2^31 - 1
+     * @param position the position of an attribute
+     * @return the value of the attribute as an int
+     * @throws RadiusException if the value is not 4 bytes long
+     */
+    public int getIntValue(final int position) throws RadiusException{
+        if(this.getValueLength(position) != 4){
+            throw new RadiusException("Attribute " + this.getAttributeType(position) + " is not an integer.");
+        }
+        int pos = position + ATTRIBUTE_HEADER_LENGTH;
+        return ((this.data[pos] & 0xff) << 24) | ((this.data[pos + 1] & 0xff) << 16)
+                | ((this.data[pos + 2] & 0xff) << 8) | (this.data[pos + 3] & 0xff);
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the value of the attribute as an IPv4 address
+     * @throws RadiusException if the value is not 4 bytes long
+     */
+    public InetAddress getAddressValue(final int position) throws RadiusException{
+        if(this.getValueLength(position) != 4){
+            throw new RadiusException("Attribute " + this.getAttributeType(position) + " is not an address.");
+        }
+        try{
+            return InetAddress.getByAddress(this.getValue(position));
+        }catch(UnknownHostException uhex){//only thrown for a wrong length
+            throw new RadiusException(uhex.getMessage());
+        }
+    }
+    /**
+     * @param position the position of an attribute
+     * @return the value of the attribute decoded as UTF-8 text (RFC 2865 section 5)
+     */
+    public String getStringValue(final int position){
+        try{
+            return new String(this.data, position + ATTRIBUTE_HEADER_LENGTH, this.getValueLength(position), "UTF-8");
+        }catch(UnsupportedEncodingException ueex){//every JVM supports UTF-8
+            throw new RuntimeException(ueex.getMessage());
+        }
+    }
+    /**
+     * @param position the position of an attribute
+     * @return a copy of the value of the attribute
+     */
+    public byte[] getValue(final int position){
+        byte[] value = new byte[this.getValueLength(position)];
+        System.arraycopy(this.data, position + ATTRIBUTE_HEADER_LENGTH, value, 0, value.length);
+        return value;
+    }
+    /**
+     * copies the value of the attribute into the given array
+     * @param position the position of an attribute
+     * @param destination the array to copy to
+     * @param destinationOffset where to start in the destination array
+     * @return the number of bytes copied
+     */
+    public int copyValue(final int position, final byte[] destination, final int destinationOffset){
+        int valueLength = this.getValueLength(position);
+        System.arraycopy(this.data, position + ATTRIBUTE_HEADER_LENGTH, destination, destinationOffset, valueLength);
+        return valueLength;
+    }
+    /**
+     * @param type the attribute type
+     * @return the value of the first attribute of that type as an int
+     * @throws RadiusException if there is no such attribute or it is not an integer
+     */
+    public int getIntAttribute(final int type) throws RadiusException{
+        return this.getIntValue(this.requireAttribute(type));
+    }
+    /**
+     * @param type the attribute type
+     * @return the value of the first attribute of that type as an IPv4 address
+     * @throws RadiusException if there is no such attribute or it is not an address
+     */
+    public InetAddress getAddressAttribute(final int type) throws RadiusException{
+        return this.getAddressValue(this.requireAttribute(type));
+    }
+    /**
+     * @param type the attribute type
+     * @return the value of the first attribute of that type as text
+     * @throws RadiusException if there is no such attribute
+     */
+    public String getStringAttribute(final int type) throws RadiusException{
+        return this.getStringValue(this.requireAttribute(type));
+    }
+    /**
+     * @return a copy of the whole packet
+     */
+    public byte[] getBytes(){
+        byte[] bytes = new byte[this.length];
+        System.arraycopy(this.data, this.offset, bytes, 0, this.length);
+        return bytes;
+    }
+    private int requireAttribute(final int type) throws RadiusException{
+        int pos = this.findAttribute(type, -1);
+        if(pos < 0){
+            throw new RadiusException("No attribute found for type " +  type);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,16 @@
+package net.sourceforge.jradiusclient;
+
+/**
+ * Released under the LGPL<BR>
+ * Callback for asynchronous requests, see <code>RadiusFuture.addListener</code>.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public interface RadiusResponseListener {
+    /**
+     * Called once when the request completes, fails or is cancelled. This is called on the
+     * client's receiver or timer thread so implementations must return quickly.
+     * @param future the completed RadiusFuture, <code>getResponse()</code> will not block
+     */
+    public void requestCompleted(RadiusFuture future);
+}
@@ -0,0 +1,576 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+
+/**
+ * Released under the LGPL<BR>
+ * Spreads requests over several RADIUS servers and fails over between them. Each server is
+ * represented by its own <code>RadiusClient</code> (hostname, ports, shared secret and timeout).
+ * A request is sent to a server chosen by the pool's policy, if that server doesn't answer
+ * within its retries the request is sent to the next server it hasn't tried yet, until a server
+ * answers or every live server has been tried. Only timeouts fail over, a request the server
+ * answered (i.e. an ACCESS_REJECT) or that is invalid is never retried elsewhere.<BR>
+ * Every server is probed in the background with a STATUS_SERVER request (RFC 5997) every
+ * <code>getProbeInterval()</code> milliseconds, so a server that went down is usually found out
+ * by a probe rather than by user requests timing out on it. A server that times out
+ * <code>getDeadAfter()</code> requests or probes in a row is marked dead and gets no more
+ * requests until it answers a probe again. If every server is dead requests are sent to the dead
+ * servers anyway, as there is nothing better to do. Servers that don't implement Status-Server
+ * never answer a probe, for those <code>setActiveProbing(false)</code> turns probing off: a dead
+ * server is then given requests again at the next tick of the probe interval, and is marked
+ * dead again by its next timeout.
+ * <BR>The pool is thread safe. It owns the clients added to it, <code>close()</code> closes them.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public class RadiusServerPool {
+    /** send each request to the next server in turn */
+    public static final int ROUND_ROBIN = 0;
+    /** send each request to the server with the fewest requests in flight */
+    public static final int LEAST_OUTSTANDING = 1;
+    /** send each server a share of the requests proportional to its weight, interleaved */
+    public static final int WEIGHTED = 2;
+    private static final int DEFAULT_RETRIES_PER_SERVER = 2;
+    private static final int DEFAULT_DEAD_AFTER = 3;
+    private static final int DEFAULT_PROBE_INTERVAL = 10000;
+    private final int policy;
+    private final List servers = new ArrayList();
+    private int nextServer = 0;
+    private volatile int retriesPerServer = DEFAULT_RETRIES_PER_SERVER;
+    private volatile int deadAfter = DEFAULT_DEAD_AFTER;
+    private int probeInterval = DEFAULT_PROBE_INTERVAL;
+    private volatile boolean activeProbing = true;
+    private ScheduledFuture probeTask = null;
+    private boolean closed = false;
+    /**
+     * Constructs a round robin pool
+     */
+    public RadiusServerPool(){
+        this.policy = ROUND_ROBIN;
+    }
+    /**
+     * Constructs a pool
+     * @param policy one of ROUND_ROBIN, LEAST_OUTSTANDING or WEIGHTED
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the policy is unknown
+     */
+    public RadiusServerPool(final int policy) throws InvalidParameterException{
+        if(policy != ROUND_ROBIN && policy != LEAST_OUTSTANDING && policy != WEIGHTED){
+            throw new InvalidParameterException("Unknown load balancing policy: " + policy);
+        }
+        this.policy = policy;
+    }
+    /**
+     * Adds a server with a weight of 1
+     * @param client the RadiusClient talking to the server
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the client is null
+     */
+    public void addServer(final RadiusClient client) throws InvalidParameterException{
+        this.addServer(client, 1);
+    }
+    /**
+     * Adds a server
+     * @param client the RadiusClient talking to the server
+     * @param weight the relative share of requests the server gets under the WEIGHTED policy,
+     *               must be greater than zero. Ignored by the other policies.
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the client is
+     *              null or the weight is not positive
+     */
+    public synchronized void addServer(final RadiusClient client, final int weight) throws InvalidParameterException{
+        if(null == client){
+            throw new InvalidParameterException("client parameter cannot be null");
+        }
+        if(weight <= 0){
+            throw new InvalidParameterException("weight must be greater than zero!");
+        }
+        this.servers.add(new Server(client, weight));
+        if(this.activeProbing){
+            this.startProbing();
+        }
+    }
+    /**
+     * @return the number of servers in the pool
+     */
+    public synchronized int getServerCount(){
+        return this.servers.size();
+    }
+    /**
+     * @param client a RadiusClient added to this pool
+     * @return true if the server has been marked dead
+     */
+    public synchronized boolean isDead(final RadiusClient client){
+        Server server = this.findServer(client);
+        return null != server && server.dead;
+    }
+    /**
+     * @return the time a request gets on each server before failing over, in multiples of the
+     *         client's timeout
+     */
+    public int getRetriesPerServer(){
+        return this.retriesPerServer;
+    }
+    /**
+     * @param retries the time a request gets on each server before failing over, in multiples of
+     *                the client's timeout, must be greater than zero
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if retries is not positive
+     */
+    public void setRetriesPerServer(final int retries) throws InvalidParameterException{
+        if(retries <= 0){
+            throw new InvalidParameterException("retries must be greater than zero!");
+        }
+        this.retriesPerServer = retries;
+    }
+    /**
+     * @return the number of consecutive timed out requests after which a server is marked dead
+     */
+    public int getDeadAfter(){
+        return this.deadAfter;
+    }
+    /**
+     * @param deadAfter the number of consecutive timed out requests after which a server is
+     *                  marked dead, must be greater than zero
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if deadAfter is not positive
+     */
+    public void setDeadAfter(final int deadAfter) throws InvalidParameterException{
+        if(deadAfter <= 0){
+            throw new InvalidParameterException("deadAfter must be greater than zero!");
+        }
+        this.deadAfter = deadAfter;
+    }
+    /**
+     * @return the milliseconds between probes
+     */
+    public synchronized int getProbeInterval(){
+        return this.probeInterval;
+    }
+    /**
+     * @param probeInterval the milliseconds between probes, or how long a server stays dead
+     *                      without active probing. Must be greater than zero.
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the interval is not positive
+     */
+    public synchronized void setProbeInterval(final int probeInterval) throws InvalidParameterException{
+        if(probeInterval <= 0){
+            throw new InvalidParameterException("probeInterval must be greater than zero!");
+        }
+        this.probeInterval = probeInterval;
+        if(null != this.probeTask){
+            this.probeTask.cancel(false);
+            this.probeTask = null;
+            this.startProbing();
+        }
+    }
+    /**
+     * @return true if servers are probed with STATUS_SERVER requests
+     */
+    public boolean isActiveProbing(){
+        return this.activeProbing;
+    }
+    /**
+     * @param activeProbing true to probe servers with STATUS_SERVER requests, false to bring
+     *                      dead servers back after the probe interval without probing them
+     */
+    public void setActiveProbing(final boolean activeProbing){
+        this.activeProbing = activeProbing;
+        if(activeProbing){
+            this.startProbing();
+        }
+    }
+    /**
+     * @param client a RadiusClient added to this pool
+     * @return the round trip time of the last probe the server answered in microseconds, -1 if
+     *         it has not answered one yet
+     */
+    public synchronized long getProbeRoundTripTime(final RadiusClient client){
+        Server server = this.findServer(client);
+        return (null == server) ? -1 : server.probeRoundTripTime;
+    }
+    /**
+     * Authenticates the ACCESS_REQUEST against the servers of this pool, see
+     * <code>RadiusClient.authenticate(RadiusPacket)</code>. The request is copied for each
+     * server it is sent to, it is not changed.
+     * @param accessRequest the ACCESS_REQUEST
+     * @return RadiusPacket the response of the first server that answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusTimeoutException if no server answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusPacket authenticate(final RadiusPacket accessRequest)
+            throws RadiusException, InvalidParameterException{
+        return this.authenticateAsync(accessRequest).getResponse();
+    }
+    /**
+     * Submits the ACCESS_REQUEST to the servers of this pool without waiting for the response,
+     * see <code>RadiusClient.authenticateAsync(RadiusPacket)</code>.
+     * @param accessRequest the ACCESS_REQUEST
+     * @return RadiusFuture that completes with the response of the first server that answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the pool is closed or empty
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusFuture authenticateAsync(final RadiusPacket accessRequest)
+            throws RadiusException, InvalidParameterException{
+        this.checkPacketType(accessRequest, RadiusPacket.ACCESS_REQUEST);
+        return this.submit(accessRequest);
+    }
+    /**
+     * Sends the ACCOUNTING_REQUEST to the servers of this pool, see
+     * <code>RadiusClient.account(RadiusPacket)</code>.
+     * @param requestPacket the ACCOUNTING_REQUEST
+     * @return RadiusPacket the response of the first server that answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusTimeoutException if no server answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusPacket account(final RadiusPacket requestPacket)
+            throws RadiusException, InvalidParameterException{
+        return this.accountAsync(requestPacket).getResponse();
+    }
+    /**
+     * Submits the ACCOUNTING_REQUEST to the servers of this pool without waiting for the
+     * response, see <code>RadiusClient.accountAsync(RadiusPacket)</code>.
+     * @param requestPacket the ACCOUNTING_REQUEST
+     * @return RadiusFuture that completes with the response of the first server that answered
+     * @exception net.sourceforge.jradiusclient.exception.RadiusException If the pool is closed or empty
+     * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException If the request is invalid
+     */
+    public RadiusFuture accountAsync(final RadiusPacket requestPacket)
+            throws RadiusException, InvalidParameterException{
+        this.checkPacketType(requestPacket, RadiusPacket.ACCOUNTING_REQUEST);
+        return this.submit(requestPacket);
+    }
+    /**
+     * Closes the pool and all its clients, requests in flight fail.
+     */
+    public void close(){
+        List toClose;
+        synchronized(this){
+            if(this.closed){
+                return;
+            }
+            this.closed = true;
+            if(null != this.probeTask){
+                this.probeTask.cancel(false);
+                this.probeTask = null;
+            }
+            toClose = new ArrayList(this.servers);
+        }
+        for(Iterator i = toClose.iterator(); i.hasNext();){
+            ((Server)i.next()).client.close();
+        }
+    }
+    private void checkPacketType(final RadiusPacket requestPacket, final int type)
+            throws InvalidParameterException{
+        if(null == requestPacket){
+            throw new InvalidParameterException("requestPacket parameter cannot be null");
+        }
+        if(requestPacket.getPacketType() != type){
+            throw new InvalidParameterException("Invalid type passed in for RadiusPacket");
+        }
+    }
+    private RadiusFuture submit(final RadiusPacket requestPacket)
+            throws RadiusException, InvalidParameterException{
+        synchronized(this){
+            if(this.closed){
+                throw new RadiusException("RadiusServerPool has been closed.");
+            }
+            if(this.servers.isEmpty()){
+                throw new RadiusException("RadiusServerPool has no servers.");
+            }
+        }
+        Attempt attempt = new Attempt(requestPacket);
+        attempt.sendToNextServer(null);
+        return attempt.future;
+    }
+    /**
+     * picks the server for the next attempt of a request
+     * @param tried the servers the request has already been sent to
+     * @return the server, or null if there is none left to try
+     */
+    private synchronized Server select(final Set tried){
+        boolean anyAlive = false;
+        for(Iterator i = this.servers.iterator(); i.hasNext();){
+            if(!((Server)i.next()).dead){
+                anyAlive = true;
+                break;
+            }
+        }
+        //walk the servers from the round robin position so ties are spread evenly
+        int count = this.servers.size();
+        Server selected = null;
+        int selectedIndex = -1;
+        int totalWeight = 0;
+        for(int n = 0; n < count; n++){
+            int index = (this.nextServer + n) % count;
+            Server server = (Server)this.servers.get(index);
+            if(tried.contains(server) || (anyAlive && server.dead)){
+                continue;
+            }
+            if(this.policy == WEIGHTED){
+                //smooth weighted round robin
+                server.currentWeight += server.weight;
+                totalWeight += server.weight;
+                if(null == selected || server.currentWeight > selected.currentWeight){
+                    selected = server;
+                }
+            }else if(this.policy == LEAST_OUTSTANDING){
+                if(null == selected || server.outstanding < selected.outstanding){
+                    selected = server;
+                    selectedIndex = index;
+                }
+            }else{
+                selected = server;
+                selectedIndex = index;
+                break;
+            }
+        }
+        if(null != selected){
+            if(this.policy == WEIGHTED){
+                selected.currentWeight -= totalWeight;
+            }else{
+                this.nextServer = selectedIndex + 1;
+            }
+            selected.outstanding++;
+        }
+        return selected;
+    }
+    private synchronized void responseReceived(final Server server){
+        server.outstanding--;
+        server.consecutiveTimeouts = 0;
+        if(server.dead){
+            server.dead = false;
+            this.stopProbingIfAllAlive();
+        }
+    }
+    private synchronized void stopProbingIfAllAlive(){
+        for(Iterator i = this.servers.iterator(); i.hasNext();){
+            if(((Server)i.next()).dead){
+                return;
+            }
+        }
+        if(null != this.probeTask && !this.activeProbing){
+            this.probeTask.cancel(false);
+            this.probeTask = null;
+        }
+    }
+    private synchronized void timedOut(final Server server){
+        server.outstanding--;
+        this.countTimeout(server);
+    }
+    private synchronized void countTimeout(final Server server){
+        if(++server.consecutiveTimeouts >= this.deadAfter && !server.dead){
+            server.dead = true;
+            this.startProbing();
+        }
+    }
+    private synchronized void startProbing(){
+        if(null == this.probeTask && !this.closed){
+            this.probeTask = RadiusDispatcher.TIMER.scheduleWithFixedDelay(new Runnable(){
+                public void run(){
+                    probeServers();
+                }
+            }, this.probeInterval, this.probeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+    private synchronized void requestEnded(final Server server){
+        server.outstanding--;
+    }
+    /**
+     * sends a probe to every server that doesn't have one in flight yet, or without active
+     * probing gives the dead servers another chance
+     */
+    private void probeServers(){
+        List toProbe = new ArrayList();
+        synchronized(this){
+            for(Iterator i = this.servers.iterator(); i.hasNext();){
+                Server server = (Server)i.next();
+                if(!this.activeProbing){
+                    if(server.dead){
+                        //one more timeout and it is dead again
+                        server.dead = false;
+                        server.consecutiveTimeouts = this.deadAfter - 1;
+                    }
+                }else if(!server.probing){
+                    server.probing = true;
+                    toProbe.add(server);
+                }
+            }
+            this.stopProbingIfAllAlive();
+        }
+        for(Iterator i = toProbe.iterator(); i.hasNext();){
+            final Server server = (Server)i.next();
+            final long sent = System.nanoTime();
+            try{
+                server.client.statusServerAsync(false, 1).addListener(new RadiusResponseListener(){
+                    public void requestCompleted(RadiusFuture future){
+                        probeCompleted(server, future, sent);
+                    }
+                });
+            }catch(RadiusException rex){
+                this.probeCompleted(server, null, sent);
+            }
+        }
+    }
+    private void probeCompleted(final Server server, final RadiusFuture future, final long sent){
+        boolean alive = false;
+        if(null != future){
+            try{
+                future.getResponse();
+                alive = true;
+            }catch(RadiusException rex){
+                alive = false;
+            }
+        }
+        long roundTripTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent);
+        synchronized(this){
+            server.probing = false;
+            if(alive){
+                server.probeRoundTripTime = roundTripTime;
+                server.consecutiveTimeouts = 0;
+                server.dead = false;
+                this.stopProbingIfAllAlive();
+            }else if(!server.dead){
+                this.countTimeout(server);
+            }
+        }
+    }
+    private synchronized Server findServer(final RadiusClient client){
+        for(Iterator i = this.servers.iterator(); i.hasNext();){
+            Server server = (Server)i.next();
+            if(server.client == client){
+                return server;
+            }
+        }
+        return null;
+    }
+    /**
+     * copies a request, so a client encoding it (i.e. encrypting the USER_PASSWORD in place)
+     * leaves the original as it was for the next server
+     */
+    private static RadiusPacket copyOf(final RadiusPacket requestPacket) throws InvalidParameterException{
+        return new RadiusPacket(requestPacket.getPacketType(), requestPacket.getPacketIdentifier(),
+                new ArrayList(requestPacket.getAttributes()));
+    }
+    /**
+     * the state the pool keeps for each server, guarded by the pool
+     */
+    private static class Server {
+        private final RadiusClient client;
+        private final int weight;
+        private int currentWeight = 0;
+        private int outstanding = 0;
+        private int consecutiveTimeouts = 0;
+        private boolean dead = false;
+        private boolean probing = false;
+        private long probeRoundTripTime = -1;
+        private Server(final RadiusClient client, final int weight){
+            this.client = client;
+            this.weight = weight;
+        }
+    }
+    /**
+     * one request making its way through the servers of the pool
+     */
+    private class Attempt {
+        private final RadiusPacket requestPacket;
+        private final RadiusFuture future;
+        private final Set tried = new HashSet();
+        private int transmissions = 0;
+        private volatile RadiusFuture serverFuture = null;
+        private Attempt(final RadiusPacket requestPacket){
+            this.requestPacket = requestPacket;
+            this.future = new RadiusFuture(requestPacket);
+            this.future.addListener(new RadiusResponseListener(){
+                public void requestCompleted(RadiusFuture completed){
+                    if(completed.isCancelled()){
+                        cancelServerFuture();
+                    }
+                }
+            });
+        }
+        /**
+         * cancels the request to the current server along with the attempt, so its client
+         * reclaims the identifier
+         */
+        private void cancelServerFuture(){
+            RadiusFuture current = this.serverFuture;
+            if(null != current){
+                current.cancel(false);
+            }
+        }
+        /**
+         * sends the request to the next server, or fails the future if none is left. Only the
+         * first call comes from the submitting thread, later ones come from the client that
+         * timed out, one at a time.
+         * @param lastFailure the failure of the previous server
+         * @exception net.sourceforge.jradiusclient.exception.InvalidParameterException if the
+         *              first server rejected the request as invalid
+         */
+        private void sendToNextServer(RadiusException lastFailure) throws InvalidParameterException{
+            while(!this.future.isDone()){
+                final Server server = select(this.tried);
+                if(null == server){
+                    this.future.fail(null != lastFailure ? lastFailure
+                            : new RadiusTimeoutException("No RADIUS server left to try."));
+                    return;
+                }
+                this.tried.add(server);
+                try{
+                    RadiusPacket copy = copyOf(this.requestPacket);
+                    RadiusFuture serverFuture;
+                    if(copy.getPacketType() == RadiusPacket.ACCOUNTING_REQUEST){
+                        serverFuture = server.client.accountAsync(copy, retriesPerServer);
+                    }else{
+                        serverFuture = server.client.authenticateAsync(copy, retriesPerServer);
+                    }
+                    this.serverFuture = serverFuture;
+                    serverFuture.addListener(new RadiusResponseListener(){
+                        public void requestCompleted(RadiusFuture completed){
+                            serverCompleted(server, completed);
+                        }
+                    });
+                    if(this.future.isCancelled()){
+                        serverFuture.cancel(false);//cancelled while it was being sent
+                    }
+                    return;
+                }catch(RadiusException rex){
+                    //the client couldn't send it (i.e. it was closed), treat it like a timeout
+                    timedOut(server);
+                    lastFailure = rex;
+                }catch(InvalidParameterException ipex){
+                    requestEnded(server);
+                    if(this.tried.size() == 1){
+                        throw ipex;
+                    }
+                    this.future.fail(new RadiusException(ipex.getMessage()));
+                    return;
+                }
+            }
+        }
+        private void serverCompleted(final Server server, final RadiusFuture completed){
+            this.transmissions += completed.getTransmissions();
+            this.future.setTransmissions(this.transmissions);
+            try{
+                RadiusPacket response = completed.getResponse();
+                responseReceived(server);
+                this.future.complete(response);
+            }catch(RadiusTimeoutException rtex){
+                timedOut(server);
+                try{
+                    this.sendToNextServer(rtex);
+                }catch(InvalidParameterException ipex){
+                    this.future.fail(new RadiusException(ipex.getMessage()));
+                }
+            }catch(RadiusException rex){
+                requestEnded(server);
+                this.future.fail(rex);
+            }
+        }
+    }
+}
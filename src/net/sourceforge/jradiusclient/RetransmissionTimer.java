@@ -0,0 +1,77 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.Random;
+
+/**
+ * Released under the LGPL<BR>
+ * Works out how long to wait for a response before retransmitting, for one server. The round
+ * trip time of the server is estimated as in RFC 6298 (smoothed RTT and RTT variance, only
+ * sampled from requests that were not retransmitted), the first transmission of a request waits
+ * SRTT + 4 * RTTVAR and every retransmission doubles the previous wait, each with +/- 10% of
+ * random jitter as RFC 5080 section 2.2.1 asks for, so clients that lost packets together do
+ * not retransmit together. No wait is shorter than the 1 second RFC 6298 section 2.4 sets as the
+ * lower bound of the retransmission timeout, a fast server does not make slow requests (i.e. an
+ * LDAP lookup behind the server) look lost. All waits are capped by the client's timeout.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+class RetransmissionTimer {
+    /** the wait before the first retransmission until the server has been measured (IRT in RFC 5080) */
+    static final int INITIAL_TIMEOUT = 2000;
+    /** the shortest wait, the RTO floor of RFC 6298, some requests take the server far longer than others */
+    static final int MIN_TIMEOUT = 1000;
+    private final Random random = new Random();
+    private long smoothedRtt = -1;//microseconds, -1 until the first sample
+    private long rttVariance = 0;
+    /**
+     * adds a round trip time measurement, it must come from a request that was only sent once
+     * (Karn's algorithm) since a response to a retransmitted request can't be matched to a
+     * transmission
+     * @param rttMicros the time from sending the request to receiving its response
+     */
+    synchronized void sample(final long rttMicros){
+        if(this.smoothedRtt < 0){
+            this.smoothedRtt = rttMicros;
+            this.rttVariance = rttMicros / 2;
+        }else{
+            this.rttVariance = (3 * this.rttVariance + Math.abs(this.smoothedRtt - rttMicros)) / 4;
+            this.smoothedRtt = (7 * this.smoothedRtt + rttMicros) / 8;
+        }
+    }
+    /**
+     * @return the smoothed round trip time in microseconds, -1 if there is no sample yet
+     */
+    synchronized long getSmoothedRtt(){
+        return this.smoothedRtt;
+    }
+    /**
+     * @param maxTimeout the longest wait allowed, in milliseconds
+     * @return how long the first transmission of a request waits for its response, in milliseconds
+     */
+    int initialTimeout(final int maxTimeout){
+        long timeout;
+        synchronized(this){
+            timeout = (this.smoothedRtt < 0) ? INITIAL_TIMEOUT
+                    : (this.smoothedRtt + 4 * this.rttVariance + 999) / 1000;
+        }
+        return this.bound(this.jitter(Math.max(MIN_TIMEOUT, timeout)), maxTimeout);
+    }
+    /**
+     * @param previousTimeout the wait of the previous transmission, in milliseconds
+     * @param maxTimeout the longest wait allowed, in milliseconds
+     * @return how long a retransmission waits for the response, in milliseconds
+     */
+    int backoff(final int previousTimeout, final int maxTimeout){
+        return this.bound(this.jitter(2L * previousTimeout), maxTimeout);
+    }
+    private long jitter(final long timeout){
+        double rand;
+        synchronized(this.random){
+            rand = this.random.nextDouble() * 0.2 - 0.1;
+        }
+        return timeout + (long)(rand * timeout);
+    }
+    private int bound(final long timeout, final int maxTimeout){
+        return (int)Math.max(1, Math.min(timeout, maxTimeout));
+    }
+}
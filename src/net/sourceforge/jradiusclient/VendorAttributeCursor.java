@@ -0,0 +1,228 @@
+package net.sourceforge.jradiusclient;
+
+import java.io.UnsupportedEncodingException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Walks the vendor sub-attributes of the Vendor-Specific attributes of a packet, straight from
+ * the packet's bytes. Nothing is parsed until <code>next()</code> or <code>find()</code> is
+ * called and nothing is allocated unless the caller asks for a copy or a String, so one cursor
+ * can be reset and reused for every response a thread reads:
+ * <pre>
+ * cursor.reset(response);
+ * while(cursor.next()){
+ *     if(cursor.getVendorId() == CISCO &amp;&amp; cursor.getVendorType() == 1){ ... cursor.getStringValue() ... }
+ * }
+ * </pre>
+ * The layout of the sub-attributes of each vendor is taken from the VendorDictionary, vendors it
+ * does not know are read with the layout of RFC 2865 (a one byte type and a one byte length).
+ * A cursor must only be used by one thread at a time.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public final class VendorAttributeCursor {
+    private static final int ATTRIBUTE_HEADER_LENGTH = 2;
+    private static final int VENDOR_ID_LENGTH = 4;
+    private final VendorDictionary dictionary;
+    private byte[] data;
+    private int position;//the next attribute of the packet to look at
+    private int end;
+    private int subPosition;//the next sub-attribute of the current Vendor-Specific attribute
+    private int vendorEnd;
+    private VendorDictionary.Vendor vendor;
+    private int vendorId;
+    private int typeSize;
+    private int lengthSize;
+    private int vendorType = -1;
+    private int valueOffset;
+    private int valueLength;
+    /**
+     * @param dictionary the vendors to read the sub-attribute layout and definitions from, null to
+     *                   read every vendor with the layout of RFC 2865
+     */
+    public VendorAttributeCursor(final VendorDictionary dictionary){
+        this.dictionary = dictionary;
+    }
+    /**
+     * points the cursor before the first sub-attribute of a received packet
+     * @param view the packet
+     */
+    public void reset(final RadiusPacketView view){
+        this.reset(view.getData(), view.getOffset() + RadiusPacket.RADIUS_HEADER_LENGTH, view.getOffset() + view.getLength());
+    }
+    /**
+     * points the cursor before the first sub-attribute of a packet, the packet must not be
+     * changed while the cursor is in use
+     * @param packet the packet
+     */
+    public void reset(final RadiusPacket packet){
+        int start = packet.getAttributeOffset();
+        this.reset(packet.getAttributeArray(), start, start + packet.getAttributeLength());
+    }
+    private void reset(final byte[] data, final int start, final int end){
+        this.data = data;
+        this.position = start;
+        this.end = end;
+        this.subPosition = 0;
+        this.vendorEnd = 0;
+        this.vendorType = -1;
+    }
+    /**
+     * moves to the next sub-attribute
+     * @return false if there are no more sub-attributes
+     * @throws RadiusException if a Vendor-Specific attribute or a sub-attribute is malformed
+     */
+    public boolean next() throws RadiusException{
+        while(this.subPosition >= this.vendorEnd){
+            if(!this.nextVendorSpecific()){
+                this.vendorType = -1;
+                return false;
+            }
+        }
+        int pos = this.subPosition;
+        int headerLength = this.typeSize + this.lengthSize;
+        if(pos + headerLength > this.vendorEnd){
+            throw new RadiusException("Invalid sub-attribute in Vendor-Specific attribute of vendor " + this.vendorId);
+        }
+        int type = 0;
+        for(int i = 0; i < this.typeSize; i++){
+            type = (type << 8) | (this.data[pos++] & 0xff);
+        }
+        int length;
+        if(this.lengthSize == 0){
+            //the sub-attribute takes up the rest of the Vendor-Specific attribute
+            length = this.vendorEnd - this.subPosition;
+        }else{
+            length = 0;
+            for(int i = 0; i < this.lengthSize; i++){
+                length = (length << 8) | (this.data[pos++] & 0xff);
+            }
+            if((length < headerLength) || (this.subPosition + length > this.vendorEnd)){
+                throw new RadiusException("Invalid sub-attribute in Vendor-Specific attribute of vendor " + this.vendorId);
+            }
+        }
+        this.vendorType = type;
+        this.valueOffset = pos;
+        this.valueLength = length - headerLength;
+        this.subPosition += length;
+        return true;
+    }
+    /**
+     * moves to the next sub-attribute of a given vendor and type
+     * @param vendorId the vendor id
+     * @param vendorType the type of the sub-attribute
+     * @return false if there are no more such sub-attributes
+     * @throws RadiusException if a Vendor-Specific attribute or a sub-attribute is malformed
+     */
+    public boolean find(final int vendorId, final int vendorType) throws RadiusException{
+        while(this.next()){
+            if((this.vendorId == vendorId) && (this.vendorType == vendorType)){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * moves to the next Vendor-Specific attribute of the packet
+     */
+    private boolean nextVendorSpecific() throws RadiusException{
+        while(this.position < this.end){
+            int pos = this.position;
+            int length = this.data[pos + 1] & 0xff;
+            this.position += length;
+            if((this.data[pos] & 0xff) != RadiusAttributeValues.VENDOR_SPECIFIC){
+                continue;
+            }
+            if(length < ATTRIBUTE_HEADER_LENGTH + VENDOR_ID_LENGTH){
+                throw new RadiusException("Invalid Vendor-Specific attribute.");
+            }
+            pos += ATTRIBUTE_HEADER_LENGTH;
+            int id = ((this.data[pos] & 0xff) << 24) | ((this.data[pos + 1] & 0xff) << 16)
+                    | ((this.data[pos + 2] & 0xff) << 8) | (this.data[pos + 3] & 0xff);
+            if((null == this.vendor) || (this.vendorId != id)){
+                this.vendorId = id;
+                this.vendor = (null == this.dictionary) ? null : this.dictionary.getVendor(id);
+            }
+            this.typeSize = (null == this.vendor) ? 1 : this.vendor.getTypeSize();
+            this.lengthSize = (null == this.vendor) ? 1 : this.vendor.getLengthSize();
+            this.subPosition = pos + VENDOR_ID_LENGTH;
+            this.vendorEnd = this.position;
+            return true;
+        }
+        return false;
+    }
+    /**
+     * @return the vendor id of the current sub-attribute
+     */
+    public int getVendorId(){
+        return this.vendorId;
+    }
+    /**
+     * @return the type of the current sub-attribute within its vendor
+     */
+    public int getVendorType(){
+        return this.vendorType;
+    }
+    /**
+     * @return the vendor of the current sub-attribute, or null if the dictionary does not know it
+     */
+    public VendorDictionary.Vendor getVendor(){
+        return this.vendor;
+    }
+    /**
+     * @return the definition of the current sub-attribute, or null if the dictionary does not know it
+     */
+    public AttributeDefinition getDefinition(){
+        return (null == this.vendor) ? null : this.vendor.getAttribute(this.vendorType);
+    }
+    /**
+     * @return the underlying array, for use with getValueOffset and getValueLength. It must not be modified.
+     */
+    public byte[] getData(){
+        return this.data;
+    }
+    /**
+     * @return the offset of the value of the current sub-attribute in the underlying array
+     */
+    public int getValueOffset(){
+        return this.valueOffset;
+    }
+    /**
+     * @return the length of the value of the current sub-attribute
+     */
+    public int getValueLength(){
+        return this.valueLength;
+    }
+    /**
+     * @return a copy of the value of the current sub-attribute
+     */
+    public byte[] getValue(){
+        byte[] value = new byte[this.valueLength];
+        System.arraycopy(this.data, this.valueOffset, value, 0, this.valueLength);
+        return value;
+    }
+    /**
+     * reads a 32 bit integer value, use <code>getIntValue() &amp; 0xffffffffL</code> for values over 2^31 - 1
+     * @return the value of the current sub-attribute as an int
+     * @throws RadiusException if the value is not 4 bytes long
+     */
+    public int getIntValue() throws RadiusException{
+        if(this.valueLength != 4){
+            throw new RadiusException("Vendor attribute " + this.vendorId + "/" + this.vendorType + " is not an integer.");
+        }
+        int pos = this.valueOffset;
+        return ((this.data[pos] & 0xff) << 24) | ((this.data[pos + 1] & 0xff) << 16)
+                | ((this.data[pos + 2] & 0xff) << 8) | (this.data[pos + 3] & 0xff);
+    }
+    /**
+     * @return the value of the current sub-attribute decoded as UTF-8 text
+     */
+    public String getStringValue(){
+        try{
+            return new String(this.data, this.valueOffset, this.valueLength, "UTF-8");
+        }catch(UnsupportedEncodingException ueex){//every JVM supports UTF-8
+            throw new RuntimeException(ueex.getMessage());
+        }
+    }
+}
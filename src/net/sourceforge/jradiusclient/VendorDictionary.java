@@ -0,0 +1,188 @@
+package net.sourceforge.jradiusclient;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+
+/**
+ * Released under the LGPL<BR>
+ * The vendors known to the client and the sub-attributes each of them defines inside the
+ * Vendor-Specific attribute (RFC 2865 section 5.26). Most vendors use the layout the RFC
+ * suggests, a one byte type and a one byte length in front of each sub-attribute, but some use
+ * wider type or length fields (or no length at all) so the layout is kept per vendor.
+ * <P>
+ * Vendors are kept in a sorted array and the sub-attributes of a vendor with one byte types in
+ * a 256 slot table, so looking up a sub-attribute while decoding a packet is a binary search and
+ * an array index. A dictionary is meant to be filled once at startup, it can then be read by
+ * any number of threads without locking but it must not be changed while it is in use.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public final class VendorDictionary {
+    private int[] vendorIds = new int[0];
+    private Vendor[] vendors = new Vendor[0];
+    /**
+     * adds a vendor using the sub-attribute layout of RFC 2865, a one byte type and a one byte length
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param name the name of the vendor
+     * @return the vendor, to add its sub-attributes to
+     * @throws InvalidParameterException if the vendor id is already defined
+     */
+    public Vendor addVendor(final int vendorId, final String name) throws InvalidParameterException{
+        return this.addVendor(vendorId, name, 1, 1);
+    }
+    /**
+     * adds a vendor
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param name the name of the vendor
+     * @param typeSize the size of the type field of its sub-attributes, 1, 2 or 4
+     * @param lengthSize the size of the length field of its sub-attributes, 0, 1 or 2. With 0 a
+     *                   Vendor-Specific attribute holds a single sub-attribute
+     * @return the vendor, to add its sub-attributes to
+     * @throws InvalidParameterException if the vendor id is already defined or a size is not supported
+     */
+    public Vendor addVendor(final int vendorId, final String name, final int typeSize, final int lengthSize)
+            throws InvalidParameterException{
+        if((typeSize != 1) && (typeSize != 2) && (typeSize != 4)){
+            throw new InvalidParameterException("Vendor type size must be 1, 2 or 4");
+        }else if((lengthSize < 0) || (lengthSize > 2)){
+            throw new InvalidParameterException("Vendor length size must be 0, 1 or 2");
+        }
+        int slot = this.search(vendorId);
+        if(slot >= 0){
+            throw new InvalidParameterException("Vendor " + vendorId + " is already defined");
+        }
+        slot = -slot - 1;
+        Vendor vendor = new Vendor(vendorId, name, typeSize, lengthSize);
+        int[] ids = new int[this.vendorIds.length + 1];
+        Vendor[] table = new Vendor[ids.length];
+        System.arraycopy(this.vendorIds, 0, ids, 0, slot);
+        System.arraycopy(this.vendors, 0, table, 0, slot);
+        ids[slot] = vendorId;
+        table[slot] = vendor;
+        System.arraycopy(this.vendorIds, slot, ids, slot + 1, this.vendorIds.length - slot);
+        System.arraycopy(this.vendors, slot, table, slot + 1, this.vendors.length - slot);
+        this.vendorIds = ids;
+        this.vendors = table;
+        return vendor;
+    }
+    /**
+     * @param vendorId the vendor id
+     * @return the vendor, or null if it is not in this dictionary
+     */
+    public Vendor getVendor(final int vendorId){
+        int slot = this.search(vendorId);
+        return (slot < 0) ? null : this.vendors[slot];
+    }
+    /**
+     * @param vendorId the vendor id
+     * @param vendorType the type of the sub-attribute
+     * @return the definition of the sub-attribute, or null if it is not in this dictionary
+     */
+    public AttributeDefinition getAttribute(final int vendorId, final int vendorType){
+        Vendor vendor = this.getVendor(vendorId);
+        return (null == vendor) ? null : vendor.getAttribute(vendorType);
+    }
+    /**
+     * @return the number of vendors in this dictionary
+     */
+    public int getVendorCount(){
+        return this.vendors.length;
+    }
+    /**
+     * @return the slot of the vendor id, or -(insertion point) - 1 if it is not there
+     */
+    private int search(final int vendorId){
+        int low = 0;
+        int high = this.vendorIds.length - 1;
+        while(low <= high){
+            int mid = (low + high) >>> 1;
+            int id = this.vendorIds[mid];
+            if(id < vendorId){
+                low = mid + 1;
+            }else if(id > vendorId){
+                high = mid - 1;
+            }else{
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+    /**
+     * A vendor and the sub-attributes it defines
+     */
+    public static final class Vendor {
+        private final int id;
+        private final String name;
+        private final int typeSize;
+        private final int lengthSize;
+        //types that fit a byte are looked up by index, wider ones through the map
+        private final AttributeDefinition[] byType = new AttributeDefinition[256];
+        private final Map wideTypes = new HashMap();
+        private Vendor(final int id, final String name, final int typeSize, final int lengthSize){
+            this.id = id;
+            this.name = name;
+            this.typeSize = typeSize;
+            this.lengthSize = lengthSize;
+        }
+        /**
+         * adds or replaces a sub-attribute of this vendor
+         * @param name the name of the sub-attribute
+         * @param vendorType its type code
+         * @param dataType one of the data types of AttributeDefinition
+         * @return the definition that was added
+         * @throws InvalidParameterException if the type does not fit the type field of this vendor
+         */
+        public AttributeDefinition addAttribute(final String name, final int vendorType, final int dataType)
+                throws InvalidParameterException{
+            if((vendorType < 0) || ((this.typeSize < 4) && (vendorType >= (1 << (8 * this.typeSize))))){
+                throw new InvalidParameterException("Vendor type " + vendorType + " does not fit in "
+                        + this.typeSize + " byte(s)");
+            }
+            AttributeDefinition definition = new AttributeDefinition(name, this.id, vendorType, dataType);
+            if(vendorType < this.byType.length){
+                this.byType[vendorType] = definition;
+            }else{
+                this.wideTypes.put(Integer.valueOf(vendorType), definition);
+            }
+            return definition;
+        }
+        /**
+         * @param vendorType the type of the sub-attribute
+         * @return the definition of the sub-attribute, or null if this vendor does not define it
+         */
+        public AttributeDefinition getAttribute(final int vendorType){
+            if((vendorType >= 0) && (vendorType < this.byType.length)){
+                return this.byType[vendorType];
+            }
+            return (AttributeDefinition)this.wideTypes.get(Integer.valueOf(vendorType));
+        }
+        /**
+         * @return the vendor id
+         */
+        public int getId(){
+            return this.id;
+        }
+        /**
+         * @return the name of the vendor
+         */
+        public String getName(){
+            return this.name;
+        }
+        /**
+         * @return the size of the type field of the sub-attributes, 1, 2 or 4
+         */
+        public int getTypeSize(){
+            return this.typeSize;
+        }
+        /**
+         * @return the size of the length field of the sub-attributes, 0, 1 or 2
+         */
+        public int getLengthSize(){
+            return this.lengthSize;
+        }
+        public String toString(){
+            return this.name;
+        }
+    }
+}
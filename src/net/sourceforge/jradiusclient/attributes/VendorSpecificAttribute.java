@@ -0,0 +1,109 @@
+package net.sourceforge.jradiusclient.attributes;
+
+import net.sourceforge.jradiusclient.RadiusAttribute;
+import net.sourceforge.jradiusclient.RadiusAttributeValues;
+import net.sourceforge.jradiusclient.VendorDictionary;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+
+/**
+ * Released under the LGPL<BR>
+ * A Vendor-Specific attribute holding one vendor sub-attribute, as RFC 2865 section 5.26
+ * recommends. Use <code>VendorAttributeCursor</code> to read the sub-attributes of a response.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class VendorSpecificAttribute extends RadiusAttribute {
+    private static final int VENDOR_ID_LENGTH = 4;
+    private static final int MAX_VALUE_LENGTH = 253;
+    private final int vendorId;
+    private final int vendorType;
+    /**
+     * Constructs a Vendor-Specific attribute with the sub-attribute layout of RFC 2865, a one
+     * byte type and a one byte length
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param vendorType the type of the sub-attribute, 0 to 255
+     * @param value the value of the sub-attribute
+     * @throws InvalidParameterException if the type does not fit a byte or the value is too long
+     */
+    public VendorSpecificAttribute(final int vendorId, final int vendorType, final byte[] value)
+            throws InvalidParameterException{
+        super(RadiusAttributeValues.VENDOR_SPECIFIC, VendorSpecificAttribute.encode(vendorId, 1, 1, vendorType, value));
+        this.vendorId = vendorId;
+        this.vendorType = vendorType;
+    }
+    /**
+     * Constructs a Vendor-Specific attribute with the sub-attribute layout of the vendor
+     * @param vendor the vendor, see <code>VendorDictionary</code>
+     * @param vendorType the type of the sub-attribute
+     * @param value the value of the sub-attribute
+     * @throws InvalidParameterException if the type does not fit the type field of the vendor or the value is too long
+     */
+    public VendorSpecificAttribute(final VendorDictionary.Vendor vendor, final int vendorType, final byte[] value)
+            throws InvalidParameterException{
+        super(RadiusAttributeValues.VENDOR_SPECIFIC, VendorSpecificAttribute.encode(vendor, vendorType, value));
+        this.vendorId = vendor.getId();
+        this.vendorType = vendorType;
+    }
+    /**
+     * Constructs a Vendor-Specific attribute holding a 32 bit integer, with the sub-attribute
+     * layout of RFC 2865
+     * @param vendorId the SMI Network Management Private Enterprise Code of the vendor
+     * @param vendorType the type of the sub-attribute, 0 to 255
+     * @param value the value of the sub-attribute
+     * @throws InvalidParameterException if the type does not fit a byte
+     */
+    public VendorSpecificAttribute(final int vendorId, final int vendorType, final int value)
+            throws InvalidParameterException{
+        this(vendorId, vendorType, new byte[]{(byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value});
+    }
+    /**
+     * get the vendor id
+     * @return the SMI Network Management Private Enterprise Code of the vendor
+     */
+    public int getVendorId(){
+        return this.vendorId;
+    }
+    /**
+     * get the type of the sub-attribute
+     * @return the type of the sub-attribute within its vendor
+     */
+    public int getVendorType(){
+        return this.vendorType;
+    }
+    private static byte[] encode(final VendorDictionary.Vendor vendor, final int vendorType, final byte[] value)
+            throws InvalidParameterException{
+        if(null == vendor){
+            throw new InvalidParameterException("vendor parameter cannot be null");
+        }
+        return VendorSpecificAttribute.encode(vendor.getId(), vendor.getTypeSize(), vendor.getLengthSize(), vendorType, value);
+    }
+    /**
+     * builds the value of the Vendor-Specific attribute: the vendor id, then the sub-attribute
+     */
+    private static byte[] encode(final int vendorId, final int typeSize, final int lengthSize, final int vendorType,
+            final byte[] value) throws InvalidParameterException{
+        if(null == value){
+            throw new InvalidParameterException("Value cannot be NULL");
+        }else if((vendorType < 0) || ((typeSize < 4) && (vendorType >= (1 << (8 * typeSize))))){
+            throw new InvalidParameterException("Vendor type " + vendorType + " does not fit in " + typeSize + " byte(s)");
+        }
+        int subLength = typeSize + lengthSize + value.length;
+        if((VENDOR_ID_LENGTH + subLength > MAX_VALUE_LENGTH) || ((lengthSize == 1) && (subLength > 255))){
+            throw new InvalidParameterException("Vendor-Specific value is too long");
+        }
+        byte[] bytes = new byte[VENDOR_ID_LENGTH + subLength];
+        bytes[0] = (byte)(vendorId >>> 24);
+        bytes[1] = (byte)(vendorId >>> 16);
+        bytes[2] = (byte)(vendorId >>> 8);
+        bytes[3] = (byte)vendorId;
+        int pos = VENDOR_ID_LENGTH;
+        for(int shift = 8 * (typeSize - 1); shift >= 0; shift -= 8){
+            bytes[pos++] = (byte)(vendorType >>> shift);
+        }
+        for(int shift = 8 * (lengthSize - 1); shift >= 0; shift -= 8){
+            bytes[pos++] = (byte)(subLength >>> shift);
+        }
+        System.arraycopy(value, 0, bytes, pos, value.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,17 @@
+package net.sourceforge.jradiusclient.exception;
+
+/**
+ * Thrown when no valid response was received from the RADIUS server for a request, after all
+ * retransmissions, i.e. the server is down or unreachable.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+
+public class RadiusTimeoutException extends RadiusException{
+    /**
+     * @param message the exception message
+     */
+    public RadiusTimeoutException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,598 @@
+package net.sourceforge.jradiusclient.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import net.sourceforge.jradiusclient.MessageAuthenticator;
+import net.sourceforge.jradiusclient.RadiusAttribute;
+import net.sourceforge.jradiusclient.RadiusAttributeValues;
+import net.sourceforge.jradiusclient.RadiusPacket;
+import net.sourceforge.jradiusclient.RadiusPacketEncoder;
+import net.sourceforge.jradiusclient.RadiusPacketView;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * A small RADIUS server meant to be embedded in load and integration tests, so a
+ * <code>RadiusClient</code> can be exercised without any network service. It answers
+ * authentication and accounting requests on one UDP port, checks the request authenticator of
+ * accounting requests and the Message-Authenticator of any request that has one, decodes PAP
+ * passwords and signs every response with the shared secret, adding a Message-Authenticator to
+ * the responses to requests that carried one. STATUS_SERVER requests (RFC 5997)
+ * are answered with an ACCESS_ACCEPT by the server itself, unless it is dropping requests.
+ * <P>
+ * By default every ACCESS_REQUEST is accepted. Once users have been added with
+ * <code>addUser</code> only those users with the right password are accepted and everything else
+ * is rejected; users added with <code>addChallenge</code> first get an ACCESS_CHALLENGE and are
+ * only checked when they come back with the State it carried. <code>setHandler</code> replaces
+ * these rules altogether. Loss and a slow server are simulated with <code>setDropRate</code> and
+ * <code>setLatency</code>.
+ * <P>
+ * <code>listenTcp</code> and <code>listenTls</code> also accept RADIUS over TCP (RFC 6613) and
+ * over TLS (RFC 6614) connections, to test a <code>TcpTransport</code> or a
+ * <code>TlsTransport</code> with a self-signed certificate. Every connection is served by its own
+ * thread, by the same rules.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.5 $
+ */
+public class LoopbackRadiusServer {
+    private static final int AUTHENTICATOR_OFFSET = 4;
+    private static final int AUTHENTICATOR_LENGTH = 16;
+    private static final int RECEIVE_BUFFER_SIZE = 1024 * 1024;
+    private static final byte[] CHALLENGE_STATE_PREFIX = "challenge:".getBytes();
+    private final DatagramSocket socket;
+    private final byte[] sharedSecret;
+    private final MessageAuthenticator messageAuthenticator;
+    private final ScheduledExecutorService delayedResponses;
+    private final Random random = new Random();
+    private final Map users = Collections.synchronizedMap(new HashMap());
+    private final Set challengedUsers = Collections.synchronizedSet(new HashSet());
+    private final List streamSockets = Collections.synchronizedList(new ArrayList());
+    private volatile List replyAttributes = new ArrayList();
+    private volatile RadiusRequestHandler handler;
+    private volatile int latency = 0;
+    private volatile double dropRate = 0.0;
+    private volatile boolean closed = false;
+    private final AtomicLong requestsReceived = new AtomicLong();
+    private final AtomicLong requestsDropped = new AtomicLong();
+    private final AtomicLong requestsDiscarded = new AtomicLong();
+    private final AtomicLong responsesSent = new AtomicLong();
+    /**
+     * Starts a server on an ephemeral port of the loopback interface, see <code>getPort()</code>
+     * @param sharedSecret the secret shared with the clients
+     * @throws RadiusException if the socket could not be opened
+     * @throws InvalidParameterException if the shared secret is null or empty
+     */
+    public LoopbackRadiusServer(final String sharedSecret) throws RadiusException, InvalidParameterException{
+        this(sharedSecret, null, 0);
+    }
+    /**
+     * Starts a server on the given address and port
+     * @param sharedSecret the secret shared with the clients
+     * @param address the local address to listen on, null for the loopback interface
+     * @param port the port to listen on, 0 for an ephemeral port
+     * @throws RadiusException if the socket could not be opened
+     * @throws InvalidParameterException if the shared secret is null or empty
+     */
+    public LoopbackRadiusServer(final String sharedSecret, final InetAddress address, final int port)
+            throws RadiusException, InvalidParameterException{
+        if((null == sharedSecret) || sharedSecret.equals("")){
+            throw new InvalidParameterException("Shared secret can not be null or an empty string!");
+        }
+        this.sharedSecret = sharedSecret.getBytes();
+        this.messageAuthenticator = new MessageAuthenticator(this.sharedSecret);
+        this.handler = new DefaultRequestHandler();
+        try{
+            this.socket = new DatagramSocket(port, (null == address) ? InetAddress.getByName("127.0.0.1") : address);
+            //room for bursts from a load generator, the OS may cap it
+            this.socket.setReceiveBufferSize(RECEIVE_BUFFER_SIZE);
+        }catch(IOException ioex){
+            throw new RadiusException(ioex.getMessage());
+        }
+        this.delayedResponses = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+            public Thread newThread(Runnable runnable){
+                Thread thread = new Thread(runnable, "LoopbackRadiusServer-latency");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Thread receiver = new Thread(new Runnable(){
+            public void run(){
+                receive();
+            }
+        }, "LoopbackRadiusServer-" + this.socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+    /**
+     * @return the port the server listens on, for both authentication and accounting
+     */
+    public int getPort(){
+        return this.socket.getLocalPort();
+    }
+    /**
+     * @return the address the server listens on
+     */
+    public InetAddress getAddress(){
+        return this.socket.getLocalAddress();
+    }
+    /**
+     * Accepts RADIUS over TCP connections on an ephemeral port of the server's address
+     * @return the port the server accepts TCP connections on
+     * @throws RadiusException if the port could not be opened
+     */
+    public int listenTcp() throws RadiusException{
+        try{
+            return this.listen(new ServerSocket(0, 50, this.getAddress()));
+        }catch(IOException ioex){
+            throw new RadiusException(ioex.getMessage());
+        }
+    }
+    /**
+     * Accepts RADIUS over TLS connections on an ephemeral port of the server's address, the
+     * clients are expected to use the shared secret of the server (RFC 6614 prescribes "radsec")
+     * @param context the SSLContext holding the server certificate
+     * @return the port the server accepts TLS connections on
+     * @throws RadiusException if the port could not be opened
+     */
+    public int listenTls(final SSLContext context) throws RadiusException{
+        try{
+            return this.listen(context.getServerSocketFactory().createServerSocket(0, 50, this.getAddress()));
+        }catch(IOException ioex){
+            throw new RadiusException(ioex.getMessage());
+        }
+    }
+    /**
+     * Only accept the users added this way, with their password
+     * @param userName the USER_NAME
+     * @param password the plaintext password
+     */
+    public void addUser(final String userName, final String password){
+        this.users.put(userName, password.getBytes());
+    }
+    /**
+     * Answer the first ACCESS_REQUEST of this user with an ACCESS_CHALLENGE carrying a State
+     * attribute, the request repeating that State is checked as usual
+     * @param userName the USER_NAME
+     */
+    public void addChallenge(final String userName){
+        this.challengedUsers.add(userName);
+    }
+    /**
+     * @param attributes the RadiusAttributes to add to every ACCESS_ACCEPT of the default rules
+     */
+    public void setReplyAttributes(final List attributes){
+        this.replyAttributes = new ArrayList(attributes);
+    }
+    /**
+     * @param handler replaces the default rules, null to go back to them
+     */
+    public void setHandler(final RadiusRequestHandler handler){
+        this.handler = (null == handler) ? new DefaultRequestHandler() : handler;
+    }
+    /**
+     * @param millis how long to hold every response before sending it, 0 to answer at once
+     */
+    public void setLatency(final int millis){
+        if(millis < 0){
+            throw new IllegalArgumentException("latency can not be negative");
+        }
+        this.latency = millis;
+    }
+    /**
+     * @param dropRate the fraction of requests to ignore, between 0.0 and 1.0
+     */
+    public void setDropRate(final double dropRate){
+        if((dropRate < 0.0) || (dropRate > 1.0)){
+            throw new IllegalArgumentException("dropRate must be between 0.0 and 1.0");
+        }
+        this.dropRate = dropRate;
+    }
+    /**
+     * @return the number of datagrams received
+     */
+    public long getRequestsReceived(){
+        return this.requestsReceived.get();
+    }
+    /**
+     * @return the number of requests ignored to simulate loss
+     */
+    public long getRequestsDropped(){
+        return this.requestsDropped.get();
+    }
+    /**
+     * @return the number of requests silently discarded because they were malformed, carried a
+     *         bad authenticator or the handler refused them
+     */
+    public long getRequestsDiscarded(){
+        return this.requestsDiscarded.get();
+    }
+    /**
+     * @return the number of responses sent
+     */
+    public long getResponsesSent(){
+        return this.responsesSent.get();
+    }
+    /**
+     * stops the server and closes its socket
+     */
+    public void close(){
+        this.closed = true;
+        this.socket.close();
+        synchronized(this.streamSockets){
+            for(int i = 0; i < this.streamSockets.size(); i++){
+                LoopbackRadiusServer.closeQuietly(this.streamSockets.get(i));
+            }
+        }
+        this.delayedResponses.shutdownNow();
+    }
+    private void receive(){
+        byte[] buffer = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        MessageDigest md5 = LoopbackRadiusServer.newMd5();
+        while(!this.closed){
+            try{
+                packet.setLength(buffer.length);
+                this.socket.receive(packet);
+            }catch(IOException ioex){
+                continue;//closed, the loop ends
+            }
+            byte[] response = this.handle(md5, buffer, packet.getLength());
+            if(null != response){
+                this.send(new DatagramPacket(response, response.length, packet.getAddress(), packet.getPort()));
+            }
+        }
+    }
+    /**
+     * starts the thread accepting connections on a stream server socket
+     * @return the port of the server socket
+     */
+    private int listen(final ServerSocket serverSocket){
+        this.streamSockets.add(serverSocket);
+        Thread acceptor = new Thread(new Runnable(){
+            public void run(){
+                accept(serverSocket);
+            }
+        }, "LoopbackRadiusServer-accept-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return serverSocket.getLocalPort();
+    }
+    private void accept(final ServerSocket serverSocket){
+        while(!this.closed){
+            final Socket connection;
+            try{
+                connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+            }catch(IOException ioex){
+                continue;//closed, the loop ends
+            }
+            this.streamSockets.add(connection);
+            Thread reader = new Thread(new Runnable(){
+                public void run(){
+                    serve(connection);
+                }
+            }, "LoopbackRadiusServer-" + serverSocket.getLocalPort() + "<-" + connection.getPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+    /**
+     * reads the packets of one stream connection, framed by their Length field (RFC 6613
+     * section 2.2), until the client closes it
+     */
+    private void serve(final Socket connection){
+        byte[] buffer = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        MessageDigest md5 = LoopbackRadiusServer.newMd5();
+        try{
+            InputStream in = connection.getInputStream();
+            OutputStream out = connection.getOutputStream();
+            while(!this.closed){
+                if(!LoopbackRadiusServer.readFully(in, buffer, 0, AUTHENTICATOR_OFFSET)){
+                    break;
+                }
+                int length = ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+                if((length < RadiusPacket.MIN_PACKET_LENGTH) || (length > RadiusPacket.MAX_PACKET_LENGTH)){
+                    this.requestsDiscarded.incrementAndGet();
+                    break;//the framing is lost, RFC 6613 section 2.6.4 says close the connection
+                }
+                if(!LoopbackRadiusServer.readFully(in, buffer, AUTHENTICATOR_OFFSET, length - AUTHENTICATOR_OFFSET)){
+                    break;
+                }
+                byte[] response = this.handle(md5, buffer, length);
+                if(null != response){
+                    this.send(out, response);
+                }
+            }
+        }catch(IOException ioex){
+            //the client went away or the server is closed
+        }finally{
+            this.streamSockets.remove(connection);
+            LoopbackRadiusServer.closeQuietly(connection);
+        }
+    }
+    /**
+     * counts a received request and answers it unless it is dropped or discarded
+     * @return the response, or null to send nothing
+     */
+    private byte[] handle(final MessageDigest md5, final byte[] buffer, final int length){
+        this.requestsReceived.incrementAndGet();
+        if((this.dropRate > 0.0) && (this.nextDouble() < this.dropRate)){
+            this.requestsDropped.incrementAndGet();
+            return null;
+        }
+        byte[] response;
+        try{
+            response = this.respond(md5, buffer, length);
+        }catch(RadiusException rex){
+            response = null;
+        }catch(InvalidParameterException ipex){
+            response = null;
+        }
+        if(null == response){
+            this.requestsDiscarded.incrementAndGet();
+        }
+        return response;
+    }
+    /**
+     * validates a request and builds the signed response to it
+     * @return the response, or null to send nothing
+     */
+    private byte[] respond(final MessageDigest md5, final byte[] data, final int length)
+            throws RadiusException, InvalidParameterException{
+        RadiusPacketView request = new RadiusPacketView(data, 0, length);
+        if(!this.messageAuthenticator.verify(data, 0, request.getLength(), null)){
+            return null;
+        }
+        byte[] userPassword = null;
+        RadiusPacket response;
+        if(request.getPacketType() == RadiusPacket.STATUS_SERVER){
+            //RFC 5997 section 3, a Status-Server without a Message-Authenticator is discarded
+            if(!request.hasAttribute(RadiusAttributeValues.MESSAGE_AUTHENTICATOR)){
+                return null;
+            }
+            response = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+            return this.sign(md5, data, request, response);
+        }else if(request.getPacketType() == RadiusPacket.ACCESS_REQUEST){
+            int pos = request.findAttribute(RadiusAttributeValues.USER_PASSWORD);
+            if(pos >= 0){
+                userPassword = this.decodePapPassword(md5, request, pos);
+            }
+        }else if(request.getPacketType() == RadiusPacket.ACCOUNTING_REQUEST){
+            if(!this.checkAccountingAuthenticator(md5, data, request.getLength())){
+                return null;
+            }
+        }else{
+            return null;
+        }
+        response = this.handler.handleRequest(request, userPassword);
+        if(null == response){
+            return null;
+        }
+        return this.sign(md5, data, request, response);
+    }
+    /**
+     * encodes the response, computing its Message-Authenticator if it has one and then its
+     * response authenticator. Responses to requests that carried a Message-Authenticator get one
+     * as their first attribute.
+     */
+    private byte[] sign(final MessageDigest md5, final byte[] data, final RadiusPacketView request,
+            final RadiusPacket response) throws RadiusException{
+        byte[] requestAuthenticator = new byte[AUTHENTICATOR_LENGTH];
+        System.arraycopy(data, AUTHENTICATOR_OFFSET, requestAuthenticator, 0, AUTHENTICATOR_LENGTH);
+        byte[] encoded = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        //ResponseAuth = MD5(Code+ID+Length+RequestAuth+Attributes+Secret)
+        int responseLength = RadiusPacketEncoder.encode(buffer, response, request.getPacketIdentifier(),
+                requestAuthenticator, request.hasAttribute(RadiusAttributeValues.MESSAGE_AUTHENTICATOR));
+        this.messageAuthenticator.sign(encoded, 0, responseLength);
+        md5.reset();
+        md5.update(encoded, 0, responseLength);
+        md5.update(this.sharedSecret);
+        RadiusPacketEncoder.putAuthenticator(buffer, 0, md5.digest());
+        byte[] packet = new byte[responseLength];
+        System.arraycopy(encoded, 0, packet, 0, responseLength);
+        return packet;
+    }
+    /**
+     * RFC 2866 section 3, the request authenticator is MD5(Code+ID+Length+16 zero octets+Attributes+Secret)
+     */
+    private boolean checkAccountingAuthenticator(final MessageDigest md5, final byte[] data, final int length){
+        md5.reset();
+        md5.update(data, 0, AUTHENTICATOR_OFFSET);
+        md5.update(new byte[AUTHENTICATOR_LENGTH]);
+        md5.update(data, RadiusPacket.RADIUS_HEADER_LENGTH, length - RadiusPacket.RADIUS_HEADER_LENGTH);
+        md5.update(this.sharedSecret);
+        byte[] expected = md5.digest();
+        for(int i = 0; i < AUTHENTICATOR_LENGTH; i++){
+            if(data[AUTHENTICATOR_OFFSET + i] != expected[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * RFC 2865 section 5.2, p(i) = c(i) xor MD5(S + c(i-1)) with c(0) the request authenticator
+     */
+    private byte[] decodePapPassword(final MessageDigest md5, final RadiusPacketView request, final int position)
+            throws RadiusException{
+        int valueLength = request.getValueLength(position);
+        if((valueLength < 16) || (valueLength > 128) || (valueLength % 16 != 0)){
+            throw new RadiusException("Invalid User-Password length");
+        }
+        byte[] data = request.getData();
+        int valueOffset = request.getValueOffset(position);
+        byte[] password = new byte[valueLength];
+        for(int i = 0; i < valueLength; i += 16){
+            md5.reset();
+            md5.update(this.sharedSecret);
+            if(i == 0){
+                md5.update(data, AUTHENTICATOR_OFFSET, AUTHENTICATOR_LENGTH);
+            }else{
+                md5.update(data, valueOffset + i - 16, 16);
+            }
+            byte[] bn = md5.digest();
+            for(int j = 0; j < 16; j++){
+                password[i + j] = (byte)(data[valueOffset + i + j] ^ bn[j]);
+            }
+        }
+        int end = valueLength;
+        while((end > 0) && (password[end - 1] == 0)){
+            end--;
+        }
+        byte[] trimmed = new byte[end];
+        System.arraycopy(password, 0, trimmed, 0, end);
+        return trimmed;
+    }
+    private void send(final DatagramPacket response){
+        if(this.latency <= 0){
+            this.sendNow(response);
+            return;
+        }
+        try{
+            this.delayedResponses.schedule(new Runnable(){
+                public void run(){
+                    sendNow(response);
+                }
+            }, this.latency, TimeUnit.MILLISECONDS);
+        }catch(RejectedExecutionException reex){
+            //closed
+        }
+    }
+    private void sendNow(final DatagramPacket response){
+        try{
+            this.socket.send(response);
+            this.responsesSent.incrementAndGet();
+        }catch(IOException ioex){
+            //the client went away or the server is closed
+        }
+    }
+    private void send(final OutputStream out, final byte[] response){
+        if(this.latency <= 0){
+            this.sendNow(out, response);
+            return;
+        }
+        try{
+            this.delayedResponses.schedule(new Runnable(){
+                public void run(){
+                    sendNow(out, response);
+                }
+            }, this.latency, TimeUnit.MILLISECONDS);
+        }catch(RejectedExecutionException reex){
+            //closed
+        }
+    }
+    private void sendNow(final OutputStream out, final byte[] response){
+        try{
+            synchronized(out){//responses of the reader and of the latency thread must not interleave
+                out.write(response);
+                out.flush();
+            }
+            this.responsesSent.incrementAndGet();
+        }catch(IOException ioex){
+            //the client went away or the server is closed
+        }
+    }
+    private static boolean readFully(final InputStream in, final byte[] buffer, final int offset, final int length)
+            throws IOException{
+        int read = 0;
+        while(read < length){
+            int count = in.read(buffer, offset + read, length - read);
+            if(count < 0){
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+    private static void closeQuietly(final Object socket){
+        try{
+            if(socket instanceof Socket){
+                ((Socket)socket).close();
+            }else if(socket instanceof ServerSocket){
+                ((ServerSocket)socket).close();
+            }
+        }catch(IOException ioex){
+            //nothing left to do with it
+        }
+    }
+    private double nextDouble(){
+        synchronized(this.random){
+            return this.random.nextDouble();
+        }
+    }
+    private static MessageDigest newMd5(){
+        try{
+            return MessageDigest.getInstance("MD5");
+        }catch(NoSuchAlgorithmException nsaex){
+            throw new RuntimeException("Could not access MD5 algorithm, fatal error");
+        }
+    }
+    /**
+     * The rules described in the class comment
+     */
+    private class DefaultRequestHandler implements RadiusRequestHandler {
+        public RadiusPacket handleRequest(final RadiusPacketView request, final byte[] userPassword)
+                throws RadiusException{
+            try{
+                if(request.getPacketType() == RadiusPacket.ACCOUNTING_REQUEST){
+                    return new RadiusPacket(RadiusPacket.ACCOUNTING_RESPONSE);
+                }
+                String userName = request.hasAttribute(RadiusAttributeValues.USER_NAME)
+                        ? request.getStringAttribute(RadiusAttributeValues.USER_NAME) : "";
+                if(challengedUsers.contains(userName)){
+                    byte[] state = this.challengeState(userName);
+                    int pos = request.findAttribute(RadiusAttributeValues.STATE);
+                    if((pos < 0) || !Arrays.equals(state, request.getValue(pos))){
+                        RadiusPacket challenge = new RadiusPacket(RadiusPacket.ACCESS_CHALLENGE);
+                        challenge.setAttribute(new RadiusAttribute(RadiusAttributeValues.STATE, state));
+                        challenge.setAttribute(new RadiusAttribute(RadiusAttributeValues.REPLY_MESSAGE,
+                                "Challenge".getBytes()));
+                        return challenge;
+                    }
+                }
+                if(!users.isEmpty()){
+                    byte[] password = (byte[])users.get(userName);
+                    if((null == password) || (null == userPassword) || !Arrays.equals(password, userPassword)){
+                        return new RadiusPacket(RadiusPacket.ACCESS_REJECT);
+                    }
+                }
+                return new RadiusPacket(RadiusPacket.ACCESS_ACCEPT, replyAttributes);
+            }catch(InvalidParameterException ipex){
+                throw new RadiusException(ipex.getMessage());
+            }
+        }
+        private byte[] challengeState(final String userName){
+            byte[] name = userName.getBytes();
+            byte[] state = new byte[CHALLENGE_STATE_PREFIX.length + name.length];
+            System.arraycopy(CHALLENGE_STATE_PREFIX, 0, state, 0, CHALLENGE_STATE_PREFIX.length);
+            System.arraycopy(name, 0, state, CHALLENGE_STATE_PREFIX.length, name.length);
+            return state;
+        }
+    }
+}
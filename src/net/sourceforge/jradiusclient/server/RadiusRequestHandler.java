@@ -0,0 +1,25 @@
+package net.sourceforge.jradiusclient.server;
+
+import net.sourceforge.jradiusclient.RadiusPacket;
+import net.sourceforge.jradiusclient.RadiusPacketView;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+
+/**
+ * Released under the LGPL<BR>
+ * Decides how a <code>LoopbackRadiusServer</code> answers a request.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public interface RadiusRequestHandler {
+    /**
+     * Called on the server's receiver thread for every request that passed validation. The view
+     * is only valid until this method returns.
+     * @param request the request as received
+     * @param userPassword the decoded USER_PASSWORD of an ACCESS_REQUEST (trailing zero padding
+     *                     removed), or null if the request has none
+     * @return the response to send, only its type and attributes are used, the server fills in
+     *         the identifier and the response authenticator. null to send nothing.
+     * @throws RadiusException to discard the request silently
+     */
+    public RadiusPacket handleRequest(RadiusPacketView request, byte[] userPassword) throws RadiusException;
+}
@@ -0,0 +1,74 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import net.sourceforge.jradiusclient.RadiusPacket;
+
+/**
+ * Released under the LGPL<BR>
+ * The default <code>RadiusTransport</code>, each connection is a connected
+ * <code>java.net.DatagramSocket</code> with its own blocking receiver thread.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public class DatagramSocketTransport implements RadiusTransport {
+    /**
+     * Opens a connected DatagramSocket and starts its receiver thread
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @param handler receives every packet arriving on the socket
+     * @return the new RadiusConnection
+     * @throws IOException if the socket could not be opened
+     */
+    public RadiusConnection connect(final InetAddress server, final int port,
+            final RadiusConnectionHandler handler) throws IOException{
+        DatagramSocket socket = new DatagramSocket();
+        socket.connect(server, port);
+        SocketConnection connection = new SocketConnection(socket, handler);
+        Thread receiver = new Thread(connection, "DatagramSocketTransport-receiver " + server.getHostAddress()
+                + ":" + port + " <- " + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+        return connection;
+    }
+    /**
+     * A connected socket and the loop its receiver thread runs
+     */
+    private static class SocketConnection implements RadiusConnection, Runnable {
+        private final DatagramSocket socket;
+        private final RadiusConnectionHandler handler;
+        private volatile boolean closed = false;
+        SocketConnection(final DatagramSocket socket, final RadiusConnectionHandler handler){
+            this.socket = socket;
+            this.handler = handler;
+        }
+        public void send(final byte[] packet, final int offset, final int length) throws IOException{
+            this.socket.send(new DatagramPacket(packet, offset, length));
+        }
+        public void close(){
+            this.closed = true;
+            this.socket.close();
+        }
+        public void run(){
+            DatagramPacket packetIn = new DatagramPacket(new byte[RadiusPacket.MAX_PACKET_LENGTH],
+                                                        RadiusPacket.MAX_PACKET_LENGTH);
+            while(!this.closed){
+                try{
+                    packetIn.setLength(RadiusPacket.MAX_PACKET_LENGTH);
+                    this.socket.receive(packetIn);
+                }catch(IOException ioex){
+                    continue;//closed is set before the socket is closed, so the loop ends there
+                }
+                try{
+                    this.handler.packetReceived(packetIn.getData(), packetIn.getOffset(), packetIn.getLength());
+                }catch(RuntimeException rex){
+                    //keep receiving, every later response on this socket would be lost otherwise
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, rex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Released under the LGPL<BR>
+ * Checks that the certificate of a server names it, the way HTTPS does (RFC 2818 section 3.1).
+ * An IP address must match an iPAddress subjectAltName. A host name must match a dNSName
+ * subjectAltName, or the most specific common name of the subject if the certificate has no
+ * dNSName at all. A wildcard is only allowed as the whole left-most label and stands for
+ * exactly one label, so *.example.com matches radius.example.com but neither example.com nor
+ * a.radius.example.com.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+final class HttpsHostnameVerifier implements HostnameVerifier {
+    private static final Integer DNS_NAME = Integer.valueOf(2);
+    private static final Integer IP_ADDRESS = Integer.valueOf(7);
+    /**
+     * @param host the host name or IP address the connection was opened to
+     * @param session the session of the completed handshake
+     * @return true if the server's certificate names the host
+     */
+    public boolean verify(final String host, final SSLSession session){
+        Certificate[] chain;
+        try{
+            chain = session.getPeerCertificates();
+        }catch(SSLPeerUnverifiedException spuex){
+            return false;
+        }
+        if((chain.length == 0) || !(chain[0] instanceof X509Certificate)){
+            return false;
+        }
+        X509Certificate certificate = (X509Certificate)chain[0];
+        try{
+            if(HttpsHostnameVerifier.isIpAddress(host)){
+                return HttpsHostnameVerifier.matchAddress(host, certificate);
+            }
+            return HttpsHostnameVerifier.matchName(host, certificate);
+        }catch(CertificateParsingException cpex){
+            return false;
+        }
+    }
+    private static boolean matchAddress(final String host, final X509Certificate certificate)
+            throws CertificateParsingException{
+        InetAddress address;
+        try{
+            address = InetAddress.getByName(host);//a literal, not looked up
+        }catch(UnknownHostException uhex){
+            return false;
+        }
+        List names = HttpsHostnameVerifier.subjectAltNames(certificate, IP_ADDRESS);
+        for(Iterator i = names.iterator(); i.hasNext();){
+            try{
+                if(address.equals(InetAddress.getByName((String)i.next()))){
+                    return true;
+                }
+            }catch(UnknownHostException uhex){
+                //not an address, can't match
+            }
+        }
+        return false;
+    }
+    private static boolean matchName(final String host, final X509Certificate certificate)
+            throws CertificateParsingException{
+        String name = host.toLowerCase(Locale.ENGLISH);
+        List names = HttpsHostnameVerifier.subjectAltNames(certificate, DNS_NAME);
+        if(names.isEmpty()){
+            String commonName = HttpsHostnameVerifier.commonName(certificate);
+            return (null != commonName) && HttpsHostnameVerifier.matchPattern(name, commonName);
+        }
+        for(Iterator i = names.iterator(); i.hasNext();){
+            if(HttpsHostnameVerifier.matchPattern(name, (String)i.next())){
+                return true;
+            }
+        }
+        return false;
+    }
+    private static boolean matchPattern(final String name, final String pattern){
+        String lowerPattern = pattern.toLowerCase(Locale.ENGLISH);
+        if(!lowerPattern.startsWith("*.")){
+            return name.equals(lowerPattern);
+        }
+        int dot = name.indexOf('.');
+        //the wildcard covers one whole label, and leaves at least two labels
+        return (dot > 0) && (lowerPattern.indexOf('.', 2) > 0) && name.substring(dot).equals(lowerPattern.substring(1));
+    }
+    /**
+     * @return the subjectAltNames of one type, as strings
+     */
+    private static List subjectAltNames(final X509Certificate certificate, final Integer type)
+            throws CertificateParsingException{
+        List names = new ArrayList();
+        Collection entries = certificate.getSubjectAlternativeNames();
+        if(null == entries){
+            return names;
+        }
+        for(Iterator i = entries.iterator(); i.hasNext();){
+            List entry = (List)i.next();
+            if(type.equals(entry.get(0)) && (entry.get(1) instanceof String)){
+                names.add(entry.get(1));
+            }
+        }
+        return names;
+    }
+    /**
+     * @return the last, most specific, common name of the subject, or null if there is none
+     */
+    private static String commonName(final X509Certificate certificate){
+        String commonName = null;
+        try{
+            LdapName subject = new LdapName(certificate.getSubjectX500Principal().getName());
+            //the RDNs are listed from the least specific
+            for(Iterator i = subject.getRdns().iterator(); i.hasNext();){
+                Rdn rdn = (Rdn)i.next();
+                if("CN".equalsIgnoreCase(rdn.getType())){
+                    commonName = rdn.getValue().toString();
+                }
+            }
+        }catch(InvalidNameException inex){
+            return null;
+        }
+        return commonName;
+    }
+    /**
+     * @return true if the host is an IPv4 or IPv6 literal rather than a name
+     */
+    private static boolean isIpAddress(final String host){
+        if(host.indexOf(':') >= 0){
+            return true;
+        }
+        if(host.length() == 0){
+            return false;
+        }
+        for(int i = 0; i < host.length(); i++){
+            char c = host.charAt(i);
+            if(((c < '0') || (c > '9')) && (c != '.')){
+                return false;
+            }
+        }
+        return true;
+    }
+}
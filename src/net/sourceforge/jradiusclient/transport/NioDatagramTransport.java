@@ -0,0 +1,223 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import net.sourceforge.jradiusclient.RadiusPacket;
+
+/**
+ * Released under the LGPL<BR>
+ * A <code>RadiusTransport</code> built on non-blocking <code>DatagramChannel</code>s. All
+ * connections opened through one instance are served by a fixed number of I/O threads, each
+ * running a <code>Selector</code> loop, so one instance can be shared by many
+ * <code>RadiusClient</code>s (i.e. many servers and secrets) without a thread per socket.
+ * Packets are sent directly from the calling thread; a send that would block is treated like
+ * a lost packet and left to the retransmission timer.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public class NioDatagramTransport implements RadiusTransport {
+    private final EventLoop[] loops;
+    private int nextLoop = 0;
+    /**
+     * Constructs a transport with a single I/O thread
+     * @throws IOException if the Selector could not be opened
+     */
+    public NioDatagramTransport() throws IOException{
+        this(1);
+    }
+    /**
+     * Constructs a transport with the given number of I/O threads, connections are spread over
+     * them round robin
+     * @param ioThreads the number of I/O threads, at least 1
+     * @throws IOException if a Selector could not be opened
+     */
+    public NioDatagramTransport(final int ioThreads) throws IOException{
+        if(ioThreads < 1){
+            throw new IllegalArgumentException("ioThreads must be at least 1");
+        }
+        this.loops = new EventLoop[ioThreads];
+        for(int i = 0; i < ioThreads; i++){
+            this.loops[i] = new EventLoop(Selector.open(), i);
+        }
+    }
+    /**
+     * Opens a connected, non-blocking DatagramChannel and registers it with one of the I/O threads
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @param handler receives every packet arriving on the channel
+     * @return the new RadiusConnection
+     * @throws IOException if the channel could not be opened
+     */
+    public RadiusConnection connect(final InetAddress server, final int port,
+            final RadiusConnectionHandler handler) throws IOException{
+        DatagramChannel channel = DatagramChannel.open();
+        try{
+            channel.configureBlocking(false);
+            channel.connect(new InetSocketAddress(server, port));
+        }catch(IOException ioex){
+            channel.close();
+            throw ioex;
+        }
+        ChannelConnection connection = new ChannelConnection(channel, handler);
+        EventLoop loop;
+        synchronized(this){
+            loop = this.loops[this.nextLoop];
+            this.nextLoop = (this.nextLoop + 1) % this.loops.length;
+        }
+        loop.register(connection);
+        return connection;
+    }
+    /**
+     * Stops the I/O threads and closes every connection still registered with them
+     */
+    public void close(){
+        for(int i = 0; i < this.loops.length; i++){
+            this.loops[i].close();
+        }
+    }
+    /**
+     * A connected channel
+     */
+    private static class ChannelConnection implements RadiusConnection {
+        private final DatagramChannel channel;
+        private final RadiusConnectionHandler handler;
+        ChannelConnection(final DatagramChannel channel, final RadiusConnectionHandler handler){
+            this.channel = channel;
+            this.handler = handler;
+        }
+        public void send(final byte[] packet, final int offset, final int length) throws IOException{
+            this.channel.write(ByteBuffer.wrap(packet, offset, length));
+        }
+        public void close(){
+            try{
+                this.channel.close();//also cancels its SelectionKey
+            }catch(IOException ignore){}
+        }
+    }
+    /**
+     * One I/O thread and its Selector
+     */
+    private static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final List registrations = new ArrayList();
+        private volatile boolean closed = false;
+        EventLoop(final Selector selector, final int index){
+            this.selector = selector;
+            Thread thread = new Thread(this, "NioDatagramTransport-io-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        /**
+         * queues the connection for registration by the I/O thread, registering from another
+         * thread would block until the Selector wakes up
+         * @param connection the connection to register
+         * @throws IOException if the loop has been closed
+         */
+        void register(final ChannelConnection connection) throws IOException{
+            synchronized(this.registrations){
+                if(this.closed){
+                    connection.close();
+                    throw new IOException("Transport has been closed.");
+                }
+                this.registrations.add(connection);
+            }
+            this.selector.wakeup();
+        }
+        void close(){
+            synchronized(this.registrations){
+                this.closed = true;
+            }
+            this.selector.wakeup();
+        }
+        public void run(){
+            ByteBuffer buffer = ByteBuffer.allocate(RadiusPacket.MAX_PACKET_LENGTH);
+            while(!this.closed){
+                try{
+                    this.selector.select();
+                }catch(IOException ioex){
+                    continue;
+                }
+                this.registerQueued();
+                Iterator keys = this.selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = (SelectionKey)keys.next();
+                    keys.remove();
+                    try{
+                        if(key.isReadable()){
+                            this.read((ChannelConnection)key.attachment(), buffer);
+                        }
+                    }catch(CancelledKeyException ckex){
+                        //closed by another thread since the select
+                    }
+                }
+            }
+            this.shutdown();
+        }
+        /**
+         * reads every datagram waiting on the channel
+         */
+        private void read(final ChannelConnection connection, final ByteBuffer buffer){
+            while(true){
+                buffer.clear();
+                try{
+                    if(connection.channel.read(buffer) <= 0){
+                        return;
+                    }
+                }catch(IOException ioex){
+                    return;//i.e. ICMP port unreachable, the retransmission timer deals with it
+                }
+                try{
+                    connection.handler.packetReceived(buffer.array(), 0, buffer.position());
+                }catch(RuntimeException rex){
+                    //the loop serves every client of the transport, it has to keep going
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, rex);
+                }
+            }
+        }
+        private void registerQueued(){
+            List toRegister;
+            synchronized(this.registrations){
+                if(this.registrations.isEmpty()){
+                    return;
+                }
+                toRegister = new ArrayList(this.registrations);
+                this.registrations.clear();
+            }
+            Iterator iter = toRegister.iterator();
+            while(iter.hasNext()){
+                ChannelConnection connection = (ChannelConnection)iter.next();
+                try{
+                    connection.channel.register(this.selector, SelectionKey.OP_READ, connection);
+                }catch(IOException ioex){//the connection was closed before it got registered
+                    connection.close();
+                }
+            }
+        }
+        private void shutdown(){
+            Iterator keys = this.selector.keys().iterator();
+            while(keys.hasNext()){
+                ((ChannelConnection)((SelectionKey)keys.next()).attachment()).close();
+            }
+            synchronized(this.registrations){
+                Iterator iter = this.registrations.iterator();
+                while(iter.hasNext()){
+                    ((ChannelConnection)iter.next()).close();
+                }
+                this.registrations.clear();
+            }
+            try{
+                this.selector.close();
+            }catch(IOException ignore){}
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+
+/**
+ * Released under the LGPL<BR>
+ * A connection opened by a <code>RadiusTransport</code> to one server port.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public interface RadiusConnection {
+    /**
+     * Sends one encoded packet, this may be called by several threads at once
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the length of the packet
+     * @throws IOException if the packet could not be sent
+     */
+    public void send(byte[] packet, int offset, int length) throws IOException;
+    /**
+     * Closes the connection, no more packets are passed to the handler afterwards
+     */
+    public void close();
+}
@@ -0,0 +1,27 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+
+/**
+ * Released under the LGPL<BR>
+ * Receives the packets arriving on a <code>RadiusConnection</code>, and hears about stream
+ * connections that broke.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public interface RadiusConnectionHandler {
+    /**
+     * Called on the transport's I/O thread for every packet received. The array is reused by the
+     * transport once this method returns, so anything kept must be copied.
+     * @param packet the array holding the packet
+     * @param offset where the packet starts in the array
+     * @param length the number of bytes received
+     */
+    public void packetReceived(byte[] packet, int offset, int length);
+    /**
+     * Called on the transport's I/O thread when a stream connection broke, datagram transports
+     * never call it. Every later send on the connection fails, a new connection has to be opened.
+     * @param cause why the connection broke
+     */
+    public void connectionLost(IOException cause);
+}
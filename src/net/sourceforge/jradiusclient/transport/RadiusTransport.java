@@ -0,0 +1,27 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Released under the LGPL<BR>
+ * Carries encoded RADIUS packets between a <code>RadiusClient</code> and a server for the
+ * asynchronous request methods. A transport opens one <code>RadiusConnection</code> per local
+ * endpoint, the client keeps the identifier window of each connection and takes care of
+ * matching responses, timeouts and retransmissions. A single transport instance may be shared
+ * by any number of clients.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public interface RadiusTransport {
+    /**
+     * Opens a connection to a server port
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @param handler receives every packet arriving on the connection
+     * @return the new RadiusConnection
+     * @throws IOException if the connection could not be opened
+     */
+    public RadiusConnection connect(InetAddress server, int port, RadiusConnectionHandler handler)
+    throws IOException;
+}
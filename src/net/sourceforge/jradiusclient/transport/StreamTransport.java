@@ -0,0 +1,201 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import net.sourceforge.jradiusclient.RadiusPacket;
+
+/**
+ * Released under the LGPL<BR>
+ * A <code>RadiusTransport</code> carrying RADIUS over a reliable byte stream, as RFC 6613
+ * describes for TCP and RFC 6614 for TLS. Packets are written back to back on the stream and
+ * framed by their own Length field, each connection has one reader thread that reads them into
+ * a reusable buffer. Any number of requests can be in flight on a connection at once and are
+ * matched to their responses by identifier, exactly as over UDP.
+ * <P>
+ * A stream does not lose packets, so requests sent through a stream transport are not
+ * retransmitted on a timer: each one waits for its whole deadline. A connection is long lived,
+ * it stays open until the client is closed or it breaks. A broken connection is reported to its
+ * handler and fails every later send, the client then opens a new one and sends the requests
+ * that were in flight again.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public abstract class StreamTransport implements RadiusTransport {
+    private static final int HEADER_LENGTH = 4;
+    /** the default time to wait for a connection to be established, in milliseconds */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    /**
+     * Opens a connection to a server port and starts its reader thread
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @param handler receives every packet arriving on the connection
+     * @return the new RadiusConnection
+     * @throws IOException if the connection could not be opened
+     */
+    public RadiusConnection connect(final InetAddress server, final int port,
+            final RadiusConnectionHandler handler) throws IOException{
+        StreamConnection connection = new StreamConnection(server, port, handler);
+        connection.open();
+        return connection;
+    }
+    /**
+     * @return the time to wait for a connection to be established, in milliseconds
+     */
+    public int getConnectTimeout(){
+        return this.connectTimeout;
+    }
+    /**
+     * @param connectTimeout the time to wait for a connection to be established, in
+     *                       milliseconds, 0 to wait as long as the OS does
+     */
+    public void setConnectTimeout(final int connectTimeout){
+        if(connectTimeout < 0){
+            throw new IllegalArgumentException("connectTimeout can not be negative");
+        }
+        this.connectTimeout = connectTimeout;
+    }
+    /**
+     * Opens the socket a connection runs over, connected and ready for RADIUS packets
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @return the connected socket
+     * @throws IOException if the socket could not be opened
+     */
+    protected abstract Socket openSocket(InetAddress server, int port) throws IOException;
+    /**
+     * One connection, it is not reopened after it breaks
+     */
+    private class StreamConnection implements RadiusConnection {
+        private final InetAddress server;
+        private final int port;
+        private final RadiusConnectionHandler handler;
+        private final Object sendLock = new Object();
+        private Socket socket = null;//guarded by sendLock
+        private OutputStream out = null;
+        private volatile boolean closed = false;
+        StreamConnection(final InetAddress server, final int port, final RadiusConnectionHandler handler){
+            this.server = server;
+            this.port = port;
+            this.handler = handler;
+        }
+        /**
+         * opens the socket and starts its reader
+         */
+        private void open() throws IOException{
+            final Socket opened = openSocket(this.server, this.port);
+            opened.setTcpNoDelay(true);
+            synchronized(this.sendLock){
+                if(this.closed){
+                    opened.close();
+                    throw new IOException("Connection has been closed.");
+                }
+                this.socket = opened;
+                this.out = opened.getOutputStream();
+            }
+            Thread reader = new Thread(new Runnable(){
+                public void run(){
+                    read(opened);
+                }
+            }, "StreamTransport-reader " + this.server.getHostAddress() + ":" + this.port + " <- " + opened.getLocalPort());
+            reader.setDaemon(true);
+            reader.start();
+        }
+        public void send(final byte[] packet, final int offset, final int length) throws IOException{
+            synchronized(this.sendLock){
+                if(this.closed){
+                    throw new IOException("Connection has been closed.");
+                }
+                if(null == this.socket){
+                    throw new IOException("Connection to the RADIUS Server lost.");
+                }
+                try{
+                    this.out.write(packet, offset, length);
+                    this.out.flush();
+                }catch(IOException ioex){
+                    this.broken(this.socket);
+                    throw ioex;
+                }
+            }
+        }
+        public void close(){
+            Socket toClose;
+            synchronized(this.sendLock){
+                this.closed = true;
+                toClose = this.socket;
+                this.socket = null;
+            }
+            StreamTransport.closeQuietly(toClose);
+        }
+        /**
+         * reads packets until the socket breaks or is closed
+         */
+        private void read(final Socket reading){
+            byte[] buffer = new byte[RadiusPacket.MAX_PACKET_LENGTH];
+            try{
+                InputStream in = reading.getInputStream();
+                while(true){
+                    if(!StreamTransport.readFully(in, buffer, 0, HEADER_LENGTH)){
+                        throw new IOException("Connection closed by the server.");
+                    }
+                    int length = ((buffer[2] & 0xff) << 8) | (buffer[3] & 0xff);
+                    if((length < RadiusPacket.MIN_PACKET_LENGTH) || (length > RadiusPacket.MAX_PACKET_LENGTH)){
+                        //RFC 6613 section 2.6.4, the framing is lost so the connection has to go
+                        throw new IOException("Invalid Length field in packet.");
+                    }
+                    if(!StreamTransport.readFully(in, buffer, HEADER_LENGTH, length - HEADER_LENGTH)){
+                        throw new IOException("Connection closed by the server.");
+                    }
+                    try{
+                        this.handler.packetReceived(buffer, 0, length);
+                    }catch(RuntimeException rex){
+                        //keep reading, the framing is intact
+                        Thread current = Thread.currentThread();
+                        current.getUncaughtExceptionHandler().uncaughtException(current, rex);
+                    }
+                }
+            }catch(IOException ioex){
+                synchronized(this.sendLock){
+                    this.broken(reading);
+                }
+                if(!this.closed){
+                    this.handler.connectionLost(ioex);
+                }
+            }
+        }
+        /**
+         * forgets a broken socket, the caller holds sendLock
+         */
+        private void broken(final Socket brokenSocket){
+            if(this.socket == brokenSocket){
+                this.socket = null;
+                this.out = null;
+            }
+            StreamTransport.closeQuietly(brokenSocket);
+        }
+    }
+    private static boolean readFully(final InputStream in, final byte[] buffer, final int offset, final int length)
+            throws IOException{
+        int read = 0;
+        while(read < length){
+            int count = in.read(buffer, offset + read, length - read);
+            if(count < 0){
+                return false;
+            }
+            read += count;
+        }
+        return true;
+    }
+    private static void closeQuietly(final Socket socket){
+        if(null != socket){
+            try{
+                socket.close();
+            }catch(IOException ioex){
+                //nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Released under the LGPL<BR>
+ * A <code>StreamTransport</code> for RADIUS over plain TCP (RFC 6613), meant for networks that
+ * can be trusted, i.e. inside a datacenter. Packets keep their usual MD5 based protection and go
+ * to the usual authentication and accounting ports. Large packets (EAP) are not exposed to IP
+ * fragment loss, and a server that falls behind slows the senders down through TCP flow control
+ * instead of making them retransmit.
+ * <pre>
+ * RadiusClient client = new RadiusClient("radius.example.com", 1812, 1813, secret, 6000,
+ *         new TcpTransport());
+ * </pre>
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class TcpTransport extends StreamTransport {
+    /**
+     * Connects to the server
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @return the connected Socket
+     * @throws IOException if the connection failed
+     */
+    protected Socket openSocket(final InetAddress server, final int port) throws IOException{
+        Socket socket = new Socket();
+        try{
+            //connections sit idle between bursts, notice a server that went away meanwhile
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(server, port), this.getConnectTimeout());
+            return socket;
+        }catch(IOException ioex){
+            socket.close();
+            throw ioex;
+        }
+    }
+}
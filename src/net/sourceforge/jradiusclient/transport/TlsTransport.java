@@ -0,0 +1,115 @@
+package net.sourceforge.jradiusclient.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Released under the LGPL<BR>
+ * A <code>StreamTransport</code> for RADIUS over TLS (RadSec, RFC 6614), for RADIUS traffic
+ * crossing networks that can not be trusted with the MD5 based protection of plain RADIUS.
+ * RFC 6614 fixes the shared secret to "radsec", so the client should be created with that secret.
+ * <P>
+ * The server is authenticated in two steps. Its certificate chain must be trusted by the trust
+ * managers of the <code>SSLContext</code>, and the certificate must name the server. By default
+ * the name is checked the way HTTPS checks it (RFC 2818 section 3.1): the host name (or IP
+ * address) the <code>RadiusClient</code> was created with must match a subjectAltName of the
+ * certificate, or its common name if it has no DNS subjectAltName. A
+ * <code>HostnameVerifier</code> given to the constructor replaces that check, i.e. to pin the
+ * certificate or to match the names RFC 6614 section 2.3 allows. Trust has to be configured:
+ * the default SSLContext trusts every public certificate authority, which lets anyone holding
+ * a certificate for the server name stand in for it. RadSec deployments should use an
+ * SSLContext whose trust managers only hold the CA that issues the RADIUS servers'
+ * certificates, and whose key managers hold the client certificate the servers expect.
+ * <P>
+ * Each connection is opened with the configured host name and port as the TLS peer, which
+ * is also sent as SNI. A connection opened again after one broke therefore resumes the cached
+ * TLS session instead of running a full handshake.
+ * <pre>
+ * RadiusClient client = new RadiusClient("radius.example.com", TlsTransport.RADSEC_PORT,
+ *         TlsTransport.RADSEC_PORT, TlsTransport.RADSEC_SECRET, 6000, new TlsTransport(context));
+ * </pre>
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.3 $
+ */
+public class TlsTransport extends StreamTransport {
+    /** the port RFC 6614 assigns to RADIUS over TLS, for authentication and accounting alike */
+    public static final int RADSEC_PORT = 2083;
+    /** the shared secret RFC 6614 section 2.3 prescribes */
+    public static final String RADSEC_SECRET = "radsec";
+    private final SSLSocketFactory socketFactory;
+    private final HostnameVerifier hostnameVerifier;
+    /**
+     * Uses the default SSLContext of the JVM, i.e. the trust store of the javax.net.ssl
+     * system properties, see the class comment on why that should be configured
+     * @throws NoSuchAlgorithmException if the default SSLContext is not available
+     */
+    public TlsTransport() throws NoSuchAlgorithmException{
+        this(SSLContext.getDefault());
+    }
+    /**
+     * The server certificate must name the server host, as for HTTPS
+     * @param context the initialised SSLContext to open connections with
+     */
+    public TlsTransport(final SSLContext context){
+        this(context, null);
+    }
+    /**
+     * @param context the initialised SSLContext to open connections with
+     * @param hostnameVerifier decides whether the certificate of a server whose chain the
+     *                         SSLContext trusts identifies the server, null for the HTTPS check
+     */
+    public TlsTransport(final SSLContext context, final HostnameVerifier hostnameVerifier){
+        if(null == context){
+            throw new IllegalArgumentException("context can not be null");
+        }
+        this.socketFactory = context.getSocketFactory();
+        this.hostnameVerifier = (null == hostnameVerifier) ? new HttpsHostnameVerifier() : hostnameVerifier;
+    }
+    /**
+     * Connects to the server, completes the TLS handshake and checks that the server's
+     * certificate names it
+     * @param server the address of the RADIUS server
+     * @param port the server port
+     * @return the connected SSLSocket
+     * @throws IOException if the connection or the handshake failed, or the server could not
+     *                     be verified
+     */
+    protected Socket openSocket(final InetAddress server, final int port) throws IOException{
+        String host = TlsTransport.hostName(server);
+        Socket plain = new Socket();
+        try{
+            plain.connect(new InetSocketAddress(server, port), this.getConnectTimeout());
+            SSLSocket socket = (SSLSocket)this.socketFactory.createSocket(plain, host, port, true);
+            //don't let a server that never answers the handshake hang the connect
+            socket.setSoTimeout(this.getConnectTimeout());
+            socket.startHandshake();
+            socket.setSoTimeout(0);
+            if(!this.hostnameVerifier.verify(host, socket.getSession())){
+                socket.close();
+                throw new SSLPeerUnverifiedException("Certificate of the RADIUS Server does not identify " + host);
+            }
+            return socket;
+        }catch(IOException ioex){
+            plain.close();
+            throw ioex;
+        }
+    }
+    /**
+     * @return the host name the address was looked up by, or its IP address if it was given as
+     *         one, without a reverse lookup
+     */
+    private static String hostName(final InetAddress server){
+        //InetAddress.toString() is "hostname/address", with an empty hostname if there is none
+        String text = server.toString();
+        int slash = text.indexOf('/');
+        return (slash > 0) ? text.substring(0, slash) : server.getHostAddress();
+    }
+}
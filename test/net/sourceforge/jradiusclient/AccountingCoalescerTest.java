@@ -0,0 +1,122 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import net.sourceforge.jradiusclient.server.RadiusRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs an <code>AccountingCoalescer</code> against a slow <code>LoopbackRadiusServer</code>, so
+ * records queue up behind the one in flight: queued Interim-Updates are replaced by later ones and
+ * by a Stop, Start and Stop records are never dropped, and sessions don't wait on each other.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class AccountingCoalescerTest {
+    private static final String SECRET = "s3cret";
+    private static final int START = 1;
+    private static final int STOP = 2;
+    private static final int INTERIM_UPDATE = 3;
+    private LoopbackRadiusServer server;
+    private RadiusClient client;
+    private AccountingCoalescer coalescer;
+    /** "session status session-time" of every record the server received, in order */
+    private final List received = Collections.synchronizedList(new ArrayList());
+    @Before
+    public void setUp() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+        this.server.setHandler(new RadiusRequestHandler(){
+            public RadiusPacket handleRequest(RadiusPacketView request, byte[] userPassword) throws RadiusException{
+                received.add(request.getStringAttribute(RadiusAttributeValues.ACCT_SESSION_ID) + " "
+                        + request.getIntAttribute(RadiusAttributeValues.ACCT_STATUS_TYPE) + " "
+                        + request.getIntAttribute(RadiusAttributeValues.ACCT_SESSION_TIME));
+                try{
+                    return new RadiusPacket(RadiusPacket.ACCOUNTING_RESPONSE);
+                }catch(InvalidParameterException ipex){
+                    throw new RadiusException(ipex.getMessage());
+                }
+            }
+        });
+        //slow enough for every record to be submitted while the first one is in flight
+        this.server.setLatency(300);
+        this.client = new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(), SECRET, 5000);
+        this.coalescer = new AccountingCoalescer(this.client);
+    }
+    @After
+    public void tearDown(){
+        this.client.close();
+        this.server.close();
+    }
+    @Test
+    public void replacesQueuedInterimUpdates() throws Exception{
+        List futures = new ArrayList();
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, 10)));
+        for(int i = 2; i <= 5; i++){
+            futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, i * 10)));
+        }
+        AccountingCoalescerTest.awaitAll(futures);
+        //the first one was in flight, the others replaced each other while queued
+        assertEquals("[a 3 10, a 3 50]", this.received.toString());
+        assertEquals(5, this.coalescer.getSubmittedCount());
+        assertEquals(3, this.coalescer.getCoalescedCount());
+        assertEquals(0, this.coalescer.getActiveSessionCount());
+    }
+    @Test
+    public void neverDropsStartOrStop() throws Exception{
+        List futures = new ArrayList();
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", START, 0)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, 10)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, 20)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", STOP, 25)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", START, 0)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, 5)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", STOP, 8)));
+        AccountingCoalescerTest.awaitAll(futures);
+        //the Stops replaced the queued Interim-Updates, in submission order
+        assertEquals("[a 1 0, a 2 25, a 1 0, a 2 8]", this.received.toString());
+        assertEquals(3, this.coalescer.getCoalescedCount());
+    }
+    @Test
+    public void sendsSessionsIndependently() throws Exception{
+        List futures = new ArrayList();
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", START, 0)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("b", START, 0)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("a", INTERIM_UPDATE, 10)));
+        futures.add(this.coalescer.submit(AccountingCoalescerTest.record("b", INTERIM_UPDATE, 10)));
+        assertEquals(2, this.coalescer.getActiveSessionCount());
+        Thread.sleep(100);
+        //both Starts are in flight at once
+        assertEquals(2, this.received.size());
+        AccountingCoalescerTest.awaitAll(futures);
+        assertEquals(4, this.received.size());
+        assertEquals(0, this.coalescer.getCoalescedCount());
+    }
+    private static RadiusPacket record(final String session, final int statusType, final int sessionTime)
+            throws InvalidParameterException{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCOUNTING_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.SERVICE_TYPE, new byte[]{0, 0, 0, 1}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_STATUS_TYPE, new byte[]{0, 0, 0, (byte)statusType}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_SESSION_ID, session.getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_SESSION_TIME, new byte[]{0, 0, 0, (byte)sessionTime}));
+        return request;
+    }
+    /**
+     * every future, the replaced records' too, completes with an ACCOUNTING_RESPONSE
+     */
+    private static void awaitAll(final List futures) throws RadiusException{
+        for(int i = 0; i < futures.size(); i++){
+            RadiusPacket response = ((RadiusFuture)futures.get(i)).getResponse();
+            assertEquals(RadiusPacket.ACCOUNTING_RESPONSE, response.getPacketType());
+        }
+    }
+}
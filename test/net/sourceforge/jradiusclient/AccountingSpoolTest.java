@@ -0,0 +1,137 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import net.sourceforge.jradiusclient.server.RadiusRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs an <code>AccountingSpool</code> against a <code>LoopbackRadiusServer</code>: records
+ * spooled while the server is down are sent when the spool is opened again, and delivered
+ * segments are deleted.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class AccountingSpoolTest {
+    private static final String SECRET = "s3cret";
+    private static final long WAIT = 30000;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private LoopbackRadiusServer server;
+    private final Set sessions = Collections.synchronizedSet(new HashSet());
+    private final AtomicInteger delayed = new AtomicInteger();
+    @Before
+    public void setUp() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+        this.server.setHandler(new RadiusRequestHandler(){
+            public RadiusPacket handleRequest(RadiusPacketView request, byte[] userPassword) throws RadiusException{
+                sessions.add(request.getStringAttribute(RadiusAttributeValues.ACCT_SESSION_ID));
+                if(request.hasAttribute(RadiusAttributeValues.ACCT_DELAY_TIME)
+                        && (request.getIntAttribute(RadiusAttributeValues.ACCT_DELAY_TIME) >= 1)){
+                    delayed.incrementAndGet();
+                }
+                try{
+                    return new RadiusPacket(RadiusPacket.ACCOUNTING_RESPONSE);
+                }catch(InvalidParameterException ipex){
+                    throw new RadiusException(ipex.getMessage());
+                }
+            }
+        });
+    }
+    @After
+    public void tearDown(){
+        this.server.close();
+    }
+    @Test
+    public void sendsRecordsSpooledWhileTheServerWasDown() throws Exception{
+        File directory = this.folder.newFolder("spool");
+        this.server.setDropRate(1.0);
+        RadiusClient client = this.newClient(200);
+        AccountingSpool spool = new AccountingSpool(client, directory);
+        for(int i = 0; i < 500; i++){
+            spool.submit(AccountingSpoolTest.accountingRequest(i));
+        }
+        Thread.sleep(1100);//so every record is delayed by at least a second
+        assertEquals(500, spool.getPendingCount());
+        spool.close();
+        client.close();
+        assertEquals(1, AccountingSpoolTest.segmentCount(directory));
+
+        this.server.setDropRate(0.0);
+        client = this.newClient(1000);
+        spool = new AccountingSpool(client, directory);
+        try{
+            AccountingSpoolTest.awaitDelivered(spool);
+            assertEquals(500, this.sessions.size());
+            assertEquals(500, this.delayed.get());
+        }finally{
+            spool.close();
+            client.close();
+        }
+        assertEquals(0, AccountingSpoolTest.segmentCount(directory));
+    }
+    @Test
+    public void deletesDeliveredSegments() throws Exception{
+        File directory = this.folder.newFolder("spool");
+        RadiusClient client = this.newClient(1000);
+        AccountingSpool spool = new AccountingSpool(client, directory);
+        try{
+            //several 1 MB segments worth of records
+            for(int i = 0; i < 40000; i++){
+                spool.submit(AccountingSpoolTest.accountingRequest(i));
+                if(i % 500 == 0){
+                    Thread.sleep(10);
+                }
+            }
+            AccountingSpoolTest.awaitDelivered(spool);
+            assertEquals(40000, this.sessions.size());
+            //every full segment was deleted, only the one still appended to is left
+            assertEquals(1, AccountingSpoolTest.segmentCount(directory));
+        }finally{
+            spool.close();
+            client.close();
+        }
+        assertEquals(0, AccountingSpoolTest.segmentCount(directory));
+    }
+    private RadiusClient newClient(final int timeout) throws Exception{
+        return new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(), SECRET, timeout);
+    }
+    private static RadiusPacket accountingRequest(final int session) throws InvalidParameterException{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCOUNTING_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.SERVICE_TYPE, new byte[]{0, 0, 0, 1}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_STATUS_TYPE, new byte[]{0, 0, 0, 3}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_SESSION_ID, ("session-" + session).getBytes()));
+        return request;
+    }
+    private static void awaitDelivered(final AccountingSpool spool) throws InterruptedException{
+        long start = System.currentTimeMillis();
+        while((spool.getPendingCount() > 0) && (System.currentTimeMillis() - start < WAIT)){
+            Thread.sleep(50);
+        }
+        assertEquals(0, spool.getPendingCount());
+    }
+    private static int segmentCount(final File directory){
+        int count = 0;
+        String[] names = directory.list();
+        for(int i = 0; i < names.length; i++){
+            if(names[i].endsWith(".spool")){
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,186 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import net.sourceforge.jradiusclient.server.RadiusRequestHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs <code>EapSession</code>s against a <code>LoopbackRadiusServer</code> playing an EAP
+ * server that challenges a given number of times: EAP packets split over 253 byte EAP-Message
+ * attributes both ways, the State of each challenge echoed in the next round, and conversations
+ * ended by a responder that gives up or throws, or by the round limit.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class EapSessionTest {
+    private static final String SECRET = "s3cret";
+    private static final int RESPONSE_LENGTH = 600;
+    private static final int CHALLENGE_LENGTH = 700;
+    private LoopbackRadiusServer server;
+    private RadiusClient client;
+    private volatile int challenges = 2;
+    /** the State received in each round, "-" for none */
+    private final List states = Collections.synchronizedList(new ArrayList());
+    /** the EAP-Message lengths received in each round */
+    private final List fragments = Collections.synchronizedList(new ArrayList());
+    /** the EAP packet received in each round */
+    private final List eapResponses = Collections.synchronizedList(new ArrayList());
+    @Before
+    public void setUp() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+        this.server.setHandler(new RadiusRequestHandler(){
+            public RadiusPacket handleRequest(RadiusPacketView request, byte[] userPassword) throws RadiusException{
+                try{
+                    return challenge(request);
+                }catch(InvalidParameterException ipex){
+                    throw new RadiusException(ipex.getMessage());
+                }
+            }
+        });
+        this.client = new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(), SECRET, 5000);
+    }
+    @After
+    public void tearDown(){
+        this.client.close();
+        this.server.close();
+    }
+    @Test
+    public void splitsEapPacketsAndEchoesTheState() throws Exception{
+        final List eapRequests = Collections.synchronizedList(new ArrayList());
+        EapSession session = new EapSession(this.client, EapSessionTest.template(), new EapResponder(){
+            public byte[] respond(EapSession current, byte[] eapRequest){
+                eapRequests.add(eapRequest);
+                return EapSessionTest.eapPacket(current.getRounds() + 1, RESPONSE_LENGTH);
+            }
+        });
+        RadiusPacket response = session.start(EapSessionTest.eapPacket(1, RESPONSE_LENGTH)).getResponse();
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        assertEquals(3, session.getRounds());
+        assertEquals("[-, state-1, state-2]", this.states.toString());
+        //600 bytes go out as 253 + 253 + 94
+        assertEquals("[[253, 253, 94], [253, 253, 94], [253, 253, 94]]", this.fragments.toString());
+        for(int round = 1; round <= 3; round++){
+            assertArrayEquals(EapSessionTest.eapPacket(round, RESPONSE_LENGTH), (byte[])this.eapResponses.get(round - 1));
+        }
+        //and 700 bytes come back as 253 + 253 + 194, put back together for the responder
+        assertEquals(2, eapRequests.size());
+        for(int round = 1; round <= 2; round++){
+            assertArrayEquals(EapSessionTest.eapPacket(100 + round, CHALLENGE_LENGTH), (byte[])eapRequests.get(round - 1));
+        }
+    }
+    @Test
+    public void splitsOnTheAttributeBoundary() throws Exception{
+        int[] lengths = new int[]{1, 253, 254, 506, 507};
+        int[] counts = new int[]{1, 1, 2, 2, 3};
+        for(int i = 0; i < lengths.length; i++){
+            RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+            byte[] eapMessage = EapSessionTest.eapPacket(i, lengths[i]);
+            EapSession.addEapMessage(packet, eapMessage);
+            assertEquals(counts[i], packet.getAttributes(RadiusAttributeValues.EAP_MESSAGE).size());
+            assertArrayEquals(eapMessage, EapSession.getEapMessage(packet));
+        }
+        assertNull(EapSession.getEapMessage(new RadiusPacket(RadiusPacket.ACCESS_REQUEST)));
+    }
+    @Test
+    public void failsWhenTheResponderThrows() throws Exception{
+        EapSession session = new EapSession(this.client, EapSessionTest.template(), new EapResponder(){
+            public byte[] respond(EapSession current, byte[] eapRequest){
+                throw new IllegalStateException("broken method");
+            }
+        });
+        RadiusFuture future = session.start(EapSessionTest.eapPacket(1, RESPONSE_LENGTH));
+        EapSessionTest.assertFails(future, "EAP responder failed: java.lang.IllegalStateException: broken method");
+        //the receiver is still running
+        this.challenges = 0;
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, this.client.authenticate(EapSessionTest.template()).getPacketType());
+    }
+    @Test
+    public void failsWhenTheResponderGivesUp() throws Exception{
+        EapSession session = new EapSession(this.client, EapSessionTest.template(), new EapResponder(){
+            public byte[] respond(EapSession current, byte[] eapRequest){
+                return null;
+            }
+        });
+        EapSessionTest.assertFails(session.start(EapSessionTest.eapPacket(1, RESPONSE_LENGTH)), "EAP conversation abandoned");
+        assertEquals(1, session.getRounds());
+    }
+    @Test
+    public void givesUpAfterTheMaximumRounds() throws Exception{
+        this.challenges = Integer.MAX_VALUE;
+        EapSession session = new EapSession(this.client, EapSessionTest.template(), new EapResponder(){
+            public byte[] respond(EapSession current, byte[] eapRequest){
+                return EapSessionTest.eapPacket(current.getRounds() + 1, RESPONSE_LENGTH);
+            }
+        });
+        session.setMaxRounds(4);
+        EapSessionTest.assertFails(session.start(EapSessionTest.eapPacket(1, RESPONSE_LENGTH)),
+                "EAP conversation did not finish after 4 rounds");
+        assertEquals(4, session.getRounds());
+    }
+    /**
+     * records the round and answers it with an Access-Challenge, or an Access-Accept once
+     * <code>challenges</code> rounds have been challenged
+     */
+    private RadiusPacket challenge(final RadiusPacketView request) throws RadiusException, InvalidParameterException{
+        int round = this.eapResponses.size() + 1;
+        int pos = request.findAttribute(RadiusAttributeValues.STATE);
+        this.states.add((pos < 0) ? "-" : request.getStringValue(pos));
+        List lengths = new ArrayList();
+        ByteArrayOutputStream eapResponse = new ByteArrayOutputStream();
+        for(pos = request.findAttribute(RadiusAttributeValues.EAP_MESSAGE); pos >= 0;
+                pos = request.findAttribute(RadiusAttributeValues.EAP_MESSAGE, pos)){
+            lengths.add(Integer.valueOf(request.getValueLength(pos)));
+            eapResponse.write(request.getData(), request.getValueOffset(pos), request.getValueLength(pos));
+        }
+        this.fragments.add(lengths);
+        this.eapResponses.add(eapResponse.toByteArray());
+        if(round > this.challenges){
+            return new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        }
+        RadiusPacket challenge = new RadiusPacket(RadiusPacket.ACCESS_CHALLENGE);
+        challenge.addAttribute(new RadiusAttribute(RadiusAttributeValues.STATE, ("state-" + round).getBytes()));
+        EapSession.addEapMessage(challenge, EapSessionTest.eapPacket(100 + round, CHALLENGE_LENGTH));
+        return challenge;
+    }
+    private static RadiusPacket template() throws InvalidParameterException{
+        RadiusPacket template = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        template.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        return template;
+    }
+    /**
+     * @return a stand in for an EAP packet, its bytes tell the packets apart
+     */
+    private static byte[] eapPacket(final int seed, final int length){
+        byte[] packet = new byte[length];
+        for(int i = 0; i < length; i++){
+            packet[i] = (byte)(seed * 31 + i);
+        }
+        return packet;
+    }
+    private static void assertFails(final RadiusFuture future, final String message) throws Exception{
+        try{
+            future.get(5, TimeUnit.SECONDS);
+            fail("the conversation succeeded");
+        }catch(ExecutionException eex){
+            assertEquals(message, eex.getCause().getMessage());
+        }
+        assertTrue(future.isDone());
+    }
+}
@@ -0,0 +1,140 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Signs and verifies Message-Authenticators (RFC 3579 section 3.2) and checks them against an
+ * HMAC-MD5 computed independently over the packet.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class MessageAuthenticatorTest {
+    private static final byte[] SECRET = "s3cret".getBytes();
+    private static final int VALUE_OFFSET = 20 + 5 + 2;//header, User-Name "bob", attribute header
+    @Test
+    public void signsOverTheHeader() throws Exception{
+        byte[] packet = MessageAuthenticatorTest.accessRequest();
+        MessageAuthenticator authenticator = new MessageAuthenticator(SECRET);
+        assertEquals(VALUE_OFFSET, MessageAuthenticator.find(packet, 0, packet.length));
+        assertTrue(authenticator.sign(packet, 0, packet.length));
+        byte[] expected = MessageAuthenticatorTest.hmac(packet, null);
+        assertArrayEquals(expected, MessageAuthenticatorTest.value(packet));
+        assertTrue(authenticator.verify(packet, 0, packet.length, null));
+    }
+    @Test
+    public void signsResponsesOverTheRequestAuthenticator() throws Exception{
+        byte[] packet = MessageAuthenticatorTest.accessRequest();
+        packet[0] = RadiusPacket.ACCESS_ACCEPT;
+        byte[] requestAuthenticator = new byte[16];
+        for(int i = 0; i < requestAuthenticator.length; i++){
+            requestAuthenticator[i] = (byte)(0xa0 + i);
+        }
+        MessageAuthenticator authenticator = new MessageAuthenticator(SECRET);
+        assertTrue(authenticator.sign(packet, 0, packet.length, requestAuthenticator));
+        assertArrayEquals(MessageAuthenticatorTest.hmac(packet, requestAuthenticator),
+                MessageAuthenticatorTest.value(packet));
+        assertTrue(authenticator.verify(packet, 0, packet.length, requestAuthenticator));
+        assertFalse(authenticator.verify(packet, 0, packet.length, null));
+    }
+    @Test
+    public void rejectsChangedPackets() throws Exception{
+        byte[] packet = MessageAuthenticatorTest.accessRequest();
+        MessageAuthenticator authenticator = new MessageAuthenticator(SECRET);
+        authenticator.sign(packet, 0, packet.length);
+        packet[22]++;//the first byte of the user name
+        assertFalse(authenticator.verify(packet, 0, packet.length, null));
+        packet[22]--;
+        assertFalse(new MessageAuthenticator("other".getBytes()).verify(packet, 0, packet.length, null));
+    }
+    @Test
+    public void worksAtAnOffset() throws Exception{
+        byte[] packet = MessageAuthenticatorTest.accessRequest();
+        byte[] buffer = new byte[packet.length + 10];
+        System.arraycopy(packet, 0, buffer, 7, packet.length);
+        MessageAuthenticator authenticator = new MessageAuthenticator(SECRET);
+        authenticator.sign(packet, 0, packet.length);
+        authenticator.sign(buffer, 7, packet.length);
+        for(int i = 0; i < packet.length; i++){
+            assertEquals(packet[i], buffer[7 + i]);
+        }
+        assertTrue(authenticator.verify(buffer, 7, packet.length, null));
+    }
+    @Test
+    public void ignoresPacketsWithoutOne() throws Exception{
+        byte[] packet = new byte[25];
+        packet[0] = RadiusPacket.ACCESS_REQUEST;
+        packet[3] = 25;
+        packet[20] = RadiusAttributeValues.USER_NAME;
+        packet[21] = 5;
+        MessageAuthenticator authenticator = new MessageAuthenticator(SECRET);
+        assertEquals(-1, MessageAuthenticator.find(packet, 0, packet.length));
+        assertFalse(authenticator.sign(packet, 0, packet.length));
+        assertTrue(authenticator.verify(packet, 0, packet.length, null));
+    }
+    @Test
+    public void rejectsMalformedAttributes() throws Exception{
+        byte[] packet = MessageAuthenticatorTest.accessRequest();
+        packet[VALUE_OFFSET - 1] = 17;
+        try{
+            MessageAuthenticator.find(packet, 0, packet.length);
+            fail("accepted a Message-Authenticator of the wrong length");
+        }catch(RadiusException rex){
+            //expected
+        }
+        packet[21] = (byte)200;
+        try{
+            MessageAuthenticator.find(packet, 0, packet.length);
+            fail("accepted an attribute running past the packet");
+        }catch(RadiusException rex){
+            //expected
+        }
+    }
+    /**
+     * an Access-Request with a User-Name and an empty Message-Authenticator
+     */
+    private static byte[] accessRequest(){
+        byte[] packet = new byte[VALUE_OFFSET + 16];
+        packet[0] = RadiusPacket.ACCESS_REQUEST;
+        packet[1] = 7;
+        packet[3] = (byte)packet.length;
+        for(int i = 4; i < 20; i++){
+            packet[i] = (byte)i;
+        }
+        packet[20] = RadiusAttributeValues.USER_NAME;
+        packet[21] = 5;
+        System.arraycopy("bob".getBytes(), 0, packet, 22, 3);
+        packet[25] = (byte)RadiusAttributeValues.MESSAGE_AUTHENTICATOR;
+        packet[26] = 18;
+        return packet;
+    }
+    private static byte[] value(final byte[] packet){
+        byte[] value = new byte[16];
+        System.arraycopy(packet, VALUE_OFFSET, value, 0, 16);
+        return value;
+    }
+    /**
+     * the HMAC-MD5 of the packet with a zero Message-Authenticator, over another authenticator
+     */
+    private static byte[] hmac(final byte[] packet, final byte[] authenticator) throws Exception{
+        byte[] copy = (byte[])packet.clone();
+        if(null != authenticator){
+            System.arraycopy(authenticator, 0, copy, 4, 16);
+        }
+        for(int i = 0; i < 16; i++){
+            copy[VALUE_OFFSET + i] = 0;
+        }
+        Mac mac = Mac.getInstance("HmacMD5");
+        mac.init(new SecretKeySpec(SECRET, "HmacMD5"));
+        return mac.doFinal(copy);
+    }
+}
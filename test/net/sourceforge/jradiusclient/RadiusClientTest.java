@@ -0,0 +1,180 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs the client against a <code>LoopbackRadiusServer</code>: concurrent requests multiplexed
+ * over one socket, retransmission timing against slow and dead servers, cancelling, and listeners
+ * that throw or are added late.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public class RadiusClientTest {
+    private static final String SECRET = "s3cret";
+    private LoopbackRadiusServer server;
+    private RadiusClient client;
+    @Before
+    public void setUp() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+    }
+    @After
+    public void tearDown(){
+        if(null != this.client){
+            this.client.close();
+        }
+        this.server.close();
+    }
+    @Test
+    public void multiplexesConcurrentRequests() throws Exception{
+        this.client = this.newClient(6000);
+        this.server.setLatency(50);
+        RadiusFuture[] futures = new RadiusFuture[1000];
+        for(int i = 0; i < futures.length; i++){
+            futures[i] = this.client.authenticateAsync(RadiusClientTest.accessRequest());
+        }
+        for(int i = 0; i < futures.length; i++){
+            RadiusPacket response = (RadiusPacket)futures[i].get(10, TimeUnit.SECONDS);
+            assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        }
+        assertEquals(futures.length, this.server.getRequestsReceived());
+    }
+    @Test
+    public void doesNotRetransmitToASlowServer() throws Exception{
+        this.client = this.newClient(10000);
+        for(int i = 0; i < 20; i++){
+            this.client.authenticate(RadiusClientTest.accessRequest());
+        }
+        //far slower than the measured round trip, but within the 1 second floor
+        this.server.setLatency(600);
+        long received = this.server.getRequestsReceived();
+        long start = System.nanoTime();
+        RadiusPacket response = this.client.authenticate(RadiusClientTest.accessRequest());
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        assertEquals(1, this.server.getRequestsReceived() - received);
+        assertTrue("took " + elapsed + " ms", elapsed < 1000);
+    }
+    @Test
+    public void retransmitsToADeadServerUntilTheDeadline() throws Exception{
+        this.client = this.newClient(1000);
+        this.server.setDropRate(1.0);
+        long start = System.nanoTime();
+        try{
+            this.client.authenticate(RadiusClientTest.accessRequest(), 3);
+            fail("a dead server answered");
+        }catch(RadiusTimeoutException rtex){
+            //expected
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        //the deadline is the timeout times the retries, every wait is capped by the timeout
+        assertTrue("took " + elapsed + " ms", (elapsed >= 2900) && (elapsed < 4500));
+        assertTrue(this.server.getRequestsReceived() + " sent", this.server.getRequestsReceived() >= 3);
+    }
+    @Test
+    public void cancelReclaimsTheIdentifier() throws Exception{
+        //a server that never answers, and a client that waits forever
+        DatagramSocket mute = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        try{
+            mute.setSoTimeout(5000);
+            this.client = new RadiusClient("127.0.0.1", mute.getLocalPort(), mute.getLocalPort(), SECRET, 0);
+            Set localPorts = new HashSet();
+            DatagramPacket received = new DatagramPacket(new byte[RadiusPacket.MAX_PACKET_LENGTH], RadiusPacket.MAX_PACKET_LENGTH);
+            //more requests than one local port has identifiers for
+            for(int i = 0; i < 300; i++){
+                RadiusFuture future = this.client.authenticateAsync(RadiusClientTest.accessRequest());
+                mute.receive(received);
+                localPorts.add(Integer.valueOf(received.getPort()));
+                assertTrue(future.cancel(false));
+                assertTrue(future.isCancelled());
+                try{
+                    future.get();
+                    fail("got a cancelled request");
+                }catch(CancellationException cex){
+                    //expected
+                }
+                try{
+                    future.getResponse();
+                    fail("got a cancelled request");
+                }catch(RadiusException rex){
+                    //expected
+                }
+            }
+            assertEquals(1, localPorts.size());
+        }finally{
+            mute.close();
+        }
+    }
+    @Test
+    public void survivesListenersThatThrow() throws Exception{
+        this.client = this.newClient(6000);
+        final CountDownLatch reported = new CountDownLatch(1);
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler(){
+            public void uncaughtException(Thread thread, Throwable throwable){
+                reported.countDown();
+            }
+        });
+        try{
+            final CountDownLatch called = new CountDownLatch(2);
+            RadiusFuture future = this.client.authenticateAsync(RadiusClientTest.accessRequest());
+            future.addListener(new RadiusResponseListener(){
+                public void requestCompleted(RadiusFuture completed){
+                    called.countDown();
+                    throw new IllegalStateException("listener failed");
+                }
+            });
+            future.addListener(new RadiusResponseListener(){
+                public void requestCompleted(RadiusFuture completed){
+                    called.countDown();
+                }
+            });
+            assertTrue(called.await(5, TimeUnit.SECONDS));
+            assertTrue(reported.await(5, TimeUnit.SECONDS));
+            //the receiver is still running
+            RadiusPacket response = this.client.authenticate(RadiusClientTest.accessRequest());
+            assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        }finally{
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+    }
+    @Test
+    public void callsListenersAddedAfterCompletion() throws Exception{
+        this.client = this.newClient(6000);
+        RadiusFuture future = this.client.authenticateAsync(RadiusClientTest.accessRequest());
+        future.getResponse();
+        final Thread[] caller = new Thread[1];
+        future.addListener(new RadiusResponseListener(){
+            public void requestCompleted(RadiusFuture completed){
+                caller[0] = Thread.currentThread();
+            }
+        });
+        assertEquals(Thread.currentThread(), caller[0]);
+    }
+    private RadiusClient newClient(final int timeout) throws Exception{
+        return new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(), SECRET, timeout);
+    }
+    private static RadiusPacket accessRequest() throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_PASSWORD, "secret".getBytes()));
+        return request;
+    }
+}
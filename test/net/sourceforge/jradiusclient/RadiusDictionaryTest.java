@@ -0,0 +1,151 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Released under the LGPL<BR>
+ * Loads FreeRADIUS style dictionaries: attributes, values, vendors in both formats, $INCLUDE,
+ * and the TLV, extended and server internal attributes that are skipped along with their values.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.2 $
+ */
+public class RadiusDictionaryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Test
+    public void loadsAttributesAndValues() throws Exception{
+        RadiusDictionary dictionary = RadiusDictionaryTest.load(
+                "# a comment\n"
+                + "ATTRIBUTE\tMy-Status\t240\tinteger\n"
+                + "VALUE My-Status Up 1 # trailing comment\n"
+                + "VALUE My-Status Wide 0x10000\n"
+                + "ATTRIBUTE My-Name 241 string\n");
+        AttributeDefinition status = dictionary.getAttribute(240);
+        assertEquals("My-Status", status.getName());
+        assertEquals(AttributeDefinition.INTEGER, status.getDataType());
+        assertEquals("Up", status.getValueName(1));
+        assertEquals("Wide", status.getValueName(0x10000));
+        assertEquals(Integer.valueOf(1), status.getValue("Up"));
+        assertEquals(AttributeDefinition.STRING, dictionary.getAttribute("My-Name").getDataType());
+        assertEquals("My-Name", dictionary.getAttributeName(241));
+        assertEquals("Up", status.format(new byte[]{0, 0, 0, 1}, 0, 4));
+    }
+    @Test
+    public void loadsVendorAttributes() throws Exception{
+        RadiusDictionary dictionary = RadiusDictionaryTest.load(
+                "VENDOR Example 4242\n"
+                + "VENDOR Wide 8164 format=2,2\n"
+                + "BEGIN-VENDOR Example\n"
+                + "ATTRIBUTE Example-Level 5 integer\n"
+                + "END-VENDOR Example\n"
+                + "ATTRIBUTE Wide-Thing 300 string Wide\n");
+        assertEquals("Example-Level", dictionary.getAttribute(4242, 5).getName());
+        assertEquals(4242, dictionary.getAttribute("Example-Level").getVendorId());
+        assertEquals("Wide-Thing", dictionary.getAttribute(8164, 300).getName());
+        assertNotNull(dictionary.getVendor("Wide"));
+        assertNull(dictionary.getAttribute(5));
+    }
+    @Test
+    public void skipsTlvAndExtendedAttributesWithTheirValues() throws Exception{
+        RadiusDictionary dictionary = RadiusDictionaryTest.load(
+                "ATTRIBUTE Frag-Status 241.1 integer\n"
+                + "VALUE Frag-Status Reserved 0\n"
+                + "VENDOR WiMAX 24757 format=1,1,c\n"
+                + "BEGIN-VENDOR WiMAX\n"
+                + "ATTRIBUTE WiMAX-Capability 1 tlv\n"
+                + "ATTRIBUTE WiMAX-Accounting-Capabilities 1.2 byte\n"
+                + "VALUE WiMAX-Accounting-Capabilities No-Accounting 0\n"
+                + "BEGIN-TLV WiMAX-Capability\n"
+                + "ATTRIBUTE WiMAX-Old-Member 3 byte\n"
+                + "VALUE WiMAX-Old-Member Off 0\n"
+                + "END-TLV WiMAX-Capability\n"
+                + "ATTRIBUTE WiMAX-GMT-Timezone-offset 3 signed\n"
+                + "END-VENDOR WiMAX\n");
+        assertNull(dictionary.getAttribute("Frag-Status"));
+        assertNull(dictionary.getAttribute("WiMAX-Accounting-Capabilities"));
+        assertNull(dictionary.getAttribute("WiMAX-Old-Member"));
+        assertEquals("WiMAX-GMT-Timezone-offset", dictionary.getAttribute(24757, 3).getName());
+    }
+    @Test
+    public void skipsServerInternalAttributesWithTheirValues() throws Exception{
+        RadiusDictionary dictionary = RadiusDictionaryTest.load(
+                "ATTRIBUTE Auth-Type 1000 integer\n"
+                + "VALUE Auth-Type Local 0\n"
+                + "VALUE Auth-Type PAP 1\n"
+                + "ATTRIBUTE Fall-Through 500 integer\n"
+                + "ATTRIBUTE My-Status 240 integer\n");
+        assertNull(dictionary.getAttribute("Auth-Type"));
+        assertNull(dictionary.getAttribute("Fall-Through"));
+        assertEquals("My-Status", dictionary.getAttributeName(240));
+        //a vendor attribute is only skipped if it doesn't fit the vendor's format
+        RadiusDictionaryTest.assertRejected("VENDOR Narrow 4242\nBEGIN-VENDOR Narrow\nATTRIBUTE Narrow-Wide 300 integer\n",
+                "Vendor type 300 does not fit in 1 byte(s) at test:3");
+    }
+    @Test
+    public void followsIncludes() throws Exception{
+        File main = this.folder.newFile("dictionary");
+        RadiusDictionaryTest.write(new File(this.folder.getRoot(), "dictionary.example"),
+                "ATTRIBUTE Included 242 ipaddr\n");
+        RadiusDictionaryTest.write(main, "$INCLUDE dictionary.example\n$INCLUDE- dictionary.missing\n");
+        RadiusDictionary dictionary = new RadiusDictionary();
+        dictionary.load(main);
+        assertEquals(AttributeDefinition.IPADDR, dictionary.getAttribute("Included").getDataType());
+    }
+    @Test
+    public void reportsErrorsWithTheirLine() throws Exception{
+        RadiusDictionaryTest.assertRejected("ATTRIBUTE Short 1\n", "Missing fields in ATTRIBUTE at test:1");
+        RadiusDictionaryTest.assertRejected("\nFOO bar\n", "Unknown keyword FOO at test:2");
+        RadiusDictionaryTest.assertRejected("VALUE Nope X 1\n", "VALUE for unknown attribute Nope at test:1");
+        RadiusDictionaryTest.assertRejected("BEGIN-VENDOR Nope\n", "Unknown vendor Nope at test:1");
+    }
+    @Test
+    public void defaultDictionaryNamesTheStandardAttributes() throws Exception{
+        RadiusDictionary dictionary = RadiusDictionary.getDefault();
+        assertEquals("Message-Authenticator", dictionary.getAttributeName(RadiusAttributeValues.MESSAGE_AUTHENTICATOR));
+        assertEquals(Integer.valueOf(3), dictionary.getAttribute("Acct-Status-Type").getValue("Interim-Update"));
+        assertTrue(dictionary.describe(RadiusDictionaryTest.userName()).startsWith("User-Name = \"bob\""));
+    }
+    private static RadiusDictionary load(final String text) throws IOException, RadiusException{
+        RadiusDictionary dictionary = new RadiusDictionary();
+        dictionary.load(new StringReader(text), "test");
+        return dictionary;
+    }
+    private static void assertRejected(final String text, final String message) throws IOException{
+        try{
+            RadiusDictionaryTest.load(text);
+            fail("loaded " + text);
+        }catch(RadiusException rex){
+            assertEquals(message, rex.getMessage());
+        }
+    }
+    private static void write(final File file, final String text) throws IOException{
+        FileOutputStream out = new FileOutputStream(file);
+        try{
+            out.write(text.getBytes("UTF-8"));
+        }finally{
+            out.close();
+        }
+    }
+    private static RadiusPacketView userName() throws RadiusException{
+        byte[] packet = new byte[25];
+        packet[0] = RadiusPacket.ACCESS_REQUEST;
+        packet[3] = 25;
+        packet[20] = RadiusAttributeValues.USER_NAME;
+        packet[21] = 5;
+        System.arraycopy("bob".getBytes(), 0, packet, 22, 3);
+        return new RadiusPacketView(packet, 0, packet.length);
+    }
+}
@@ -0,0 +1,131 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Checks the packed attribute store of <code>RadiusPacket</code>: packet order, repeated
+ * attributes, replacing and removing, freezing and the copy taken of a received packet when it
+ * is first changed.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class RadiusPacketTest {
+    @Test
+    public void keepsAttributesInPacketOrder() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "one"));
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.CLASS, "cls"));
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "two"));
+        assertEquals("one", RadiusPacketTest.text(packet.getAttribute(RadiusAttributeValues.REPLY_MESSAGE)));
+        List replies = packet.getAttributes(RadiusAttributeValues.REPLY_MESSAGE);
+        assertEquals(2, replies.size());
+        assertEquals("two", RadiusPacketTest.text((RadiusAttribute)replies.get(1)));
+        assertEquals("18=one 25=cls 18=two", RadiusPacketTest.describe(packet));
+        assertEquals(15, packet.getAttributeLength());
+        assertTrue(packet.getAttributes(RadiusAttributeValues.STATE).isEmpty());
+        assertFalse(packet.hasAttribute(RadiusAttributeValues.STATE));
+        try{
+            packet.getAttribute(RadiusAttributeValues.STATE);
+            fail("found a missing attribute");
+        }catch(RadiusException rex){
+            //expected
+        }
+    }
+    @Test
+    public void setAttributeReplacesEveryAttributeOfItsType() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "one"));
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.CLASS, "cls"));
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "two"));
+        packet.setAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "changed"));
+        assertEquals("18=changed 25=cls", RadiusPacketTest.describe(packet));
+        packet.setAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.STATE, "st"));
+        assertEquals("18=changed 25=cls 24=st", RadiusPacketTest.describe(packet));
+        List attributes = new ArrayList();
+        attributes.add(RadiusPacketTest.attribute(RadiusAttributeValues.CLASS, "a"));
+        attributes.add(RadiusPacketTest.attribute(RadiusAttributeValues.CLASS, "b"));
+        packet.setAttributes(attributes);
+        assertEquals("18=changed 24=st 25=a 25=b", RadiusPacketTest.describe(packet));
+    }
+    @Test
+    public void growsPastItsInitialCapacity() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        for(int i = 0; i < 20; i++){
+            packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.EAP_MESSAGE, new byte[200]));
+        }
+        assertEquals(20, packet.getAttributes(RadiusAttributeValues.EAP_MESSAGE).size());
+        assertEquals(20 * 202, packet.getAttributeLength());
+        try{
+            packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.EAP_MESSAGE, new byte[254]));
+            fail("added an attribute too long for its length field");
+        }catch(InvalidParameterException ipex){
+            //expected
+        }
+    }
+    @Test
+    public void frozenPacketsCanNotBeChanged() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        packet.addAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.USER_NAME, "bob"));
+        packet.freeze();
+        assertTrue(packet.isFrozen());
+        try{
+            packet.setAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.USER_NAME, "eve"));
+            fail("changed a frozen packet");
+        }catch(InvalidParameterException ipex){
+            //expected
+        }
+        assertEquals("bob", RadiusPacketTest.text(packet.getAttribute(RadiusAttributeValues.USER_NAME)));
+    }
+    @Test
+    public void copiesAReceivedPacketWhenItIsChanged() throws Exception{
+        byte[] received = new byte[30];
+        received[0] = RadiusPacket.ACCESS_ACCEPT;
+        received[3] = 30;
+        received[20] = RadiusAttributeValues.REPLY_MESSAGE;
+        received[21] = 5;
+        System.arraycopy("one".getBytes(), 0, received, 22, 3);
+        received[25] = RadiusAttributeValues.CLASS;
+        received[26] = 5;
+        System.arraycopy("cls".getBytes(), 0, received, 27, 3);
+        byte[] original = (byte[])received.clone();
+        RadiusPacketView view = new RadiusPacketView(received, 0, received.length);
+        RadiusPacket packet = new RadiusPacket(view);
+        assertEquals("18=one 25=cls", RadiusPacketTest.describe(packet));
+        packet.setAttribute(RadiusPacketTest.attribute(RadiusAttributeValues.REPLY_MESSAGE, "changed"));
+        assertEquals("18=changed 25=cls", RadiusPacketTest.describe(packet));
+        assertArrayEquals(original, received);
+        assertEquals("one", view.getStringAttribute(RadiusAttributeValues.REPLY_MESSAGE));
+    }
+    private static RadiusAttribute attribute(final int type, final String value) throws InvalidParameterException{
+        return new RadiusAttribute(type, value.getBytes());
+    }
+    private static String text(final RadiusAttribute attribute){
+        return new String(attribute.getValue());
+    }
+    /**
+     * @return "type=value" of every attribute in packet order
+     */
+    private static String describe(final RadiusPacket packet){
+        StringBuffer description = new StringBuffer();
+        for(Iterator i = packet.getAttributes().iterator(); i.hasNext();){
+            RadiusAttribute attribute = (RadiusAttribute)i.next();
+            if(description.length() > 0){
+                description.append(' ');
+            }
+            description.append(attribute.getType()).append('=').append(RadiusPacketTest.text(attribute));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,142 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Walks the attributes of a <code>RadiusPacketView</code>, in the middle of a larger array too,
+ * and checks that malformed packets are rejected when the view is built.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class RadiusPacketViewTest {
+    @Test
+    public void walksTheAttributes() throws Exception{
+        byte[] packet = RadiusPacketViewTest.accessAccept();
+        RadiusPacketView view = new RadiusPacketView(packet, 0, packet.length);
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, view.getPacketType());
+        assertEquals(7, view.getPacketIdentifier());
+        assertEquals(packet.length, view.getLength());
+        int pos = view.firstAttribute();
+        assertEquals(RadiusAttributeValues.REPLY_MESSAGE, view.getAttributeType(pos));
+        assertEquals("hi", view.getStringValue(pos));
+        pos = view.nextAttribute(pos);
+        assertEquals(RadiusAttributeValues.SESSION_TIMEOUT, view.getAttributeType(pos));
+        assertEquals(3600, view.getIntValue(pos));
+        pos = view.nextAttribute(pos);
+        assertEquals(RadiusAttributeValues.REPLY_MESSAGE, view.getAttributeType(pos));
+        assertEquals(-1, view.nextAttribute(pos));
+        assertEquals(pos, view.findAttribute(RadiusAttributeValues.REPLY_MESSAGE, view.firstAttribute()));
+        assertEquals("hi", view.getStringAttribute(RadiusAttributeValues.REPLY_MESSAGE));
+        assertFalse(view.hasAttribute(RadiusAttributeValues.STATE));
+        assertArrayEquals(packet, view.getBytes());
+    }
+    @Test
+    public void readsAPacketInsideALargerArray() throws Exception{
+        byte[] packet = RadiusPacketViewTest.accessAccept();
+        byte[] data = new byte[packet.length + 100];
+        System.arraycopy(packet, 0, data, 30, packet.length);
+        //the octets past the Length field are padding and ignored
+        RadiusPacketView view = new RadiusPacketView(data, 30, data.length - 30);
+        assertEquals(packet.length, view.getLength());
+        assertEquals(3600, view.getIntAttribute(RadiusAttributeValues.SESSION_TIMEOUT));
+        assertArrayEquals(packet, view.getBytes());
+    }
+    @Test
+    public void acceptsAPacketWithoutAttributes() throws Exception{
+        byte[] packet = new byte[RadiusPacket.RADIUS_HEADER_LENGTH];
+        packet[0] = RadiusPacket.ACCESS_REJECT;
+        packet[3] = RadiusPacket.RADIUS_HEADER_LENGTH;
+        RadiusPacketView view = new RadiusPacketView(packet, 0, packet.length);
+        assertEquals(-1, view.firstAttribute());
+        assertEquals(-1, view.findAttribute(RadiusAttributeValues.REPLY_MESSAGE));
+    }
+    @Test
+    public void rejectsMalformedPackets(){
+        byte[] packet = RadiusPacketViewTest.accessAccept();
+        //shorter than a header
+        RadiusPacketViewTest.assertRejected(packet, 19);
+        //a Length field past the end of the data
+        RadiusPacketViewTest.assertRejected(packet, packet.length - 1);
+        //a Length field shorter than a header
+        byte[] changed = (byte[])packet.clone();
+        changed[3] = 19;
+        RadiusPacketViewTest.assertRejected(changed, changed.length);
+        //an attribute running past the end of the packet
+        changed = (byte[])packet.clone();
+        changed[21] = 60;
+        RadiusPacketViewTest.assertRejected(changed, changed.length);
+        //an attribute shorter than its header, which would never advance
+        changed = (byte[])packet.clone();
+        changed[21] = 1;
+        RadiusPacketViewTest.assertRejected(changed, changed.length);
+        changed[21] = 0;
+        RadiusPacketViewTest.assertRejected(changed, changed.length);
+        //a lone type octet at the end of the packet
+        changed = new byte[packet.length + 1];
+        System.arraycopy(packet, 0, changed, 0, packet.length);
+        changed[3] = (byte)changed.length;
+        changed[packet.length] = RadiusAttributeValues.CLASS;
+        RadiusPacketViewTest.assertRejected(changed, changed.length);
+    }
+    @Test
+    public void checksTheLengthOfTypedValues() throws Exception{
+        byte[] packet = RadiusPacketViewTest.accessAccept();
+        RadiusPacketView view = new RadiusPacketView(packet, 0, packet.length);
+        try{
+            view.getIntValue(view.firstAttribute());
+            fail("read a string as an integer");
+        }catch(RadiusException rex){
+            //expected
+        }
+        try{
+            view.getAddressValue(view.firstAttribute());
+            fail("read a string as an address");
+        }catch(RadiusException rex){
+            //expected
+        }
+        try{
+            view.getIntAttribute(RadiusAttributeValues.STATE);
+            fail("read a missing attribute");
+        }catch(RadiusException rex){
+            //expected
+        }
+        assertEquals(2, view.getValueLength(view.firstAttribute()));
+    }
+    /**
+     * an ACCESS_ACCEPT with Reply-Message "hi", Session-Timeout 3600 and Reply-Message "yo"
+     */
+    private static byte[] accessAccept(){
+        byte[] packet = new byte[20 + 4 + 6 + 4];
+        packet[0] = RadiusPacket.ACCESS_ACCEPT;
+        packet[1] = 7;
+        packet[3] = (byte)packet.length;
+        packet[20] = RadiusAttributeValues.REPLY_MESSAGE;
+        packet[21] = 4;
+        packet[22] = 'h';
+        packet[23] = 'i';
+        packet[24] = RadiusAttributeValues.SESSION_TIMEOUT;
+        packet[25] = 6;
+        packet[28] = 0x0e;
+        packet[29] = 0x10;
+        packet[30] = RadiusAttributeValues.REPLY_MESSAGE;
+        packet[31] = 4;
+        packet[32] = 'y';
+        packet[33] = 'o';
+        return packet;
+    }
+    private static void assertRejected(final byte[] packet, final int length){
+        try{
+            new RadiusPacketView(packet, 0, length);
+            fail("built a view over a malformed packet");
+        }catch(RadiusException rex){
+            //expected
+        }
+    }
+}
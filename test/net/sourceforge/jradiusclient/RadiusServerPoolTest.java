@@ -0,0 +1,160 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs a <code>RadiusServerPool</code> over two <code>LoopbackRadiusServer</code>s: failing over
+ * from a server that doesn't answer, marking it dead and bringing it back when it answers a
+ * probe, and spreading requests by policy.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class RadiusServerPoolTest {
+    private static final String SECRET = "s3cret";
+    private static final int TIMEOUT = 300;
+    private static final long WAIT = 10000;
+    private LoopbackRadiusServer first;
+    private LoopbackRadiusServer second;
+    private RadiusServerPool pool;
+    @Before
+    public void setUp() throws Exception{
+        this.first = new LoopbackRadiusServer(SECRET);
+        this.second = new LoopbackRadiusServer(SECRET);
+    }
+    @After
+    public void tearDown(){
+        if(null != this.pool){
+            this.pool.close();
+        }
+        this.first.close();
+        this.second.close();
+    }
+    @Test
+    public void failsOverToTheNextServer() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 60000);
+        this.pool.addServer(this.newClient(this.first));
+        this.pool.addServer(this.newClient(this.second));
+        this.first.setDropRate(1.0);
+        RadiusPacket response = this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        assertTrue(this.first.getRequestsDropped() >= 1);
+        assertEquals(1, this.second.getRequestsReceived());
+    }
+    @Test
+    public void doesNotFailOverAnAnsweredRequest() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 60000);
+        this.pool.addServer(this.newClient(this.first));
+        this.pool.addServer(this.newClient(this.second));
+        this.first.addUser("alice", "other");
+        RadiusPacket response = this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        assertEquals(RadiusPacket.ACCESS_REJECT, response.getPacketType());
+        assertEquals(0, this.second.getRequestsReceived());
+    }
+    @Test
+    public void marksAServerDeadAfterConsecutiveTimeouts() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 60000);
+        this.pool.setDeadAfter(2);
+        RadiusClient dead = this.newClient(this.first);
+        this.pool.addServer(dead);
+        this.pool.addServer(this.newClient(this.second));
+        this.first.setDropRate(1.0);
+        //round robin starts both on the first server, which times out each time
+        this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        assertFalse(this.pool.isDead(dead));
+        this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        assertTrue(this.pool.isDead(dead));
+        long received = this.first.getRequestsReceived();
+        for(int i = 0; i < 10; i++){
+            this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        }
+        assertEquals(received, this.first.getRequestsReceived());
+        assertEquals(12, this.second.getRequestsReceived());
+    }
+    @Test
+    public void bringsBackADeadServerThatAnswersAProbe() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 200);
+        this.pool.setDeadAfter(1);
+        RadiusClient dead = this.newClient(this.first);
+        this.pool.addServer(dead);
+        this.pool.addServer(this.newClient(this.second));
+        this.first.setDropRate(1.0);
+        this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        assertTrue(this.pool.isDead(dead));
+        this.first.setDropRate(0.0);
+        long start = System.currentTimeMillis();
+        while(this.pool.isDead(dead) && (System.currentTimeMillis() - start < WAIT)){
+            Thread.sleep(20);
+        }
+        assertFalse(this.pool.isDead(dead));
+        assertTrue(this.pool.getProbeRoundTripTime(dead) >= 0);
+    }
+    @Test
+    public void sendsToDeadServersWhenAllAreDead() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 60000);
+        this.pool.setDeadAfter(1);
+        RadiusClient firstClient = this.newClient(this.first);
+        RadiusClient secondClient = this.newClient(this.second);
+        this.pool.addServer(firstClient);
+        this.pool.addServer(secondClient);
+        this.first.setDropRate(1.0);
+        this.second.setDropRate(1.0);
+        try{
+            this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+            fail("dead servers answered");
+        }catch(RadiusTimeoutException rtex){
+            //expected
+        }
+        assertTrue(this.pool.isDead(firstClient));
+        assertTrue(this.pool.isDead(secondClient));
+        this.second.setDropRate(0.0);
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, this.pool.authenticate(RadiusServerPoolTest.accessRequest()).getPacketType());
+        assertFalse(this.pool.isDead(secondClient));
+    }
+    @Test
+    public void spreadsRequestsByWeight() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.WEIGHTED, 60000);
+        this.pool.addServer(this.newClient(this.first), 3);
+        this.pool.addServer(this.newClient(this.second), 1);
+        for(int i = 0; i < 40; i++){
+            this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        }
+        assertEquals(30, this.first.getRequestsReceived());
+        assertEquals(10, this.second.getRequestsReceived());
+    }
+    @Test
+    public void spreadsRequestsInTurn() throws Exception{
+        this.pool = this.newPool(RadiusServerPool.ROUND_ROBIN, 60000);
+        this.pool.addServer(this.newClient(this.first));
+        this.pool.addServer(this.newClient(this.second));
+        for(int i = 0; i < 10; i++){
+            this.pool.authenticate(RadiusServerPoolTest.accessRequest());
+        }
+        assertEquals(5, this.first.getRequestsReceived());
+        assertEquals(5, this.second.getRequestsReceived());
+    }
+    private RadiusServerPool newPool(final int policy, final int probeInterval) throws Exception{
+        RadiusServerPool newPool = new RadiusServerPool(policy);
+        newPool.setRetriesPerServer(1);
+        newPool.setProbeInterval(probeInterval);
+        return newPool;
+    }
+    private RadiusClient newClient(final LoopbackRadiusServer server) throws Exception{
+        return new RadiusClient("127.0.0.1", server.getPort(), server.getPort(), SECRET, TIMEOUT);
+    }
+    private static RadiusPacket accessRequest() throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_PASSWORD, "secret".getBytes()));
+        return request;
+    }
+}
@@ -0,0 +1,68 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Checks the retransmission timeouts: the initial timeout before the server is measured, the
+ * RFC 6298 estimate and its 1 second floor, doubling on backoff, the +/- 10% jitter and the cap.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class RetransmissionTimerTest {
+    private static final int MAX_TIMEOUT = 60000;
+    @Test
+    public void waitsTheInitialTimeoutUntilMeasured(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        assertEquals(-1, timer.getSmoothedRtt());
+        for(int i = 0; i < 100; i++){
+            RetransmissionTimerTest.assertAround(RetransmissionTimer.INITIAL_TIMEOUT, timer.initialTimeout(MAX_TIMEOUT));
+        }
+    }
+    @Test
+    public void estimatesFromTheRoundTripTime(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        timer.sample(500000);
+        assertEquals(500000, timer.getSmoothedRtt());
+        //SRTT + 4 * RTTVAR, with RTTVAR half the first sample
+        RetransmissionTimerTest.assertAround(1500, timer.initialTimeout(MAX_TIMEOUT));
+        for(int i = 0; i < 200; i++){
+            timer.sample(500000);
+        }
+        //the variance decays, which leaves the floor
+        RetransmissionTimerTest.assertAround(RetransmissionTimer.MIN_TIMEOUT, timer.initialTimeout(MAX_TIMEOUT));
+    }
+    @Test
+    public void neverWaitsLessThanTheFloor(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        for(int i = 0; i < 50; i++){
+            timer.sample(200);
+        }
+        for(int i = 0; i < 100; i++){
+            RetransmissionTimerTest.assertAround(RetransmissionTimer.MIN_TIMEOUT, timer.initialTimeout(MAX_TIMEOUT));
+        }
+    }
+    @Test
+    public void doublesOnBackoff(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        for(int i = 0; i < 100; i++){
+            RetransmissionTimerTest.assertAround(2400, timer.backoff(1200, MAX_TIMEOUT));
+        }
+    }
+    @Test
+    public void isCappedByTheClientTimeout(){
+        RetransmissionTimer timer = new RetransmissionTimer();
+        assertEquals(500, timer.initialTimeout(500));
+        assertEquals(1500, timer.backoff(1200, 1500));
+    }
+    /**
+     * checks a timeout is within the 10% of jitter around what it should be
+     */
+    private static void assertAround(final int expected, final int timeout){
+        assertTrue(timeout + " is not around " + expected,
+                (timeout >= expected * 9 / 10) && (timeout <= expected * 11 / 10));
+    }
+}
@@ -0,0 +1,185 @@
+package net.sourceforge.jradiusclient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.sourceforge.jradiusclient.attributes.VendorSpecificAttribute;
+import net.sourceforge.jradiusclient.exception.InvalidParameterException;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Encodes Vendor-Specific attributes with <code>VendorSpecificAttribute</code> and reads them back
+ * with a <code>VendorAttributeCursor</code>, in the RFC 2865 layout and the format=2,2 and
+ * format=4,0 layouts, and checks that malformed ones are rejected.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class VendorAttributeCursorTest {
+    private static final int CISCO = 9;
+    private static final int WIDE = 8164;
+    private static final int SINGLE = 4242;
+    private VendorDictionary dictionary;
+    private VendorDictionary.Vendor cisco;
+    private VendorDictionary.Vendor wide;
+    private VendorDictionary.Vendor single;
+    @Before
+    public void setUp() throws Exception{
+        this.dictionary = new VendorDictionary();
+        this.cisco = this.dictionary.addVendor(CISCO, "Cisco");
+        this.cisco.addAttribute("Cisco-AVPair", 1, AttributeDefinition.STRING);
+        this.wide = this.dictionary.addVendor(WIDE, "Wide", 2, 2);
+        this.wide.addAttribute("Wide-Thing", 300, AttributeDefinition.STRING);
+        this.single = this.dictionary.addVendor(SINGLE, "Single", 4, 0);
+        this.single.addAttribute("Single-Level", 70000, AttributeDefinition.INTEGER);
+    }
+    @Test
+    public void readsTheRfc2865Layout() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.REPLY_MESSAGE, "hi".getBytes()));
+        packet.addAttribute(new VendorSpecificAttribute(this.cisco, 1, "shell:priv-lvl=15".getBytes()));
+        packet.addAttribute(new VendorSpecificAttribute(311, 7, 42));
+        VendorAttributeCursor cursor = new VendorAttributeCursor(this.dictionary);
+        cursor.reset(packet);
+        assertTrue(cursor.next());
+        assertEquals(CISCO, cursor.getVendorId());
+        assertEquals(1, cursor.getVendorType());
+        assertSame(this.cisco, cursor.getVendor());
+        assertEquals("Cisco-AVPair", cursor.getDefinition().getName());
+        assertEquals("shell:priv-lvl=15", cursor.getStringValue());
+        assertTrue(cursor.next());
+        //a vendor the dictionary doesn't know
+        assertEquals(311, cursor.getVendorId());
+        assertEquals(7, cursor.getVendorType());
+        assertNull(cursor.getVendor());
+        assertNull(cursor.getDefinition());
+        assertEquals(42, cursor.getIntValue());
+        assertFalse(cursor.next());
+    }
+    @Test
+    public void readsSeveralSubAttributesOfOneVendorSpecificAttribute() throws Exception{
+        byte[] value = new byte[]{0, 0, 0, CISCO, 1, 4, 'a', 'b', 2, 3, 'c'};
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.VENDOR_SPECIFIC, value));
+        VendorAttributeCursor cursor = new VendorAttributeCursor(null);
+        cursor.reset(VendorAttributeCursorTest.view(packet));
+        assertTrue(cursor.next());
+        assertEquals(1, cursor.getVendorType());
+        assertEquals("ab", cursor.getStringValue());
+        assertTrue(cursor.next());
+        assertEquals(2, cursor.getVendorType());
+        assertArrayEquals(new byte[]{'c'}, cursor.getValue());
+        assertFalse(cursor.next());
+    }
+    @Test
+    public void readsTheFormat22Layout() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new VendorSpecificAttribute(this.wide, 300, "wide".getBytes()));
+        packet.addAttribute(new VendorSpecificAttribute(this.wide, 2, new byte[0]));
+        byte[] value = packet.getAttribute(RadiusAttributeValues.VENDOR_SPECIFIC).getValue();
+        //vendor id, 2 byte type, 2 byte length counting the header
+        assertArrayEquals(new byte[]{0, 0, 0x1f, (byte)0xe4, 0x01, 0x2c, 0, 8, 'w', 'i', 'd', 'e'}, value);
+        VendorAttributeCursor cursor = new VendorAttributeCursor(this.dictionary);
+        cursor.reset(VendorAttributeCursorTest.view(packet));
+        assertTrue(cursor.find(WIDE, 300));
+        assertEquals("Wide-Thing", cursor.getDefinition().getName());
+        assertEquals("wide", cursor.getStringValue());
+        assertTrue(cursor.next());
+        assertEquals(2, cursor.getVendorType());
+        assertEquals(0, cursor.getValueLength());
+        assertFalse(cursor.next());
+    }
+    @Test
+    public void readsTheFormat40Layout() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new VendorSpecificAttribute(this.single, 70000, new byte[]{0, 0, 0, 5}));
+        byte[] value = packet.getAttribute(RadiusAttributeValues.VENDOR_SPECIFIC).getValue();
+        //vendor id, 4 byte type, no length: the value runs to the end of the attribute
+        assertArrayEquals(new byte[]{0, 0, 0x10, (byte)0x92, 0, 1, 0x11, 0x70, 0, 0, 0, 5}, value);
+        VendorAttributeCursor cursor = new VendorAttributeCursor(this.dictionary);
+        cursor.reset(packet);
+        assertTrue(cursor.find(SINGLE, 70000));
+        assertEquals("Single-Level", cursor.getDefinition().getName());
+        assertEquals(5, cursor.getIntValue());
+        assertFalse(cursor.next());
+    }
+    @Test
+    public void findsASubAttributeAmongOthers() throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new VendorSpecificAttribute(this.cisco, 1, "one".getBytes()));
+        packet.addAttribute(new VendorSpecificAttribute(this.wide, 1, "two".getBytes()));
+        packet.addAttribute(new VendorSpecificAttribute(this.cisco, 1, "three".getBytes()));
+        VendorAttributeCursor cursor = new VendorAttributeCursor(this.dictionary);
+        cursor.reset(packet);
+        assertTrue(cursor.find(CISCO, 1));
+        assertEquals("one", cursor.getStringValue());
+        assertTrue(cursor.find(CISCO, 1));
+        assertEquals("three", cursor.getStringValue());
+        assertFalse(cursor.find(CISCO, 1));
+        //reset starts over
+        cursor.reset(packet);
+        assertTrue(cursor.find(WIDE, 1));
+        assertEquals("two", cursor.getStringValue());
+    }
+    @Test
+    public void rejectsTypesThatDoNotFitTheVendorsLayout() throws Exception{
+        try{
+            new VendorSpecificAttribute(this.cisco, 256, new byte[0]);
+            fail("encoded type 256 in one byte");
+        }catch(InvalidParameterException ipex){
+            //expected
+        }
+        try{
+            new VendorSpecificAttribute(this.wide, 70000, new byte[0]);
+            fail("encoded type 70000 in two bytes");
+        }catch(InvalidParameterException ipex){
+            //expected
+        }
+    }
+    @Test
+    public void rejectsMalformedVendorSpecificAttributes() throws Exception{
+        //too short for a vendor id
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0});
+        //a sub-attribute length shorter than its header
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0, CISCO, 1, 1, 'a'});
+        //a sub-attribute running past the end of the Vendor-Specific attribute
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0, CISCO, 1, 9, 'a'});
+        //a format=2,2 header cut short
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0x1f, (byte)0xe4, 0x01, 0x2c, 0});
+        //a format=2,2 length past the end
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0x1f, (byte)0xe4, 0x01, 0x2c, 1, 0, 'a'});
+        //a format=4,0 type cut short
+        VendorAttributeCursorTest.assertRejected(this.dictionary, new byte[]{0, 0, 0x10, (byte)0x92, 0, 1});
+    }
+    private static RadiusPacketView view(final RadiusPacket packet) throws RadiusException{
+        int attributeLength = packet.getAttributeLength();
+        byte[] data = new byte[RadiusPacket.RADIUS_HEADER_LENGTH + attributeLength];
+        data[0] = (byte)packet.getPacketType();
+        data[2] = (byte)(data.length >>> 8);
+        data[3] = (byte)data.length;
+        System.arraycopy(packet.getAttributeArray(), packet.getAttributeOffset(), data,
+                RadiusPacket.RADIUS_HEADER_LENGTH, attributeLength);
+        return new RadiusPacketView(data, 0, data.length);
+    }
+    private static void assertRejected(final VendorDictionary dictionary, final byte[] value) throws Exception{
+        RadiusPacket packet = new RadiusPacket(RadiusPacket.ACCESS_ACCEPT);
+        packet.addAttribute(new RadiusAttribute(RadiusAttributeValues.VENDOR_SPECIFIC, value));
+        VendorAttributeCursor cursor = new VendorAttributeCursor(dictionary);
+        cursor.reset(VendorAttributeCursorTest.view(packet));
+        try{
+            while(cursor.next()){
+                //walk to the malformed part
+            }
+            fail("read a malformed Vendor-Specific attribute");
+        }catch(RadiusException rex){
+            //expected
+        }
+    }
+}
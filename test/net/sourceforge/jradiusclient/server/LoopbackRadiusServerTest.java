@@ -0,0 +1,103 @@
+package net.sourceforge.jradiusclient.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.sourceforge.jradiusclient.RadiusAttribute;
+import net.sourceforge.jradiusclient.RadiusAttributeValues;
+import net.sourceforge.jradiusclient.RadiusClient;
+import net.sourceforge.jradiusclient.RadiusPacket;
+import net.sourceforge.jradiusclient.exception.RadiusTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs a <code>RadiusClient</code> against a <code>LoopbackRadiusServer</code>: the default
+ * rules, users and their passwords, challenges answered with their State, reply attributes,
+ * accounting and dropped requests.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class LoopbackRadiusServerTest {
+    private static final String SECRET = "s3cret";
+    private LoopbackRadiusServer server;
+    private RadiusClient client;
+    @Before
+    public void setUp() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+        this.client = new RadiusClient("127.0.0.1", this.server.getPort(), this.server.getPort(), SECRET, 1000);
+    }
+    @After
+    public void tearDown(){
+        this.client.close();
+        this.server.close();
+    }
+    @Test
+    public void acceptsEveryoneByDefault() throws Exception{
+        RadiusPacket response = this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "secret"));
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        assertTrue(response.hasAttribute(RadiusAttributeValues.MESSAGE_AUTHENTICATOR));
+        assertEquals(1, this.server.getRequestsReceived());
+        assertEquals(1, this.server.getResponsesSent());
+    }
+    @Test
+    public void checksThePasswordsOfItsUsers() throws Exception{
+        this.server.addUser("bob", "secret");
+        assertEquals(RadiusPacket.ACCESS_ACCEPT,
+                this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "secret")).getPacketType());
+        assertEquals(RadiusPacket.ACCESS_REJECT,
+                this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "wrong")).getPacketType());
+        assertEquals(RadiusPacket.ACCESS_REJECT,
+                this.client.authenticate(LoopbackRadiusServerTest.accessRequest("eve", "secret")).getPacketType());
+    }
+    @Test
+    public void challengesUntilTheStateComesBack() throws Exception{
+        this.server.addChallenge("bob");
+        RadiusPacket challenge = this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "secret"));
+        assertEquals(RadiusPacket.ACCESS_CHALLENGE, challenge.getPacketType());
+        RadiusPacket request = LoopbackRadiusServerTest.accessRequest("bob", "secret");
+        request.setAttribute(challenge.getAttribute(RadiusAttributeValues.STATE));
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, this.client.authenticate(request).getPacketType());
+    }
+    @Test
+    public void addsTheReplyAttributes() throws Exception{
+        List replyAttributes = new ArrayList();
+        replyAttributes.add(new RadiusAttribute(RadiusAttributeValues.CLASS, "gold".getBytes()));
+        this.server.setReplyAttributes(replyAttributes);
+        RadiusPacket response = this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "secret"));
+        assertEquals("gold", new String(response.getAttribute(RadiusAttributeValues.CLASS).getValue()));
+    }
+    @Test
+    public void answersAccountingRequests() throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCOUNTING_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.SERVICE_TYPE, new byte[]{0, 0, 0, 1}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_STATUS_TYPE, new byte[]{0, 0, 0, 1}));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.ACCT_SESSION_ID, "session".getBytes()));
+        assertEquals(RadiusPacket.ACCOUNTING_RESPONSE, this.client.account(request).getPacketType());
+    }
+    @Test
+    public void dropsRequests() throws Exception{
+        this.server.setDropRate(1.0);
+        try{
+            this.client.authenticate(LoopbackRadiusServerTest.accessRequest("bob", "secret"), 1);
+            fail("a dropped request was answered");
+        }catch(RadiusTimeoutException rtex){
+            //expected
+        }
+        assertTrue(this.server.getRequestsDropped() >= 1);
+        assertEquals(this.server.getRequestsReceived(), this.server.getRequestsDropped());
+        assertEquals(0, this.server.getResponsesSent());
+    }
+    private static RadiusPacket accessRequest(final String userName, final String password) throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, userName.getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_PASSWORD, password.getBytes()));
+        return request;
+    }
+}
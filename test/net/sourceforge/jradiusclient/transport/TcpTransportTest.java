@@ -0,0 +1,323 @@
+package net.sourceforge.jradiusclient.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.sourceforge.jradiusclient.RadiusAttribute;
+import net.sourceforge.jradiusclient.RadiusAttributeValues;
+import net.sourceforge.jradiusclient.RadiusClient;
+import net.sourceforge.jradiusclient.RadiusFuture;
+import net.sourceforge.jradiusclient.RadiusPacket;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs a <code>TcpTransport</code> against a <code>LoopbackRadiusServer</code> listening for TCP,
+ * and against a scripted server on a plain ServerSocket for the RFC 6613 framing: responses split
+ * over several writes or joined in one, and connections that break, or lose their framing, with
+ * a request in flight, which is then sent again as it was over a new connection.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class TcpTransportTest {
+    private static final String SECRET = "s3cret";
+    private LoopbackRadiusServer server;
+    private ScriptedServer scripted;
+    private RadiusClient client;
+    @After
+    public void tearDown() throws IOException{
+        if(null != this.client){
+            this.client.close();
+        }
+        if(null != this.server){
+            this.server.close();
+        }
+        if(null != this.scripted){
+            this.scripted.close();
+        }
+    }
+    @Test
+    public void pipelinesRequestsOverOneConnection() throws Exception{
+        this.server = new LoopbackRadiusServer(SECRET);
+        this.server.addUser("bob", "secret");
+        int port = this.server.listenTcp();
+        this.client = new RadiusClient("127.0.0.1", port, port, SECRET, 5000, new TcpTransport());
+        RadiusFuture[] futures = new RadiusFuture[200];
+        for(int i = 0; i < futures.length; i++){
+            futures[i] = this.client.authenticateAsync(TcpTransportTest.accessRequest((i % 10 == 0) ? "wrong" : "secret"));
+        }
+        int accepted = 0;
+        for(int i = 0; i < futures.length; i++){
+            if(futures[i].getResponse().getPacketType() == RadiusPacket.ACCESS_ACCEPT){
+                accepted++;
+            }
+        }
+        assertEquals(180, accepted);
+        //nothing is retransmitted over a stream
+        assertEquals(futures.length, this.server.getRequestsReceived());
+    }
+    @Test
+    public void readsResponsesSplitOverWritesAndJoinedInOne() throws Exception{
+        this.scripted = new ScriptedServer(){
+            void serve(int connection, InputStream in, OutputStream out) throws IOException{
+                //three responses in 7 byte writes, so headers and attributes are cut anywhere
+                byte[] joined = this.answer(in, 3);
+                for(int offset = 0; offset < joined.length; offset += 7){
+                    out.write(joined, offset, Math.min(7, joined.length - offset));
+                    out.flush();
+                }
+                //and three in a single write
+                out.write(this.answer(in, 3));
+                out.flush();
+                this.readPacket(in);
+            }
+            /**
+             * @return Access-Accepts for the next requests, each echoing its User-Password
+             */
+            private byte[] answer(InputStream in, int count) throws IOException{
+                ByteArrayOutputStream responses = new ByteArrayOutputStream();
+                for(int i = 0; i < count; i++){
+                    byte[] request = this.readPacket(in);
+                    responses.write(TcpTransportTest.accessAccept(request, TcpTransportTest.userPassword(request)));
+                }
+                return responses.toByteArray();
+            }
+        };
+        this.client = this.newScriptedClient();
+        RadiusFuture[] futures = new RadiusFuture[6];
+        for(int i = 0; i < futures.length; i++){
+            futures[i] = this.client.authenticateAsync(TcpTransportTest.accessRequest(TcpTransportTest.password(i)));
+        }
+        for(int i = 0; i < futures.length; i++){
+            RadiusPacket response = futures[i].getResponse();
+            assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+            assertEquals(TcpTransportTest.password(i),
+                    new String(response.getAttribute(RadiusAttributeValues.REPLY_MESSAGE).getValue()));
+        }
+        assertEquals(1, this.scripted.getConnections());
+    }
+    @Test
+    public void resendsOverANewConnectionAfterAnInvalidLength() throws Exception{
+        this.scripted = new ScriptedServer(){
+            void serve(int connection, InputStream in, OutputStream out) throws IOException{
+                byte[] request = this.readPacket(in);
+                if(1 == connection){
+                    //a Length shorter than a header, the client can't find the next packet
+                    out.write(new byte[]{RadiusPacket.ACCESS_ACCEPT, request[1], 0, 4});
+                }else{
+                    out.write(TcpTransportTest.accessAccept(request, null));
+                }
+                out.flush();
+                this.readPacket(in);
+            }
+        };
+        this.assertResent();
+    }
+    @Test
+    public void resendsOverANewConnectionAfterTheServerClosedIt() throws Exception{
+        this.scripted = new ScriptedServer(){
+            void serve(int connection, InputStream in, OutputStream out) throws IOException{
+                byte[] request = this.readPacket(in);
+                if(connection > 1){
+                    out.write(TcpTransportTest.accessAccept(request, null));
+                    out.flush();
+                    this.readPacket(in);
+                }
+                //the first connection closes with the request unanswered
+            }
+        };
+        this.assertResent();
+    }
+    /**
+     * sends one request through the scripted server, which answers it on the second connection
+     */
+    private void assertResent() throws Exception{
+        this.client = this.newScriptedClient();
+        RadiusPacket response = this.client.authenticate(TcpTransportTest.accessRequest("secret"));
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, response.getPacketType());
+        assertEquals(2, this.scripted.getConnections());
+        List requests = this.scripted.getRequests();
+        assertEquals(2, requests.size());
+        //the same identifier and authenticators, so a late answer to the first copy would do too
+        assertArrayEquals((byte[])requests.get(0), (byte[])requests.get(1));
+    }
+    private RadiusClient newScriptedClient() throws Exception{
+        int port = this.scripted.getPort();
+        return new RadiusClient("127.0.0.1", port, port, SECRET, 5000, new TcpTransport());
+    }
+    private static String password(final int i){
+        StringBuffer password = new StringBuffer("secret-");
+        for(int j = 0; j < i * 20; j++){
+            password.append((char)('a' + (j % 26)));
+        }
+        return password.toString();
+    }
+    private static RadiusPacket accessRequest(final String password) throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_PASSWORD, password.getBytes()));
+        return request;
+    }
+    /**
+     * @return the User-Password of a request, decrypted with the shared secret
+     */
+    private static byte[] userPassword(final byte[] request) throws IOException{
+        int length = ((request[2] & 0xff) << 8) | (request[3] & 0xff);
+        for(int pos = RadiusPacket.RADIUS_HEADER_LENGTH; pos < length; pos += request[pos + 1] & 0xff){
+            if(RadiusAttributeValues.USER_PASSWORD == (request[pos] & 0xff)){
+                int valueLength = (request[pos + 1] & 0xff) - 2;
+                byte[] password = new byte[valueLength];
+                byte[] previous = new byte[16];
+                System.arraycopy(request, 4, previous, 0, 16);
+                for(int block = 0; block < valueLength; block += 16){
+                    MessageDigest md5 = TcpTransportTest.md5();
+                    md5.update(SECRET.getBytes());
+                    md5.update(previous);
+                    byte[] mask = md5.digest();
+                    for(int i = 0; i < 16; i++){
+                        password[block + i] = (byte)(request[pos + 2 + block + i] ^ mask[i]);
+                    }
+                    System.arraycopy(request, pos + 2 + block, previous, 0, 16);
+                }
+                int end = valueLength;
+                while((end > 0) && (0 == password[end - 1])){
+                    end--;
+                }
+                byte[] trimmed = new byte[end];
+                System.arraycopy(password, 0, trimmed, 0, end);
+                return trimmed;
+            }
+        }
+        throw new IOException("no User-Password in the request");
+    }
+    /**
+     * @return an Access-Accept signed for the request, with a Reply-Message unless it is null
+     */
+    private static byte[] accessAccept(final byte[] request, final byte[] replyMessage){
+        int length = RadiusPacket.RADIUS_HEADER_LENGTH + ((null == replyMessage) ? 0 : 2 + replyMessage.length);
+        byte[] response = new byte[length];
+        response[0] = RadiusPacket.ACCESS_ACCEPT;
+        response[1] = request[1];
+        response[2] = (byte)(length >>> 8);
+        response[3] = (byte)length;
+        System.arraycopy(request, 4, response, 4, 16);
+        if(null != replyMessage){
+            response[20] = (byte)RadiusAttributeValues.REPLY_MESSAGE;
+            response[21] = (byte)(2 + replyMessage.length);
+            System.arraycopy(replyMessage, 0, response, 22, replyMessage.length);
+        }
+        //ResponseAuth = MD5(Code+ID+Length+RequestAuth+Attributes+Secret)
+        MessageDigest md5 = TcpTransportTest.md5();
+        md5.update(response);
+        md5.update(SECRET.getBytes());
+        System.arraycopy(md5.digest(), 0, response, 4, 16);
+        return response;
+    }
+    private static MessageDigest md5(){
+        try{
+            return MessageDigest.getInstance("MD5");
+        }catch(java.security.NoSuchAlgorithmException nsaex){
+            throw new RuntimeException("Could not access MD5 algorithm, fatal error");
+        }
+    }
+    /**
+     * A server on a plain ServerSocket, it serves one connection at a time as the test scripts it
+     */
+    private abstract static class ScriptedServer {
+        private final ServerSocket serverSocket;
+        private final List requests = Collections.synchronizedList(new ArrayList());
+        private volatile int connections = 0;
+        private volatile Socket socket = null;
+        ScriptedServer() throws IOException{
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread acceptor = new Thread(new Runnable(){
+                public void run(){
+                    accept();
+                }
+            }, "ScriptedServer " + this.serverSocket.getLocalPort());
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        /**
+         * answers the requests of one connection, the connection is closed when it returns
+         * @param connection the number of the connection, from 1
+         */
+        abstract void serve(int connection, InputStream in, OutputStream out) throws IOException;
+        int getPort(){
+            return this.serverSocket.getLocalPort();
+        }
+        int getConnections(){
+            return this.connections;
+        }
+        /**
+         * @return every request read, in order
+         */
+        List getRequests(){
+            return this.requests;
+        }
+        void close() throws IOException{
+            this.serverSocket.close();
+            Socket current = this.socket;
+            if(null != current){
+                current.close();
+            }
+        }
+        /**
+         * @return the next packet on the stream, framed by its Length field
+         * @throws IOException once the client closed the connection
+         */
+        byte[] readPacket(final InputStream in) throws IOException{
+            byte[] header = new byte[4];
+            ScriptedServer.readFully(in, header, 0, 4);
+            int length = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+            byte[] packet = new byte[length];
+            System.arraycopy(header, 0, packet, 0, 4);
+            ScriptedServer.readFully(in, packet, 4, length - 4);
+            this.requests.add(packet);
+            return packet;
+        }
+        private void accept(){
+            while(!this.serverSocket.isClosed()){
+                try{
+                    Socket accepted = this.serverSocket.accept();
+                    this.socket = accepted;
+                    this.connections++;
+                    try{
+                        accepted.setTcpNoDelay(true);
+                        this.serve(this.connections, accepted.getInputStream(), accepted.getOutputStream());
+                    }catch(IOException ioex){
+                        //the client closed it
+                    }finally{
+                        accepted.close();
+                    }
+                }catch(IOException ioex){
+                    //closed by the test
+                }
+            }
+        }
+        private static void readFully(final InputStream in, final byte[] buffer, final int offset, final int length)
+                throws IOException{
+            int read = 0;
+            while(read < length){
+                int count = in.read(buffer, offset + read, length - read);
+                if(count < 0){
+                    throw new IOException("Connection closed by the client.");
+                }
+                read += count;
+            }
+        }
+    }
+}
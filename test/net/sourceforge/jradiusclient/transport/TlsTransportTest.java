@@ -0,0 +1,232 @@
+package net.sourceforge.jradiusclient.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+import net.sourceforge.jradiusclient.RadiusAttribute;
+import net.sourceforge.jradiusclient.RadiusAttributeValues;
+import net.sourceforge.jradiusclient.RadiusClient;
+import net.sourceforge.jradiusclient.RadiusFuture;
+import net.sourceforge.jradiusclient.RadiusPacket;
+import net.sourceforge.jradiusclient.exception.RadiusException;
+import net.sourceforge.jradiusclient.server.LoopbackRadiusServer;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Released under the LGPL<BR>
+ * Runs a <code>TlsTransport</code> against a <code>LoopbackRadiusServer</code> listening for TLS
+ * with the self-signed certificates of radsec.jks: requests pipelined over a connection, and the
+ * checks that the server's certificate is trusted and names the host, by IP address, DNS name,
+ * wildcard or common name, or by a HostnameVerifier given to the transport.
+ * @author <a href="mailto:bloihl@users.sourceforge.net">Robert J. Loihl</a>
+ * @version $Revision: 1.1 $
+ */
+public class TlsTransportTest {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static KeyStore keyStore;
+    private final List servers = new ArrayList();
+    private final List clients = new ArrayList();
+    private final Map tlsPorts = new HashMap();
+    @BeforeClass
+    public static void loadKeyStore() throws Exception{
+        keyStore = KeyStore.getInstance("JKS");
+        InputStream in = TlsTransportTest.class.getResourceAsStream("radsec.jks");
+        try{
+            keyStore.load(in, PASSWORD);
+        }finally{
+            in.close();
+        }
+    }
+    @After
+    public void tearDown(){
+        for(Iterator i = this.clients.iterator(); i.hasNext();){
+            ((RadiusClient)i.next()).close();
+        }
+        for(Iterator i = this.servers.iterator(); i.hasNext();){
+            ((LoopbackRadiusServer)i.next()).close();
+        }
+    }
+    @Test
+    public void pipelinesRequestsOverOneConnection() throws Exception{
+        LoopbackRadiusServer server = this.newServer("address");
+        server.addUser("bob", "secret");
+        RadiusClient client = this.newClient(server, new TlsTransport(TlsTransportTest.clientContext()));
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, client.authenticate(TlsTransportTest.accessRequest("secret")).getPacketType());
+        RadiusFuture[] futures = new RadiusFuture[200];
+        for(int i = 0; i < futures.length; i++){
+            futures[i] = client.authenticateAsync(TlsTransportTest.accessRequest((i % 10 == 0) ? "wrong" : "secret"));
+        }
+        int accepted = 0;
+        for(int i = 0; i < futures.length; i++){
+            if(futures[i].getResponse().getPacketType() == RadiusPacket.ACCESS_ACCEPT){
+                accepted++;
+            }
+        }
+        assertEquals(180, accepted);
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, client.statusServer(false).getPacketType());
+        //nothing is retransmitted over a stream
+        assertEquals(futures.length + 2, server.getRequestsReceived());
+    }
+    @Test
+    public void rejectsACertificateForAnotherHost() throws Exception{
+        LoopbackRadiusServer server = this.newServer("name");
+        RadiusClient client = this.newClient(server, new TlsTransport(TlsTransportTest.clientContext()));
+        try{
+            client.authenticate(TlsTransportTest.accessRequest("secret"));
+            fail("trusted a certificate for radius.example.com at 127.0.0.1");
+        }catch(RadiusException rex){
+            assertEquals("Certificate of the RADIUS Server does not identify 127.0.0.1", rex.getMessage());
+        }
+        assertEquals(0, server.getRequestsReceived());
+    }
+    @Test
+    public void rejectsAnUntrustedCertificate() throws Exception{
+        LoopbackRadiusServer server = this.newServer("address");
+        //trusts the other certificates only
+        KeyStore trusted = KeyStore.getInstance("JKS");
+        trusted.load(null, null);
+        trusted.setCertificateEntry("name", keyStore.getCertificate("name"));
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(trusted);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        this.assertRejected(new TlsTransport(context), InetAddress.getByName("127.0.0.1"), server);
+    }
+    @Test
+    public void matchesTheNamesOfTheCertificate() throws Exception{
+        TlsTransport transport = new TlsTransport(TlsTransportTest.clientContext());
+        LoopbackRadiusServer address = this.newServer("address");
+        this.assertAccepted(transport, InetAddress.getByName("127.0.0.1"), address);
+        //an IP address subjectAltName doesn't name a host, nor does the common name next to it
+        this.assertRejected(transport, TlsTransportTest.loopback("localhost"), address);
+        LoopbackRadiusServer name = this.newServer("name");
+        this.assertAccepted(transport, TlsTransportTest.loopback("radius.example.com"), name);
+        this.assertAccepted(transport, TlsTransportTest.loopback("RADIUS.Example.COM"), name);
+        this.assertRejected(transport, TlsTransportTest.loopback("other.example.com"), name);
+        this.assertRejected(transport, InetAddress.getByName("127.0.0.1"), name);
+    }
+    @Test
+    public void matchesWildcardsOnOneLabel() throws Exception{
+        TlsTransport transport = new TlsTransport(TlsTransportTest.clientContext());
+        LoopbackRadiusServer wildcard = this.newServer("wildcard");
+        this.assertAccepted(transport, TlsTransportTest.loopback("radius.example.com"), wildcard);
+        this.assertRejected(transport, TlsTransportTest.loopback("example.com"), wildcard);
+        this.assertRejected(transport, TlsTransportTest.loopback("a.radius.example.com"), wildcard);
+        //the common name is ignored when there is a DNS subjectAltName
+        this.assertRejected(transport, TlsTransportTest.loopback("ignored.example.net"), wildcard);
+    }
+    @Test
+    public void fallsBackToTheCommonName() throws Exception{
+        TlsTransport transport = new TlsTransport(TlsTransportTest.clientContext());
+        LoopbackRadiusServer common = this.newServer("common");
+        this.assertAccepted(transport, TlsTransportTest.loopback("radius.example.com"), common);
+        this.assertRejected(transport, TlsTransportTest.loopback("other.example.com"), common);
+    }
+    @Test
+    public void letsAHostnameVerifierReplaceTheCheck() throws Exception{
+        final List verified = new ArrayList();
+        TlsTransport lenient = new TlsTransport(TlsTransportTest.clientContext(), new HostnameVerifier(){
+            public boolean verify(String host, SSLSession session){
+                verified.add(host);
+                return true;
+            }
+        });
+        LoopbackRadiusServer server = this.newServer("name");
+        RadiusClient client = this.newClient(server, lenient);
+        assertEquals(RadiusPacket.ACCESS_ACCEPT, client.authenticate(TlsTransportTest.accessRequest("secret")).getPacketType());
+        assertEquals("[127.0.0.1]", verified.toString());
+        TlsTransport strict = new TlsTransport(TlsTransportTest.clientContext(), new HostnameVerifier(){
+            public boolean verify(String host, SSLSession session){
+                return false;
+            }
+        });
+        this.assertRejected(strict, InetAddress.getByName("127.0.0.1"), this.newServer("address"));
+    }
+    /**
+     * @return a server presenting the certificate of one entry of the key store
+     */
+    private LoopbackRadiusServer newServer(final String alias) throws Exception{
+        KeyStore serverKeys = KeyStore.getInstance("JKS");
+        serverKeys.load(null, null);
+        serverKeys.setKeyEntry(alias, keyStore.getKey(alias, PASSWORD), PASSWORD, keyStore.getCertificateChain(alias));
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(serverKeys, PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        LoopbackRadiusServer server = new LoopbackRadiusServer(TlsTransport.RADSEC_SECRET);
+        this.servers.add(server);
+        this.tlsPorts.put(server, Integer.valueOf(server.listenTls(context)));
+        return server;
+    }
+    private RadiusClient newClient(final LoopbackRadiusServer server, final TlsTransport transport) throws Exception{
+        int port = this.tlsPort(server);
+        RadiusClient client = new RadiusClient("127.0.0.1", port, port, TlsTransport.RADSEC_SECRET, 5000, transport);
+        this.clients.add(client);
+        return client;
+    }
+    private int tlsPort(final LoopbackRadiusServer server){
+        return ((Integer)this.tlsPorts.get(server)).intValue();
+    }
+    /**
+     * @return a context trusting every certificate of the key store
+     */
+    private static SSLContext clientContext() throws Exception{
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+    /**
+     * @return the loopback address under a host name, without looking it up
+     */
+    private static InetAddress loopback(final String hostName) throws IOException{
+        return InetAddress.getByAddress(hostName, new byte[]{127, 0, 0, 1});
+    }
+    private void assertAccepted(final TlsTransport transport, final InetAddress server,
+            final LoopbackRadiusServer radiusServer) throws IOException{
+        transport.connect(server, this.tlsPort(radiusServer), new IgnoringHandler()).close();
+    }
+    private void assertRejected(final TlsTransport transport, final InetAddress server,
+            final LoopbackRadiusServer radiusServer){
+        try{
+            transport.connect(server, this.tlsPort(radiusServer), new IgnoringHandler()).close();
+            fail("connected to " + server);
+        }catch(IOException ioex){
+            //expected
+        }
+    }
+    private static RadiusPacket accessRequest(final String password) throws Exception{
+        RadiusPacket request = new RadiusPacket(RadiusPacket.ACCESS_REQUEST);
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_NAME, "bob".getBytes()));
+        request.setAttribute(new RadiusAttribute(RadiusAttributeValues.USER_PASSWORD, password.getBytes()));
+        return request;
+    }
+    /**
+     * a handler for connections that only check the handshake
+     */
+    private static class IgnoringHandler implements RadiusConnectionHandler {
+        public void packetReceived(byte[] packet, int offset, int length){
+            //nothing is sent
+        }
+        public void connectionLost(IOException cause){
+            //closed by the test
+        }
+    }
+}